@@ -114,8 +114,12 @@ public class NativeExecutableCommand extends ExecutableCommand {
 		public void run() {
 			try {
 
-				stdout = new IOStreamConnector(process.getInputStream(), getOutputStream());
-				stderr = new IOStreamConnector(process.getErrorStream(), getStderrOutputStream());
+				stdout = new IOStreamConnector();
+				stdout.setFlushOutput(false);
+				stdout.connect(process.getInputStream(), getOutputStream());
+				stderr = new IOStreamConnector();
+				stderr.setFlushOutput(false);
+				stderr.connect(process.getErrorStream(), getStderrOutputStream());
 
 				exitValue = process.waitFor();
 			} catch (Throwable ex) {
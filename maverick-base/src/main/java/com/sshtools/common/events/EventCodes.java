@@ -141,6 +141,9 @@ public class EventCodes {
 		
 		public static final String ATTRIBUTE_FILE_FACTORY = "FILE_FACTORY";
 		public static final String ATTRIBUTE_MOUNT_MANAGER = "MOUNT_MANAGER";
+		
+		public static final String ATTRIBUTE_METADATA_CACHE_HITS = "METADATA_CACHE_HITS";
+		public static final String ATTRIBUTE_METADATA_CACHE_MISSES = "METADATA_CACHE_MISSES";
 
 		
 		/** Connection attempt **/
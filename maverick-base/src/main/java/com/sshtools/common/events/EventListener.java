@@ -34,4 +34,15 @@ public interface EventListener {
      */
     public void processEvent(Event evt);
 
+    /**
+     * Whether this listener wants events with the given code. Events that no listener 
+     * is interested in may not be created at all. 
+     * 
+     * @param eventCode event code
+     * @return boolean
+     */
+    default boolean isInterestedIn(int eventCode) {
+    	return true;
+    }
+
 }
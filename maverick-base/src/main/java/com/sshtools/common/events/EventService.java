@@ -35,6 +35,14 @@ public interface EventService {
      * @param evt event to fire to all listener
      */
     public void fireEvent(Event evt);
+    
+    /**
+     * Whether any registered EventListener is interested in events with the given code.
+     * @param eventCode event code
+     */
+    default boolean hasListeners(int eventCode) {
+    	return true;
+    }
 
     /**
      * Remove an EventListener
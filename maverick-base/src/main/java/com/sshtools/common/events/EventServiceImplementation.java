@@ -170,6 +170,15 @@ public class EventServiceImplementation implements EventService {
         }
     }
 
+    public boolean hasListeners(int eventCode) {
+    	for(EventListener listener : globalListeners) {
+    		if(listener.isInterestedIn(eventCode)) {
+    			return true;
+    		}
+    	}
+    	return false;
+    }
+
     public void setProcessAllEventsOnEventException(boolean processAllEventsOnEventException) {
     	this.processAllEventsOnEventException = processAllEventsOnEventException;
     }
@@ -22,6 +22,10 @@ package com.sshtools.common.events;
 public interface EventTrigger
 {
     void fireEvent(Event evt);
+    
+    default boolean hasListeners(int eventCode) {
+    	return true;
+    }
 }
 
 
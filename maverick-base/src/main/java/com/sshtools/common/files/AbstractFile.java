@@ -22,6 +22,7 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Iterator;
 import java.util.List;
 
 import com.sshtools.common.permissions.PermissionDeniedException;
@@ -38,6 +39,20 @@ public interface AbstractFile {
 	public abstract List<AbstractFile> getChildren() throws IOException,
 			PermissionDeniedException;
 
+	/**
+	 * Iterate over the children of this directory without loading them all into memory
+	 * first. Iterators that hold an open directory also implement {@link java.io.Closeable}
+	 * and should be closed when no longer required.
+	 * 
+	 * @return iterator
+	 * @throws IOException
+	 * @throws PermissionDeniedException
+	 */
+	default Iterator<AbstractFile> getChildIterator() throws IOException,
+			PermissionDeniedException {
+		return getChildren().iterator();
+	}
+
 	public abstract String getAbsolutePath() throws IOException, PermissionDeniedException;
 
 	public abstract boolean isDirectory() throws IOException, PermissionDeniedException;
@@ -19,6 +19,8 @@
 package com.sshtools.common.files;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 public interface AbstractFileRandomAccess {
 	public int read(byte[] buf, int off, int len) throws IOException;
@@ -27,4 +29,85 @@ public interface AbstractFileRandomAccess {
 	public void seek(long position) throws IOException;
 	public void close() throws IOException;
 	public long getFilePointer() throws IOException;
+	
+	/**
+	 * Does this implementation read and write at a position without using the file pointer. 
+	 * When it does, requests for different positions may be served concurrently.
+	 * 
+	 * @return boolean
+	 */
+	default boolean supportsPositionalAccess() {
+		return false;
+	}
+	
+	/**
+	 * Force any data written to this file to the storage device.
+	 * 
+	 * @throws IOException
+	 * @throws UnsupportedOperationException if the file cannot be synchronized
+	 */
+	default void sync() throws IOException {
+		throw new UnsupportedOperationException("This file does not support sync");
+	}
+	
+	/**
+	 * The FileChannel backing this file, if there is one. When both ends of a copy
+	 * have a channel the data can be transferred by the operating system.
+	 * 
+	 * @return FileChannel or null
+	 */
+	default FileChannel getChannel() {
+		return null;
+	}
+	
+	/**
+	 * Read into the buffer from the given position. The default implementation seeks
+	 * and reads while holding the lock on this object.
+	 * 
+	 * @param position
+	 * @param buf
+	 * @return the number of bytes read, or -1 at EOF
+	 * @throws IOException
+	 */
+	default int read(long position, ByteBuffer buf) throws IOException {
+		synchronized(this) {
+			seek(position);
+			int r;
+			if(buf.hasArray()) {
+				r = read(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+				if(r > 0) {
+					buf.position(buf.position() + r);
+				}
+			} else {
+				byte[] tmp = new byte[buf.remaining()];
+				r = read(tmp, 0, tmp.length);
+				if(r > 0) {
+					buf.put(tmp, 0, r);
+				}
+			}
+			return r;
+		}
+	}
+	
+	/**
+	 * Write all of the buffer at the given position. The default implementation seeks
+	 * and writes while holding the lock on this object.
+	 * 
+	 * @param position
+	 * @param buf
+	 * @throws IOException
+	 */
+	default void write(long position, ByteBuffer buf) throws IOException {
+		synchronized(this) {
+			seek(position);
+			if(buf.hasArray()) {
+				write(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+				buf.position(buf.limit());
+			} else {
+				byte[] tmp = new byte[buf.remaining()];
+				buf.get(tmp);
+				write(tmp, 0, tmp.length);
+			}
+		}
+	}
 }
@@ -21,16 +21,47 @@ package com.sshtools.common.files;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 public class RandomAccessImpl implements AbstractFileRandomAccess {
 	
 	protected RandomAccessFile raf;
+	protected FileChannel channel;
 	protected File f;
 	
 	public RandomAccessImpl(File f, boolean writeAccess) throws IOException {
 		this.f = f;
 		String mode = "r" + (writeAccess ? "w" : "");
 		raf = new RandomAccessFile(f, mode);
+		channel = raf.getChannel();
+	}
+	
+	@Override
+	public boolean supportsPositionalAccess() {
+		return true;
+	}
+	
+	@Override
+	public void sync() throws IOException {
+		channel.force(true);
+	}
+	
+	@Override
+	public FileChannel getChannel() {
+		return channel;
+	}
+	
+	@Override
+	public int read(long position, ByteBuffer buf) throws IOException {
+		return channel.read(buf, position);
+	}
+	
+	@Override
+	public void write(long position, ByteBuffer buf) throws IOException {
+		while(buf.hasRemaining()) {
+			position += channel.write(buf, position);
+		}
 	}
 	public void write(int b) throws IOException {
 		raf.write(b);
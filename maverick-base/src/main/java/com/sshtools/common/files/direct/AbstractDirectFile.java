@@ -52,6 +52,17 @@ public abstract class AbstractDirectFile<T extends AbstractDirectFile<T>> extend
 		
 		hidden = f.getName().startsWith(".");
 	}
+	
+	/**
+	 * Create a file for a path that is already known to exist, such as a directory entry, 
+	 * without reading its attributes.
+	 */
+	protected AbstractDirectFile(File f, AbstractFileFactory<T> fileFactory, File homeDir) {
+		super(fileFactory);
+		this.homeDir = homeDir;
+		this.f = f;
+		hidden = f.getName().startsWith(".");
+	}
 
 	
 	public boolean exists() {
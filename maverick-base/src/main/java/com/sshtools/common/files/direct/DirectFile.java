@@ -35,6 +35,10 @@ public class DirectFile extends AbstractDirectFile<DirectFile> {
 	public DirectFile(String path, AbstractFileFactory<DirectFile> fileFactory, File homeDir) throws IOException {
 		super(path, fileFactory, homeDir);
 	}
+	
+	protected DirectFile(File f, AbstractFileFactory<DirectFile> fileFactory, File homeDir) {
+		super(f, fileFactory, homeDir);
+	}
 
 	public SftpFileAttributes getAttributes() throws IOException {
 		
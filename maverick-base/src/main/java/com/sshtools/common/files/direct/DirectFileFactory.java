@@ -20,43 +20,38 @@ package com.sshtools.common.files.direct;
 
 import java.io.File;
 import java.io.IOException;
-import java.lang.reflect.Constructor;
 
 import com.sshtools.common.events.Event;
-import com.sshtools.common.files.AbstractFileFactory;
-import com.sshtools.common.logger.Log;
 import com.sshtools.common.permissions.PermissionDeniedException;
 
-@SuppressWarnings({ "unchecked", "static-access" })
 public class DirectFileFactory extends AbstractDirectFileFactory<DirectFile> {
 
 	File defaultPath = new File(".");
-	static Class<DirectFile> clz = null;
-	static Constructor<DirectFile> constructor = null;
-	static {
-		
-		try {
-			clz = (Class<DirectFile>)DirectFileFactory.class.forName("com.sshtools.common.files.direct.DirectFileJava7");
-			constructor = clz.getConstructor(String.class, AbstractFileFactory.class, String.class);
-		} catch (Throwable e) {
-			Log.warn("Falling back to simple DirectFile implementation as current version of Java does not appear to support Path and FileAttributes APIs");
-		}
-	}
+	boolean java7Files;
 	
 	public DirectFileFactory(File homeDirectory) {
+		this(homeDirectory, false);
+	}
+	
+	/**
+	 * Create a factory that optionally uses {@link DirectFileJava7}, which reads attributes 
+	 * through the NIO file attribute views and streams directory listings rather than 
+	 * reading every child up front.
+	 * 
+	 * @param homeDirectory
+	 * @param java7Files
+	 */
+	public DirectFileFactory(File homeDirectory, boolean java7Files) {
 		super(homeDirectory);
+		this.java7Files = java7Files;
 	}
 	
 	public DirectFile getFile(String path)
 			throws PermissionDeniedException, IOException {
 		
-		if(constructor!=null) {
-			try {
-				return constructor.newInstance(path, this, homeDirectory);
-			} catch (Throwable e) {
-				e.printStackTrace();
-			}
-		} 
+		if(java7Files) {
+			return new DirectFileJava7(path, this, homeDirectory);
+		}
 		
 		return new DirectFile(path, this, homeDirectory);
 		
@@ -18,18 +18,22 @@
  */
 package com.sshtools.common.files.direct;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.nio.file.FileSystems;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.DosFileAttributes;
 import java.nio.file.attribute.PosixFileAttributes;
 import java.nio.file.attribute.PosixFilePermissions;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 
 import com.sshtools.common.files.AbstractFile;
 import com.sshtools.common.files.AbstractFileFactory;
@@ -42,66 +46,71 @@ public class DirectFileJava7 extends DirectFile {
 	public DirectFileJava7(String path, AbstractFileFactory<DirectFile> fileFactory, File homeDir) throws IOException {
 		super(path, fileFactory, homeDir);
 	}
+	
+	DirectFileJava7(File f, AbstractFileFactory<DirectFile> fileFactory, File homeDir) {
+		super(f, fileFactory, homeDir);
+	}
 
 	public SftpFileAttributes getAttributes() throws IOException {
 		
-		if(!f.exists())
-			throw new FileNotFoundException();
-		
-		
-		Path file = FileSystems.getDefault().getPath(f.getAbsolutePath());
-		
-		BasicFileAttributes attr = Files.readAttributes(file, BasicFileAttributes.class);
+		Path file = f.toPath();
+		BasicFileAttributes attr = readAttributes(file);
 		SftpFileAttributes attrs = new SftpFileAttributes(getFileType(attr), "UTF-8");
 		
-		try {
+		attrs.setTimes(new UnsignedInteger64(attr.lastAccessTime().toMillis() / 1000), 
+				new UnsignedInteger64(attr.lastModifiedTime().toMillis() / 1000));
 		
-			attrs.setTimes(new UnsignedInteger64(attr.lastAccessTime().toMillis() / 1000), 
-					new UnsignedInteger64(attr.lastModifiedTime().toMillis() / 1000));
-			
-			attrs.setSize(new UnsignedInteger64(attr.size()));
-
-			try {
-				PosixFileAttributes posix =  Files.readAttributes(file, PosixFileAttributes.class);
-				
-				attrs.setGID(posix.group().getName());
-				attrs.setUID(posix.owner().getName());
-				
-				attrs.setPermissions(PosixFilePermissions.toString(posix.permissions()));
-				
-				hidden = f.getName().startsWith(".");
-
-				// We return now as we have enough information
-				return attrs;
-				
-			} catch (UnsupportedOperationException | IOException e) {
-			}
+		attrs.setSize(new UnsignedInteger64(attr.size()));
 
+		if(attr instanceof PosixFileAttributes) {
+			PosixFileAttributes posix = (PosixFileAttributes) attr;
 			
-			try {
-				DosFileAttributes dos = Files.readAttributes(file,
-							DosFileAttributes.class);
+			attrs.setGID(posix.group().getName());
+			attrs.setUID(posix.owner().getName());
 			
-				hidden = dos.isHidden();
+			attrs.setPermissions(PosixFilePermissions.toString(posix.permissions()));
 			
-				String read = "r";
-				String write = dos.isReadOnly() ? "-" : "w";
-				String exe = (f.getName().endsWith(".exe") 
-						|| f.getName().endsWith(".com") 
-						|| f.getName().endsWith(".cmd")) ? "x" : "-";
-				
-				attrs.setPermissions(read + write + exe + read + write + exe + read + write + exe);
-		
-			} catch(UnsupportedOperationException | IOException e) {
-			}
+			hidden = f.getName().startsWith(".");
 			
+		} else if(attr instanceof DosFileAttributes) {
+			DosFileAttributes dos = (DosFileAttributes) attr;
+		
+			hidden = dos.isHidden();
+		
+			String read = "r";
+			String write = dos.isReadOnly() ? "-" : "w";
+			String exe = (f.getName().endsWith(".exe") 
+					|| f.getName().endsWith(".com") 
+					|| f.getName().endsWith(".cmd")) ? "x" : "-";
 			
-		} catch (UnsupportedOperationException e) {
+			attrs.setPermissions(read + write + exe + read + write + exe + read + write + exe);
 		}
 		
 		return attrs;
-		  
-	    
+	}
+
+	/**
+	 * Read all the attributes we need with a single call, using the most detailed 
+	 * view the file system supports. As before, failing to read the posix or dos view 
+	 * falls back to the basic attributes rather than failing the request.
+	 */
+	private BasicFileAttributes readAttributes(Path file) throws IOException {
+		
+		Set<String> views = file.getFileSystem().supportedFileAttributeViews();
+		
+		try {
+			try {
+				if(views.contains("posix")) {
+					return Files.readAttributes(file, PosixFileAttributes.class);
+				} else if(views.contains("dos")) {
+					return Files.readAttributes(file, DosFileAttributes.class);
+				}
+			} catch(UnsupportedOperationException | IOException e) {
+			}
+			return Files.readAttributes(file, BasicFileAttributes.class);
+		} catch(NoSuchFileException e) {
+			throw new FileNotFoundException();
+		}
 	}
 
 	private int getFileType(BasicFileAttributes attr) {
@@ -127,8 +136,38 @@ public class DirectFileJava7 extends DirectFile {
 		return files2;
 	}
 
+	public Iterator<AbstractFile> getChildIterator() throws IOException {
+		return new ChildIterator(Files.newDirectoryStream(f.toPath()));
+	}
+
 	public AbstractFile resolveFile(String child) throws IOException,
 			PermissionDeniedException {
 		return new DirectFileJava7(new File(f, child).getAbsolutePath(), fileFactory, homeDir);
 	}
+
+	class ChildIterator implements Iterator<AbstractFile>, Closeable {
+		
+		DirectoryStream<Path> stream;
+		Iterator<Path> it;
+		
+		ChildIterator(DirectoryStream<Path> stream) {
+			this.stream = stream;
+			this.it = stream.iterator();
+		}
+		
+		@Override
+		public boolean hasNext() {
+			return it.hasNext();
+		}
+
+		@Override
+		public AbstractFile next() {
+			return new DirectFileJava7(it.next().toFile(), fileFactory, homeDir);
+		}
+
+		@Override
+		public void close() throws IOException {
+			stream.close();
+		}
+	}
 }
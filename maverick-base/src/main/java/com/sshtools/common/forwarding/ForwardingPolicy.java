@@ -37,6 +37,8 @@ public class ForwardingPolicy extends Permissions {
 	private int forwardingMaxPacketSize = 65536;
 	private int forwardingMaxWindowSize = 65536 * 5;
 	private int forwardingMinWindowSize = 32768;
+	private boolean forwardingDirectBuffers = false;
+	private boolean optimisticChannelOpen = false;
 	
 	public ForwardingPolicy() {
 	}
@@ -172,6 +174,36 @@ public class ForwardingPolicy extends Permissions {
 	public void setForwardingMinWindowSize(int forwardingMinWindowSize) {
 		this.forwardingMinWindowSize = forwardingMinWindowSize;
 	}
+
+	public boolean isForwardingDirectBuffers() {
+		return forwardingDirectBuffers;
+	}
+
+	/**
+	 * Use direct byte buffers for data read from forwarded sockets. The buffers are
+	 * pooled and passed to the channel without an intermediate copy.
+	 * 
+	 * @param forwardingDirectBuffers
+	 */
+	public void setForwardingDirectBuffers(boolean forwardingDirectBuffers) {
+		this.forwardingDirectBuffers = forwardingDirectBuffers;
+	}
+
+	public boolean isOptimisticChannelOpen() {
+		return optimisticChannelOpen;
+	}
+
+	/**
+	 * Start reading from a locally accepted socket as soon as the channel open request
+	 * has been sent, rather than waiting for the confirmation. Data read while the open
+	 * is in flight is queued and sent as soon as the channel is confirmed. If the open 
+	 * fails the socket is reset.
+	 * 
+	 * @param optimisticChannelOpen
+	 */
+	public void setOptimisticChannelOpen(boolean optimisticChannelOpen) {
+		this.optimisticChannelOpen = optimisticChannelOpen;
+	}
 	
 	
 }
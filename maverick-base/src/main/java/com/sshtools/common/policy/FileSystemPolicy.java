@@ -22,12 +22,15 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
 import com.sshtools.common.files.AbstractFileFactory;
 import com.sshtools.common.permissions.PermissionDeniedException;
 import com.sshtools.common.permissions.Permissions;
+import com.sshtools.common.sftp.MetadataCache;
 import com.sshtools.common.sftp.SftpExtension;
 import com.sshtools.common.sftp.SftpExtensionFactory;
 import com.sshtools.common.sftp.extensions.DefaultSftpExtensionFactory;
@@ -45,6 +48,17 @@ public class FileSystemPolicy extends Permissions {
 	boolean scpReadWriteEvents = false;
 	int maxConcurrentTransfers = 50;
 	int maximumSftpRequests = 10;
+	boolean sftpParallelRequests = false;
+	int sftpReadAheadBlockSize = 65536;
+	int sftpReadAheadDepth = 0;
+	int sftpWriteBehindBufferSize = 0;
+	int sftpMaxDirectoryEntries = 1000;
+	int sftpDirectoryAttributeThreads = 0;
+	int sftpCheckFileThreads = 0;
+	long sftpMetadataCacheTTL = 0;
+	int sftpMetadataCacheSize = 1000;
+	boolean sftpSharedMetadataCache = false;
+	Map<String,SharedMetadataCache> sharedMetadataCaches = new HashMap<String,SharedMetadataCache>();
 	String sftpLongnameDateFormat = "MMM dd  yyyy";
 	String sftpLongnameDateFormatWithTime = "MMM dd HH:mm";
 	List<SftpExtensionFactory> sftpExtensionFactories = new ArrayList<SftpExtensionFactory>();
@@ -168,6 +182,206 @@ public class FileSystemPolicy extends Permissions {
 		this.maximumSftpRequests = maximumSftpRequests;
 	}
 
+	public boolean isSFTPParallelRequests() {
+		return sftpParallelRequests;
+	}
+	
+	/**
+	 * Process SFTP requests on different handles and paths concurrently, up to 
+	 * {@link #getMaximumNumberOfAsyncSFTPRequests()} per session. Requests on the 
+	 * same handle or path are always processed in the order they were received.
+	 * 
+	 * @param sftpParallelRequests
+	 */
+	public void setSFTPParallelRequests(boolean sftpParallelRequests) {
+		this.sftpParallelRequests = sftpParallelRequests;
+	}
+
+	public int getSFTPReadAheadBlockSize() {
+		return sftpReadAheadBlockSize;
+	}
+	
+	/**
+	 * The size of each block prefetched when a file is being read sequentially.
+	 * 
+	 * @param sftpReadAheadBlockSize
+	 */
+	public void setSFTPReadAheadBlockSize(int sftpReadAheadBlockSize) {
+		this.sftpReadAheadBlockSize = sftpReadAheadBlockSize;
+	}
+	
+	public int getSFTPReadAheadDepth() {
+		return sftpReadAheadDepth;
+	}
+	
+	/**
+	 * The number of blocks to prefetch ahead of a client that is reading a file 
+	 * sequentially. Zero, the default, disables read ahead.
+	 * 
+	 * @param sftpReadAheadDepth
+	 */
+	public void setSFTPReadAheadDepth(int sftpReadAheadDepth) {
+		this.sftpReadAheadDepth = sftpReadAheadDepth;
+	}
+	
+	public int getSFTPWriteBehindBufferSize() {
+		return sftpWriteBehindBufferSize;
+	}
+	
+	/**
+	 * Acknowledge SFTP writes once they have been buffered, collecting contiguous writes 
+	 * into buffers of this size that are written to the file in the background. Errors 
+	 * are reported on the next request for the handle or when it is closed. Zero, the 
+	 * default, writes each request before it is acknowledged.
+	 * 
+	 * @param sftpWriteBehindBufferSize
+	 */
+	public void setSFTPWriteBehindBufferSize(int sftpWriteBehindBufferSize) {
+		this.sftpWriteBehindBufferSize = sftpWriteBehindBufferSize;
+	}
+
+	public int getSFTPMaxDirectoryEntries() {
+		return sftpMaxDirectoryEntries;
+	}
+	
+	/**
+	 * The maximum number of entries returned in a single SSH_FXP_NAME reply to a directory 
+	 * read. Replies are also limited to the maximum packet size of the client's channel.
+	 * 
+	 * @param sftpMaxDirectoryEntries
+	 */
+	public void setSFTPMaxDirectoryEntries(int sftpMaxDirectoryEntries) {
+		this.sftpMaxDirectoryEntries = sftpMaxDirectoryEntries;
+	}
+	
+	public int getSFTPDirectoryAttributeThreads() {
+		return sftpDirectoryAttributeThreads;
+	}
+	
+	/**
+	 * The number of threads used to read the attributes of each batch of directory entries. 
+	 * This can improve listing times on file systems where each attribute read has a high 
+	 * latency. Zero, the default, reads them on the thread processing the request.
+	 * 
+	 * @param sftpDirectoryAttributeThreads
+	 */
+	public void setSFTPDirectoryAttributeThreads(int sftpDirectoryAttributeThreads) {
+		this.sftpDirectoryAttributeThreads = sftpDirectoryAttributeThreads;
+	}
+	
+	public int getSFTPCheckFileThreads() {
+		return sftpCheckFileThreads;
+	}
+	
+	/**
+	 * The number of threads used to hash the blocks of a check-file request. Blocks are 
+	 * only hashed in parallel when the file supports positional reads. Zero, the default, 
+	 * hashes every block on the thread processing the request.
+	 * 
+	 * @param sftpCheckFileThreads
+	 */
+	public void setSFTPCheckFileThreads(int sftpCheckFileThreads) {
+		this.sftpCheckFileThreads = sftpCheckFileThreads;
+	}
+
+	public long getSFTPMetadataCacheTTL() {
+		return sftpMetadataCacheTTL;
+	}
+	
+	/**
+	 * Cache file attributes and real paths for this many milliseconds so that repeated 
+	 * STAT, LSTAT and REALPATH requests do not go to the file system each time. Entries 
+	 * are invalidated by changes made through the file system. Zero, the default, 
+	 * disables the cache.
+	 * 
+	 * @param sftpMetadataCacheTTL
+	 */
+	public void setSFTPMetadataCacheTTL(long sftpMetadataCacheTTL) {
+		this.sftpMetadataCacheTTL = sftpMetadataCacheTTL;
+	}
+	
+	public int getSFTPMetadataCacheSize() {
+		return sftpMetadataCacheSize;
+	}
+	
+	/**
+	 * The maximum number of entries held in each metadata cache.
+	 * 
+	 * @param sftpMetadataCacheSize
+	 */
+	public void setSFTPMetadataCacheSize(int sftpMetadataCacheSize) {
+		this.sftpMetadataCacheSize = sftpMetadataCacheSize;
+	}
+	
+	public boolean isSFTPSharedMetadataCache() {
+		return sftpSharedMetadataCache;
+	}
+	
+	/**
+	 * Share a single metadata cache between all sessions of the same user instead of 
+	 * creating one for each session. Changes made in one session invalidate the entries 
+	 * seen by the others.
+	 * 
+	 * @param sftpSharedMetadataCache
+	 */
+	public void setSFTPSharedMetadataCache(boolean sftpSharedMetadataCache) {
+		this.sftpSharedMetadataCache = sftpSharedMetadataCache;
+	}
+	
+	/**
+	 * Get the metadata cache for a connection, or null if caching is disabled. Release it 
+	 * with {@link #releaseMetadataCache(SshConnection, MetadataCache)} when the file system 
+	 * using it is closed.
+	 * 
+	 * @param con
+	 * @return MetadataCache
+	 */
+	public MetadataCache getMetadataCache(SshConnection con) {
+		if(sftpMetadataCacheTTL <= 0) {
+			return null;
+		}
+		if(!sftpSharedMetadataCache) {
+			return new MetadataCache(sftpMetadataCacheTTL, sftpMetadataCacheSize);
+		}
+		synchronized(sharedMetadataCaches) {
+			SharedMetadataCache shared = sharedMetadataCaches.get(con.getUsername());
+			if(Objects.isNull(shared)) {
+				shared = new SharedMetadataCache(new MetadataCache(sftpMetadataCacheTTL, sftpMetadataCacheSize));
+				sharedMetadataCaches.put(con.getUsername(), shared);
+			}
+			shared.references++;
+			return shared.cache;
+		}
+	}
+	
+	/**
+	 * Release a metadata cache obtained from {@link #getMetadataCache(SshConnection)}. A 
+	 * shared cache is discarded once every file system of its user has released it.
+	 * 
+	 * @param con
+	 * @param cache
+	 */
+	public void releaseMetadataCache(SshConnection con, MetadataCache cache) {
+		if(Objects.isNull(cache)) {
+			return;
+		}
+		synchronized(sharedMetadataCaches) {
+			SharedMetadataCache shared = sharedMetadataCaches.get(con.getUsername());
+			if(Objects.nonNull(shared) && shared.cache == cache && --shared.references <= 0) {
+				sharedMetadataCaches.remove(con.getUsername());
+			}
+		}
+	}
+	
+	static class SharedMetadataCache {
+		final MetadataCache cache;
+		int references;
+		
+		SharedMetadataCache(MetadataCache cache) {
+			this.cache = cache;
+		}
+	}
+
 	public String getSFTPLongnameDateFormat() {
 		return sftpLongnameDateFormat; //"MMM dd yyyy";
 	}
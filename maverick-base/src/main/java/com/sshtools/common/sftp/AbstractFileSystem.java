@@ -19,21 +19,27 @@
 /* HEADER */
 package com.sshtools.common.sftp;
 
+import java.io.Closeable;
 import java.io.EOFException;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
-import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.DirectoryIteratorException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.Map;
+import java.util.List;
 import java.util.Objects;
 import java.util.Set;
-import java.util.UUID;
-import java.util.Vector;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import com.sshtools.common.events.Event;
 import com.sshtools.common.events.EventCodes;
@@ -44,7 +50,7 @@ import com.sshtools.common.logger.Log;
 import com.sshtools.common.permissions.PermissionDeniedException;
 import com.sshtools.common.policy.FileSystemPolicy;
 import com.sshtools.common.ssh.SshConnection;
-import com.sshtools.common.ssh.SshIOException;
+import com.sshtools.common.util.ByteBufferPool;
 import com.sshtools.common.util.FileUtils;
 import com.sshtools.common.util.UnsignedInteger32;
 import com.sshtools.common.util.UnsignedInteger64;
@@ -87,25 +93,31 @@ public final class AbstractFileSystem {
      * it to the canoncial newline convention in use.
      */
     public static final int OPEN_TEXT = 0x00000040;
+
+    private static final int COPY_BUFFER_SIZE = 65536;
     
     public static final String AUTHORIZED_KEYS_STORE = "authorized_keys";
     public static final String SFTP = "sftp";
     public static final String SCP = "scp";
 	public static final String SHELL = "shell";
 	
-	protected Map<String, OpenFile> openFiles = new ConcurrentHashMap<String, OpenFile>(8, 0.9f, 1);
-	protected Map<String, OpenDirectory> openDirectories = new ConcurrentHashMap<String, OpenDirectory>(8, 0.9f, 1);
+	protected HandleTable<Object> openHandles = new HandleTable<Object>();
 	protected AbstractFileFactory<?> fileFactory;
 
 	static Set<String> defaultPaths = new HashSet<String>(Arrays.asList("", ".", "./"));
 
 	final SshConnection con;
 	final String protocolInUse;
+	ByteBufferPool readAheadPool;
+	ByteBufferPool writeBehindPool;
+	MetadataCache metadataCache;
+	boolean metadataCacheReleased;
 
 	public AbstractFileSystem(SshConnection con, String protocolInUse) throws IOException, PermissionDeniedException {
 		this.fileFactory = con.getContext().getPolicy(FileSystemPolicy.class).getFileFactory().getFileFactory(con);
 		this.con = con;
 		this.protocolInUse = protocolInUse;
+		this.metadataCache = con.getContext().getPolicy(FileSystemPolicy.class).getMetadataCache(con);
 
 		if(Log.isDebugEnabled())
 			Log.debug("Completed Abstract File System Initialization");
@@ -132,30 +144,25 @@ public final class AbstractFileSystem {
 	}
 
 	public void closeFilesystem() {
-		String obj;
-		for (Iterator<String> it = openFiles.keySet().iterator(); it.hasNext();) {
-			obj = it.next();
+		for (Object obj : openHandles.values()) {
 			try {
-				closeFile(obj, false);
-			} catch (Exception ex) {
-				if(Log.isErrorEnabled()) {
-					Log.error("Error closing file", ex);
+				if(obj instanceof OpenFile) {
+					((OpenFile)obj).close();
+				} else {
+					((OpenDirectory)obj).close();
 				}
-			}
-			it.remove();
-		}
-		for (Iterator<String> it = openDirectories.keySet().iterator(); it.hasNext();) {
-			obj = it.next();
-			try {
-				closeFile(obj, false);
 			} catch (Exception ex) {
 				if(Log.isErrorEnabled()) {
-					Log.error("Error closing directory", ex);
+					Log.error("Error closing " + (obj instanceof OpenFile ? "file" : "directory"), ex);
 				}
 			}
-			it.remove();
 		}
+		openHandles.clear();
 
+		if(Objects.nonNull(metadataCache) && !metadataCacheReleased) {
+			metadataCacheReleased = true;
+			con.getContext().getPolicy(FileSystemPolicy.class).releaseMetadataCache(con, metadataCache);
+		}
 	}
 
 	public boolean makeDirectory(String path, SftpFileAttributes attrs)
@@ -176,6 +183,8 @@ public final class AbstractFileSystem {
 		
 		AbstractFile f = resolveFile(path, con);
 		
+		invalidateMetadata(path);
+		invalidateParentAttributes(f);
 		if (f.createFolder()) {
 			f.setAttributes(attrs);
 
@@ -188,14 +197,14 @@ public final class AbstractFileSystem {
 
 	public SftpFileAttributes getFileAttributes(byte[] handle)
 			throws IOException, InvalidHandleException, PermissionDeniedException {
-		String shandle = getHandle(handle);
+		OpenFile f = getOpenFile(handle);
 
-		if (openFiles.containsKey(shandle)) {
-			OpenFile f = openFiles.get(shandle);
+		if (f != null) {
 
 			if(Log.isDebugEnabled())
 				Log.debug("Getting file attributes for " + f.getFile().getAbsolutePath());
 
+			f.flushWrites();
 			return f.getFile().getAttributes();
 		}
 		throw new InvalidHandleException("The handle is invalid 1");
@@ -206,8 +215,20 @@ public final class AbstractFileSystem {
 
 		if(Log.isDebugEnabled())
 			Log.debug("Getting file attributes for " + path);
+		
+		if(Objects.nonNull(metadataCache)) {
+			SftpFileAttributes attrs = metadataCache.getAttributes(path);
+			if(Objects.nonNull(attrs)) {
+				return attrs;
+			}
+		}
+		
 		AbstractFile f = resolveFile(path, con);
-		return f.getAttributes();
+		SftpFileAttributes attrs = f.getAttributes();
+		if(Objects.nonNull(metadataCache)) {
+			metadataCache.putAttributes(path, attrs);
+		}
+		return attrs;
 	}
 
 	public byte[] openDirectory(String path) throws PermissionDeniedException, FileNotFoundException, IOException {
@@ -227,9 +248,7 @@ public final class AbstractFileSystem {
 		
 		if (f.exists()) {
 			if (f.isDirectory()) {
-				byte[] handle = createHandle();
-				openDirectories.put(getHandle(handle), new OpenDirectory(f, filter));
-				return handle;
+				return openHandles.allocate(new OpenDirectory(path, f, filter));
 			}
 
 			throw new IOException(path + " is not a directory");
@@ -238,72 +257,111 @@ public final class AbstractFileSystem {
 
 	}
 
-	private byte[] createHandle() throws UnsupportedEncodingException, IOException, SshIOException {
-		return UUID.randomUUID().toString().getBytes("UTF-8");
+	private OpenFile getOpenFile(byte[] handle) {
+		return getOpenFile(handle, 0, handle.length);
 	}
-
-	protected byte[] getHandle(String handle) {
-		try {
-			return handle.getBytes("UTF-8");
-		} catch (UnsupportedEncodingException e) {
-			throw new IllegalStateException("Your system appears not to support UTF-8!");
-		}
+	
+	private OpenFile getOpenFile(byte[] buf, int off, int len) {
+		Object obj = openHandles.get(buf, off, len);
+		return obj instanceof OpenFile ? (OpenFile) obj : null;
 	}
 	
-	protected String getHandle(byte[] b) {
-		try {
-			return new String(b, "UTF-8");
-		} catch (UnsupportedEncodingException e) {
-			throw new IllegalStateException("Your system appears not to support UTF-8!");
-		}
-		
+	private OpenDirectory getOpenDirectory(byte[] handle) {
+		Object obj = openHandles.get(handle);
+		return obj instanceof OpenDirectory ? (OpenDirectory) obj : null;
 	}
 
 	public SftpFile[] readDirectory(byte[] handle)
 			throws InvalidHandleException, EOFException, IOException, PermissionDeniedException {
+		return readDirectory(handle, con.getContext().getPolicy(FileSystemPolicy.class).getSftpMaxPacketSize());
+	}
+	
+	/**
+	 * Read the next batch of entries from an open directory. The batch is sized so that 
+	 * its reply should fit within maximumSize bytes, up to the limit set by 
+	 * {@link FileSystemPolicy#getSFTPMaxDirectoryEntries()}.
+	 */
+	public SftpFile[] readDirectory(byte[] handle, int maximumSize)
+			throws InvalidHandleException, EOFException, IOException, PermissionDeniedException {
 
-		String shandle = getHandle(handle);
+		OpenDirectory dir = getOpenDirectory(handle);
 
-		if (openDirectories.containsKey(shandle)) {
-			OpenDirectory dir = openDirectories.get(shandle);
+		if (dir != null) {
 
 			if (Log.isDebugEnabled())
 				Log.debug("Read directory for " + dir.getFile().getAbsolutePath());
 
-			int pos = dir.getPosition();
-			AbstractFile[] children = dir.getChildren();
+			FileSystemPolicy policy = con.getContext().getPolicy(FileSystemPolicy.class);
 			
-			if (dir.children == null) {
-				throw new IOException("Permission denined.");
-			}
-
-			Vector<SftpFile> files = new Vector<SftpFile>();
-			while(files.size() < 100 && pos < children.length) {
-				AbstractFile f = children[pos++];
-				if(dir.getFilter()==null || dir.getFilter().matches(f.getName())) {
-					try {
-						SftpFile sftpfile = new SftpFile(f.getName(), f.getAttributes());
-						files.add(sftpfile);
-					} catch(IOException | PermissionDeniedException e) {
-						Log.debug("Could not access attributes of file {}", e, f.getName());
-					}
+			List<SftpFile> files;
+			do {
+				List<AbstractFile> children = dir.nextBatch(maximumSize, 
+						Math.max(1, policy.getSFTPMaxDirectoryEntries()));
+				if(children.isEmpty()) {
+					throw new EOFException("There are no more files");
 				}
-			}
-			
-			dir.readpos = pos;
+				files = getDirectoryEntries(children, policy.getSFTPDirectoryAttributeThreads());
+			} while(files.isEmpty());
 			
-			if(files.size() > 0) {
-				SftpFile[] sf = new SftpFile[files.size()];
-				files.copyInto(sf);
-				return sf;
-			} else {
-				throw new EOFException("There are no more files");
+			if(Objects.nonNull(metadataCache)) {
+				String parent = FileUtils.checkEndsWithSlash(dir.getPath());
+				for(SftpFile file : files) {
+					metadataCache.putAttributes(parent + file.getFilename(), file.getAttributes());
+				}
 			}
+			
+			return files.toArray(new SftpFile[0]);
 		}
 
 		throw new InvalidHandleException("Handle is not an open directory");
 
 	}
+	
+	private List<SftpFile> getDirectoryEntries(List<AbstractFile> children, int threads) throws IOException {
+		
+		if(threads <= 1 || children.size() < 2) {
+			return getDirectoryEntries(children);
+		}
+		
+		// Split the batch between the executor and this thread so that a slow 
+		// file system can service several attribute requests at once.
+		int parts = Math.min(threads, children.size());
+		int chunk = (children.size() + parts - 1) / parts;
+		List<Future<List<SftpFile>>> futures = new ArrayList<Future<List<SftpFile>>>();
+		for(int i = chunk; i < children.size(); i += chunk) {
+			final List<AbstractFile> part = children.subList(i, Math.min(i + chunk, children.size()));
+			futures.add(con.getContext().getExecutorService().submit(new Callable<List<SftpFile>>() {
+				public List<SftpFile> call() {
+					return getDirectoryEntries(part);
+				}
+			}));
+		}
+		
+		List<SftpFile> files = getDirectoryEntries(children.subList(0, chunk));
+		try {
+			for(Future<List<SftpFile>> future : futures) {
+				files.addAll(future.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted reading directory attributes");
+		} catch (ExecutionException e) {
+			throw new IOException("Failed to read directory attributes", e.getCause());
+		}
+		return files;
+	}
+	
+	private List<SftpFile> getDirectoryEntries(List<AbstractFile> children) {
+		List<SftpFile> files = new ArrayList<SftpFile>(children.size());
+		for(AbstractFile f : children) {
+			try {
+				files.add(new SftpFile(f.getName(), f.getAttributes()));
+			} catch(IOException | PermissionDeniedException e) {
+				Log.debug("Could not access attributes of file {}", e, f.getName());
+			}
+		}
+		return files;
+	}
 
 	public byte[] openFile(String path, UnsignedInteger32 flags, SftpFileAttributes attrs)
 			throws PermissionDeniedException, FileNotFoundException, IOException {
@@ -331,6 +389,7 @@ public final class AbstractFileSystem {
 			if ((flags.longValue() & AbstractFileSystem.OPEN_CREATE) == AbstractFileSystem.OPEN_CREATE) {
 				// The file does not exist and the create flag is present so
 				// lets create it
+				invalidateParentAttributes(f);
 				if (!f.createNewFile()) {
 					throw new IOException(path + " could not be created");
 				}
@@ -356,29 +415,52 @@ public final class AbstractFileSystem {
 			f.truncate();
 		}
 
-		// Record the open file
-		byte[] handle = createHandle();
-		openFiles.put(getHandle(handle), new OpenFile(f, flags));
+		if ((flags.longValue() & (AbstractFileSystem.OPEN_WRITE | AbstractFileSystem.OPEN_CREATE)) != 0) {
+			invalidateMetadata(path);
+		}
 
-		// Return the handle
-		return handle;
+		// Record the open file and return its handle
+		return openHandles.allocate(new OpenFile(f, flags));
 	}
 
 	public int readFile(byte[] handle, UnsignedInteger64 offset, byte[] buf, int start, int numBytesToRead)
 			throws InvalidHandleException, EOFException, IOException, PermissionDeniedException {
-		String shandle = getHandle(handle);
-
-		if (openFiles.containsKey(shandle)) {
-			OpenFile file = openFiles.get(shandle);
+		return readFile(handle, offset.longValue(), buf, start, numBytesToRead);
+	}
+	
+	public int readFile(byte[] handle, long offset, byte[] buf, int start, int numBytesToRead)
+			throws InvalidHandleException, EOFException, IOException, PermissionDeniedException {
+		return readFile(getOpenFile(handle), offset, buf, start, numBytesToRead);
+	}
+	
+	/**
+	 * Read from a file whose handle is still in the request buffer.
+	 */
+	int readFile(byte[] request, int handleOffset, int handleLength, long offset, byte[] buf, int start, int numBytesToRead)
+			throws InvalidHandleException, EOFException, IOException, PermissionDeniedException {
+		return readFile(getOpenFile(request, handleOffset, handleLength), offset, buf, start, numBytesToRead);
+	}
+	
+	private int readFile(OpenFile file, long offset, byte[] buf, int start, int numBytesToRead)
+			throws InvalidHandleException, EOFException, IOException, PermissionDeniedException {
+		
+		if (file != null) {
 
 			if ((file.getFlags().longValue() & AbstractFileSystem.OPEN_READ) == AbstractFileSystem.OPEN_READ) {
 
-				if (!file.isTextMode() && file.getFilePointer() != offset.longValue()) {
-					file.seek(offset.longValue());
+				file.flushWrites();
+				
+				int read;
+				if (!file.isTextMode() && file.supportsPositionalAccess()) {
+					read = file.read(offset, buf, start, numBytesToRead);
+				} else {
+					if (!file.isTextMode() && file.getFilePointer() != offset) {
+						file.seek(offset);
+					}
+	
+					read = file.read(buf, start, numBytesToRead);
 				}
 
-				int read = file.read(buf, start, numBytesToRead);
-
 				if (read >= 0) {
 					return read;
 				}
@@ -392,20 +474,44 @@ public final class AbstractFileSystem {
 
 	public void writeFile(byte[] handle, UnsignedInteger64 offset, byte[] data, int off, int len)
 			throws InvalidHandleException, IOException, PermissionDeniedException {
-		String shandle = getHandle(handle);
-
-		if (openFiles.containsKey(shandle)) {
-			OpenFile file = openFiles.get(shandle);
+		writeFile(handle, offset.longValue(), data, off, len);
+	}
+	
+	public void writeFile(byte[] handle, long offset, byte[] data, int off, int len)
+			throws InvalidHandleException, IOException, PermissionDeniedException {
+		writeFile(getOpenFile(handle), offset, data, off, len);
+	}
+	
+	/**
+	 * Write to a file whose handle is still in the request buffer.
+	 */
+	void writeFile(byte[] request, int handleOffset, int handleLength, long offset, byte[] data, int off, int len)
+			throws InvalidHandleException, IOException, PermissionDeniedException {
+		writeFile(getOpenFile(request, handleOffset, handleLength), offset, data, off, len);
+	}
+	
+	private void writeFile(OpenFile file, long offset, byte[] data, int off, int len)
+			throws InvalidHandleException, IOException, PermissionDeniedException {
+		
+		if (file != null) {
 
 			if ((file.getFlags().longValue() & AbstractFileSystem.OPEN_WRITE) == AbstractFileSystem.OPEN_WRITE) {
 
+				invalidateAttributes(file);
+				
 				if ((file.getFlags().longValue() & AbstractFileSystem.OPEN_APPEND) == AbstractFileSystem.OPEN_APPEND) {
 					// Force the data to be written to the end of the file
 					// by seeking to the end
 					file.seek(file.getFile().length());
-				} else if (!file.isTextMode() && file.getFilePointer() != offset.longValue()) {
+				} else if (file.writeBehind != null) {
+					file.writeBehind.write(offset, data, off, len);
+					return;
+				} else if (!file.isTextMode() && file.supportsPositionalAccess()) {
+					file.write(offset, data, off, len);
+					return;
+				} else if (!file.isTextMode() && file.getFilePointer() != offset) {
 					// Move the file pointer if its not in the write place
-					file.seek(offset.longValue());
+					file.seek(offset);
 				}
 
 				file.write(data, off, len);
@@ -423,26 +529,33 @@ public final class AbstractFileSystem {
 	}
 
 	public boolean closeFile(byte[] handle, boolean remove) throws InvalidHandleException, IOException {
-		return closeFile(getHandle(handle), remove);
-	}
-
-	protected boolean closeFile(String handle, boolean remove) throws InvalidHandleException, IOException {
 		
-		OpenDirectory dir = openDirectories.get(handle);
-		if(dir!=null) {
-			openDirectories.remove(handle);
+		Object obj = openHandles.get(handle);
+		if(obj instanceof OpenDirectory) {
+			try {
+				((OpenDirectory)obj).close();
+			} finally {
+				openHandles.remove(handle);
+			}
 		} else {
-			OpenFile file = openFiles.get(handle);
+			OpenFile file = (OpenFile) obj;
 			if(file==null) {
-				throw new InvalidHandleException(handle + " is an invalid handle");
+				throw new InvalidHandleException("Invalid handle");
 			}
 			
-			file.close();
-			if(remove) {
-				openFiles.remove(handle);
-			} else {
+			try {
+				file.close();
+			} finally {
+				if ((file.getFlags().longValue() & AbstractFileSystem.OPEN_WRITE) == AbstractFileSystem.OPEN_WRITE) {
+					invalidateAttributes(file);
+				}
+				if(remove) {
+					openHandles.remove(handle);
+				}
+			}
+			if(!remove) {
 				return true;
-			}	
+			}
 		}
 		return false;
 	}
@@ -454,6 +567,9 @@ public final class AbstractFileSystem {
 		if (!f.isWritable()) {
 			throw new PermissionDeniedException("User does not have the permission to delete.");
 		}
+		
+		invalidateMetadata(path);
+		invalidateParentAttributes(f);
 
 		if (f.exists()) {
 			try {
@@ -485,6 +601,11 @@ public final class AbstractFileSystem {
 		if (!f2.isWritable()) {
 			throw new PermissionDeniedException("User does not have permission to write " + newpath);
 		}
+		
+		// A directory takes its children with it so nothing cached can be trusted
+		if(Objects.nonNull(metadataCache)) {
+			metadataCache.invalidateAll();
+		}
 
 		if (f1.exists()) {
 			if (!f2.exists()) {
@@ -527,9 +648,117 @@ public final class AbstractFileSystem {
 			throw new PermissionDeniedException("User does not have permission to write " + newpath);
 		}
 
+		invalidateMetadata(newpath);
+		invalidateMetadata(oldpath);
+		invalidateParentAttributes(f2);
 		f2.copyFrom(f1);
 	}
 
+	/**
+	 * Copy a range of bytes from one open file to another without the data leaving the
+	 * server. A length of zero copies until the end of the source file. When both files
+	 * are backed by a FileChannel the copy is made with FileChannel.transferTo so the
+	 * operating system can perform it, otherwise the data is copied through a buffer.
+	 *
+	 * @param readHandle
+	 * @param readOffset
+	 * @param length
+	 * @param writeHandle
+	 * @param writeOffset
+	 * @return the number of bytes copied
+	 * @throws InvalidHandleException
+	 * @throws EOFException if the end of the source was reached before length bytes were copied
+	 * @throws IOException
+	 * @throws PermissionDeniedException
+	 */
+	public long copyData(byte[] readHandle, long readOffset, long length, byte[] writeHandle, long writeOffset)
+			throws InvalidHandleException, EOFException, IOException, PermissionDeniedException {
+
+		OpenFile source = getOpenFile(readHandle);
+		OpenFile target = getOpenFile(writeHandle);
+
+		if(Objects.isNull(source) || Objects.isNull(target)) {
+			throw new InvalidHandleException("The handle is invalid");
+		}
+		if((source.getFlags().longValue() & AbstractFileSystem.OPEN_READ) == 0) {
+			throw new InvalidHandleException("The source file was not opened for reading");
+		}
+		if((target.getFlags().longValue() & AbstractFileSystem.OPEN_WRITE) == 0) {
+			throw new InvalidHandleException("The target file was not opened for writing");
+		}
+		if(readOffset < 0 || writeOffset < 0 || length < 0) {
+			throw new IOException("Invalid offset or length");
+		}
+
+		boolean untilEOF = length == 0;
+
+		if(source == target) {
+			long count = untilEOF ? Math.max(0, source.getFile().length() - readOffset) : length;
+			if(readOffset < writeOffset + count && writeOffset < readOffset + count) {
+				throw new IOException("The source and target ranges overlap");
+			}
+		}
+
+		source.flushWrites();
+		target.flushWrites();
+		invalidateMetadata(target);
+
+		long copied;
+		FileChannel in = source.getChannel();
+		FileChannel out = (target.getFlags().longValue() & AbstractFileSystem.OPEN_APPEND) == 0 ? target.getChannel() : null;
+
+		if(Objects.nonNull(in) && Objects.nonNull(out)) {
+			copied = transferData(in, readOffset, untilEOF ? Long.MAX_VALUE : length, target.raf, out, writeOffset);
+		} else {
+			copied = copyData(source, readOffset, untilEOF ? Long.MAX_VALUE : length, target, writeOffset);
+		}
+
+		if(!untilEOF && copied < length) {
+			throw new EOFException("The end of the source file was reached after " + copied + " bytes");
+		}
+		return copied;
+	}
+
+	private long transferData(FileChannel in, long readOffset, long length,
+			AbstractFileRandomAccess raf, FileChannel out, long writeOffset) throws IOException {
+
+		// transferTo writes at the position of the target channel, so hold the lock the
+		// file pointer based operations use and put the position back afterwards
+		synchronized(raf) {
+			long position = out.position();
+			try {
+				out.position(writeOffset);
+				long copied = 0;
+				while(copied < length) {
+					long count = in.transferTo(readOffset + copied, length - copied, out);
+					if(count <= 0) {
+						break;
+					}
+					copied += count;
+				}
+				return copied;
+			} finally {
+				out.position(position);
+			}
+		}
+	}
+
+	private long copyData(OpenFile source, long readOffset, long length, OpenFile target, long writeOffset)
+			throws InvalidHandleException, IOException, PermissionDeniedException {
+
+		byte[] buf = new byte[COPY_BUFFER_SIZE];
+		long copied = 0;
+		while(copied < length) {
+			int read = readFile(source, readOffset + copied, buf, 0, (int) Math.min(buf.length, length - copied));
+			if(read <= 0) {
+				break;
+			}
+			writeFile(target, writeOffset + copied, buf, 0, read);
+			copied += read;
+		}
+		return copied;
+	}
+
 	public String getDefaultPath() throws IOException, PermissionDeniedException {
 		return fileFactory.getDefaultPath().getCanonicalPath();
 	}
@@ -541,6 +770,9 @@ public final class AbstractFileSystem {
 		if (!f.isWritable()) {
 			throw new PermissionDeniedException("User does not have the permission to write.");
 		}
+		
+		invalidateMetadata(path);
+		invalidateParentAttributes(f);
 
 		if (f.isDirectory()) {
 			if (f.exists()) {
@@ -563,21 +795,25 @@ public final class AbstractFileSystem {
 			throws PermissionDeniedException, IOException, FileNotFoundException {
 
 		AbstractFile f = resolveFile(path, con);
+		invalidateMetadata(path);
 		f.setAttributes(attrs);
 	}
 
 	public void setFileAttributes(byte[] handle, SftpFileAttributes attrs)
 			throws PermissionDeniedException, IOException, InvalidHandleException {
 
-		String shandle = getHandle(handle);
-		if (openFiles.containsKey(shandle)) {
-			OpenFile f = openFiles.get(shandle);
+		Object obj = openHandles.get(handle);
+		if (obj instanceof OpenFile) {
+			OpenFile f = (OpenFile) obj;
+			f.flushWrites();
+			invalidateMetadata(f);
 			f.getFile().setAttributes(attrs);
-		} else if (openDirectories.containsKey(shandle)) {
-			OpenDirectory dir = openDirectories.get(shandle);
+		} else if (obj instanceof OpenDirectory) {
+			OpenDirectory dir = (OpenDirectory) obj;
+			invalidateMetadata(dir.getPath());
 			dir.getFile().setAttributes(attrs);
 		} else
-			throw new InvalidHandleException(shandle);
+			throw new InvalidHandleException("Invalid handle");
 	}
 
 	public SftpFile readSymbolicLink(String path)
@@ -591,6 +827,9 @@ public final class AbstractFileSystem {
 	}
 
 	public boolean fileExists(String path) throws IOException, PermissionDeniedException {
+		if(Objects.nonNull(metadataCache) && Objects.nonNull(metadataCache.getAttributes(path))) {
+			return true;
+		}
 		try {
 			AbstractFile f = resolveFile(path, con);
 			return f.exists();
@@ -603,19 +842,129 @@ public final class AbstractFileSystem {
 	}
 
 	public String getRealPath(String path) throws IOException, FileNotFoundException, PermissionDeniedException {
+		
+		if(Objects.nonNull(metadataCache)) {
+			String realPath = metadataCache.getRealPath(path);
+			if(Objects.nonNull(realPath)) {
+				return realPath;
+			}
+		}
+		
 		AbstractFile f = resolveFile(path, con);
-		return f.getCanonicalPath();
+		String realPath = f.getCanonicalPath();
+		if(Objects.nonNull(metadataCache)) {
+			metadataCache.putRealPath(path, realPath);
+		}
+		return realPath;
+	}
+	
+	/**
+	 * Get the metadata cache used by this file system, or null if caching is disabled.
+	 * 
+	 * @return MetadataCache
+	 */
+	public MetadataCache getMetadataCache() {
+		return metadataCache;
+	}
+	
+	private void invalidateMetadata(String path) {
+		if(Objects.nonNull(metadataCache)) {
+			metadataCache.invalidate(path);
+		}
+	}
+	
+	private void invalidateMetadata(OpenFile file) {
+		if(Objects.nonNull(metadataCache)) {
+			metadataCache.invalidate(file.getFile().getName());
+		}
+	}
+	
+	private void invalidateAttributes(OpenFile file) {
+		if(Objects.nonNull(metadataCache)) {
+			metadataCache.invalidateAttributes(file.getFile().getName());
+		}
+	}
+	
+	/**
+	 * Remove the cached attributes of the folder a file is created in or removed from, 
+	 * as its times and size change with its contents. The folder may also have been 
+	 * cached as "." or "" when it is the users current folder.
+	 */
+	private void invalidateParentAttributes(AbstractFile file) throws IOException, PermissionDeniedException {
+		if(Objects.nonNull(metadataCache)) {
+			metadataCache.invalidateAttributes(FileUtils.getParentPath(file.getAbsolutePath()));
+			metadataCache.invalidateAttributes(".");
+			metadataCache.invalidateAttributes("");
+		}
 	}
 	
 	public AbstractFile getFileForHandle(byte[] handle) throws IOException, InvalidHandleException {
 		
-		if(!openFiles.containsKey(getHandle(handle))) {
+		OpenFile file = getOpenFile(handle);
+		if(file == null) {
 			throw new InvalidHandleException("Invalid handle passed to getFileForHandle");
 		}
 		
-		return openFiles.get(getHandle(handle)).getFile();
+		return file.getFile();
 	}
 
+	/**
+	 * Can the open file be read at different positions concurrently.
+	 * 
+	 * @param handle
+	 * @return boolean
+	 * @throws InvalidHandleException
+	 */
+	public boolean supportsPositionalAccess(byte[] handle) throws InvalidHandleException {
+		
+		OpenFile file = getOpenFile(handle);
+		if(Objects.isNull(file)) {
+			throw new InvalidHandleException("The handle is invalid");
+		}
+		return !file.isTextMode() && file.supportsPositionalAccess();
+	}
+
+	/**
+	 * Write any buffered data for an open file and force it to the storage device.
+	 * 
+	 * @param handle
+	 * @throws InvalidHandleException
+	 * @throws UnsupportedFileOperationException if the file system cannot sync the file
+	 * @throws IOException
+	 */
+	public void syncFile(byte[] handle) throws InvalidHandleException, UnsupportedFileOperationException, IOException {
+		
+		OpenFile file = getOpenFile(handle);
+		if(Objects.isNull(file)) {
+			throw new InvalidHandleException("The handle is invalid");
+		}
+		
+		file.flushWrites();
+		
+		if(Objects.isNull(file.raf)) {
+			throw new UnsupportedFileOperationException("The file system does not support sync");
+		}
+		try {
+			file.raf.sync();
+		} catch(UnsupportedOperationException e) {
+			throw new UnsupportedFileOperationException(e.getMessage());
+		}
+	}
+	
+	private synchronized ByteBufferPool getWriteBehindPool(int bufferSize) {
+		if(Objects.isNull(writeBehindPool)) {
+			writeBehindPool = new ByteBufferPool(bufferSize, false);
+		}
+		return writeBehindPool;
+	}
+	
+	private synchronized ByteBufferPool getReadAheadPool(int blockSize) {
+		if(Objects.isNull(readAheadPool)) {
+			readAheadPool = new ByteBufferPool(blockSize, false);
+		}
+		return readAheadPool;
+	}
+	
 	protected class OpenFile {
 		AbstractFile f;
 		UnsignedInteger32 flags;
@@ -624,6 +973,8 @@ public final class AbstractFileSystem {
 		InputStream in;
 		OutputStream out;
 		AbstractFileRandomAccess raf;
+		ReadAheadCache readAhead;
+		WriteBehindBuffer writeBehind;
 		boolean closed;
 
 		public OpenFile(AbstractFile f, UnsignedInteger32 flags) throws IOException, PermissionDeniedException {
@@ -636,6 +987,30 @@ public final class AbstractFileSystem {
 			if (isTextMode() && Log.isDebugEnabled()) {
 				Log.debug(f.getName() + " is being opened in TEXT mode");
 			}
+			
+			FileSystemPolicy policy = con.getContext().getPolicy(FileSystemPolicy.class);
+			if (raf != null && !isTextMode() && policy.getSFTPReadAheadDepth() > 0
+					&& (flags.intValue() & AbstractFileSystem.OPEN_WRITE) == 0) {
+				readAhead = new ReadAheadCache(raf, getReadAheadPool(policy.getSFTPReadAheadBlockSize()), 
+						con.getContext().getExecutorService(), policy.getSFTPReadAheadDepth());
+			}
+			
+			if (raf != null && !isTextMode() && policy.getSFTPWriteBehindBufferSize() > 0
+					&& (flags.intValue() & AbstractFileSystem.OPEN_WRITE) != 0
+					&& (flags.intValue() & AbstractFileSystem.OPEN_APPEND) == 0) {
+				writeBehind = new WriteBehindBuffer(raf, getWriteBehindPool(policy.getSFTPWriteBehindBufferSize()), 
+						con.getContext().getExecutorService());
+			}
+		}
+		
+		/**
+		 * Write any data held by the write behind buffer so the file reflects every 
+		 * acknowledged write.
+		 */
+		public void flushWrites() throws IOException {
+			if (writeBehind != null) {
+				writeBehind.flush();
+			}
 		}
 
 		public boolean isTextMode() {
@@ -643,6 +1018,14 @@ public final class AbstractFileSystem {
 		}
 
 		public void close() throws IOException {
+			IOException writeError = null;
+			if (writeBehind != null) {
+				try {
+					writeBehind.close();
+				} catch(IOException e) {
+					writeError = e;
+				}
+			}
 			if (in != null) {
 				try {
 					in.close();
@@ -657,6 +1040,9 @@ public final class AbstractFileSystem {
 					out = null;
 				}
 			}
+			if (readAhead != null) {
+				readAhead.close();
+			}
 			if (raf != null) {
 				try {
 					raf.close();
@@ -665,6 +1051,9 @@ public final class AbstractFileSystem {
 				}
 			}
 			closed = true;
+			if (writeError != null) {
+				throw writeError;
+			}
 		}
 
 		public int read(byte[] buf, int off, int len) throws IOException, PermissionDeniedException {
@@ -711,6 +1100,49 @@ public final class AbstractFileSystem {
 			}
 		}
 
+		/**
+		 * The channel backing this file when its data can be transferred directly, 
+		 * or null when it must be read and written through the normal paths.
+		 */
+		public FileChannel getChannel() {
+			AbstractFileRandomAccess raf = this.raf;
+			if(closed || raf == null || isTextMode()) {
+				return null;
+			}
+			return raf.getChannel();
+		}
+
+		public boolean supportsPositionalAccess() {
+			return raf != null && (readAhead != null || raf.supportsPositionalAccess());
+		}
+		
+		/**
+		 * Read from a position without using the file pointer. Only valid when 
+		 * {@link #supportsPositionalAccess()} returns true.
+		 */
+		public int read(long position, byte[] buf, int off, int len) throws IOException {
+			AbstractFileRandomAccess raf = this.raf;
+			if(closed || raf == null) {
+				return -1;
+			}
+			if(readAhead != null) {
+				return readAhead.read(position, buf, off, len);
+			}
+			return raf.read(position, ByteBuffer.wrap(buf, off, len));
+		}
+		
+		/**
+		 * Write to a position without using the file pointer. Only valid when 
+		 * {@link #supportsPositionalAccess()} returns true.
+		 */
+		public void write(long position, byte[] buf, int off, int len) throws IOException {
+			AbstractFileRandomAccess raf = this.raf;
+			if(closed || raf == null) {
+				throw new IOException("File has been closed.");
+			}
+			raf.write(position, ByteBuffer.wrap(buf, off, len));
+		}
+		
 		private OutputStream getOutputStream() throws IOException, PermissionDeniedException {
 			if(closed) {
 				throw new IOException("File has been closed [getOutputStream].");
@@ -757,25 +1189,57 @@ public final class AbstractFileSystem {
 	}
 
 	protected class OpenDirectory {
+		String path;
 		AbstractFile f;
-		AbstractFile[] children;
+		Iterator<AbstractFile> children;
 		int readpos = 0;
 		SftpFileFilter filter;
 
-		public OpenDirectory(AbstractFile f, SftpFileFilter filter) throws IOException, PermissionDeniedException {
+		public OpenDirectory(String path, AbstractFile f, SftpFileFilter filter) throws IOException, PermissionDeniedException {
+			this.path = path;
 			this.f = f;
 			this.filter = filter;
-			this.children = f.getChildren().toArray(new AbstractFile[0]);
+			try {
+				this.children = f.getChildIterator();
+			} catch(AccessDeniedException e) {
+				throw new PermissionDeniedException("The user does not have permission to list " + e.getFile());
+			}
 		}
 
 		public AbstractFile getFile() {
 			return f;
 		}
-
-		public AbstractFile[] getChildren() throws IOException, PermissionDeniedException {
-			return children;
+		
+		public String getPath() {
+			return path;
 		}
 
+		/**
+		 * Take the next entries that match the filter, stopping once the estimated size of 
+		 * their reply reaches maximumSize or maximumEntries have been taken. At least one 
+		 * entry is returned unless the directory has been exhausted.
+		 */
+		public synchronized List<AbstractFile> nextBatch(int maximumSize, int maximumEntries) throws IOException {
+			List<AbstractFile> batch = new ArrayList<AbstractFile>();
+			int size = 0;
+			try {
+				while(batch.size() < maximumEntries && children.hasNext()) {
+					AbstractFile child = children.next();
+					readpos++;
+					if(filter==null || filter.matches(child.getName())) {
+						batch.add(child);
+						size += estimateEntrySize(child.getName());
+						if(size >= maximumSize) {
+							break;
+						}
+					}
+				}
+			} catch(DirectoryIteratorException e) {
+				throw e.getCause();
+			}
+			return batch;
+		}
+		
 		public int getPosition() {
 			return readpos;
 		}
@@ -787,6 +1251,21 @@ public final class AbstractFileSystem {
 		public void setPosition(int readpos) {
 			this.readpos = readpos;
 		}
+		
+		public synchronized void close() throws IOException {
+			if(children instanceof Closeable) {
+				((Closeable)children).close();
+			}
+		}
+	}
+	
+	/**
+	 * An estimate of the bytes a directory entry adds to an SSH_FXP_NAME reply. The 
+	 * filename is written twice when a longname is sent, the remainder covers the 
+	 * rest of the longname, the attributes and the string lengths.
+	 */
+	static int estimateEntrySize(String name) {
+		return (name.length() * 2) + 96;
 	}
 
 	public void populateEvent(Event evt) {
@@ -796,10 +1275,14 @@ public final class AbstractFileSystem {
 		
 		evt.addAttribute(EventCodes.ATTRIBUTE_FILE_FACTORY, fileFactory);
 		evt.addAttribute(EventCodes.ATTRIBUTE_CONNECTION, con);
+		if(Objects.nonNull(metadataCache)) {
+			evt.addAttribute(EventCodes.ATTRIBUTE_METADATA_CACHE_HITS, metadataCache.getHits());
+			evt.addAttribute(EventCodes.ATTRIBUTE_METADATA_CACHE_MISSES, metadataCache.getMisses());
+		}
 		byte[] handle = (byte[]) evt.getAttribute(EventCodes.ATTRIBUTE_HANDLE);
 		if(handle!=null) {
 			
-			OpenFile openFile = openFiles.get(getHandle(handle));
+			OpenFile openFile = getOpenFile(handle);
 			if(openFile!=null) {
 				if(openFile.f!=null) {
 					evt.addAttribute(EventCodes.ATTRIBUTE_ABSTRACT_FILE, openFile.f);
@@ -824,13 +1307,13 @@ public final class AbstractFileSystem {
 
 	public String getPathForHandle(byte[] handle) throws IOException, InvalidHandleException {
 
-		String h = getHandle(handle);
-
+		Object obj = openHandles.get(handle);
+		
 		try {
-			if (openFiles.containsKey(h)) {
-				return openFiles.get(h).getFile().getAbsolutePath();
-			} else if (openDirectories.containsKey(h)) {
-				return openDirectories.get(h).getFile().getAbsolutePath();
+			if (obj instanceof OpenFile) {
+				return ((OpenFile)obj).getFile().getAbsolutePath();
+			} else if (obj instanceof OpenDirectory) {
+				return ((OpenDirectory)obj).getFile().getAbsolutePath();
 			}
 		} catch (PermissionDeniedException e) {
 			Log.error("Permission denied in getPathForHandle!", e);
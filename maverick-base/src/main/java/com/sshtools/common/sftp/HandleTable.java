@@ -0,0 +1,228 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.sftp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A table of open handles. Each handle is 8 bytes: the index of its slot in the table 
+ * followed by the generation of the slot, which changes each time the slot is reused 
+ * so that a stale handle is never mistaken for a newer one. Lookups decode the handle 
+ * in place and do not allocate.
+ * 
+ * <p>A table created with an issuer holds state against the handles of that table 
+ * instead of issuing its own.</p>
+ */
+public class HandleTable<T> {
+
+	public static final int HANDLE_LENGTH = 8;
+	
+	Object[] values;
+	int[] generations;
+	int[] free;
+	int freeCount;
+	int next;
+	int size;
+	final HandleTable<?> issuer;
+	
+	public HandleTable() {
+		this(16);
+	}
+	
+	public HandleTable(int initialCapacity) {
+		this(initialCapacity, null);
+	}
+	
+	/**
+	 * Create a table for values stored with {@link #put(byte[], Object)} against the 
+	 * handles issued by another table.
+	 * 
+	 * @param issuer
+	 */
+	public HandleTable(HandleTable<?> issuer) {
+		this(16, issuer);
+	}
+	
+	HandleTable(int initialCapacity, HandleTable<?> issuer) {
+		this.issuer = issuer;
+		values = new Object[initialCapacity];
+		generations = new int[initialCapacity];
+		free = new int[issuer==null ? initialCapacity : 0];
+	}
+	
+	/**
+	 * Store a value in a free slot and return its handle.
+	 * 
+	 * @param value
+	 * @return handle
+	 */
+	public synchronized byte[] allocate(T value) {
+		if(issuer!=null) {
+			throw new IllegalStateException("Handles for this table are issued by another table");
+		}
+		int index = freeCount > 0 ? free[--freeCount] : next++;
+		ensureCapacity(index + 1);
+		values[index] = value;
+		size++;
+		return encode(index, generations[index]);
+	}
+	
+	/**
+	 * Store a value against a handle issued by the issuer of this table, so that state 
+	 * can be associated with a handle without a map.
+	 * 
+	 * @param handle
+	 * @param value
+	 * @throws IllegalStateException if this table issues its own handles
+	 * @throws IllegalArgumentException if the handle was not issued by the issuer
+	 */
+	public synchronized void put(byte[] handle, T value) {
+		if(issuer==null) {
+			throw new IllegalStateException("This table issues its own handles");
+		}
+		if(!isHandle(handle, 0, handle.length)) {
+			throw new IllegalArgumentException("Invalid handle length " + handle.length);
+		}
+		int index = readInt(handle, 0);
+		if(index >= issuer.issued()) {
+			throw new IllegalArgumentException("The handle was not issued by this table's issuer");
+		}
+		ensureCapacity(index + 1);
+		if(values[index]==null) {
+			size++;
+		}
+		values[index] = value;
+		generations[index] = readInt(handle, 4);
+	}
+	
+	public T get(byte[] handle) {
+		return get(handle, 0, handle.length);
+	}
+	
+	@SuppressWarnings("unchecked")
+	public synchronized T get(byte[] buf, int off, int len) {
+		int index = indexOf(buf, off, len);
+		return index < 0 ? null : (T) values[index];
+	}
+	
+	@SuppressWarnings("unchecked")
+	public synchronized T remove(byte[] handle) {
+		int index = indexOf(handle, 0, handle.length);
+		if(index < 0) {
+			return null;
+		}
+		T value = (T) values[index];
+		values[index] = null;
+		generations[index]++;
+		release(index);
+		size--;
+		return value;
+	}
+	
+	@SuppressWarnings("unchecked")
+	public synchronized List<T> values() {
+		List<T> results = new ArrayList<T>(size);
+		for(int i = 0; i < values.length; i++) {
+			if(values[i]!=null) {
+				results.add((T) values[i]);
+			}
+		}
+		return results;
+	}
+	
+	public synchronized int size() {
+		return size;
+	}
+	
+	public synchronized void clear() {
+		for(int i = 0; i < values.length; i++) {
+			if(values[i]!=null) {
+				values[i] = null;
+				generations[i]++;
+				release(i);
+			}
+		}
+		size = 0;
+	}
+	
+	/**
+	 * The number of slots this table has handed out, which bounds the index of any 
+	 * handle it issued.
+	 */
+	synchronized int issued() {
+		return next;
+	}
+	
+	/**
+	 * Only a table that issues handles reuses its free slots.
+	 */
+	private void release(int index) {
+		if(issuer==null) {
+			free[freeCount++] = index;
+		}
+	}
+	
+	private int indexOf(byte[] buf, int off, int len) {
+		if(!isHandle(buf, off, len)) {
+			return -1;
+		}
+		int index = readInt(buf, off);
+		if(index >= values.length || values[index]==null 
+				|| generations[index]!=readInt(buf, off + 4)) {
+			return -1;
+		}
+		return index;
+	}
+	
+	private boolean isHandle(byte[] buf, int off, int len) {
+		return len==HANDLE_LENGTH && (buf[off] & 0x80)==0;
+	}
+	
+	private void ensureCapacity(int capacity) {
+		if(capacity > values.length) {
+			int length = Math.max(capacity, values.length * 2);
+			values = Arrays.copyOf(values, length);
+			generations = Arrays.copyOf(generations, length);
+			if(issuer==null) {
+				free = Arrays.copyOf(free, length);
+			}
+		}
+	}
+	
+	private static byte[] encode(int index, int generation) {
+		byte[] handle = new byte[HANDLE_LENGTH];
+		writeInt(handle, 0, index);
+		writeInt(handle, 4, generation);
+		return handle;
+	}
+	
+	private static int readInt(byte[] buf, int off) {
+		return ((buf[off] & 0xFF) << 24) | ((buf[off+1] & 0xFF) << 16) 
+				| ((buf[off+2] & 0xFF) << 8) | (buf[off+3] & 0xFF);
+	}
+	
+	private static void writeInt(byte[] buf, int off, int value) {
+		buf[off] = (byte) (value >> 24);
+		buf[off+1] = (byte) (value >> 16);
+		buf[off+2] = (byte) (value >> 8);
+		buf[off+3] = (byte) value;
+	}
+}
@@ -0,0 +1,209 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.sftp;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A bounded cache of file attributes and canonical paths keyed by the paths clients 
+ * send. Entries expire after a short time and are invalidated by the operations of 
+ * the sessions using the cache. Invalidation is by filename, so changing a file 
+ * removes every entry that ends in the same name regardless of how the client 
+ * referred to it.
+ */
+public class MetadataCache {
+
+	static final String ATTRIBUTES = "A";
+	static final String REALPATH = "R";
+	
+	final long ttl;
+	final int maximumEntries;
+	final Map<String,Set<String>> keysByName = new HashMap<String,Set<String>>();
+	final LinkedHashMap<String,Entry> entries;
+	
+	long hits;
+	long misses;
+	
+	public MetadataCache(long ttl, int maximumEntries) {
+		this.ttl = ttl;
+		this.maximumEntries = maximumEntries;
+		this.entries = new LinkedHashMap<String,Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				if(size() > MetadataCache.this.maximumEntries) {
+					unindex(eldest.getKey());
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+	
+	/**
+	 * Get a copy of the attributes cached for a path, or null if there are none.
+	 * 
+	 * @param path
+	 * @return SftpFileAttributes
+	 */
+	public synchronized SftpFileAttributes getAttributes(String path) {
+		SftpFileAttributes attrs = (SftpFileAttributes) get(ATTRIBUTES + path);
+		return attrs==null ? null : new SftpFileAttributes(attrs);
+	}
+	
+	/**
+	 * Cache a copy of the attributes of a path, so later changes to them by the caller 
+	 * are not seen by other sessions.
+	 * 
+	 * @param path
+	 * @param attrs
+	 */
+	public synchronized void putAttributes(String path, SftpFileAttributes attrs) {
+		put(ATTRIBUTES + path, new SftpFileAttributes(attrs));
+	}
+	
+	public synchronized String getRealPath(String path) {
+		return (String) get(REALPATH + path);
+	}
+	
+	public synchronized void putRealPath(String path, String realPath) {
+		put(REALPATH + path, realPath);
+	}
+	
+	/**
+	 * Remove every entry for paths with the same filename as this path. Paths that do not 
+	 * end in a filename, such as "." or "/", clear the cache.
+	 * 
+	 * @param path
+	 */
+	public synchronized void invalidate(String path) {
+		String name = getName(path);
+		if(name.length()==0 || name.equals(".") || name.equals("..")) {
+			invalidateAll();
+			return;
+		}
+		Set<String> keys = keysByName.remove(name);
+		if(keys!=null) {
+			for(String key : keys) {
+				entries.remove(key);
+			}
+		}
+	}
+	
+	/**
+	 * Remove the attributes cached for paths with the same filename as this path, leaving 
+	 * their real paths. This is for changes to the content of a file, which alter its 
+	 * size and times but not where it is, and costs nothing when no attributes are cached.
+	 * 
+	 * @param path
+	 */
+	public synchronized void invalidateAttributes(String path) {
+		String name = getName(path);
+		Set<String> keys = keysByName.get(name);
+		if(keys==null) {
+			return;
+		}
+		for(Iterator<String> it = keys.iterator(); it.hasNext();) {
+			String key = it.next();
+			if(key.startsWith(ATTRIBUTES)) {
+				entries.remove(key);
+				it.remove();
+			}
+		}
+		if(keys.isEmpty()) {
+			keysByName.remove(name);
+		}
+	}
+	
+	public synchronized void invalidateAll() {
+		entries.clear();
+		keysByName.clear();
+	}
+	
+	public synchronized long getHits() {
+		return hits;
+	}
+	
+	public synchronized long getMisses() {
+		return misses;
+	}
+	
+	public synchronized int size() {
+		return entries.size();
+	}
+	
+	private Object get(String key) {
+		Entry e = entries.get(key);
+		if(e!=null) {
+			if(e.expires > System.currentTimeMillis()) {
+				hits++;
+				return e.value;
+			}
+			entries.remove(key);
+			unindex(key);
+		}
+		misses++;
+		return null;
+	}
+	
+	private void put(String key, Object value) {
+		if(entries.put(key, new Entry(value, System.currentTimeMillis() + ttl))==null) {
+			String name = getName(key.substring(1));
+			Set<String> keys = keysByName.get(name);
+			if(keys==null) {
+				keysByName.put(name, keys = new HashSet<String>());
+			}
+			keys.add(key);
+		}
+	}
+	
+	private void unindex(String key) {
+		String name = getName(key.substring(1));
+		Set<String> keys = keysByName.get(name);
+		if(keys!=null) {
+			keys.remove(key);
+			if(keys.isEmpty()) {
+				keysByName.remove(name);
+			}
+		}
+	}
+	
+	static String getName(String path) {
+		int end = path.length();
+		while(end > 0 && path.charAt(end-1)=='/') {
+			end--;
+		}
+		return path.substring(path.lastIndexOf('/', end - 1) + 1, end);
+	}
+	
+	static class Entry {
+		Object value;
+		long expires;
+		
+		Entry(Object value, long expires) {
+			this.value = value;
+			this.expires = expires;
+		}
+	}
+}
@@ -0,0 +1,293 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.sftp;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import com.sshtools.common.files.AbstractFileRandomAccess;
+import com.sshtools.common.logger.Log;
+import com.sshtools.common.util.ByteBufferPool;
+
+/**
+ * Detects sequential reads on an open file and prefetches the blocks that follow 
+ * into pooled buffers, so that slow file systems are read ahead of the client's 
+ * requests. The window is discarded as soon as a read is not sequential.
+ */
+public class ReadAheadCache {
+
+	static final int SEQUENTIAL_THRESHOLD = 2;
+	static final int FAILED = -2;
+	
+	final AbstractFileRandomAccess raf;
+	final ByteBufferPool pool;
+	final Executor executor;
+	final int blockSize;
+	final int depth;
+	
+	final LinkedList<Block> window = new LinkedList<Block>();
+	long nextPosition = -1;
+	long prefetchPosition = -1;
+	int sequentialReads = 0;
+	boolean eof = false;
+	boolean closed = false;
+	
+	/**
+	 * Create a read ahead cache. Blocks are the size of the pool's buffers.
+	 * 
+	 * @param raf the file to read from
+	 * @param pool the pool of block buffers
+	 * @param executor executes the prefetch reads
+	 * @param depth the number of blocks to keep ahead of the reader
+	 */
+	public ReadAheadCache(AbstractFileRandomAccess raf, ByteBufferPool pool, Executor executor, int depth) {
+		this.raf = raf;
+		this.pool = pool;
+		this.executor = executor;
+		this.blockSize = pool.getCapacity();
+		this.depth = depth;
+	}
+	
+	/**
+	 * Read from the given position, using a prefetched block when there is one.
+	 * 
+	 * @param position
+	 * @param buf
+	 * @param off
+	 * @param len
+	 * @return the number of bytes read or -1 at EOF
+	 * @throws IOException
+	 */
+	public int read(long position, byte[] buf, int off, int len) throws IOException {
+		
+		Block block;
+		synchronized(this) {
+			if(closed) {
+				throw new IOException("File has been closed");
+			}
+			if(position == nextPosition) {
+				sequentialReads++;
+			} else {
+				sequentialReads = 0;
+				discardWindow();
+			}
+			block = getBlock(position);
+		}
+		
+		int count = FAILED;
+		if(block != null) {
+			count = block.read(position, buf, off, len);
+			if(count == FAILED) {
+				synchronized(this) {
+					discardWindow();
+				}
+			}
+		}
+		
+		if(count == FAILED) {
+			count = raf.read(position, ByteBuffer.wrap(buf, off, len));
+		}
+		
+		synchronized(this) {
+			nextPosition = count > 0 ? position + count : -1;
+			if(!closed) {
+				releaseBlocks();
+				if(count > 0 && sequentialReads >= SEQUENTIAL_THRESHOLD) {
+					prefetch();
+				}
+			}
+		}
+		
+		return count;
+	}
+	
+	public synchronized int getWindowSize() {
+		return window.size();
+	}
+	
+	/**
+	 * Discard the window and release its buffers. 
+	 */
+	public synchronized void close() {
+		closed = true;
+		discardWindow();
+	}
+	
+	private Block getBlock(long position) {
+		for(Block block : window) {
+			if(position >= block.position && position < block.position + blockSize) {
+				return block;
+			}
+		}
+		return null;
+	}
+	
+	private void discardWindow() {
+		for(Block block : window) {
+			block.discard();
+		}
+		window.clear();
+		prefetchPosition = -1;
+		eof = false;
+	}
+	
+	/**
+	 * Release the blocks that the reader has moved past.
+	 */
+	private void releaseBlocks() {
+		for(Iterator<Block> it = window.iterator(); it.hasNext();) {
+			Block block = it.next();
+			if(block.position + blockSize > nextPosition) {
+				break;
+			}
+			block.discard();
+			it.remove();
+		}
+	}
+	
+	private void prefetch() {
+		
+		if(prefetchPosition < nextPosition) {
+			prefetchPosition = nextPosition;
+		}
+		
+		while(!eof && window.size() < depth) {
+			Block block = new Block(prefetchPosition);
+			window.add(block);
+			prefetchPosition += blockSize;
+			try {
+				executor.execute(block);
+			} catch(RejectedExecutionException e) {
+				block.complete(null, new IOException("Read ahead was rejected"), false);
+				break;
+			}
+		}
+	}
+	
+	class Block implements Runnable {
+		
+		final long position;
+		ByteBuffer buf;
+		IOException error;
+		boolean eof;
+		boolean done;
+		boolean discarded;
+		
+		Block(long position) {
+			this.position = position;
+		}
+		
+		public void run() {
+			
+			synchronized(this) {
+				if(discarded) {
+					done = true;
+					return;
+				}
+			}
+			
+			ByteBuffer b = pool.get();
+			IOException error = null;
+			boolean eof = false;
+			
+			try {
+				while(b.hasRemaining()) {
+					int r = raf.read(position + b.position(), b);
+					if(r == -1) {
+						eof = true;
+						break;
+					}
+				}
+			} catch(IOException e) {
+				if(Log.isDebugEnabled()) {
+					Log.debug("Read ahead of block at {} failed", e, position);
+				}
+				error = e;
+			}
+			
+			b.flip();
+			complete(b, error, eof);
+		}
+		
+		void complete(ByteBuffer b, IOException error, boolean eof) {
+			
+			synchronized(this) {
+				done = true;
+				if(discarded) {
+					pool.add(b);
+				} else {
+					this.buf = b;
+					this.error = error;
+					this.eof = eof;
+				}
+				notifyAll();
+			}
+			
+			if(eof) {
+				synchronized(ReadAheadCache.this) {
+					synchronized(this) {
+						if(!discarded) {
+							ReadAheadCache.this.eof = true;
+						}
+					}
+				}
+			}
+		}
+		
+		synchronized int read(long position, byte[] dst, int off, int len) throws IOException {
+			
+			while(!done) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					throw new InterruptedIOException();
+				}
+			}
+			
+			if(buf == null || error != null) {
+				return FAILED;
+			}
+			
+			int index = (int) (position - this.position);
+			int available = buf.limit() - index;
+			if(available <= 0) {
+				return eof ? -1 : FAILED;
+			}
+			
+			int count = Math.min(len, available);
+			ByteBuffer data = buf.duplicate();
+			data.position(index);
+			data.get(dst, off, count);
+			return count;
+		}
+		
+		synchronized void discard() {
+			discarded = true;
+			if(buf != null) {
+				pool.add(buf);
+				buf = null;
+			}
+		}
+	}
+}
@@ -18,6 +18,9 @@
  */
 package com.sshtools.common.sftp;
 
+import java.io.IOException;
+import java.util.List;
+
 import com.sshtools.common.util.ByteArrayReader;
 
 public interface SftpExtension {
@@ -36,4 +39,20 @@ public interface SftpExtension {
 
 	String getName();
 
+	/**
+	 * Read the handles and paths a request operates on, so that when requests are 
+	 * processed in parallel it is only ordered with other requests on the same files.
+	 * The message is positioned after the extension name. Return false if the request
+	 * may operate on files it does not name, and it will be processed on its own.
+	 * 
+	 * @param msg
+	 * @param sftp
+	 * @param handles
+	 * @param paths
+	 * @return whether the handles and paths are all the request operates on
+	 * @throws IOException
+	 */
+	default boolean readTargets(ByteArrayReader msg, SftpSubsystem sftp, List<byte[]> handles, List<String> paths) throws IOException {
+		return false;
+	}
 }
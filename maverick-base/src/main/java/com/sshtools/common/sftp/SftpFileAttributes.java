@@ -236,7 +236,45 @@ public class SftpFileAttributes {
 			String charsetEncoding) {
 		this(type, charsetEncoding, 0L, 0L);
 	}
-	
+
+	/**
+	 * Creates a copy of another FileAttributes object that can be changed independently of it.
+	 *
+	 * @param attrs
+	 */
+	public SftpFileAttributes(SftpFileAttributes attrs) {
+		this(attrs.type, attrs.charsetEncoding);
+		this.supportedAttributeBits = attrs.supportedAttributeBits;
+		this.supportedAttributeMask = attrs.supportedAttributeMask;
+		this.flags = attrs.flags;
+		this.size = attrs.size;
+		this.allocationSize = attrs.allocationSize;
+		this.uid = attrs.uid;
+		this.gid = attrs.gid;
+		this.permissions = attrs.permissions;
+		this.atime = attrs.atime;
+		this.atime_nano = attrs.atime_nano;
+		this.createtime = attrs.createtime;
+		this.createtime_nano = attrs.createtime_nano;
+		this.mtime = attrs.mtime;
+		this.mtime_nano = attrs.mtime_nano;
+		this.ctime = attrs.ctime;
+		this.ctime_nano = attrs.ctime_nano;
+		this.attributeBits = attrs.attributeBits;
+		this.attributeBitsValid = attrs.attributeBitsValid;
+		this.textHint = attrs.textHint;
+		this.mimeType = attrs.mimeType;
+		this.linkCount = attrs.linkCount;
+		this.untralsatedName = attrs.untralsatedName;
+		this.aclFlags = attrs.aclFlags;
+		this.acls.addAll(attrs.acls);
+		for(Map.Entry<String, byte[]> e : attrs.extendedAttributes.entrySet()) {
+			this.extendedAttributes.put(e.getKey(), e.getValue().clone());
+		}
+		this.username = attrs.username;
+		this.group = attrs.group;
+	}
+
 	public int getType() {
 		return type;
 	}
@@ -0,0 +1,274 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.sftp;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import com.sshtools.common.logger.Log;
+
+/**
+ * Schedules SFTP requests so that independent requests run concurrently while
+ * requests that share a key, such as the same file handle or path, are executed 
+ * in the order they were received. A request may also hold shared keys, which only 
+ * conflict with requests holding the same key exclusively; a path request shares the 
+ * keys of its parent folders so that it is ordered with requests on those folders but 
+ * not with requests on its siblings. Requests submitted without a key are treated
+ * as barriers; they wait for all earlier requests to complete and no later request 
+ * starts until they have finished.
+ */
+public class SftpRequestScheduler {
+
+	final Executor executor;
+	final int maximumConcurrentRequests;
+	
+	final LinkedList<ScheduledRequest> pending = new LinkedList<ScheduledRequest>();
+	final KeySet activeKeys = new KeySet();
+	int running = 0;
+	boolean exclusiveRunning = false;
+	boolean shutdown = false;
+	
+	public SftpRequestScheduler(Executor executor, int maximumConcurrentRequests) {
+		if(maximumConcurrentRequests < 1) {
+			throw new IllegalArgumentException("The maximum number of concurrent requests must be at least 1");
+		}
+		this.executor = executor;
+		this.maximumConcurrentRequests = maximumConcurrentRequests;
+	}
+	
+	/**
+	 * Execute a request that must run after any earlier request with one of the same keys.
+	 * 
+	 * @param r
+	 * @param keys
+	 */
+	public void execute(Runnable r, Object... keys) {
+		execute(r, keys, new Object[0]);
+	}
+	
+	/**
+	 * Execute a request that must run after any earlier request holding one of its keys, 
+	 * or holding one of its shared keys exclusively. 
+	 * 
+	 * @param r
+	 * @param keys
+	 * @param sharedKeys
+	 */
+	public void execute(Runnable r, Object[] keys, Object[] sharedKeys) {
+		synchronized(this) {
+			if(shutdown) {
+				return;
+			}
+			pending.addLast(new ScheduledRequest(r, keys, sharedKeys));
+		}
+		schedule();
+	}
+	
+	/**
+	 * Execute a request after all earlier requests have completed, and before any
+	 * later request starts.
+	 * 
+	 * @param r
+	 */
+	public void executeExclusive(Runnable r) {
+		synchronized(this) {
+			if(shutdown) {
+				return;
+			}
+			pending.addLast(new ScheduledRequest(r, null, null));
+		}
+		schedule();
+	}
+	
+	public synchronized int getRunningCount() {
+		return running;
+	}
+	
+	public synchronized int getPendingCount() {
+		return pending.size();
+	}
+	
+	public int getMaximumConcurrentRequests() {
+		return maximumConcurrentRequests;
+	}
+	
+	/**
+	 * Discard the requests that have not started and wait for those that are running
+	 * to complete. Any request executed afterwards is ignored.
+	 * 
+	 * @param timeout milliseconds to wait for running requests
+	 * @return whether all running requests completed within the timeout
+	 * @throws InterruptedException
+	 */
+	public synchronized boolean shutdown(long timeout) throws InterruptedException {
+		shutdown = true;
+		pending.clear();
+		long expires = System.currentTimeMillis() + timeout;
+		long remaining;
+		while(running > 0 && (remaining = expires - System.currentTimeMillis()) > 0) {
+			wait(remaining);
+		}
+		return running == 0;
+	}
+	
+	private void schedule() {
+		
+		LinkedList<ScheduledRequest> ready = new LinkedList<ScheduledRequest>();
+		
+		synchronized(this) {
+			
+			if(exclusiveRunning) {
+				return;
+			}
+			
+			KeySet blockedKeys = null;
+			
+			for(Iterator<ScheduledRequest> it = pending.iterator(); it.hasNext() && running < maximumConcurrentRequests;) {
+				
+				ScheduledRequest request = it.next();
+				
+				if(request.isExclusive()) {
+					if(running == 0 && Objects.isNull(blockedKeys)) {
+						it.remove();
+						running++;
+						exclusiveRunning = true;
+						ready.add(request);
+					}
+					/**
+					 * Nothing may overtake an exclusive request
+					 */
+					break;
+				}
+				
+				if(activeKeys.conflicts(request) || (blockedKeys != null && blockedKeys.conflicts(request))) {
+					if(Objects.isNull(blockedKeys)) {
+						blockedKeys = new KeySet();
+					}
+					blockedKeys.add(request);
+					continue;
+				}
+				
+				it.remove();
+				activeKeys.add(request);
+				running++;
+				ready.add(request);
+			}
+		}
+		
+		for(ScheduledRequest request : ready) {
+			executor.execute(request);
+		}
+	}
+	
+	private void complete(ScheduledRequest request) {
+		synchronized(this) {
+			running--;
+			if(request.isExclusive()) {
+				exclusiveRunning = false;
+			} else {
+				activeKeys.remove(request);
+			}
+			if(running == 0) {
+				notifyAll();
+			}
+		}
+		schedule();
+	}
+	
+	/**
+	 * The keys held by a group of requests. Shared keys are counted as several 
+	 * requests may hold the same one at once.
+	 */
+	static class KeySet {
+		
+		final Set<Object> keys = new HashSet<Object>();
+		final Map<Object,Integer> sharedKeys = new HashMap<Object,Integer>();
+		
+		boolean conflicts(ScheduledRequest request) {
+			for(Object key : request.keys) {
+				if(keys.contains(key) || sharedKeys.containsKey(key)) {
+					return true;
+				}
+			}
+			for(Object key : request.sharedKeys) {
+				if(keys.contains(key)) {
+					return true;
+				}
+			}
+			return false;
+		}
+		
+		void add(ScheduledRequest request) {
+			for(Object key : request.keys) {
+				keys.add(key);
+			}
+			for(Object key : request.sharedKeys) {
+				Integer count = sharedKeys.get(key);
+				sharedKeys.put(key, count == null ? 1 : count + 1);
+			}
+		}
+		
+		void remove(ScheduledRequest request) {
+			for(Object key : request.keys) {
+				keys.remove(key);
+			}
+			for(Object key : request.sharedKeys) {
+				Integer count = sharedKeys.get(key);
+				if(count == null || count <= 1) {
+					sharedKeys.remove(key);
+				} else {
+					sharedKeys.put(key, count - 1);
+				}
+			}
+		}
+	}
+	
+	class ScheduledRequest implements Runnable {
+		
+		final Runnable r;
+		final Object[] keys;
+		final Object[] sharedKeys;
+		
+		ScheduledRequest(Runnable r, Object[] keys, Object[] sharedKeys) {
+			this.r = r;
+			this.keys = keys;
+			this.sharedKeys = sharedKeys;
+		}
+		
+		boolean isExclusive() {
+			return Objects.isNull(keys);
+		}
+		
+		public void run() {
+			try {
+				r.run();
+			} catch(Throwable t) {
+				Log.error("SFTP request failed with an error", t);
+			} finally {
+				complete(this);
+			}
+		}
+	}
+}
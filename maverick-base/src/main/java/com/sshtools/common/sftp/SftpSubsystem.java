@@ -23,20 +23,26 @@ import java.io.EOFException;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 import com.sshtools.common.events.Event;
 import com.sshtools.common.events.EventCodes;
 import com.sshtools.common.events.EventServiceImplementation;
+import com.sshtools.common.events.EventTrigger;
 import com.sshtools.common.files.AbstractFileFactory;
 import com.sshtools.common.files.FileExistsException;
 import com.sshtools.common.logger.Log;
@@ -49,6 +55,7 @@ import com.sshtools.common.ssh.Context;
 import com.sshtools.common.ssh.Packet;
 import com.sshtools.common.ssh.SessionChannel;
 import com.sshtools.common.ssh.SessionChannelHelper;
+import com.sshtools.common.ssh.SizedPacketPool;
 import com.sshtools.common.ssh.SshConnection;
 import com.sshtools.common.ssh.SshException;
 import com.sshtools.common.ssh.Subsystem;
@@ -71,10 +78,17 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 	private List<SftpOperationWrapper> wrappers = new ArrayList<SftpOperationWrapper>();
 	private SshConnection con;
 	private boolean nfsClosed = false;
+	private SftpRequestScheduler scheduler;
+	private volatile String defaultPath;
 	
 	int writeBlockSize = 4096;
 	
 	final static int SFTP_QUEUE = Integer.MAX_VALUE;
+	
+	/**
+	 * How long cleanup waits for requests already running in parallel.
+	 */
+	final static long SCHEDULER_SHUTDOWN_TIMEOUT = 30000L;
 
 	// maximum version of SFTP protocol supported
 	static final int MAX_VERSION = 4;
@@ -85,8 +99,8 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 
 	private String CHARSET_ENCODING;
 	private FileSystemPolicy filePolicy = new FileSystemPolicy();
-	private Map<String, TransferEvent> openFileHandles = new ConcurrentHashMap<String, TransferEvent>(8, 0.9f, 1);
-	private Map<String, TransferEvent> openFolderHandles = new ConcurrentHashMap<String, TransferEvent>(8, 0.9f, 1);
+	private volatile HandleTable<TransferEvent> openFileHandles = new HandleTable<TransferEvent>();
+	private volatile HandleTable<TransferEvent> openFolderHandles = new HandleTable<TransferEvent>();
 	private Map<Context, Set<String>> openFilesByContext = new ConcurrentHashMap<Context, Set<String>>(8, 0.9f, 1);
 
 	
@@ -119,7 +133,17 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 			addWrapper((SftpOperationWrapper)ff);
 		}
 		
-		executeOperation(SFTP_QUEUE, new InitOperation());
+		/**
+		 * Parallel requests are executed by the scheduler rather than on the connection's
+		 * SFTP queue, which only runs one operation at a time. They are still connection
+		 * aware tasks, and cleanup shuts the scheduler down before closing open files.
+		 */
+		if(filePolicy.isSFTPParallelRequests() && filePolicy.getMaximumNumberOfAsyncSFTPRequests() > 1) {
+			scheduler = new SftpRequestScheduler(context.getExecutorService(), 
+					filePolicy.getMaximumNumberOfAsyncSFTPRequests());
+		}
+		
+		executeExclusive(new InitOperation());
 
 		// Add event listener
 		session.addEventListener(new ChannelEventListener() {
@@ -135,6 +159,16 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 			
 			long started = System.currentTimeMillis();
 			
+			if(Objects.nonNull(scheduler)) {
+				try {
+					if(!scheduler.shutdown(SCHEDULER_SHUTDOWN_TIMEOUT)) {
+						Log.warn("SFTP requests were still running when the subsystem was cleaned up");
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			
 			List<byte[]> fileHandles = new ArrayList<byte[]>();
 			List<byte[]> dirHandles = new ArrayList<byte[]>();
 			for(TransferEvent evt : openFileHandles.values()) {
@@ -192,6 +226,8 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 				nfs = new AbstractFileSystem(
 								con,
 								AbstractFileSystem.SFTP);
+				openFileHandles = new HandleTable<TransferEvent>(nfs.openHandles);
+				openFolderHandles = new HandleTable<TransferEvent>(nfs.openHandles);
 
 				
 				fireEvent(
@@ -231,133 +267,133 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 		case SSH_FXP_MKDIR: {
 			if(Log.isDebugEnabled())
 				Log.debug("Processing SSH_FXP_MKDIR");
-			executeOperation(SFTP_QUEUE, new MakeDirectoryOperation(msg));
+			executeOnPaths(new MakeDirectoryOperation(msg), msg, 1);
 			break;
 		}
 
 		case SSH_FXP_REALPATH: {
 			if(Log.isDebugEnabled())
 				Log.debug("Processing SSH_FXP_REALPATH");
-			executeOperation(SFTP_QUEUE, new RealPathOperation(msg));
+			executeOnPaths(new RealPathOperation(msg), msg, 1);
 			break;
 		}
 
 		case SSH_FXP_OPENDIR: {
 			if(Log.isDebugEnabled())
 				Log.debug("Processing SSH_FXP_OPENDIR");
-			executeOperation(SFTP_QUEUE, new OpenDirectoryOperation(msg));
+			executeOnPaths(new OpenDirectoryOperation(msg), msg, 1);
 			break;
 		}
 
 		case SSH_FXP_OPEN: {
 			if(Log.isDebugEnabled())
 				Log.debug("Processing SSH_FXP_OPEN");
-			executeOperation(SFTP_QUEUE, new OpenFileOperation(msg));
+			executeOnPaths(new OpenFileOperation(msg), msg, 1);
 			break;
 		}
 
 		case SSH_FXP_READ: {
 			if(Log.isDebugEnabled())
 				Log.debug("Processing SSH_FXP_READ");
-			executeOperation(SFTP_QUEUE, new ReadFileOperation(msg));
+			executeOnHandle(new ReadFileOperation(msg), msg);
 			break;
 		}
 
 		case SSH_FXP_WRITE: {
 			if(Log.isDebugEnabled())
 				Log.debug("Processing SSH_FXP_WRITE");
-			executeOperation(SFTP_QUEUE, new WriteFileOperation(msg));
+			executeOnHandle(new WriteFileOperation(msg), msg);
 			break;
 		}
 
 		case SSH_FXP_READDIR: {
 			if(Log.isDebugEnabled())
 				Log.debug("Processing SSH_FXP_READDIR");
-			executeOperation(SFTP_QUEUE, new ReadDirectoryOperation(msg));
+			executeOnHandle(new ReadDirectoryOperation(msg), msg);
 			break;
 		}
 
 		case SSH_FXP_LSTAT: {
 			if(Log.isDebugEnabled())
 				Log.debug("Processing SSH_FXP_LSTAT");
-			executeOperation(SFTP_QUEUE, new LStatOperation(msg));
+			executeOnPaths(new LStatOperation(msg), msg, 1);
 			break;
 		}
 
 		case SSH_FXP_STAT: {
 			if(Log.isDebugEnabled())
 				Log.debug("Processing SSH_FXP_STAT");
-			executeOperation(SFTP_QUEUE, new StatOperation(msg));
+			executeOnPaths(new StatOperation(msg), msg, 1);
 			break;
 		}
 
 		case SSH_FXP_FSTAT: {
 			if(Log.isDebugEnabled())
 				Log.debug("Processing SSH_FXP_FSTAT");
-			executeOperation(SFTP_QUEUE, new FStatOperation(msg));
+			executeOnHandle(new FStatOperation(msg), msg);
 			break;
 		}
 
 		case SSH_FXP_CLOSE: {
 			if(Log.isDebugEnabled())
 				Log.debug("Processing SSH_FXP_CLOSE");
-			executeOperation(SFTP_QUEUE, new CloseFileOperation(msg));
+			executeOnHandle(new CloseFileOperation(msg), msg);
 			break;
 		}
 
 		case SSH_FXP_REMOVE: {
 			if(Log.isDebugEnabled())
 				Log.debug("Processing SSH_FXP_REMOVE");
-			executeOperation(SFTP_QUEUE, new RemoveFileOperation(msg));
+			executeOnPaths(new RemoveFileOperation(msg), msg, 1);
 			break;
 		}
 
 		case SSH_FXP_RENAME: {
 			if(Log.isDebugEnabled())
 				Log.debug("Processing SSH_FXP_RENAME");
-			executeOperation(SFTP_QUEUE, new RenameFileOperation(msg));
+			executeOnPaths(new RenameFileOperation(msg), msg, 2);
 			break;
 		}
 
 		case SSH_FXP_RMDIR: {
 			if(Log.isDebugEnabled())
 				Log.debug("Processing SSH_FXP_RMDIR");
-			executeOperation(SFTP_QUEUE, new RemoveDirectoryOperation(msg));
+			executeOnPaths(new RemoveDirectoryOperation(msg), msg, 1);
 			break;
 		}
 
 		case SSH_FXP_SETSTAT: {
 			if(Log.isDebugEnabled())
 				Log.debug("Processing SSH_FXP_SETSTAT");
-			executeOperation(SFTP_QUEUE, new SetStatOperation(msg));
+			executeOnPaths(new SetStatOperation(msg), msg, 1);
 			break;
 		}
 
 		case SSH_FXP_FSETSTAT: {
 			if(Log.isDebugEnabled())
 				Log.debug("Processing SSH_FXP_FSETSTAT");
-			executeOperation(SFTP_QUEUE, new SetFStatOperation(msg));
+			executeOnHandle(new SetFStatOperation(msg), msg);
 			break;
 		}
 
 		case SSH_FXP_READLINK: {
 			if(Log.isDebugEnabled())
 				Log.debug("Processing SSH_FXP_READLINK");
-			executeOperation(SFTP_QUEUE, new ReadlinkOperation(msg));
+			executeOnPaths(new ReadlinkOperation(msg), msg, 1);
 			break;
 		}
 
 		case SSH_FXP_SYMLINK: {
 			if(Log.isDebugEnabled())
 				Log.debug("Processing SSH_FXP_SYMLINK");
-			executeOperation(SFTP_QUEUE, new SymlinkOperation(msg));
+			executeOnPaths(new SymlinkOperation(msg), msg, 2);
 			break;
 		}
 
 		case SSH_FXP_EXTENDED: {
 			if(Log.isDebugEnabled())
 				Log.debug("Processing SSH_FXP_EXTENDED");
-			executeOperation(SFTP_QUEUE, new ExtendedOperation(msg));
+			executeExtended(new ExtendedOperation(msg), msg);
 			break;
 		}
 
@@ -365,7 +401,7 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 			for(SftpExtensionFactory fact : getContext().getPolicy(FileSystemPolicy.class).getSFTPExtensionFactories()) {
 				for(SftpExtension ext : fact.getExtensions()) {
 					if(ext.supportsExtendedMessage(msg[0])) {
-						executeOperation(SFTP_QUEUE, new ExtendedMessageOperation(msg, ext));
+						executeExclusive(new ExtendedMessageOperation(msg, ext));
 						break;
 					}
 				}
@@ -373,11 +409,217 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 			// Don't know this one
 			if(Log.isDebugEnabled())
 				Log.debug("Processing Unsupported Message id=" + msg[0]);
-			executeOperation(SFTP_QUEUE, new UnsupportedOperation(msg));
+			executeExclusive(new UnsupportedOperation(msg));
 			break;
 		}
 	}
 
+	/**
+	 * Execute an operation once all earlier operations have completed and before any 
+	 * later operation starts.
+	 */
+	private void executeExclusive(FileSystemOperation op) {
+		if(Objects.isNull(scheduler)) {
+			executeOperation(SFTP_QUEUE, op);
+		} else {
+			scheduler.executeExclusive(op);
+		}
+	}
+	
+	/**
+	 * Execute an operation whose first field is a handle. It is ordered with other 
+	 * operations on the same handle, and with operations on the path the handle was 
+	 * opened on.
+	 */
+	private void executeOnHandle(FileSystemOperation op, byte[] msg) {
+		if(Objects.isNull(scheduler)) {
+			executeOperation(SFTP_QUEUE, op);
+			return;
+		}
+		if(msg.length < 9 + HandleTable.HANDLE_LENGTH
+				|| ByteArrayReader.readInt(msg, 5) != HandleTable.HANDLE_LENGTH) {
+			// Malformed, let the operation report the error in order with everything else
+			scheduler.executeExclusive(op);
+			return;
+		}
+		Set<Object> keys = new LinkedHashSet<Object>();
+		List<Object> sharedKeys = new ArrayList<Object>();
+		if(!addHandleKeys(msg, 9, keys, sharedKeys)) {
+			scheduler.executeExclusive(op);
+			return;
+		}
+		scheduler.execute(op, keys.toArray(), sharedKeys.toArray());
+	}
+	
+	/**
+	 * Add the keys of a handle, and of the path it was opened on when it is known. 
+	 * Returns false if the path cannot be resolved.
+	 */
+	private boolean addHandleKeys(byte[] buf, int off, Set<Object> keys, List<Object> sharedKeys) {
+		keys.add(Long.valueOf(readUINT64(buf, off)));
+		TransferEvent evt = openFileHandles.get(buf, off, HandleTable.HANDLE_LENGTH);
+		if(Objects.isNull(evt)) {
+			evt = openFolderHandles.get(buf, off, HandleTable.HANDLE_LENGTH);
+		}
+		if(Objects.isNull(evt)) {
+			// Not a handle we know the path of, the operation will report an invalid handle
+			return true;
+		}
+		return addPathKeys(evt.path, keys, sharedKeys);
+	}
+	
+	/**
+	 * Add the key of a path and share the keys of its parent folders. Returns false
+	 * if the path cannot be resolved.
+	 */
+	private boolean addPathKeys(String path, Set<Object> keys, List<Object> sharedKeys) {
+		path = normalisePath(path);
+		if(Objects.isNull(path)) {
+			return false;
+		}
+		keys.add(path);
+		sharedKeys.addAll(Arrays.asList(getParentPaths(path)));
+		return true;
+	}
+	
+	/**
+	 * Execute an operation whose first fields are paths. It is ordered with any other
+	 * operation on the same paths, on their parent folders or on anything within them.
+	 */
+	private void executeOnPaths(FileSystemOperation op, byte[] msg, int count) {
+		if(Objects.isNull(scheduler)) {
+			executeOperation(SFTP_QUEUE, op);
+			return;
+		}
+		ByteArrayReader bar = new ByteArrayReader(msg, 5, msg.length - 5);
+		try {
+			Set<Object> keys = new LinkedHashSet<Object>();
+			List<Object> sharedKeys = new ArrayList<Object>();
+			for(int i=0;i<count;i++) {
+				if(!addPathKeys(bar.readString(CHARSET_ENCODING), keys, sharedKeys)) {
+					scheduler.executeExclusive(op);
+					return;
+				}
+			}
+			scheduler.execute(op, keys.toArray(), sharedKeys.toArray());
+		} catch(IOException e) {
+			// Malformed, let the operation report the error in order with everything else
+			scheduler.executeExclusive(op);
+		} finally {
+			bar.close();
+		}
+	}
+	
+	/**
+	 * Execute an SSH_FXP_EXTENDED request. When the extension can name the handles and
+	 * paths the request operates on it is ordered with other operations on them, 
+	 * otherwise it is executed on its own.
+	 */
+	private void executeExtended(FileSystemOperation op, byte[] msg) {
+		if(Objects.isNull(scheduler)) {
+			executeOperation(SFTP_QUEUE, op);
+			return;
+		}
+		ByteArrayReader bar = new ByteArrayReader(msg, 5, msg.length - 5);
+		try {
+			SftpExtension ext = filePolicy.getSFTPExtension(bar.readString());
+			List<byte[]> handles = new ArrayList<byte[]>();
+			List<String> paths = new ArrayList<String>();
+			if(Objects.isNull(ext) || !ext.readTargets(bar, this, handles, paths)
+					|| (handles.isEmpty() && paths.isEmpty())) {
+				scheduler.executeExclusive(op);
+				return;
+			}
+			Set<Object> keys = new LinkedHashSet<Object>();
+			List<Object> sharedKeys = new ArrayList<Object>();
+			for(byte[] handle : handles) {
+				if(handle.length != HandleTable.HANDLE_LENGTH || !addHandleKeys(handle, 0, keys, sharedKeys)) {
+					scheduler.executeExclusive(op);
+					return;
+				}
+			}
+			for(String path : paths) {
+				if(!addPathKeys(path, keys, sharedKeys)) {
+					scheduler.executeExclusive(op);
+					return;
+				}
+			}
+			scheduler.execute(op, keys.toArray(), sharedKeys.toArray());
+		} catch(IOException e) {
+			// Malformed, let the operation report the error in order with everything else
+			scheduler.executeExclusive(op);
+		} finally {
+			bar.close();
+		}
+	}
+	
+	/**
+	 * Resolve a path against the users home directory and remove any "." and ".." 
+	 * elements so that every form of the same path produces the same key. Returns
+	 * null if a relative path is received before the home directory is known.
+	 */
+	private String normalisePath(String path) {
+		if(!path.startsWith("/")) {
+			String home = defaultPath;
+			if(Objects.isNull(home)) {
+				if(Objects.isNull(nfs)) {
+					return null;
+				}
+				try {
+					home = defaultPath = nfs.getDefaultPath();
+				} catch (IOException | PermissionDeniedException e) {
+					return null;
+				}
+			}
+			path = home + "/" + path;
+		}
+		LinkedList<String> elements = new LinkedList<String>();
+		for(String element : path.split("/")) {
+			if(element.equals("..")) {
+				if(!elements.isEmpty()) {
+					elements.removeLast();
+				}
+			} else if(!element.equals("") && !element.equals(".")) {
+				elements.add(element);
+			}
+		}
+		StringBuilder normalised = new StringBuilder();
+		for(String element : elements) {
+			normalised.append('/');
+			normalised.append(element);
+		}
+		return normalised.length() == 0 ? "/" : normalised.toString();
+	}
+	
+	/**
+	 * The parent folders of a normalised path, nearest first.
+	 */
+	private static String[] getParentPaths(String path) {
+		List<String> parents = new ArrayList<String>();
+		int idx;
+		while((idx = path.lastIndexOf('/')) > 0) {
+			path = path.substring(0, idx);
+			parents.add(path);
+		}
+		if(path.length() > 1) {
+			parents.add("/");
+		}
+		return parents.toArray(new String[0]);
+	}
+	
+	private static long readUINT64(byte[] buf, int off) {
+		return (ByteArrayReader.readInt(buf, off) << 32) | ByteArrayReader.readInt(buf, off + 4);
+	}
+	
+	/**
+	 * Whether anything is listening for an event, so that hot paths can avoid 
+	 * building events nobody will receive.
+	 */
+	protected boolean hasListeners(int eventCode) {
+		return EventServiceImplementation.getInstance().hasListeners(eventCode)
+				|| (con instanceof EventTrigger && ((EventTrigger)con).hasListeners(eventCode));
+	}
+	
 	class ExtendedMessageOperation extends FileSystemOperation {
 		
 		SftpExtension ext;
@@ -963,12 +1205,12 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 				evt.handle = handle;
 				evt.exists = exists;
 				evt.flags = flags;
-				evt.key = new String(handle);
+				evt.key = new String(handle, StandardCharsets.ISO_8859_1);
 
 				try {
 					fireOpenFileEvent(flags, attrs, path, started, handle, null);
 					
-					openFileHandles.put(evt.key, evt);
+					openFileHandles.put(handle, evt);
 					if(!openFilesByContext.containsKey(getContext())) {
 						openFilesByContext.put(getContext(), new HashSet<String>());
 					}
@@ -1169,29 +1411,34 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 		
 		public void doOperation() {
 
-			// Read 'msg' as a byte stream
-			ByteArrayReader bar = new ByteArrayReader(msg);
-			// skip the messagetype byte
-			bar.skip(1);
-
 			int id = -1;
 			TransferEvent evt = null;
-			Date started = new Date();
+			long started = System.currentTimeMillis();
 
 			try {
 
-				// Extract the read request from the message
-				id = (int) bar.readInt();
-				byte[] handle = bar.readBinaryString();
-				String h = new String(handle);
+				// Decode the read request in place
+				if(msg.length < 9) {
+					throw new IOException("Malformed SSH_FXP_READ request");
+				}
+				id = (int) ByteArrayReader.readInt(msg, 1);
+				int handleLength = (int) ByteArrayReader.readInt(msg, 5);
+				if(handleLength < 0 || handleLength > msg.length - 21) {
+					throw new IOException("Malformed SSH_FXP_READ request");
+				}
 
-				evt = (TransferEvent) openFileHandles.get(h);
+				evt = openFileHandles.get(msg, 9, handleLength);
 
-				UnsignedInteger64 offset = bar.readUINT64();
-				int count = (int) bar.readInt();
+				long offset = readUINT64(msg, 9 + handleLength);
+				int count = (int) ByteArrayReader.readInt(msg, 17 + handleLength);
 
-				// Construct the correct size packet and read the file
-				Packet reply = new Packet(count + 13);
+				/**
+				 * The reply comes from a pool. The file is read directly into it and
+				 * sendMessage blocks until it has been written to the transport, so it
+				 * can be returned to the pool unless the send failed.
+				 */
+				Packet reply = SizedPacketPool.getInstance().getPacket(count + 13);
+				boolean release = true;
 				try {
 					reply.write(SSH_FXP_DATA);
 					reply.writeInt(id);
@@ -1202,12 +1449,12 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 	
 					if(Log.isDebugEnabled())
 						Log.debug("Remote client wants " + String.valueOf(count)
-								+ " bytes from file at offset " + offset.toString()
+								+ " bytes from file at offset " + offset
 								+ " localwindow=" + session.getLocalWindow()
 								+ " remotewindow=" + session.getRemoteWindow());
 	
 					// Read from the file
-					count = nfs.readFile(handle, offset, reply.array(),
+					count = nfs.readFile(msg, 9, handleLength, offset, reply.array(),
 							reply.position(), count);
 	
 					if (count == -1) {
@@ -1229,7 +1476,8 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 						reply.setPosition(position + count);
 	
 						try {
-							if(context.getPolicy(FileSystemPolicy.class).isSFTPReadWriteEvents()) {
+							if(context.getPolicy(FileSystemPolicy.class).isSFTPReadWriteEvents()
+									&& hasListeners(EventCodes.EVENT_SFTP_FILE_READ)) {
 								fireEvent(new Event(
 										SftpSubsystem.this,
 										EventCodes.EVENT_SFTP_FILE_READ,
@@ -1248,12 +1496,14 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 												evt.path)
 										.addAttribute(
 												EventCodes.ATTRIBUTE_OPERATION_STARTED,
-												started)
+												new Date(started))
 										.addAttribute(
 												EventCodes.ATTRIBUTE_OPERATION_FINISHED,
 												new Date()));
 							}
+							release = false;
 							sendMessage(reply);
+							release = true;
 							
 						} catch(SftpStatusEventException ex) {
 							sendStatusMessage(id, ex.getStatus(), ex.getMessage());
@@ -1261,9 +1511,8 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 						
 					}
 				} finally {
-					try {
-						reply.close();
-					} catch (IOException e) {
+					if(release) {
+						SizedPacketPool.getInstance().release(reply);
 					}
 				}
 				
@@ -1295,11 +1544,10 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 					evt.ex = ioe2;
 				}
 				sendStatusMessage(id, STATUS_FX_FAILURE, ioe2.getMessage());
-			} finally {
-				bar.close();
 			}
 			
-			if(evt!=null && evt.error && context.getPolicy(FileSystemPolicy.class).isSFTPReadWriteEvents()) {
+			if(evt!=null && evt.error && context.getPolicy(FileSystemPolicy.class).isSFTPReadWriteEvents()
+					&& hasListeners(EventCodes.EVENT_SFTP_FILE_READ)) {
 				fireEvent(	new Event(
 						SftpSubsystem.this,
 						EventCodes.EVENT_SFTP_FILE_READ,
@@ -1315,7 +1563,7 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 								evt.path)
 						.addAttribute(
 								EventCodes.ATTRIBUTE_OPERATION_STARTED,
-								started)
+								new Date(started))
 						.addAttribute(
 								EventCodes.ATTRIBUTE_OPERATION_FINISHED,
 								new Date())
@@ -1338,25 +1586,29 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 		}
 		
 		public void doOperation() {
-			// Read 'msg' as a byte stream
-			ByteArrayReader bar = new ByteArrayReader(msg);
-			// skip the messagetype byte
-			bar.skip(1);
 
 			int id = -1;
 			TransferEvent evt = null;
-			Date started = new Date();
+			long started = System.currentTimeMillis();
 			
 			try {
-				id = (int) bar.readInt();
-				byte[] handle = bar.readBinaryString();
-
-				String h = new String(handle);
+				// Decode the write request in place
+				if(msg.length < 9) {
+					throw new IOException("Malformed SSH_FXP_WRITE request");
+				}
+				id = (int) ByteArrayReader.readInt(msg, 1);
+				int handleLength = (int) ByteArrayReader.readInt(msg, 5);
+				if(handleLength < 0 || handleLength > msg.length - 21) {
+					throw new IOException("Malformed SSH_FXP_WRITE request");
+				}
 
-				evt = (TransferEvent) openFileHandles.get(h);
+				evt = openFileHandles.get(msg, 9, handleLength);
 
-				UnsignedInteger64 offset = bar.readUINT64();
-				int count = (int) bar.readInt();
+				long offset = readUINT64(msg, 9 + handleLength);
+				int count = (int) ByteArrayReader.readInt(msg, 17 + handleLength);
+				if(count < 0 || count > msg.length - 21 - handleLength) {
+					throw new IOException("Malformed SSH_FXP_WRITE request");
+				}
 
 				if(filePolicy.hasUploadQuota()) {
 					if(!con.containsProperty("uploadQuota")) {
@@ -1372,13 +1624,14 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 				}
 				try {	
 					
-					nfs.writeFile(handle, offset, bar.array(), bar.getPosition(),
+					nfs.writeFile(msg, 9, handleLength, offset, msg, 21 + handleLength,
 							count);
 	
 					evt.bytesWritten += count;
 
 
-					if(context.getPolicy(FileSystemPolicy.class).isSFTPReadWriteEvents()) {
+					if(context.getPolicy(FileSystemPolicy.class).isSFTPReadWriteEvents()
+							&& hasListeners(EventCodes.EVENT_SFTP_FILE_WRITE)) {
 						fireEvent(	new Event(
 								SftpSubsystem.this,
 								EventCodes.EVENT_SFTP_FILE_WRITE,
@@ -1397,7 +1650,7 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 										evt.path)
 								.addAttribute(
 										EventCodes.ATTRIBUTE_OPERATION_STARTED,
-										started)
+										new Date(started))
 								.addAttribute(
 										EventCodes.ATTRIBUTE_OPERATION_FINISHED,
 										new Date()));
@@ -1433,11 +1686,10 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 					evt.ex = ioe2;
 				}
 				sendStatusMessage(id, STATUS_FX_FAILURE, ioe2.getMessage());
-			} finally {
-				bar.close();
 			}
 			
-			if(evt!=null && evt.error && context.getPolicy(FileSystemPolicy.class).isSFTPReadWriteEvents()) {
+			if(evt!=null && evt.error && context.getPolicy(FileSystemPolicy.class).isSFTPReadWriteEvents()
+					&& hasListeners(EventCodes.EVENT_SFTP_FILE_WRITE)) {
 				fireEvent(	new Event(
 						SftpSubsystem.this,
 						EventCodes.EVENT_SFTP_FILE_WRITE,
@@ -1453,7 +1705,7 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 								evt.path)
 						.addAttribute(
 								EventCodes.ATTRIBUTE_OPERATION_STARTED,
-								started)
+								new Date(started))
 						.addAttribute(
 								EventCodes.ATTRIBUTE_OPERATION_FINISHED,
 								new Date())
@@ -1551,21 +1803,24 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 
 	protected void fireCloseFileEvent(byte[] handle, Exception error) {
 
-		String key = new String(handle);
-		if(openFileHandles.containsKey(key)) {
-			TransferEvent evt = (TransferEvent) openFileHandles.remove(key);
+		if(handle==null) {
+			return;
+		}
+		
+		TransferEvent evt = openFileHandles.remove(handle);
+		if(evt!=null) {
 			fireCloseFileEvent(evt, error);
-			openFileHandles.remove(key);
-			openFilesByContext.get(getContext()).remove(key);
+			openFilesByContext.get(getContext()).remove(evt.key);
 			
 			if(Log.isDebugEnabled()) {
 				Log.debug("There are now {} file(s) open in the current context", 
 						openFilesByContext.get(getContext()).size());
 			}
-		} else if(openFolderHandles.containsKey(key)) {
-			TransferEvent evt = (TransferEvent) openFolderHandles.remove(key);
-			fireCloseFileEvent(evt, error);
-			openFolderHandles.remove(key);
+		} else {
+			evt = openFolderHandles.remove(handle);
+			if(evt!=null) {
+				fireCloseFileEvent(evt, error);
+			}
 		}
 		
 	}
@@ -1943,7 +2198,7 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 			try {
 				id = (int) bar.readInt();
 				sendFilenameMessage(id,
-						nfs.readDirectory(bar.readBinaryString()), false, false);
+						nfs.readDirectory(bar.readBinaryString(), session.getRemotePacket()), false, false);
 
 			} catch (FileNotFoundException ioe) {
 				sendStatusMessage(id, STATUS_FX_NO_SUCH_FILE, ioe.getMessage());
@@ -1998,7 +2253,7 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 
 				try {
 					fireOpenDirectoryEvent(path, started, handle, null);
-					openFolderHandles.put(new String(handle), evt);
+					openFolderHandles.put(handle, evt);
 					sendHandleMessage(id, handle);
 				} catch (SftpStatusEventException ex) {
 					sendStatusMessage(id, ex.getStatus(), ex.getMessage());
@@ -2466,12 +2721,31 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 		return CHARSET_ENCODING;
 	}
 	
+	/**
+	 * @deprecated the handle is taken from the event, use {@link #addTransferEvent(TransferEvent)}
+	 */
+	@Deprecated
 	public void addTransferEvent(String handle, TransferEvent evt) {
-		if(evt.isDir()) {
-			openFolderHandles.put(handle, evt);
-		} else {
-			openFileHandles.put(handle, evt);
-		}		
+		addTransferEvent(evt);
+	}
+	
+	/**
+	 * Track an open file or folder against the handle of the event. The handle must
+	 * have been issued by this subsystem's file system, any other handle could never 
+	 * be used in a request so the event is not tracked.
+	 * 
+	 * @param evt
+	 */
+	public void addTransferEvent(TransferEvent evt) {
+		try {
+			if(evt.isDir()) {
+				openFolderHandles.put(evt.getHandle(), evt);
+			} else {
+				openFileHandles.put(evt.getHandle(), evt);
+			}
+		} catch(IllegalArgumentException e) {
+			Log.warn("Not tracking {} as its handle was not issued by this file system", evt.getPath());
+		}
 	}
 
 }
@@ -0,0 +1,206 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.sftp;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import com.sshtools.common.files.AbstractFileRandomAccess;
+import com.sshtools.common.logger.Log;
+import com.sshtools.common.util.ByteBufferPool;
+
+/**
+ * Collects contiguous writes to an open file into a pooled buffer and writes each full 
+ * buffer to the file in the background. At most one buffer is being written while the
+ * next is filled. A failed write is reported by every subsequent call, so the error
+ * reaches the client on its next request or when the file is closed.
+ */
+public class WriteBehindBuffer {
+
+	final AbstractFileRandomAccess raf;
+	final ByteBufferPool pool;
+	final Executor executor;
+	
+	ByteBuffer current;
+	long currentPosition;
+	Flush inFlight;
+	IOException error;
+	
+	/**
+	 * Create a write behind buffer. The buffered data is limited to twice the capacity 
+	 * of the pool's buffers.
+	 * 
+	 * @param raf the file to write to
+	 * @param pool the pool of buffers
+	 * @param executor executes the background writes
+	 */
+	public WriteBehindBuffer(AbstractFileRandomAccess raf, ByteBufferPool pool, Executor executor) {
+		this.raf = raf;
+		this.pool = pool;
+		this.executor = executor;
+	}
+	
+	/**
+	 * Buffer data to be written at a position. Data that does not follow on from the
+	 * data already buffered causes the buffer to be written first.
+	 * 
+	 * @param position
+	 * @param data
+	 * @param off
+	 * @param len
+	 * @throws IOException if this or an earlier write failed
+	 */
+	public synchronized void write(long position, byte[] data, int off, int len) throws IOException {
+		
+		checkError();
+		
+		if(current != null && (currentPosition + current.position() != position || current.remaining() < len)) {
+			writeCurrent();
+		}
+		
+		if(len > pool.getCapacity()) {
+			waitForWrite();
+			checkError();
+			raf.write(position, ByteBuffer.wrap(data, off, len));
+			return;
+		}
+		
+		if(current == null) {
+			current = pool.get();
+			currentPosition = position;
+		}
+		
+		current.put(data, off, len);
+		
+		if(!current.hasRemaining()) {
+			writeCurrent();
+		}
+	}
+	
+	/**
+	 * Write all buffered data to the file and wait for it to complete.
+	 * 
+	 * @throws IOException if any buffered write failed
+	 */
+	public synchronized void flush() throws IOException {
+		if(current != null) {
+			if(current.position() > 0) {
+				writeCurrent();
+			} else {
+				pool.add(current);
+				current = null;
+			}
+		}
+		waitForWrite();
+		checkError();
+	}
+	
+	public synchronized boolean hasBufferedData() {
+		return (current != null && current.position() > 0) || inFlight != null;
+	}
+	
+	/**
+	 * Flush any buffered data and release the buffers.
+	 * 
+	 * @throws IOException if any buffered write failed
+	 */
+	public synchronized void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			if(current != null) {
+				pool.add(current);
+				current = null;
+			}
+		}
+	}
+	
+	private void checkError() throws IOException {
+		if(error != null) {
+			throw new IOException(error.getMessage(), error);
+		}
+	}
+	
+	private void waitForWrite() throws IOException {
+		while(inFlight != null) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException();
+			}
+		}
+	}
+	
+	private void writeCurrent() throws IOException {
+		
+		waitForWrite();
+		
+		ByteBuffer buf = current;
+		current = null;
+		
+		if(error != null) {
+			pool.add(buf);
+			checkError();
+		}
+		
+		buf.flip();
+		inFlight = new Flush(buf, currentPosition);
+		try {
+			executor.execute(inFlight);
+		} catch(RejectedExecutionException e) {
+			inFlight.run();
+		}
+	}
+	
+	class Flush implements Runnable {
+		
+		final ByteBuffer buf;
+		final long position;
+		
+		Flush(ByteBuffer buf, long position) {
+			this.buf = buf;
+			this.position = position;
+		}
+		
+		public void run() {
+			
+			IOException e = null;
+			try {
+				raf.write(position, buf);
+			} catch(IOException ex) {
+				if(Log.isDebugEnabled()) {
+					Log.debug("Write behind of {} bytes at {} failed", ex, buf.limit(), position);
+				}
+				e = ex;
+			}
+			
+			synchronized(WriteBehindBuffer.this) {
+				if(e != null && error == null) {
+					error = e;
+				}
+				pool.add(buf);
+				inFlight = null;
+				WriteBehindBuffer.this.notifyAll();
+			}
+		}
+	}
+}
@@ -0,0 +1,267 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.sftp.extensions;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import com.sshtools.common.logger.Log;
+import com.sshtools.common.permissions.PermissionDeniedException;
+import com.sshtools.common.policy.FileSystemPolicy;
+import com.sshtools.common.sftp.AbstractFileSystem;
+import com.sshtools.common.sftp.InvalidHandleException;
+import com.sshtools.common.sftp.SftpSubsystem;
+import com.sshtools.common.ssh.Packet;
+import com.sshtools.common.ssh.SshException;
+import com.sshtools.common.ssh.components.ComponentManager;
+import com.sshtools.common.ssh.components.Digest;
+import com.sshtools.common.util.ByteArrayReader;
+
+/**
+ * Base for the check-file-handle and check-file-name extensions described in 
+ * draft-ietf-secsh-filexfer. A range of the file is hashed either as a whole or as 
+ * a list of fixed size blocks, so a client can verify or resume a transfer 
+ * incrementally. When {@link FileSystemPolicy#setSFTPCheckFileThreads(int)} allows 
+ * it, the blocks are hashed in parallel using positional reads.
+ */
+public abstract class AbstractCheckFileExtension extends AbstractSftpExtension {
+
+	public static final int MINIMUM_BLOCK_SIZE = 256;
+	
+	/**
+	 * The hash algorithms in order of preference, with the name of the digest that
+	 * implements them.
+	 */
+	static final String[][] ALGORITHMS = { 
+			{ "sha256", "SHA-256" }, 
+			{ "sha512", "SHA-512" },
+			{ "sha384", "SHA-384" },
+			{ "sha1", "SHA-1" },
+			{ "md5", "MD5" } };
+	
+	AbstractCheckFileExtension(String extensionName) {
+		super(extensionName, true);
+	}
+	
+	@Override
+	protected byte[] generateDefaultData() {
+		StringBuilder buf = new StringBuilder();
+		for(String[] algorithm : ALGORITHMS) {
+			if(ComponentManager.getInstance().supportedDigests().contains(algorithm[1])) {
+				if(buf.length() > 0) {
+					buf.append(',');
+				}
+				buf.append(algorithm[0]);
+			}
+		}
+		return buf.toString().getBytes();
+	}
+	
+	/**
+	 * Read the file identifier from the start of the request and return an open handle.
+	 */
+	protected abstract byte[] openHandle(ByteArrayReader msg, SftpSubsystem sftp) 
+			throws IOException, PermissionDeniedException;
+	
+	/**
+	 * Release a handle returned by {@link #openHandle(ByteArrayReader, SftpSubsystem)}.
+	 */
+	protected void closeHandle(byte[] handle, SftpSubsystem sftp) throws IOException, InvalidHandleException {
+	}
+	
+	@Override
+	public void processMessage(ByteArrayReader msg, int requestId, SftpSubsystem sftp) {
+		
+		try {
+			byte[] handle = openHandle(msg, sftp);
+			try {
+				String algorithms = msg.readString();
+				long startOffset = msg.readUINT64().longValue();
+				long length = msg.readUINT64().longValue();
+				int blockSize = (int) msg.readInt();
+				
+				String[] algorithm = selectAlgorithm(algorithms);
+				if(algorithm == null) {
+					sftp.sendStatusMessage(requestId, SftpSubsystem.STATUS_FX_OP_UNSUPPORTED, 
+							"None of the requested hash algorithms are supported");
+					return;
+				}
+				
+				if(startOffset < 0 || length < 0 || blockSize < 0 || (blockSize > 0 && blockSize < MINIMUM_BLOCK_SIZE)) {
+					sftp.sendStatusMessage(requestId, SftpSubsystem.SSH_FX_INVALID_PARAMETER, 
+							"The block size must be zero or at least " + MINIMUM_BLOCK_SIZE);
+					return;
+				}
+				
+				sendReply(requestId, algorithm[0], 
+						doHash(algorithm[1], handle, startOffset, length, blockSize, sftp), sftp);
+			} finally {
+				closeHandle(handle, sftp);
+			}
+		} catch(FileNotFoundException e) {
+			sftp.sendStatusMessage(requestId, SftpSubsystem.STATUS_FX_NO_SUCH_FILE, e.getMessage());
+		} catch(PermissionDeniedException e) {
+			sftp.sendStatusMessage(requestId, SftpSubsystem.STATUS_FX_PERMISSION_DENIED, e.getMessage());
+		} catch(InvalidHandleException e) {
+			sftp.sendStatusMessage(requestId, SftpSubsystem.SSH_FX_INVALID_HANDLE, e.getMessage());
+		} catch(IOException | SshException e) {
+			Log.error("Failed to process {}", e, getName());
+			sftp.sendStatusMessage(requestId, SftpSubsystem.STATUS_FX_FAILURE, e.getMessage());
+		}
+	}
+	
+	static String[] selectAlgorithm(String algorithms) {
+		for(String name : algorithms.split(",")) {
+			for(String[] algorithm : ALGORITHMS) {
+				if(algorithm[0].equals(name.trim()) 
+						&& ComponentManager.getInstance().supportedDigests().contains(algorithm[1])) {
+					return algorithm;
+				}
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Hash the range of the file. A length of zero hashes to the end of the file and a 
+	 * block size of zero returns a single hash for the whole range. Otherwise the hash
+	 * of each block is returned in order, with the last block ending at the end of the range.
+	 */
+	protected byte[] doHash(final String digestName, final byte[] handle, long startOffset, long length, 
+			final int blockSize, SftpSubsystem sftp) throws IOException, PermissionDeniedException, InvalidHandleException, SshException {
+		
+		final AbstractFileSystem fs = sftp.getFileSystem();
+		FileSystemPolicy policy = sftp.getContext().getPolicy(FileSystemPolicy.class);
+		
+		long size = fs.getFileAttributes(handle).getSize().longValue();
+		long available = Math.max(0, size - startOffset);
+		final long total = length == 0 || length > available ? available : length;
+		final long start = startOffset;
+		
+		if(blockSize == 0) {
+			return hashRange(digestName, fs, handle, start, total);
+		}
+		
+		final long blocks = (total + blockSize - 1) / blockSize;
+		int hashLength = ComponentManager.getInstance().supportedDigests().getInstance(digestName).doFinal().length;
+		if(blocks * hashLength > policy.getSftpMaxPacketSize() - 1024) {
+			throw new IOException("The block size is too small to return every hash of the requested range");
+		}
+		
+		final byte[] hashes = new byte[(int) blocks * hashLength];
+		int threads = policy.getSFTPCheckFileThreads();
+		
+		if(threads <= 1 || blocks < 2 || !fs.supportsPositionalAccess(handle)) {
+			hashBlocks(digestName, fs, handle, start, total, blockSize, 0, blocks, hashes);
+			return hashes;
+		}
+		
+		// Split the blocks between the executor and this thread, each part hashes 
+		// its blocks with positional reads and writes the result into its own slots
+		long parts = Math.min(threads, blocks);
+		final long chunk = (blocks + parts - 1) / parts;
+		List<Future<Void>> futures = new ArrayList<Future<Void>>();
+		for(long i = chunk; i < blocks; i += chunk) {
+			final long first = i;
+			futures.add(sftp.getContext().getExecutorService().submit(new Callable<Void>() {
+				public Void call() throws Exception {
+					hashBlocks(digestName, fs, handle, start, total, blockSize, first, Math.min(first + chunk, blocks), hashes);
+					return null;
+				}
+			}));
+		}
+		
+		try {
+			hashBlocks(digestName, fs, handle, start, total, blockSize, 0, chunk, hashes);
+			for(Future<Void> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted hashing file");
+		} catch (ExecutionException e) {
+			throw new IOException("Failed to hash file", e.getCause());
+		} finally {
+			for(Future<Void> future : futures) {
+				future.cancel(false);
+			}
+		}
+		return hashes;
+	}
+	
+	private void hashBlocks(String digestName, AbstractFileSystem fs, byte[] handle, long start, long total, 
+			int blockSize, long first, long last, byte[] hashes) throws IOException, PermissionDeniedException, InvalidHandleException, SshException {
+		
+		for(long block = first; block < last; block++) {
+			long offset = block * blockSize;
+			byte[] hash = hashRange(digestName, fs, handle, start + offset, Math.min(blockSize, total - offset));
+			System.arraycopy(hash, 0, hashes, (int) block * hash.length, hash.length);
+		}
+	}
+	
+	private byte[] hashRange(String digestName, AbstractFileSystem fs, byte[] handle, long offset, long length) 
+			throws IOException, PermissionDeniedException, InvalidHandleException, SshException {
+		
+		Digest digest = ComponentManager.getInstance().supportedDigests().getInstance(digestName);
+		byte[] tmp = new byte[(int) Math.min(32768, Math.max(length, 1))];
+		
+		while(length > 0) {
+			int read = fs.readFile(handle, offset, tmp, 0, (int) Math.min(tmp.length, length));
+			if(read <= 0) {
+				break;
+			}
+			digest.putBytes(tmp, 0, read);
+			offset += read;
+			length -= read;
+		}
+		return digest.doFinal();
+	}
+	
+	protected void sendReply(int requestId, String algorithm, byte[] hashes, SftpSubsystem sftp) throws IOException {
+		
+		Packet reply = new Packet(hashes.length + 64);
+		
+		try {
+			reply.write(SftpSubsystem.SSH_FXP_EXTENDED_REPLY);
+			reply.writeInt(requestId);
+			reply.writeString("check-file");
+			reply.writeString(algorithm);
+			reply.write(hashes);
+			
+			sftp.sendMessage(reply);
+		} finally {
+			reply.close();
+		}
+	}
+
+	@Override
+	public boolean supportsExtendedMessage(int messageId) {
+		return false;
+	}
+
+	@Override
+	public void processExtendedMessage(ByteArrayReader msg, SftpSubsystem sftp) {
+	}
+}
@@ -0,0 +1,46 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.sftp.extensions;
+
+import java.io.IOException;
+import java.util.List;
+
+import com.sshtools.common.sftp.SftpSubsystem;
+import com.sshtools.common.util.ByteArrayReader;
+
+public class CheckFileHandleExtension extends AbstractCheckFileExtension {
+
+	public static final String EXTENSION_NAME = "check-file-handle";
+	
+	public CheckFileHandleExtension() {
+		super(EXTENSION_NAME);
+	}
+
+	@Override
+	protected byte[] openHandle(ByteArrayReader msg, SftpSubsystem sftp) throws IOException {
+		return msg.readBinaryString();
+	}
+
+	@Override
+	public boolean readTargets(ByteArrayReader msg, SftpSubsystem sftp, List<byte[]> handles, List<String> paths) throws IOException {
+		handles.add(msg.readBinaryString());
+		return true;
+	}
+
+}
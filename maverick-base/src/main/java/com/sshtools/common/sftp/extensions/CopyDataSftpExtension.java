@@ -0,0 +1,91 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.sftp.extensions;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.List;
+
+import com.sshtools.common.permissions.PermissionDeniedException;
+import com.sshtools.common.sftp.InvalidHandleException;
+import com.sshtools.common.sftp.SftpSubsystem;
+import com.sshtools.common.util.ByteArrayReader;
+
+/**
+ * Implements copy-data. A range of bytes is copied from one open file handle to 
+ * another on the server, so the data never crosses the network. A length of zero
+ * copies until the end of the source file.
+ */
+public class CopyDataSftpExtension extends AbstractSftpExtension {
+
+	public static final String EXTENSION_NAME = "copy-data";
+
+	public CopyDataSftpExtension() {
+		super(EXTENSION_NAME, true);
+	}
+	
+	@Override
+	protected byte[] generateDefaultData() {
+		return "1".getBytes();
+	}
+
+	@Override
+	public void processMessage(ByteArrayReader msg, int requestId, SftpSubsystem sftp) {
+
+		try {
+			byte[] readHandle = msg.readBinaryString();
+			long readOffset = msg.readUINT64().longValue();
+			long length = msg.readUINT64().longValue();
+			byte[] writeHandle = msg.readBinaryString();
+			long writeOffset = msg.readUINT64().longValue();
+			
+			sftp.getFileSystem().copyData(readHandle, readOffset, length, writeHandle, writeOffset);
+			
+			sftp.sendStatusMessage(requestId, SftpSubsystem.STATUS_FX_OK, "The copy-data operation completed.");
+			
+		} catch(EOFException e) {
+			sftp.sendStatusMessage(requestId, SftpSubsystem.STATUS_FX_EOF, e.getMessage());
+		} catch(InvalidHandleException e) {
+			sftp.sendStatusMessage(requestId, SftpSubsystem.STATUS_FX_FAILURE, e.getMessage());
+		} catch(IOException e) {
+			sftp.sendStatusMessage(requestId, SftpSubsystem.STATUS_FX_FAILURE, e.getMessage());
+		} catch (PermissionDeniedException e) {
+			sftp.sendStatusMessage(requestId, SftpSubsystem.STATUS_FX_PERMISSION_DENIED, e.getMessage());
+		}
+	}
+
+	@Override
+	public boolean supportsExtendedMessage(int messageId) {
+		return false;
+	}
+
+	@Override
+	public void processExtendedMessage(ByteArrayReader msg, SftpSubsystem sftp) {
+	}
+
+	@Override
+	public boolean readTargets(ByteArrayReader msg, SftpSubsystem sftp, List<byte[]> handles, List<String> paths) throws IOException {
+		handles.add(msg.readBinaryString());
+		msg.readUINT64();
+		msg.readUINT64();
+		handles.add(msg.readBinaryString());
+		return true;
+	}
+
+}
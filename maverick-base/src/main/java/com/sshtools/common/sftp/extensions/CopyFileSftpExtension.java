@@ -19,6 +19,7 @@
 package com.sshtools.common.sftp.extensions;
 
 import java.io.IOException;
+import java.util.List;
 
 import com.sshtools.common.permissions.PermissionDeniedException;
 import com.sshtools.common.sftp.AbstractFileSystem;
@@ -66,4 +67,11 @@ public class CopyFileSftpExtension extends AbstractSftpExtension {
 
 	}
 
+	@Override
+	public boolean readTargets(ByteArrayReader msg, SftpSubsystem sftp, List<byte[]> handles, List<String> paths) throws IOException {
+		paths.add(msg.readString());
+		paths.add(msg.readString());
+		return true;
+	}
+
 }
@@ -54,6 +54,16 @@ public class DefaultSftpExtensionFactory implements SftpExtensionFactory {
 		if(supported.contains(SupportedSftpExtensions.OPEN_DIRECTORY_WITH_FILTER)) {
 			extensions.put(OpenDirectoryWithFilterExtension.EXTENSION_NAME, new OpenDirectoryWithFilterExtension());
 		}
+		if(supported.contains(SupportedSftpExtensions.FSYNC)) {
+			extensions.put(FsyncExtension.EXTENSION_NAME, new FsyncExtension());
+		}
+		if(supported.contains(SupportedSftpExtensions.COPY_DATA)) {
+			extensions.put(CopyDataSftpExtension.EXTENSION_NAME, new CopyDataSftpExtension());
+		}
+		if(supported.contains(SupportedSftpExtensions.CHECK_FILE)) {
+			extensions.put(CheckFileHandleExtension.EXTENSION_NAME, new CheckFileHandleExtension());
+			extensions.put(CheckFileNameExtension.EXTENSION_NAME, new CheckFileNameExtension());
+		}
 	}
 	
 	@Override
@@ -0,0 +1,79 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.sftp.extensions;
+
+import java.io.IOException;
+import java.util.List;
+
+import com.sshtools.common.sftp.InvalidHandleException;
+import com.sshtools.common.sftp.SftpSubsystem;
+import com.sshtools.common.sftp.UnsupportedFileOperationException;
+import com.sshtools.common.util.ByteArrayReader;
+
+/**
+ * Implements fsync@openssh.com. Any writes buffered for the handle are written 
+ * and the file is forced to the storage device before the status is returned.
+ */
+public class FsyncExtension extends AbstractSftpExtension {
+
+	public static final String EXTENSION_NAME = "fsync@openssh.com";
+
+	public FsyncExtension() {
+		super(EXTENSION_NAME, true);
+	}
+	
+	@Override
+	protected byte[] generateDefaultData() {
+		return "1".getBytes();
+	}
+	
+	@Override
+	public void processMessage(ByteArrayReader msg, int requestId, SftpSubsystem sftp) {
+		
+		try {
+			byte[] handle = msg.readBinaryString();
+			
+			sftp.getFileSystem().syncFile(handle);
+			
+			sftp.sendStatusMessage(requestId, SftpSubsystem.STATUS_FX_OK, "The file has been synchronized.");
+		} catch (UnsupportedFileOperationException e) {
+			sftp.sendStatusMessage(requestId, SftpSubsystem.STATUS_FX_OP_UNSUPPORTED, e.getMessage());
+		} catch (InvalidHandleException e) {
+			sftp.sendStatusMessage(requestId, SftpSubsystem.STATUS_FX_FAILURE, e.getMessage());
+		} catch (IOException e) {
+			sftp.sendStatusMessage(requestId, SftpSubsystem.STATUS_FX_FAILURE, e.getMessage());
+		}
+	}
+
+	@Override
+	public boolean supportsExtendedMessage(int messageId) {
+		return false;
+	}
+
+	@Override
+	public void processExtendedMessage(ByteArrayReader msg, SftpSubsystem sftp) {
+	}
+
+	@Override
+	public boolean readTargets(ByteArrayReader msg, SftpSubsystem sftp, List<byte[]> handles, List<String> paths) throws IOException {
+		handles.add(msg.readBinaryString());
+		return true;
+	}
+
+}
@@ -18,6 +18,9 @@
  */
 package com.sshtools.common.sftp.extensions;
 
+import java.io.IOException;
+import java.util.List;
+
 import com.sshtools.common.logger.Log;
 import com.sshtools.common.sftp.SftpSubsystem;
 import com.sshtools.common.util.ByteArrayReader;
@@ -50,4 +53,10 @@ public class MD5FileExtension extends AbstractMD5Extension {
             return;
         } 
 	}
+
+	@Override
+	public boolean readTargets(ByteArrayReader msg, SftpSubsystem sftp, List<byte[]> handles, List<String> paths) throws IOException {
+		paths.add(msg.readString());
+		return true;
+	}
 }
@@ -18,6 +18,9 @@
  */
 package com.sshtools.common.sftp.extensions;
 
+import java.io.IOException;
+import java.util.List;
+
 import com.sshtools.common.logger.Log;
 import com.sshtools.common.sftp.SftpSubsystem;
 import com.sshtools.common.util.ByteArrayReader;
@@ -51,4 +54,10 @@ public class MD5HandleExtension extends AbstractMD5Extension {
         } 
 	}
 
+	@Override
+	public boolean readTargets(ByteArrayReader msg, SftpSubsystem sftp, List<byte[]> handles, List<String> paths) throws IOException {
+		handles.add(msg.readBinaryString());
+		return true;
+	}
+
 }
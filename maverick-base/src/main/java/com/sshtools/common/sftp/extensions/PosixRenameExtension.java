@@ -20,6 +20,7 @@ package com.sshtools.common.sftp.extensions;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.List;
 
 import com.sshtools.common.permissions.PermissionDeniedException;
 import com.sshtools.common.sftp.AbstractFileSystem;
@@ -67,4 +68,11 @@ public class PosixRenameExtension extends AbstractSftpExtension {
 	public void processExtendedMessage(ByteArrayReader msg, SftpSubsystem sftp) {
 	}
 
+	@Override
+	public boolean readTargets(ByteArrayReader msg, SftpSubsystem sftp, List<byte[]> handles, List<String> paths) throws IOException {
+		paths.add(msg.readString());
+		paths.add(msg.readString());
+		return true;
+	}
+
 }
@@ -23,5 +23,8 @@ public enum SupportedSftpExtensions {
 	MD5_FILE_HASH,
 	POSIX_RENAME,
 	COPY_FILE,
-	OPEN_DIRECTORY_WITH_FILTER
+	OPEN_DIRECTORY_WITH_FILTER,
+	FSYNC,
+	COPY_DATA,
+	CHECK_FILE
 }
@@ -21,6 +21,7 @@ package com.sshtools.common.sftp.extensions.filter;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.Date;
+import java.util.List;
 
 import com.sshtools.common.events.Event;
 import com.sshtools.common.events.EventCodes;
@@ -130,4 +131,10 @@ public class OpenDirectoryWithFilterExtension implements SftpExtension {
 		return EXTENSION_NAME;
 	}
 
+	@Override
+	public boolean readTargets(ByteArrayReader msg, SftpSubsystem sftp, List<byte[]> handles, List<String> paths) throws IOException {
+		paths.add(msg.readString(sftp.getCharsetEncoding()));
+		return true;
+	}
+
 }
@@ -31,6 +31,9 @@ public class ShellPolicy extends Permissions {
 	protected int sessionMaxPacketSize = 65536;
 	protected int sessionMaxWindowSize = 1024000;
 	protected int sessionMinWindowSize = 131072;
+	protected boolean sessionWriteCoalescing = false;
+	protected long sessionWriteCoalescingDeadline = 1;
+	protected boolean sessionWriteCoalescingWithPty = false;
 	
 	public ShellPolicy() {
 		permissions = SHELL
@@ -96,6 +99,58 @@ public class ShellPolicy extends Permissions {
 	public void setSessionMinWindowSize(int sessionMinWindowSize) {
 		this.sessionMinWindowSize = sessionMinWindowSize;
 	}
+
+	/**
+	 * Should small writes to session output be merged into larger packets?
+	 * 
+	 * @return boolean
+	 */
+	public boolean isSessionWriteCoalescing() {
+		return sessionWriteCoalescing;
+	}
+
+	/**
+	 * Merge small writes to session stdout/stderr into packets of up to the remote
+	 * maximum packet size. This reduces the number of packets sent by commands that
+	 * write line by line, at the cost of holding data for up to the flush deadline.
+	 * 
+	 * @param sessionWriteCoalescing
+	 */
+	public void setSessionWriteCoalescing(boolean sessionWriteCoalescing) {
+		this.sessionWriteCoalescing = sessionWriteCoalescing;
+	}
+
+	/**
+	 * Returns the maximum time in milliseconds coalesced data is held before being sent.
+	 * 
+	 * @return long
+	 */
+	public long getSessionWriteCoalescingDeadline() {
+		return sessionWriteCoalescingDeadline;
+	}
+
+	/**
+	 * Sets the maximum time in milliseconds coalesced data is held before being sent.
+	 * 
+	 * @param sessionWriteCoalescingDeadline
+	 */
+	public void setSessionWriteCoalescingDeadline(long sessionWriteCoalescingDeadline) {
+		this.sessionWriteCoalescingDeadline = sessionWriteCoalescingDeadline;
+	}
+
+	/**
+	 * Should sessions that have allocated a pseudo terminal continue to coalesce writes? 
+	 * Defaults to false so that interactive sessions echo without delay.
+	 * 
+	 * @return boolean
+	 */
+	public boolean isSessionWriteCoalescingWithPty() {
+		return sessionWriteCoalescingWithPty;
+	}
+
+	public void setSessionWriteCoalescingWithPty(boolean sessionWriteCoalescingWithPty) {
+		this.sessionWriteCoalescingWithPty = sessionWriteCoalescingWithPty;
+	}
 	
 	
 }
@@ -28,6 +28,8 @@ public interface Channel {
 
 	int getLocalPacket();
 
+	int getRemotePacket();
+
 	void close();
 
 	void sendData(byte[] array, int i, int size) throws IOException;
@@ -0,0 +1,118 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.ssh;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+
+/**
+ * A pool of {@link Packet} instances arranged in power of two size classes, for 
+ * large replies that would otherwise allocate a new array for every message. Each
+ * class has some extra space for message headers so that a packet carrying a power of 
+ * two payload does not fall into the next class. Packets larger than the largest 
+ * class are not pooled.
+ */
+public class SizedPacketPool {
+
+	static final int HEADER_SPACE = 64;
+	static final int MINIMUM_CLASS = 12;
+	static final int MAXIMUM_CLASS = 20;
+	
+	static SizedPacketPool instance;
+	
+	final ArrayDeque<PooledPacket>[] pools;
+	final int maximumPooledPerClass;
+	
+	public static synchronized SizedPacketPool getInstance() {
+		return (instance == null ? instance = new SizedPacketPool(32) : instance);
+	}
+	
+	@SuppressWarnings("unchecked")
+	public SizedPacketPool(int maximumPooledPerClass) {
+		this.maximumPooledPerClass = maximumPooledPerClass;
+		this.pools = new ArrayDeque[MAXIMUM_CLASS - MINIMUM_CLASS + 1];
+		for(int i=0;i<pools.length;i++) {
+			pools[i] = new ArrayDeque<PooledPacket>();
+		}
+	}
+	
+	/**
+	 * Get a packet with room for at least size bytes after the length field.
+	 * 
+	 * @param size
+	 * @return Packet
+	 * @throws IOException
+	 */
+	public Packet getPacket(int size) throws IOException {
+		
+		int sizeClass = getSizeClass(size);
+		if(sizeClass > MAXIMUM_CLASS) {
+			return new Packet(size);
+		}
+		
+		ArrayDeque<PooledPacket> pool = pools[sizeClass - MINIMUM_CLASS];
+		synchronized(pool) {
+			PooledPacket packet = pool.pollLast();
+			if(packet != null) {
+				return packet;
+			}
+		}
+		
+		return new PooledPacket(sizeClass);
+	}
+	
+	/**
+	 * Return a packet to the pool. It must not be used again by the caller. Packets that
+	 * were not obtained from a pool are ignored.
+	 * 
+	 * @param packet
+	 */
+	public void release(Packet packet) {
+		
+		if(!(packet instanceof PooledPacket)) {
+			return;
+		}
+		
+		PooledPacket p = (PooledPacket) packet;
+		p.reset();
+		
+		ArrayDeque<PooledPacket> pool = pools[p.sizeClass - MINIMUM_CLASS];
+		synchronized(pool) {
+			if(pool.size() < maximumPooledPerClass) {
+				pool.addLast(p);
+			}
+		}
+	}
+	
+	static int getSizeClass(int size) {
+		int payload = Math.max(1, size - HEADER_SPACE);
+		int sizeClass = 32 - Integer.numberOfLeadingZeros(payload - 1);
+		return Math.max(MINIMUM_CLASS, sizeClass);
+	}
+	
+	static class PooledPacket extends Packet {
+		
+		final int sizeClass;
+		
+		PooledPacket(int sizeClass) throws IOException {
+			super((1 << sizeClass) + HEADER_SPACE);
+			this.sizeClass = sizeClass;
+		}
+	}
+}
@@ -295,7 +295,7 @@ public abstract class Subsystem {
 		}
 	}
 
-	public void onFreeMessage(byte[] msg) {
+	public synchronized void onFreeMessage(byte[] msg) {
 	
 		if(maximumPacketSize < msg.length + 4) {
 			maximumPacketSize = msg.length + 4;
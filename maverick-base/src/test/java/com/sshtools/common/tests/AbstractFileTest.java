@@ -22,12 +22,14 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.security.DigestInputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Set;
 
 import org.junit.Test;
@@ -281,6 +283,41 @@ public abstract class AbstractFileTest {
 		deleteFile(path);
 	}
 	
+	@Test
+	public void testChildIterator() throws IOException, PermissionDeniedException {
+		
+		System.out.println("testChildIterator");
+		
+		String path = "iterated-folder";
+		createFolder(path);
+		Set<String> expected = new HashSet<String>();
+		for(int i = 0; i < 10; i++) {
+			createFile(path + "/child" + i + ".txt");
+			expected.add("child" + i + ".txt");
+		}
+		
+		Set<String> found = new HashSet<String>();
+		Iterator<AbstractFile> it = getFile(path).getChildIterator();
+		try {
+			while(it.hasNext()) {
+				AbstractFile child = it.next();
+				assertTrue("The child should be a regular file", child.getAttributes().isFile());
+				found.add(child.getName());
+			}
+		} finally {
+			if(it instanceof Closeable) {
+				((Closeable)it).close();
+			}
+		}
+		
+		assertEquals(expected, found);
+		
+		for(String child : expected) {
+			deleteFile(path + "/" + child);
+		}
+		deleteFolder(path);
+	}
+	
 	public void testResolveFile() {
 		
 	}
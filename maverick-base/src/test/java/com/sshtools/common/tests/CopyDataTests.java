@@ -0,0 +1,161 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.tests;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.UUID;
+
+import com.sshtools.common.files.AbstractFileFactory;
+import com.sshtools.common.files.direct.DirectFileFactory;
+import com.sshtools.common.permissions.PermissionDeniedException;
+import com.sshtools.common.policy.FileFactory;
+import com.sshtools.common.policy.FileSystemPolicy;
+import com.sshtools.common.sftp.AbstractFileSystem;
+import com.sshtools.common.sftp.InvalidHandleException;
+import com.sshtools.common.sftp.SftpFileAttributes;
+import com.sshtools.common.ssh.SshConnection;
+import com.sshtools.common.util.UnsignedInteger32;
+
+import junit.framework.TestCase;
+
+public class CopyDataTests extends TestCase {
+
+	File folder;
+	SshConnection con;
+	AbstractFileSystem fs;
+	byte[] data;
+	
+	protected void setUp() throws IOException, PermissionDeniedException {
+		
+		folder = Files.createTempDirectory("copydata").toFile();
+		data = new byte[200000];
+		new Random().nextBytes(data);
+		Files.write(new File(folder, "source.bin").toPath(), data);
+		
+		con = new MockConnection("lee", 
+				UUID.randomUUID().toString(),
+				new InetSocketAddress(InetAddress.getLocalHost(), 22),
+				new InetSocketAddress(InetAddress.getLocalHost(), 22),
+				new MockContext());
+		
+		con.getContext().getPolicy(FileSystemPolicy.class).setFileFactory(new FileFactory() {
+			@Override
+			public AbstractFileFactory<?> getFileFactory(SshConnection con) {
+				return new DirectFileFactory(folder);
+			}
+		});
+		
+		fs = new AbstractFileSystem(con, AbstractFileSystem.SFTP);
+	}
+	
+	protected void tearDown() {
+		fs.closeFilesystem();
+		for(File f : folder.listFiles()) {
+			f.delete();
+		}
+		folder.delete();
+	}
+	
+	public void testCopyRange() throws Exception {
+		
+		byte[] source = open("source.bin", AbstractFileSystem.OPEN_READ);
+		byte[] target = open("target.bin", AbstractFileSystem.OPEN_WRITE | AbstractFileSystem.OPEN_CREATE);
+		
+		assertEquals(50000, fs.copyData(source, 1000, 50000, target, 10));
+		fs.closeFile(target);
+		
+		byte[] copied = Files.readAllBytes(new File(folder, "target.bin").toPath());
+		assertEquals(50010, copied.length);
+		assertTrue(Arrays.equals(Arrays.copyOfRange(data, 1000, 51000), Arrays.copyOfRange(copied, 10, 50010)));
+	}
+	
+	public void testCopyUntilEOF() throws Exception {
+		
+		byte[] source = open("source.bin", AbstractFileSystem.OPEN_READ);
+		byte[] target = open("target.bin", AbstractFileSystem.OPEN_WRITE | AbstractFileSystem.OPEN_CREATE);
+		
+		assertEquals(data.length, fs.copyData(source, 0, 0, target, 0));
+		fs.closeFile(target);
+		
+		assertTrue(Arrays.equals(data, Files.readAllBytes(new File(folder, "target.bin").toPath())));
+	}
+	
+	public void testCopyWithWriteBehind() throws Exception {
+		
+		con.getContext().getPolicy(FileSystemPolicy.class).setSFTPWriteBehindBufferSize(65536);
+		byte[] source = open("source.bin", AbstractFileSystem.OPEN_READ);
+		byte[] target = open("target.bin", AbstractFileSystem.OPEN_WRITE | AbstractFileSystem.OPEN_CREATE);
+		
+		fs.writeFile(target, 0, data, 0, 100);
+		assertEquals(data.length - 100, fs.copyData(source, 100, 0, target, 100));
+		fs.closeFile(target);
+		
+		assertTrue(Arrays.equals(data, Files.readAllBytes(new File(folder, "target.bin").toPath())));
+	}
+	
+	public void testShortCopyIsEOF() throws Exception {
+		
+		byte[] source = open("source.bin", AbstractFileSystem.OPEN_READ);
+		byte[] target = open("target.bin", AbstractFileSystem.OPEN_WRITE | AbstractFileSystem.OPEN_CREATE);
+		
+		try {
+			fs.copyData(source, data.length - 10, 100, target, 0);
+			fail("Expected EOF");
+		} catch(EOFException e) {
+		}
+		fs.closeFile(target);
+		
+		assertEquals(10, new File(folder, "target.bin").length());
+	}
+	
+	public void testOverlappingRangesAreRejected() throws Exception {
+		
+		byte[] handle = open("source.bin", AbstractFileSystem.OPEN_READ | AbstractFileSystem.OPEN_WRITE);
+		
+		try {
+			fs.copyData(handle, 0, 1000, handle, 500);
+			fail("Expected overlapping ranges to be rejected");
+		} catch(IOException e) {
+		}
+		
+		assertEquals(1000, fs.copyData(handle, 0, 1000, handle, data.length));
+	}
+	
+	public void testTargetMustBeWritable() throws Exception {
+		
+		byte[] source = open("source.bin", AbstractFileSystem.OPEN_READ);
+		
+		try {
+			fs.copyData(source, 0, 1000, source, 5000);
+			fail("Expected the target handle to be rejected");
+		} catch(InvalidHandleException e) {
+		}
+	}
+	
+	private byte[] open(String path, int flags) throws IOException, PermissionDeniedException {
+		return fs.openFile(path, new UnsignedInteger32(flags), new SftpFileAttributes(SftpFileAttributes.SSH_FILEXFER_TYPE_REGULAR, "UTF-8"));
+	}
+}
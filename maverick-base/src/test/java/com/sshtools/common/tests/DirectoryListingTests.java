@@ -0,0 +1,129 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.tests;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+import com.sshtools.common.files.AbstractFileFactory;
+import com.sshtools.common.files.direct.DirectFileFactory;
+import com.sshtools.common.permissions.PermissionDeniedException;
+import com.sshtools.common.policy.FileFactory;
+import com.sshtools.common.policy.FileSystemPolicy;
+import com.sshtools.common.sftp.AbstractFileSystem;
+import com.sshtools.common.sftp.InvalidHandleException;
+import com.sshtools.common.sftp.SftpFile;
+import com.sshtools.common.ssh.SshConnection;
+
+import junit.framework.TestCase;
+
+public class DirectoryListingTests extends TestCase {
+
+	static final int FILES = 2000;
+	static final int MAXIMUM_SIZE = 4096;
+	
+	File folder;
+	SshConnection con;
+	boolean java7Files;
+	
+	protected void setUp() throws IOException {
+		
+		folder = Files.createTempDirectory("listing").toFile();
+		for(int i = 0; i < FILES; i++) {
+			new File(folder, "file" + i + ".txt").createNewFile();
+		}
+		
+		con = new MockConnection("lee", 
+				UUID.randomUUID().toString(),
+				new InetSocketAddress(InetAddress.getLocalHost(), 22),
+				new InetSocketAddress(InetAddress.getLocalHost(), 22),
+				new MockContext());
+		
+		con.getContext().getPolicy(FileSystemPolicy.class).setFileFactory(new FileFactory() {
+			@Override
+			public AbstractFileFactory<?> getFileFactory(SshConnection con) {
+				return new DirectFileFactory(folder, java7Files);
+			}
+		});
+	}
+	
+	protected void tearDown() {
+		for(File f : folder.listFiles()) {
+			f.delete();
+		}
+		folder.delete();
+	}
+	
+	public void testBatchesAreLimitedBySize() throws IOException, PermissionDeniedException, InvalidHandleException {
+		assertComplete(listDirectory());
+	}
+	
+	public void testParallelAttributes() throws IOException, PermissionDeniedException, InvalidHandleException {
+		con.getContext().getPolicy(FileSystemPolicy.class).setSFTPDirectoryAttributeThreads(4);
+		assertComplete(listDirectory());
+	}
+	
+	/**
+	 * DirectFileJava7 streams the listing instead of reading every child up front.
+	 */
+	public void testStreamedListing() throws IOException, PermissionDeniedException, InvalidHandleException {
+		java7Files = true;
+		assertComplete(listDirectory());
+	}
+	
+	private Set<String> listDirectory() throws IOException, PermissionDeniedException, InvalidHandleException {
+		
+		AbstractFileSystem fs = new AbstractFileSystem(con, AbstractFileSystem.SFTP);
+		byte[] handle = fs.openDirectory(folder.getAbsolutePath());
+		Set<String> names = new HashSet<String>();
+		int batches = 0;
+		try {
+			while(true) {
+				SftpFile[] files = fs.readDirectory(handle, MAXIMUM_SIZE);
+				int size = 0;
+				for(SftpFile file : files) {
+					assertTrue("Batch exceeds the maximum size", size < MAXIMUM_SIZE);
+					assertTrue(file.getAttributes().isFile());
+					assertTrue("Duplicate entry " + file.getFilename(), names.add(file.getFilename()));
+					size += (file.getFilename().length() * 2) + 96;
+				}
+				batches++;
+			}
+		} catch(EOFException e) {
+		} finally {
+			fs.closeFile(handle);
+		}
+		assertTrue("Expected several batches", batches > 1);
+		return names;
+	}
+	
+	private void assertComplete(Set<String> names) {
+		assertEquals(FILES, names.size());
+		for(int i = 0; i < FILES; i++) {
+			assertTrue(names.contains("file" + i + ".txt"));
+		}
+	}
+}
@@ -0,0 +1,149 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.tests;
+
+import java.util.Arrays;
+
+import com.sshtools.common.sftp.HandleTable;
+
+import junit.framework.TestCase;
+
+public class HandleTableTests extends TestCase {
+
+	public void testAllocateAndRemove() {
+		HandleTable<String> table = new HandleTable<String>(2);
+		byte[][] handles = new byte[100][];
+		for(int i = 0; i < handles.length; i++) {
+			handles[i] = table.allocate("value" + i);
+			assertEquals(HandleTable.HANDLE_LENGTH, handles[i].length);
+		}
+		assertEquals(100, table.size());
+		for(int i = 0; i < handles.length; i++) {
+			assertEquals("value" + i, table.get(handles[i]));
+		}
+		assertEquals("value50", table.remove(handles[50]));
+		assertNull(table.get(handles[50]));
+		assertNull(table.remove(handles[50]));
+		assertEquals(99, table.size());
+	}
+	
+	/**
+	 * A slot is reused once it is free but the old handle must not find the new value.
+	 */
+	public void testStaleHandle() {
+		HandleTable<String> table = new HandleTable<String>();
+		byte[] first = table.allocate("first");
+		table.remove(first);
+		byte[] second = table.allocate("second");
+		
+		assertFalse(Arrays.equals(first, second));
+		assertNull(table.get(first));
+		assertEquals("second", table.get(second));
+	}
+	
+	public void testLookupInBuffer() {
+		HandleTable<String> table = new HandleTable<String>();
+		table.allocate("other");
+		byte[] handle = table.allocate("value");
+		
+		byte[] request = new byte[32];
+		System.arraycopy(handle, 0, request, 9, handle.length);
+		assertEquals("value", table.get(request, 9, handle.length));
+		assertNull(table.get(request, 9, 7));
+		assertNull(table.get("not a handle".getBytes()));
+	}
+	
+	public void testPutAgainstAnotherTable() {
+		HandleTable<String> table = new HandleTable<String>();
+		HandleTable<Integer> attached = new HandleTable<Integer>(table);
+		byte[] handle = null;
+		for(int i = 0; i < 40; i++) {
+			handle = table.allocate("value" + i);
+		}
+		attached.put(handle, 39);
+		assertEquals(Integer.valueOf(39), attached.get(handle));
+		assertEquals(1, attached.size());
+		
+		table.remove(handle);
+		byte[] reused = table.allocate("reused");
+		assertNull(attached.get(reused));
+	}
+	
+	/**
+	 * A table filled by put sees the same slot freed over and over as files 
+	 * are opened and closed one at a time.
+	 */
+	public void testPutAndRemoveRepeatedly() {
+		HandleTable<String> table = new HandleTable<String>(4);
+		HandleTable<Integer> attached = new HandleTable<Integer>(table);
+		for(int i = 0; i < 100; i++) {
+			byte[] handle = table.allocate("value" + i);
+			attached.put(handle, i);
+			assertEquals(Integer.valueOf(i), attached.remove(handle));
+			table.remove(handle);
+		}
+		assertEquals(0, attached.size());
+		
+		byte[] handle = table.allocate("last");
+		attached.put(handle, 100);
+		assertEquals(Integer.valueOf(100), attached.get(handle));
+	}
+	
+	/**
+	 * Only handles within the range the issuer has handed out are accepted, so a 
+	 * forged index cannot grow the table.
+	 */
+	public void testPutRejectsUnissuedHandle() {
+		HandleTable<String> table = new HandleTable<String>();
+		HandleTable<Integer> attached = new HandleTable<Integer>(table);
+		byte[] handle = table.allocate("value");
+		
+		byte[] forged = handle.clone();
+		forged[0] = 0x7F;
+		try {
+			attached.put(forged, 1);
+			fail("A handle beyond the issued range was accepted");
+		} catch(IllegalArgumentException e) {
+		}
+		
+		forged = handle.clone();
+		forged[3] = 1;
+		try {
+			attached.put(forged, 1);
+			fail("A handle beyond the issued range was accepted");
+		} catch(IllegalArgumentException e) {
+		}
+		assertEquals(0, attached.size());
+	}
+	
+	public void testTableRoles() {
+		HandleTable<String> table = new HandleTable<String>();
+		byte[] handle = table.allocate("value");
+		try {
+			table.put(handle, "other");
+			fail("A table that issues handles accepted put");
+		} catch(IllegalStateException e) {
+		}
+		try {
+			new HandleTable<Integer>(table).allocate(1);
+			fail("A table with an issuer allocated a handle");
+		} catch(IllegalStateException e) {
+		}
+	}
+}
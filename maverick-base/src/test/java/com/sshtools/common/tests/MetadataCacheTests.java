@@ -0,0 +1,153 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.tests;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.UUID;
+
+import com.sshtools.common.policy.FileSystemPolicy;
+import com.sshtools.common.sftp.MetadataCache;
+import com.sshtools.common.sftp.SftpFileAttributes;
+import com.sshtools.common.ssh.SshConnection;
+import com.sshtools.common.util.UnsignedInteger64;
+
+import junit.framework.TestCase;
+
+public class MetadataCacheTests extends TestCase {
+
+	public void testHitsAndMisses() {
+		MetadataCache cache = new MetadataCache(60000, 100);
+		assertNull(cache.getAttributes("/home/user/file.txt"));
+		cache.putAttributes("/home/user/file.txt", regularFile());
+		assertNotNull(cache.getAttributes("/home/user/file.txt"));
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+	}
+	
+	public void testExpiry() throws InterruptedException {
+		MetadataCache cache = new MetadataCache(10, 100);
+		cache.putRealPath(".", "/home/user");
+		Thread.sleep(50);
+		assertNull(cache.getRealPath("."));
+		assertEquals(0, cache.size());
+	}
+	
+	public void testBounded() {
+		MetadataCache cache = new MetadataCache(60000, 10);
+		for(int i = 0; i < 100; i++) {
+			cache.putAttributes("file" + i, regularFile());
+		}
+		assertEquals(10, cache.size());
+		assertNull(cache.getAttributes("file0"));
+		assertNotNull(cache.getAttributes("file99"));
+	}
+	
+	/**
+	 * A change to a file must remove it however the client referred to it, and 
+	 * leave unrelated entries alone.
+	 */
+	public void testInvalidateByName() {
+		MetadataCache cache = new MetadataCache(60000, 100);
+		cache.putAttributes("/home/user/file.txt", regularFile());
+		cache.putAttributes("file.txt", regularFile());
+		cache.putRealPath("file.txt", "/home/user/file.txt");
+		cache.putAttributes("other.txt", regularFile());
+		
+		cache.invalidate("./file.txt");
+		
+		assertNull(cache.getAttributes("/home/user/file.txt"));
+		assertNull(cache.getAttributes("file.txt"));
+		assertNull(cache.getRealPath("file.txt"));
+		assertNotNull(cache.getAttributes("other.txt"));
+	}
+	
+	public void testInvalidateDirectoryClears() {
+		MetadataCache cache = new MetadataCache(60000, 100);
+		cache.putAttributes("dir/file.txt", regularFile());
+		cache.invalidate("dir/.");
+		assertEquals(0, cache.size());
+	}
+	
+	/**
+	 * Callers must not see changes made by others to the attributes they were given.
+	 */
+	public void testAttributesAreCopied() {
+		MetadataCache cache = new MetadataCache(60000, 100);
+		SftpFileAttributes attrs = regularFile();
+		attrs.setSize(new UnsignedInteger64(10));
+		cache.putAttributes("file.txt", attrs);
+		attrs.setSize(new UnsignedInteger64(20));
+		
+		SftpFileAttributes cached = cache.getAttributes("file.txt");
+		assertEquals(10, cached.getSize().longValue());
+		cached.setSize(new UnsignedInteger64(30));
+		assertEquals(10, cache.getAttributes("file.txt").getSize().longValue());
+	}
+	
+	/**
+	 * Writing to a file changes its attributes but not its real path.
+	 */
+	public void testInvalidateAttributes() {
+		MetadataCache cache = new MetadataCache(60000, 100);
+		cache.invalidateAttributes("file.txt");
+		cache.putAttributes("file.txt", regularFile());
+		cache.putRealPath("file.txt", "/home/user/file.txt");
+		
+		cache.invalidateAttributes("/home/user/file.txt");
+		
+		assertNull(cache.getAttributes("file.txt"));
+		assertEquals("/home/user/file.txt", cache.getRealPath("file.txt"));
+		assertEquals(1, cache.size());
+	}
+	
+	/**
+	 * A shared cache lasts while any file system of its user is using it.
+	 */
+	public void testSharedCacheReleased() throws IOException {
+		FileSystemPolicy policy = new FileSystemPolicy();
+		policy.setSFTPMetadataCacheTTL(60000);
+		policy.setSFTPSharedMetadataCache(true);
+		SshConnection con = connection("lee");
+		
+		MetadataCache first = policy.getMetadataCache(con);
+		MetadataCache second = policy.getMetadataCache(connection("lee"));
+		assertSame(first, second);
+		assertNotSame(first, policy.getMetadataCache(connection("other")));
+		
+		policy.releaseMetadataCache(con, first);
+		assertSame(first, policy.getMetadataCache(con));
+		policy.releaseMetadataCache(con, first);
+		policy.releaseMetadataCache(con, second);
+		assertNotSame(first, policy.getMetadataCache(con));
+	}
+	
+	private SshConnection connection(String username) throws IOException {
+		return new MockConnection(username, 
+				UUID.randomUUID().toString(),
+				new InetSocketAddress(InetAddress.getLocalHost(), 22),
+				new InetSocketAddress(InetAddress.getLocalHost(), 22),
+				new MockContext());
+	}
+	
+	private SftpFileAttributes regularFile() {
+		return new SftpFileAttributes(SftpFileAttributes.SSH_FILEXFER_TYPE_REGULAR, "UTF-8");
+	}
+}
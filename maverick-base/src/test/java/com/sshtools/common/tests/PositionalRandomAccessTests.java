@@ -0,0 +1,79 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import com.sshtools.common.files.AbstractFileRandomAccess;
+import com.sshtools.common.files.RandomAccessImpl;
+
+import junit.framework.TestCase;
+
+public class PositionalRandomAccessTests extends TestCase {
+
+	static final int BLOCK_SIZE = 4096;
+	static final int BLOCKS = 64;
+	
+	/**
+	 * Write blocks out of order at their positions and read them back in a different
+	 * order, checking the file pointer is never used.
+	 */
+	public void testOutOfOrderBlocks() throws IOException {
+		
+		File file = File.createTempFile("positional", ".dat");
+		try {
+			byte[] data = new byte[BLOCK_SIZE * BLOCKS];
+			new Random().nextBytes(data);
+			
+			int[] order = new int[BLOCKS];
+			for(int i=0;i<BLOCKS;i++) {
+				order[i] = (i * 37) % BLOCKS;
+			}
+			
+			AbstractFileRandomAccess raf = new RandomAccessImpl(file, true);
+			try {
+				assertTrue(raf.supportsPositionalAccess());
+				for(int block : order) {
+					raf.write((long) block * BLOCK_SIZE, ByteBuffer.wrap(data, block * BLOCK_SIZE, BLOCK_SIZE));
+				}
+				assertEquals(0, raf.getFilePointer());
+				
+				byte[] copy = new byte[data.length];
+				for(int i=BLOCKS-1;i>=0;i--) {
+					int block = order[i];
+					ByteBuffer buf = ByteBuffer.wrap(copy, block * BLOCK_SIZE, BLOCK_SIZE);
+					assertEquals(BLOCK_SIZE, raf.read((long) block * BLOCK_SIZE, buf));
+				}
+				assertEquals(0, raf.getFilePointer());
+				assertTrue(Arrays.equals(data, copy));
+				
+				assertEquals(-1, raf.read(data.length, ByteBuffer.allocate(BLOCK_SIZE)));
+			} finally {
+				raf.close();
+			}
+			
+		} finally {
+			file.delete();
+		}
+	}
+}
@@ -0,0 +1,203 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.tests;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sshtools.common.files.RandomAccessImpl;
+import com.sshtools.common.sftp.ReadAheadCache;
+import com.sshtools.common.util.ByteBufferPool;
+
+import junit.framework.TestCase;
+
+public class ReadAheadCacheTests extends TestCase {
+
+	static final int FILE_SIZE = 4 * 1024 * 1024;
+	static final int REQUEST_SIZE = 32768;
+	static final int BLOCK_SIZE = 131072;
+	static final int DEPTH = 8;
+	
+	final Thread reader = Thread.currentThread();
+	
+	File file;
+	byte[] data;
+	ExecutorService executor;
+	
+	protected void setUp() throws IOException {
+		executor = Executors.newCachedThreadPool();
+		file = File.createTempFile("readahead", ".dat");
+		data = new byte[FILE_SIZE];
+		new Random().nextBytes(data);
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(data);
+		} finally {
+			out.close();
+		}
+	}
+	
+	protected void tearDown() {
+		executor.shutdownNow();
+		file.delete();
+	}
+	
+	/**
+	 * Reads the file sequentially, the backend should be asked for the whole blocks
+	 * read ahead rather than for each request the client makes.
+	 */
+	public void testSequentialReadsUseLargerBlocks() throws IOException {
+		
+		CountingRandomAccess raf = new CountingRandomAccess(file);
+		try {
+			ReadAheadCache cache = new ReadAheadCache(raf, new ByteBufferPool(BLOCK_SIZE, false), executor, DEPTH);
+			byte[] copy = new byte[FILE_SIZE];
+			int pos = 0;
+			int r;
+			while((r = cache.read(pos, copy, pos, Math.min(REQUEST_SIZE, FILE_SIZE - pos))) > 0) {
+				pos += r;
+				if(pos == FILE_SIZE) {
+					break;
+				}
+			}
+			
+			assertEquals(FILE_SIZE, pos);
+			assertTrue(Arrays.equals(data, copy));
+			assertEquals(-1, cache.read(FILE_SIZE, new byte[REQUEST_SIZE], 0, REQUEST_SIZE));
+			cache.close();
+			
+			// Requests are read directly until seen to be sequential, then once per block
+			// with at most a window of reads past the end
+			assertTrue(raf.reads.get() <= 3 + FILE_SIZE / BLOCK_SIZE + DEPTH);
+			assertEquals(BLOCK_SIZE, raf.largestRead);
+		} finally {
+			raf.close();
+		}
+	}
+	
+	/**
+	 * Closing the file while blocks are being read ahead releases the window. The block
+	 * being read returns its buffer once done and the blocks still queued are not read.
+	 */
+	public void testCloseDropsWindow() throws Exception {
+		
+		CountingRandomAccess raf = new CountingRandomAccess(file);
+		ExecutorService prefetcher = Executors.newSingleThreadExecutor();
+		ByteBufferPool pool = new ByteBufferPool(BLOCK_SIZE, false);
+		raf.gate = new CountDownLatch(1);
+		try {
+			ReadAheadCache cache = new ReadAheadCache(raf, pool, prefetcher, DEPTH);
+			byte[] buf = new byte[REQUEST_SIZE];
+			for(int i=0;i<3;i++) {
+				assertEquals(REQUEST_SIZE, cache.read(i * REQUEST_SIZE, buf, 0, REQUEST_SIZE));
+			}
+			assertEquals(DEPTH, cache.getWindowSize());
+			assertTrue(raf.prefetching.await(10, TimeUnit.SECONDS));
+			
+			cache.close();
+			assertEquals(0, cache.getWindowSize());
+			try {
+				cache.read(3 * REQUEST_SIZE, buf, 0, REQUEST_SIZE);
+				fail("Expected the closed cache to refuse reads");
+			} catch(IOException e) {
+			}
+			
+			raf.gate.countDown();
+			prefetcher.shutdown();
+			assertTrue(prefetcher.awaitTermination(10, TimeUnit.SECONDS));
+			
+			assertEquals(1, pool.getAllocatedBuffers());
+			assertEquals(1, pool.getFreeBuffers());
+		} finally {
+			raf.gate.countDown();
+			prefetcher.shutdownNow();
+			raf.close();
+		}
+	}
+	
+	/**
+	 * A read that is not sequential drops the window and is served directly.
+	 */
+	public void testRandomAccessDropsWindow() throws IOException {
+		
+		RandomAccessImpl raf = new RandomAccessImpl(file, false);
+		try {
+			ReadAheadCache cache = new ReadAheadCache(raf, new ByteBufferPool(65536, false), executor, 4);
+			byte[] buf = new byte[REQUEST_SIZE];
+			for(int i=0;i<4;i++) {
+				assertEquals(REQUEST_SIZE, cache.read(i * REQUEST_SIZE, buf, 0, REQUEST_SIZE));
+			}
+			assertTrue(cache.getWindowSize() > 0);
+			
+			int position = FILE_SIZE / 2 + 7;
+			assertEquals(REQUEST_SIZE, cache.read(position, buf, 0, REQUEST_SIZE));
+			assertEquals(0, cache.getWindowSize());
+			assertTrue(Arrays.equals(Arrays.copyOfRange(data, position, position + REQUEST_SIZE), buf));
+			
+			cache.close();
+		} finally {
+			raf.close();
+		}
+	}
+	
+	/**
+	 * Counts the reads made of the file. Once a gate is set, reads made by the read 
+	 * ahead threads wait for it to open.
+	 */
+	class CountingRandomAccess extends RandomAccessImpl {
+
+		final AtomicInteger reads = new AtomicInteger();
+		int largestRead;
+		final CountDownLatch prefetching = new CountDownLatch(1);
+		volatile CountDownLatch gate;
+		
+		CountingRandomAccess(File f) throws IOException {
+			super(f, false);
+		}
+
+		@Override
+		public int read(long position, ByteBuffer buf) throws IOException {
+			CountDownLatch latch = gate;
+			if(latch != null && Thread.currentThread() != reader) {
+				prefetching.countDown();
+				try {
+					latch.await();
+				} catch (InterruptedException e) {
+					throw new InterruptedIOException();
+				}
+			}
+			reads.incrementAndGet();
+			int count = super.read(position, buf);
+			synchronized(this) {
+				largestRead = Math.max(largestRead, count);
+			}
+			return count;
+		}
+	}
+}
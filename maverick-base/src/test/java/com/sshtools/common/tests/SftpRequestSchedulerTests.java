@@ -0,0 +1,326 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.tests;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sshtools.common.files.AbstractFileRandomAccess;
+import com.sshtools.common.files.direct.DirectFileFactory;
+import com.sshtools.common.permissions.PermissionDeniedException;
+import com.sshtools.common.sftp.SftpRequestScheduler;
+import com.sshtools.common.util.FileUtils;
+
+import junit.framework.TestCase;
+
+public class SftpRequestSchedulerTests extends TestCase {
+
+	static final int FILES = 8;
+	static final int FILE_SIZE = 1024 * 1024;
+	static final int BLOCK_SIZE = 32768;
+	
+	ExecutorService executor;
+	
+	protected void setUp() {
+		executor = Executors.newCachedThreadPool();
+	}
+	
+	protected void tearDown() throws InterruptedException {
+		executor.shutdownNow();
+		executor.awaitTermination(10, TimeUnit.SECONDS);
+	}
+	
+	/**
+	 * Requests on the same key must run one at a time and in the order they were submitted.
+	 */
+	public void testRequestsOnSameKeyAreOrdered() throws InterruptedException {
+		
+		SftpRequestScheduler scheduler = new SftpRequestScheduler(executor, 8);
+		final int keys = 4;
+		final int requests = 1000;
+		final AtomicInteger[] next = new AtomicInteger[keys];
+		final AtomicInteger[] active = new AtomicInteger[keys];
+		final AtomicInteger errors = new AtomicInteger();
+		final CountDownLatch latch = new CountDownLatch(keys * requests);
+		
+		for(int i=0;i<keys;i++) {
+			next[i] = new AtomicInteger();
+			active[i] = new AtomicInteger();
+		}
+		
+		for(int i=0;i<requests;i++) {
+			for(int k=0;k<keys;k++) {
+				final int key = k;
+				final int sequence = i;
+				scheduler.execute(new Runnable() {
+					public void run() {
+						if(active[key].incrementAndGet() != 1) {
+							errors.incrementAndGet();
+						}
+						if(next[key].getAndIncrement() != sequence) {
+							errors.incrementAndGet();
+						}
+						active[key].decrementAndGet();
+						latch.countDown();
+					}
+				}, "handle:" + key);
+			}
+		}
+		
+		assertTrue(latch.await(30, TimeUnit.SECONDS));
+		assertEquals(0, errors.get());
+		assertEquals(0, scheduler.getPendingCount());
+	}
+	
+	/**
+	 * An exclusive request must not overlap any other request.
+	 */
+	public void testExclusiveRequestRunsAlone() throws InterruptedException {
+		
+		final SftpRequestScheduler scheduler = new SftpRequestScheduler(executor, 8);
+		final AtomicInteger active = new AtomicInteger();
+		final AtomicInteger errors = new AtomicInteger();
+		final CountDownLatch latch = new CountDownLatch(200);
+		
+		for(int i=0;i<100;i++) {
+			scheduler.execute(new Runnable() {
+				public void run() {
+					active.incrementAndGet();
+					try {
+						Thread.sleep(1);
+					} catch (InterruptedException e) {
+					}
+					active.decrementAndGet();
+					latch.countDown();
+				}
+			}, "path:" + (i % 10));
+			scheduler.executeExclusive(new Runnable() {
+				public void run() {
+					if(active.get() != 0 || scheduler.getRunningCount() != 1) {
+						errors.incrementAndGet();
+					}
+					latch.countDown();
+				}
+			});
+		}
+		
+		assertTrue(latch.await(30, TimeUnit.SECONDS));
+		assertEquals(0, errors.get());
+	}
+	
+	/**
+	 * A request on a folder must not overlap requests on anything inside it, while 
+	 * requests on siblings that only share the folder may overlap each other.
+	 */
+	public void testSharedKeysOrderParentsAndChildren() throws InterruptedException {
+		
+		SftpRequestScheduler scheduler = new SftpRequestScheduler(executor, 8);
+		final AtomicInteger folder = new AtomicInteger();
+		final AtomicInteger children = new AtomicInteger();
+		final AtomicInteger peak = new AtomicInteger();
+		final AtomicInteger errors = new AtomicInteger();
+		final CountDownLatch latch = new CountDownLatch(100 * 5);
+		
+		for(int i=0;i<100;i++) {
+			scheduler.execute(new Runnable() {
+				public void run() {
+					folder.incrementAndGet();
+					if(children.get() != 0) {
+						errors.incrementAndGet();
+					}
+					folder.decrementAndGet();
+					latch.countDown();
+				}
+			}, new Object[] { "/dir" }, new Object[] { "/" });
+			for(int c=0;c<4;c++) {
+				scheduler.execute(new Runnable() {
+					public void run() {
+						int current = children.incrementAndGet();
+						int max;
+						while((max = peak.get()) < current && !peak.compareAndSet(max, current));
+						if(folder.get() != 0) {
+							errors.incrementAndGet();
+						}
+						try {
+							Thread.sleep(1);
+						} catch (InterruptedException e) {
+						}
+						children.decrementAndGet();
+						latch.countDown();
+					}
+				}, new Object[] { "/dir/file" + c }, new Object[] { "/dir", "/" });
+			}
+		}
+		
+		assertTrue(latch.await(30, TimeUnit.SECONDS));
+		assertEquals(0, errors.get());
+		assertTrue(peak.get() > 1);
+	}
+	
+	/**
+	 * Shutting down waits for running requests, discards those still pending and ignores
+	 * any executed afterwards.
+	 */
+	public void testShutdownWaitsForRunningRequests() throws Exception {
+		
+		final SftpRequestScheduler scheduler = new SftpRequestScheduler(executor, 8);
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger ran = new AtomicInteger();
+		
+		scheduler.execute(new Runnable() {
+			public void run() {
+				started.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+				}
+				ran.incrementAndGet();
+			}
+		}, "handle:0");
+		Runnable counter = new Runnable() {
+			public void run() {
+				ran.incrementAndGet();
+			}
+		};
+		scheduler.execute(counter, "handle:0");
+		assertTrue(started.await(10, TimeUnit.SECONDS));
+		
+		assertFalse(scheduler.shutdown(100));
+		assertEquals(0, scheduler.getPendingCount());
+		
+		Future<Boolean> shutdown = executor.submit(new Callable<Boolean>() {
+			public Boolean call() throws Exception {
+				return scheduler.shutdown(10000);
+			}
+		});
+		release.countDown();
+		assertTrue(shutdown.get(10, TimeUnit.SECONDS));
+		
+		scheduler.execute(counter, "handle:1");
+		scheduler.executeExclusive(counter);
+		assertEquals(0, scheduler.getPendingCount());
+		assertEquals(0, scheduler.getRunningCount());
+		assertEquals(1, ran.get());
+	}
+	
+	/**
+	 * Reads several files through {@link DirectFileFactory} with the requests interleaved 
+	 * across the handles. With a limit of one request the reads must be serial, with the limit 
+	 * raised requests on different handles must overlap while each handle stays in order.
+	 */
+	public void testMultiFileConcurrency() throws IOException, PermissionDeniedException, InterruptedException {
+		
+		File folder = Files.createTempDirectory("sftp-scheduler").toFile();
+		
+		try {
+			DirectFileFactory factory = new DirectFileFactory(folder);
+			Random r = new Random();
+			byte[] data = new byte[FILE_SIZE];
+			for(int i=0;i<FILES;i++) {
+				r.nextBytes(data);
+				FileOutputStream out = new FileOutputStream(new File(folder, "file" + i));
+				try {
+					out.write(data);
+				} finally {
+					out.close();
+				}
+			}
+			
+			assertEquals(1, readFiles(factory, 1));
+			assertTrue(readFiles(factory, FILES) > 1);
+			
+		} finally {
+			FileUtils.deleteFolder(folder);
+		}
+	}
+
+	private int readFiles(DirectFileFactory factory, int concurrency) throws IOException, PermissionDeniedException, InterruptedException {
+		
+		SftpRequestScheduler scheduler = new SftpRequestScheduler(executor, concurrency);
+		final int blocks = FILE_SIZE / BLOCK_SIZE;
+		final CountDownLatch latch = new CountDownLatch(FILES * blocks);
+		final AtomicLong total = new AtomicLong();
+		final AtomicInteger errors = new AtomicInteger();
+		final AtomicInteger active = new AtomicInteger();
+		final AtomicInteger peak = new AtomicInteger();
+		final AbstractFileRandomAccess[] files = new AbstractFileRandomAccess[FILES];
+		final long[] position = new long[FILES];
+		
+		for(int i=0;i<FILES;i++) {
+			files[i] = factory.getFile("file" + i).openFile(false);
+		}
+		
+		/**
+		 * Submit the requests interleaved across the handles in the way a client
+		 * pipelining several transfers would send them.
+		 */
+		for(int b=0;b<blocks;b++) {
+			for(int i=0;i<FILES;i++) {
+				final int handle = i;
+				final long offset = (long) b * BLOCK_SIZE;
+				scheduler.execute(new Runnable() {
+					public void run() {
+						int current = active.incrementAndGet();
+						try {
+							int max;
+							while((max = peak.get()) < current && !peak.compareAndSet(max, current));
+							if(position[handle] != offset) {
+								errors.incrementAndGet();
+							}
+							byte[] buf = new byte[BLOCK_SIZE];
+							files[handle].seek(offset);
+							int read = files[handle].read(buf, 0, buf.length);
+							Thread.sleep(1);
+							position[handle] = offset + read;
+							total.addAndGet(read);
+						} catch (IOException | InterruptedException e) {
+							errors.incrementAndGet();
+						} finally {
+							active.decrementAndGet();
+							latch.countDown();
+						}
+					}
+				}, "handle:" + handle);
+			}
+		}
+		
+		assertTrue(latch.await(5, TimeUnit.MINUTES));
+		
+		for(AbstractFileRandomAccess file : files) {
+			file.close();
+		}
+		
+		assertEquals(0, errors.get());
+		assertEquals((long) FILES * FILE_SIZE, total.get());
+		
+		return peak.get();
+	}
+}
@@ -0,0 +1,77 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.tests;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import com.sshtools.common.ssh.Packet;
+import com.sshtools.common.ssh.SizedPacketPool;
+
+import junit.framework.TestCase;
+
+public class SizedPacketPoolTests extends TestCase {
+
+	static final int REPLIES = 10000;
+	static final int REQUEST_SIZE = 32768;
+	static final int OUTSTANDING = 4;
+	
+	public void testPacketsAreReused() throws IOException {
+		
+		SizedPacketPool pool = new SizedPacketPool(4);
+		Packet p1 = pool.getPacket(REQUEST_SIZE + 13);
+		assertTrue(p1.array().length >= REQUEST_SIZE + 13 + 4);
+		p1.writeInt(1);
+		pool.release(p1);
+		
+		Packet p2 = pool.getPacket(REQUEST_SIZE + 13);
+		assertSame(p1, p2);
+		assertEquals(4, p2.position());
+		
+		Packet large = pool.getPacket(4 * 1024 * 1024);
+		pool.release(large);
+		assertNotSame(large, pool.getPacket(4 * 1024 * 1024));
+	}
+	
+	/**
+	 * Builds SSH_FXP_DATA replies with several outstanding at a time, as a client reading 
+	 * ahead would have, and checks that the pool only ever allocated that many arrays.
+	 */
+	public void testRepliesReuseBuffers() throws IOException {
+		
+		SizedPacketPool pool = new SizedPacketPool(OUTSTANDING);
+		Set<byte[]> arrays = Collections.newSetFromMap(new IdentityHashMap<byte[], Boolean>());
+		Packet[] outstanding = new Packet[OUTSTANDING];
+		
+		for(int i=0;i<REPLIES;i++) {
+			int slot = i % OUTSTANDING;
+			if(outstanding[slot] != null) {
+				pool.release(outstanding[slot]);
+			}
+			Packet reply = pool.getPacket(REQUEST_SIZE + 13);
+			reply.write(103);
+			arrays.add(reply.array());
+			outstanding[slot] = reply;
+		}
+		
+		assertEquals(OUTSTANDING, arrays.size());
+	}
+}
@@ -0,0 +1,133 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sshtools.common.files.RandomAccessImpl;
+import com.sshtools.common.sftp.WriteBehindBuffer;
+import com.sshtools.common.util.ByteBufferPool;
+
+import junit.framework.TestCase;
+
+public class WriteBehindBufferTests extends TestCase {
+
+	static final int FILE_SIZE = 2 * 1024 * 1024;
+	static final int REQUEST_SIZE = 32768;
+	
+	ExecutorService executor;
+	File file;
+	
+	protected void setUp() throws IOException {
+		executor = Executors.newCachedThreadPool();
+		file = File.createTempFile("writebehind", ".dat");
+	}
+	
+	protected void tearDown() {
+		executor.shutdownNow();
+		file.delete();
+	}
+	
+	/**
+	 * Contiguous writes are aggregated into buffer sized backend writes and the file
+	 * is complete after a flush.
+	 */
+	public void testContiguousWritesAreAggregated() throws IOException {
+		
+		byte[] data = new byte[FILE_SIZE];
+		new Random().nextBytes(data);
+		
+		CountingRandomAccess raf = new CountingRandomAccess(file);
+		try {
+			WriteBehindBuffer buffer = new WriteBehindBuffer(raf, new ByteBufferPool(262144, false), executor);
+			for(int pos = 0; pos < FILE_SIZE; pos += REQUEST_SIZE) {
+				buffer.write(pos, data, pos, REQUEST_SIZE);
+			}
+			buffer.flush();
+			assertFalse(buffer.hasBufferedData());
+			assertEquals(FILE_SIZE / 262144, raf.writes.get());
+			raf.sync();
+			buffer.close();
+		} finally {
+			raf.close();
+		}
+		
+		assertTrue(Arrays.equals(data, Files.readAllBytes(file.toPath())));
+	}
+	
+	/**
+	 * A failed background write is reported by the next call.
+	 */
+	public void testErrorIsReportedOnNextRequest() throws IOException {
+		
+		FailingRandomAccess raf = new FailingRandomAccess(file);
+		try {
+			WriteBehindBuffer buffer = new WriteBehindBuffer(raf, new ByteBufferPool(REQUEST_SIZE, false), executor);
+			byte[] data = new byte[REQUEST_SIZE];
+			buffer.write(0, data, 0, REQUEST_SIZE);
+			try {
+				buffer.flush();
+				fail("Expected the write to fail");
+			} catch(IOException e) {
+			}
+			try {
+				buffer.close();
+				fail("Expected close to report the failure");
+			} catch(IOException e) {
+			}
+		} finally {
+			raf.close();
+		}
+	}
+	
+	static class CountingRandomAccess extends RandomAccessImpl {
+		
+		AtomicInteger writes = new AtomicInteger();
+		
+		CountingRandomAccess(File f) throws IOException {
+			super(f, true);
+		}
+
+		@Override
+		public void write(long position, ByteBuffer buf) throws IOException {
+			writes.incrementAndGet();
+			super.write(position, buf);
+		}
+	}
+	
+	static class FailingRandomAccess extends RandomAccessImpl {
+		
+		FailingRandomAccess(File f) throws IOException {
+			super(f, true);
+		}
+
+		@Override
+		public void write(long position, ByteBuffer buf) throws IOException {
+			throw new IOException("Disk full");
+		}
+	}
+}
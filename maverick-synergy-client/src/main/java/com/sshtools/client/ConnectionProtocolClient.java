@@ -115,6 +115,40 @@ public class ConnectionProtocolClient extends ConnectionProtocol<SshClientContex
 	}
 	
 	
+	/**
+	 * Start a dynamic (SOCKS4/SOCKS5) forwarding on a local interface. Each client that
+	 * connects to the listening socket chooses its own destination.
+	 * 
+	 * @param addressToBind
+	 * @param portToBind
+	 * @return the port that is listening
+	 * @throws UnauthorizedException
+	 * @throws SshException
+	 */
+	public int startDynamicForwarding(String addressToBind, int portToBind)
+			throws UnauthorizedException, SshException {
+
+		if(Log.isInfoEnabled()) {
+			Log.info("Requesting dynamic forwarding on " + addressToBind + ":" + portToBind);
+		}
+
+		if (!getContext().getForwardingPolicy().checkInterfacePermitted(con, addressToBind, portToBind)) {
+			if(Log.isInfoEnabled()) {
+				Log.info("User not permitted to forward on " + addressToBind + ":" + portToBind);
+			}
+			throw new UnauthorizedException();
+		}
+
+		int port = getContext().getForwardingManager().startListening(addressToBind, portToBind, con,
+				new DynamicForwardingFactoryImpl());
+		
+		if(Log.isInfoEnabled()) {
+			Log.info("Dynamic forwarding is now active on local interface " + addressToBind + ":" + port);
+		}
+		
+		return port;
+	}
+	
 	public void stopLocalForwarding() {
 		getContext().getForwardingManager().stopForwarding(getConnection());
 	}
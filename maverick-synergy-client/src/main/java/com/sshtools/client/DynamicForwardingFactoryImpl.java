@@ -0,0 +1,133 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+
+import com.sshtools.common.events.EventCodes;
+import com.sshtools.common.nio.IdleStateListener;
+import com.sshtools.common.ssh.SshConnection;
+import com.sshtools.synergy.ssh.ForwardingChannel;
+import com.sshtools.synergy.ssh.LocalForwardingChannel;
+import com.sshtools.synergy.ssh.SocketListeningForwardingFactoryImpl;
+
+/**
+ * Implements dynamic (SOCKS) forwarding on a single listening socket. Each accepted
+ * connection negotiates a SOCKS4, SOCKS4a or SOCKS5 CONNECT request and a direct-tcpip
+ * channel is then opened to the requested destination.
+ */
+public class DynamicForwardingFactoryImpl extends
+		SocketListeningForwardingFactoryImpl<SshClientContext> {
+
+	static final int SOCKS4 = 0x04;
+	static final int SOCKS5 = 0x05;
+	
+	static final int CMD_CONNECT = 0x01;
+	
+	static final int SOCKS5_ATYP_IPV4 = 0x01;
+	static final int SOCKS5_ATYP_DOMAIN = 0x03;
+	static final int SOCKS5_ATYP_IPV6 = 0x04;
+	
+	static final int SOCKS5_SUCCEEDED = 0x00;
+	static final int SOCKS5_GENERAL_FAILURE = 0x01;
+	static final int SOCKS5_HOST_UNREACHABLE = 0x04;
+	static final int SOCKS5_COMMAND_NOT_SUPPORTED = 0x07;
+	static final int SOCKS5_ADDRESS_NOT_SUPPORTED = 0x08;
+	
+	static final int SOCKS4_GRANTED = 0x5A;
+	static final int SOCKS4_REJECTED = 0x5B;
+	
+	int handshakeTimeout = 30000;
+	
+	public DynamicForwardingFactoryImpl() {
+	}
+	
+	/**
+	 * Set the time in milliseconds a client has to complete the SOCKS request.
+	 * 
+	 * @param handshakeTimeout
+	 */
+	public void setHandshakeTimeout(int handshakeTimeout) {
+		this.handshakeTimeout = handshakeTimeout;
+	}
+	
+	public int getHandshakeTimeout() {
+		return handshakeTimeout;
+	}
+	
+	@Override
+	public String getChannelType() {
+		return LocalForwardingChannel.LOCAL_FORWARDING_CHANNEL_TYPE;
+	}
+
+	@Override
+	public int getStartedEventCode() {
+		return EventCodes.EVENT_FORWARDING_LOCAL_STARTED;
+	}
+
+	@Override
+	public int getStoppedEventCode() {
+		return EventCodes.EVENT_FORWARDING_LOCAL_STOPPED;
+	}
+
+	/**
+	 * The SOCKS request is read by the selector as it arrives so that slow clients do not 
+	 * hold a thread. The channel is opened once the destination is known, and the socket
+	 * is closed if the request has not been received within the handshake timeout.
+	 */
+	@Override
+	protected void onSocketAccepted(final SocketChannel sc) throws IOException {
+		
+		final SocksForwardingChannel channel = (SocksForwardingChannel) createChannel(getChannelType(), 
+				getConnectionProtocol().getTransport().getConnection(), 
+				null, 0, sc, getConnectionProtocol().getContext());
+		
+		final long deadline = System.currentTimeMillis() + handshakeTimeout;
+		getConnectionProtocol().getTransport().getSocketConnection().getIdleStates().register(new IdleStateListener() {
+			public boolean idle() {
+				if(channel.isNegotiated() || !sc.isOpen()) {
+					return true;
+				}
+				if(System.currentTimeMillis() < deadline) {
+					return false;
+				}
+				channel.handshakeTimeout();
+				return true;
+			}
+		});
+		
+		getConnectionProtocol().getContext().getEngine().registerHandler(channel, sc);
+	}
+	
+	@Override
+	protected ForwardingChannel<SshClientContext> createChannel(String channelType,
+			SshConnection con, 
+			String addressToBind, int portToBind, SocketChannel sc, SshClientContext context) {
+		return new SocksForwardingChannel(channelType, con, sc, this);
+	}
+	
+	/**
+	 * Called by the channel once the SOCKS request has been read.
+	 */
+	void requestReceived(SocksForwardingChannel channel, SocketChannel sc) {
+		openChannel(channel, sc);
+	}
+
+}
@@ -0,0 +1,373 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+import com.sshtools.common.logger.Log;
+import com.sshtools.common.ssh.ConnectionAwareTask;
+import com.sshtools.common.ssh.SshConnection;
+import com.sshtools.synergy.ssh.Connection;
+import com.sshtools.synergy.ssh.LocalForwardingChannel;
+
+/**
+ * A direct-tcpip channel opened on behalf of a SOCKS client. The SOCKS request is read
+ * by the selector as it arrives, the channel is opened once the destination is known 
+ * and the SOCKS reply is written when the server has accepted or refused the channel.
+ */
+public class SocksForwardingChannel extends LocalForwardingChannel<SshClientContext> {
+
+	static final int MAX_REQUEST_LENGTH = 1024;
+	
+	Connection<SshClientContext> owner;
+	DynamicForwardingFactoryImpl factory;
+	ByteBuffer request = ByteBuffer.allocate(MAX_REQUEST_LENGTH);
+	int socksVersion;
+	boolean methodSelected;
+	volatile boolean negotiated;
+	volatile boolean openPending;
+	volatile boolean closeOnFlush;
+	
+	@SuppressWarnings("unchecked")
+	public SocksForwardingChannel(String channelType, SshConnection con, 
+			SocketChannel socketChannel, DynamicForwardingFactoryImpl factory) {
+		super(channelType, con, null, 0, socketChannel);
+		this.owner = (Connection<SshClientContext>) con;
+		this.factory = factory;
+	}
+
+	/**
+	 * Indicates the SOCKS request has been read and the destination is known.
+	 */
+	public boolean isNegotiated() {
+		return negotiated;
+	}
+	
+	/**
+	 * The SOCKS client waits for our reply before sending any data.
+	 */
+	@Override
+	protected boolean canOpenOptimistically() {
+		return false;
+	}
+	
+	/**
+	 * The socket is already registered with the selector to read the SOCKS request so
+	 * it stays registered while the channel is opening.
+	 */
+	@Override
+	protected boolean isOpenPending() {
+		return openPending;
+	}
+	
+	/**
+	 * The socket is serviced before the channel is opened, until then its events are 
+	 * processed on behalf of the connection that accepted it.
+	 */
+	@Override
+	public Connection<SshClientContext> getConnection() {
+		return getConnectionProtocol() == null ? owner : super.getConnection();
+	}
+	
+	@Override
+	public SshClientContext getContext() {
+		return getConnectionProtocol() == null ? owner.getContext() : super.getContext();
+	}
+	
+	@Override
+	public void addTask(ConnectionAwareTask task) {
+		if(getConnectionProtocol() == null) {
+			owner.addTask(task);
+		} else {
+			super.addTask(task);
+		}
+	}
+	
+	@Override
+	public boolean processReadEvent() {
+		if(negotiated) {
+			return super.processReadEvent();
+		}
+		return readRequest();
+	}
+	
+	@Override
+	public boolean processWriteEvent() {
+		boolean cancel = super.processWriteEvent();
+		if(closeOnFlush && !cache.hasRemaining()) {
+			cleanupSocket();
+			return true;
+		}
+		return cancel;
+	}
+	
+	@Override
+	protected synchronized void onChannelOpenConfirmation() {
+		openPending = false;
+		writeReply(true);
+		sendQueuedData();
+	}
+	
+	@Override
+	protected void onChannelOpenFailure() {
+		openPending = false;
+		writeReply(false);
+		shutdownSocket();
+	}
+	
+	/**
+	 * The client did not complete the SOCKS request in time.
+	 */
+	void handshakeTimeout() {
+		if(Log.isDebugEnabled()) {
+			Log.debug("SOCKS request was not received within {}ms", factory.getHandshakeTimeout());
+		}
+		shutdownSocket();
+	}
+	
+	/**
+	 * Read whatever part of the request is available without blocking.
+	 * 
+	 * @return true if the socket has been closed and its selection key should be cancelled
+	 */
+	private boolean readRequest() {
+		
+		try {
+			if(socketChannel == null || !socketChannel.isOpen()) {
+				return true;
+			}
+			
+			if(socketChannel.read(request) == -1) {
+				throw new EOFException("Unexpected EOF in SOCKS request");
+			}
+			
+			request.flip();
+			try {
+				while(request.hasRemaining() && !negotiated && !closeOnFlush) {
+					int mark = request.position();
+					try {
+						processRequest();
+					} catch(BufferUnderflowException e) {
+						// Wait for the rest of the message
+						request.position(mark);
+						break;
+					}
+				}
+				if(request.hasRemaining() && (negotiated || closeOnFlush)) {
+					throw new IOException("Unexpected data following SOCKS request");
+				}
+			} finally {
+				request.compact();
+			}
+			
+			if(!request.hasRemaining()) {
+				throw new IOException("SOCKS request too long");
+			}
+			
+			if(closeOnFlush) {
+				if(cache.hasRemaining()) {
+					return false;
+				}
+				cleanupSocket();
+				return true;
+			}
+			
+			if(negotiated) {
+				if(Log.isDebugEnabled()) {
+					Log.debug("SOCKS{} request to connect to {}:{}", socksVersion, hostToConnect, portToConnect);
+				}
+				openPending = true;
+				factory.requestReceived(this, socketChannel);
+			}
+			
+			return false;
+			
+		} catch(IOException e) {
+			if(Log.isDebugEnabled()) {
+				Log.debug("Failed to negotiate SOCKS request", e);
+			}
+			cleanupSocket();
+			return true;
+		}
+	}
+	
+	/**
+	 * Process the next complete message in the request buffer. 
+	 * 
+	 * @throws BufferUnderflowException if the message has not been fully received
+	 */
+	private void processRequest() throws IOException {
+		
+		int version = request.get() & 0xFF;
+		switch(version) {
+		case DynamicForwardingFactoryImpl.SOCKS4:
+			socksVersion = version;
+			readSocks4Request();
+			break;
+		case DynamicForwardingFactoryImpl.SOCKS5:
+			socksVersion = version;
+			if(methodSelected) {
+				readSocks5Request();
+			} else {
+				readSocks5Methods();
+			}
+			break;
+		default:
+			throw new IOException(String.format("Unsupported SOCKS version %d", version));
+		}
+	}
+	
+	private void readSocks4Request() throws IOException {
+		
+		int cmd = request.get() & 0xFF;
+		int port = request.getShort() & 0xFFFF;
+		byte[] ip = new byte[4];
+		request.get(ip);
+		
+		// The user id is not used
+		readNullTerminated();
+		
+		String host;
+		if(ip[0] == 0 && ip[1] == 0 && ip[2] == 0 && ip[3] != 0) {
+			// SOCKS4a, the host name follows the user id
+			host = readNullTerminated();
+		} else {
+			host = InetAddress.getByAddress(ip).getHostAddress();
+		}
+		
+		if(cmd != DynamicForwardingFactoryImpl.CMD_CONNECT) {
+			replyAndClose(socks4Reply(DynamicForwardingFactoryImpl.SOCKS4_REJECTED));
+			return;
+		}
+		
+		setDestination(host, port);
+	}
+	
+	private void readSocks5Methods() {
+		
+		int methods = request.get() & 0xFF;
+		boolean noAuthentication = false;
+		for(int i=0;i<methods;i++) {
+			noAuthentication |= request.get() == 0x00;
+		}
+		
+		if(!noAuthentication) {
+			replyAndClose(new byte[] { DynamicForwardingFactoryImpl.SOCKS5, (byte) 0xFF });
+			return;
+		}
+		
+		methodSelected = true;
+		writeSocketData(ByteBuffer.wrap(new byte[] { DynamicForwardingFactoryImpl.SOCKS5, 0x00 }));
+	}
+	
+	private void readSocks5Request() throws IOException {
+		
+		int cmd = request.get() & 0xFF;
+		request.get();
+		int atyp = request.get() & 0xFF;
+		
+		String host;
+		switch(atyp) {
+		case DynamicForwardingFactoryImpl.SOCKS5_ATYP_IPV4:
+		{
+			byte[] ip = new byte[4];
+			request.get(ip);
+			host = InetAddress.getByAddress(ip).getHostAddress();
+			break;
+		}
+		case DynamicForwardingFactoryImpl.SOCKS5_ATYP_IPV6:
+		{
+			byte[] ip = new byte[16];
+			request.get(ip);
+			host = InetAddress.getByAddress(ip).getHostAddress();
+			break;
+		}
+		case DynamicForwardingFactoryImpl.SOCKS5_ATYP_DOMAIN:
+		{
+			byte[] name = new byte[request.get() & 0xFF];
+			request.get(name);
+			host = new String(name, StandardCharsets.US_ASCII);
+			break;
+		}
+		default:
+			replyAndClose(socks5Reply(DynamicForwardingFactoryImpl.SOCKS5_ADDRESS_NOT_SUPPORTED));
+			return;
+		}
+		
+		int port = request.getShort() & 0xFFFF;
+		
+		if(cmd != DynamicForwardingFactoryImpl.CMD_CONNECT) {
+			replyAndClose(socks5Reply(DynamicForwardingFactoryImpl.SOCKS5_COMMAND_NOT_SUPPORTED));
+			return;
+		}
+		
+		setDestination(host, port);
+	}
+	
+	private String readNullTerminated() throws IOException {
+		StringBuilder str = new StringBuilder();
+		int ch;
+		while((ch = request.get()) != 0) {
+			if(str.length() > 255) {
+				throw new IOException("SOCKS request string too long");
+			}
+			str.append((char)(ch & 0xFF));
+		}
+		return str.toString();
+	}
+	
+	private void setDestination(String host, int port) {
+		this.hostToConnect = host;
+		this.portToConnect = port;
+		this.negotiated = true;
+	}
+	
+	/**
+	 * Refuse the request. The socket is closed once the reply has been written.
+	 */
+	private void replyAndClose(byte[] reply) {
+		closeOnFlush = true;
+		writeSocketData(ByteBuffer.wrap(reply));
+	}
+	
+	private void writeReply(boolean success) {
+		if(socksVersion == DynamicForwardingFactoryImpl.SOCKS4) {
+			writeSocketData(ByteBuffer.wrap(socks4Reply(success ? DynamicForwardingFactoryImpl.SOCKS4_GRANTED 
+					: DynamicForwardingFactoryImpl.SOCKS4_REJECTED)));
+		} else {
+			writeSocketData(ByteBuffer.wrap(socks5Reply(success ? DynamicForwardingFactoryImpl.SOCKS5_SUCCEEDED 
+					: DynamicForwardingFactoryImpl.SOCKS5_HOST_UNREACHABLE)));
+		}
+	}
+	
+	private static byte[] socks4Reply(int reply) {
+		return new byte[] { 0, (byte) reply, 0, 0, 0, 0, 0, 0 };
+	}
+	
+	private static byte[] socks5Reply(int reply) {
+		return new byte[] { DynamicForwardingFactoryImpl.SOCKS5, (byte) reply, 0x00, 
+				DynamicForwardingFactoryImpl.SOCKS5_ATYP_IPV4, 0, 0, 0, 0, 0, 0 };
+	}
+}
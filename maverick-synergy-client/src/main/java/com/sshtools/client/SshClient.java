@@ -225,6 +225,15 @@ public class SshClient implements Closeable {
 		client.stopLocalForwarding();
 	}
 	
+	public int startDynamicForwarding(String addressToBind, int portToBind) throws UnauthorizedException, SshException {
+		ConnectionProtocolClient client = (ConnectionProtocolClient) con.getConnectionProtocol();
+		return client.startDynamicForwarding(addressToBind, portToBind);
+	}
+	
+	public void stopDynamicForwarding(String addressToBind, int portToBind) {
+		stopLocalForwarding(addressToBind, portToBind);
+	}
+	
 	public int startRemoteForwarding(String addressToBind, int portToBind, String destinationHost, int destinationPort) throws SshException {
 		ConnectionProtocolClient client = (ConnectionProtocolClient) con.getConnectionProtocol();
 		return client.startRemoteForwarding(addressToBind, portToBind, destinationHost, destinationPort);
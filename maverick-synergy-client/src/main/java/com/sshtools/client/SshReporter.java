@@ -27,6 +27,7 @@ import java.util.Random;
 
 import com.sshtools.client.sftp.SftpClient;
 import com.sshtools.client.sftp.TransferCancelledException;
+import com.sshtools.client.tasks.FileTransferProgress;
 import com.sshtools.common.permissions.PermissionDeniedException;
 import com.sshtools.common.sftp.SftpStatusException;
 import com.sshtools.common.ssh.ChannelOpenException;
@@ -177,28 +178,68 @@ public class SshReporter {
 		
         System.out.println("Uploading " + size + " File");
         long started = System.currentTimeMillis();
-        sftp.put(filename);
+        WindowReport report = new WindowReport();
+        sftp.put(filename, report);
         long ended = System.currentTimeMillis();
         System.out.println("Upload took " + ((double)(ended-started)/ 1000) + " seconds");
         
-        System.out.println("Optimized Block: " + System.getProperty("maverick.write.optimizedBlock"));
-        System.out.println("Round Trip: " + System.getProperty("maverick.write.blockRoundtrip"));
+        report.print();
         
         System.out.println("Downloading " + size + " File");
         started = System.currentTimeMillis();
-        sftp.get(filename);
+        report = new WindowReport();
+        sftp.get(filename, report);
         ended = System.currentTimeMillis();
         System.out.println("Download took " + ((double)(ended-started)/ 1000) + " seconds");
 		
         ssh.disconnect();
         
-        System.out.println("Optimized Block: " + System.getProperty("maverick.read.optimizedBlock"));
-        System.out.println("Final Block: " + System.getProperty("maverick.read.finalBlock"));
-        System.out.println("Round Trip: " + System.getProperty("maverick.read.blockRoundtrip"));
+        report.print();
         
         System.out.println("#####");
 	}
 
+	static class WindowReport implements FileTransferProgress {
+		
+		boolean changed;
+		int outstandingRequests;
+		int blocksize;
+		long roundTripTime;
+		
+		@Override
+		public void started(long bytesTotal, String remoteFile) {
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return false;
+		}
+
+		@Override
+		public void progressed(long bytesSoFar) {
+		}
+
+		@Override
+		public void completed() {
+		}
+		
+		@Override
+		public void windowChanged(int outstandingRequests, int blocksize, long roundTripTime) {
+			this.changed = true;
+			this.outstandingRequests = outstandingRequests;
+			this.blocksize = blocksize;
+			this.roundTripTime = roundTripTime;
+		}
+		
+		void print() {
+			if(changed) {
+		        System.out.println("Optimized Block: " + blocksize);
+		        System.out.println("Outstanding Requests: " + outstandingRequests);
+		        System.out.println("Round Trip: " + roundTripTime);
+			}
+		}
+	}
+	
 	private static void generateLargeFile(String name, String size) throws IOException {
 		
 		System.out.println("Generating " + size + " file");
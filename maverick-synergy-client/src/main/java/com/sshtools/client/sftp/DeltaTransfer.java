@@ -0,0 +1,303 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.sftp;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+import com.sshtools.client.tasks.FileTransferProgress;
+import com.sshtools.common.logger.Log;
+import com.sshtools.common.sftp.SftpFileAttributes;
+import com.sshtools.common.sftp.SftpStatusException;
+import com.sshtools.common.ssh.SshException;
+import com.sshtools.common.util.ByteArrayWriter;
+import com.sshtools.common.util.UnsignedInteger32;
+import com.sshtools.common.util.UnsignedInteger64;
+
+/**
+ * Updates an existing remote file from a local file by writing only the blocks that 
+ * differ. The remote file is hashed block by block with the md5-hash-handle extension, 
+ * or read back in ranges when the server does not support it, and compared with the 
+ * same block of the local file. Changed blocks are written at their offset, local data 
+ * beyond the end of the remote file is appended, and a longer remote file is truncated.
+ */
+class DeltaTransfer {
+
+	static final String MD5_HASH_HANDLE = "md5-hash-handle";
+	
+	final SftpChannel channel;
+	final SftpFile file;
+	final byte[] handle;
+	final InputStream local;
+	final long localLength;
+	final long remoteLength;
+	final int deltaBlocksize;
+	final int blocksize;
+	final int outstandingRequests;
+	final FileTransferProgress progress;
+	
+	final MessageDigest md5;
+	final byte[] localBlock;
+	final ArrayDeque<UnsignedInteger32> writes = new ArrayDeque<UnsignedInteger32>();
+	long written;
+	Exception failure;
+	
+	DeltaTransfer(SftpChannel channel, SftpFile file, InputStream local, long localLength, 
+			long remoteLength, int deltaBlocksize, int blocksize, int outstandingRequests, 
+			FileTransferProgress progress) throws SshException {
+		this.channel = channel;
+		this.file = file;
+		this.handle = file.getHandle();
+		this.local = local;
+		this.localLength = localLength;
+		this.remoteLength = remoteLength;
+		this.deltaBlocksize = deltaBlocksize;
+		this.blocksize = blocksize;
+		this.outstandingRequests = Math.max(1, outstandingRequests);
+		this.progress = progress;
+		this.localBlock = new byte[deltaBlocksize];
+		try {
+			this.md5 = MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new SshException(SshException.INTERNAL_ERROR, e);
+		}
+	}
+	
+	/**
+	 * Bring the remote file up to date, returning the number of bytes written. A remote
+	 * file longer than the local file is truncated with a request to set its size, which 
+	 * not every server acts on.
+	 */
+	long transfer() throws SftpStatusException, SshException, TransferCancelledException, IOException {
+		
+		long common = Math.min(localLength, remoteLength);
+		try {
+			if(common > 0 && !compareHashes(common)) {
+				if(Log.isDebugEnabled()) {
+					Log.debug("The server does not support " + MD5_HASH_HANDLE + ", comparing with the remote data instead");
+				}
+				compareData(common);
+			}
+			
+			for(long offset = common; offset < localLength; offset += deltaBlocksize) {
+				int len = readLocalBlock(offset, localLength);
+				writeBlock(offset, len);
+				progressed(offset + len);
+			}
+			
+			while(!writes.isEmpty()) {
+				channel.getOKRequestStatus(writes.removeFirst());
+			}
+		} finally {
+			while(!writes.isEmpty()) {
+				try {
+					channel.getResponse(writes.removeFirst()).release();
+				} catch (SshException e) {
+					break;
+				}
+			}
+		}
+		
+		if(remoteLength > localLength) {
+			SftpFileAttributes attrs = new SftpFileAttributes(SftpFileAttributes.SSH_FILEXFER_TYPE_UNKNOWN, 
+					channel.getCharsetEncoding());
+			attrs.setSize(new UnsignedInteger64(localLength));
+			channel.setAttributes(file, attrs);
+		}
+		
+		return written;
+	}
+	
+	/**
+	 * Compare each block with the hash of the remote block, keeping a number of hash 
+	 * requests outstanding. Returns false, having compared nothing, if the server does 
+	 * not support the extension.
+	 */
+	boolean compareHashes(long common) throws SftpStatusException, SshException, TransferCancelledException, IOException {
+		
+		ArrayDeque<UnsignedInteger32> requests = new ArrayDeque<UnsignedInteger32>();
+		long requested = 0;
+		long offset = 0;
+		try {
+			
+			/**
+			 * Send the first request alone, a server that does not support the 
+			 * extension fails it.
+			 */
+			requested = requestHash(requests, requested, common);
+			try {
+				compareBlock(offset, common, readHash(requests.removeFirst()), null);
+			} catch(SftpStatusException e) {
+				if(e.getStatus() == SftpStatusException.SSH_FX_OP_UNSUPPORTED) {
+					return false;
+				}
+				throw e;
+			}
+			offset += deltaBlocksize;
+			
+			while(offset < common) {
+				while(requests.size() < outstandingRequests && requested < common) {
+					requested = requestHash(requests, requested, common);
+				}
+				compareBlock(offset, common, readHash(requests.removeFirst()), null);
+				offset += deltaBlocksize;
+			}
+			return true;
+		} finally {
+			while(!requests.isEmpty()) {
+				try {
+					channel.getResponse(requests.removeFirst()).release();
+				} catch (SshException e) {
+					break;
+				}
+			}
+		}
+	}
+	
+	private long requestHash(ArrayDeque<UnsignedInteger32> requests, long offset, long common) throws SshException, SftpStatusException, IOException {
+		try(ByteArrayWriter msg = new ByteArrayWriter()) {
+			msg.writeBinaryString(handle);
+			msg.writeUINT64(offset);
+			msg.writeUINT64(Math.min(deltaBlocksize, common - offset));
+			msg.writeBinaryString(new byte[0]);
+			requests.addLast(channel.sendExtensionMessage(MD5_HASH_HANDLE, msg.toByteArray()));
+		}
+		return offset + deltaBlocksize;
+	}
+	
+	private byte[] readHash(UnsignedInteger32 requestId) throws SftpStatusException, SshException, IOException {
+		SftpMessage reply = channel.getExtensionResponse(requestId);
+		try {
+			reply.readString();
+			return reply.readBinaryString();
+		} finally {
+			reply.release();
+		}
+	}
+	
+	/**
+	 * Compare each block with the remote data, read through the channel's optimized 
+	 * read, bounded to the common length, into a target that collects one block at a time.
+	 */
+	void compareData(final long common) throws SftpStatusException, SshException, TransferCancelledException, IOException {
+		
+		final byte[] remoteBlock = new byte[deltaBlocksize];
+		SftpChannel.ReadTarget out = new SftpChannel.ReadTarget() {
+			
+			long offset;
+			int buffered;
+			
+			@Override
+			public void write(long position, byte[] b, int off, int len) throws IOException {
+				while(len > 0 && offset < common) {
+					int count = (int) Math.min(len, Math.min(deltaBlocksize - buffered, common - offset - buffered));
+					System.arraycopy(b, off, remoteBlock, buffered, count);
+					buffered += count;
+					off += count;
+					len -= count;
+					if(buffered == deltaBlocksize || offset + buffered == common) {
+						try {
+							compareBlock(offset, common, null, remoteBlock);
+						} catch (SftpStatusException | SshException | TransferCancelledException e) {
+							failure = e;
+							throw new IOException(e);
+						}
+						offset += buffered;
+						buffered = 0;
+					}
+				}
+			}
+		};
+		
+		try {
+			channel.performOptimizedRead(handle, common, blocksize, out, outstandingRequests, null, 0, true);
+		} catch(TransferCancelledException e) {
+			/**
+			 * The read reports any failure of the stream as a cancellation
+			 */
+			if(failure instanceof SftpStatusException) {
+				throw (SftpStatusException) failure;
+			}
+			if(failure instanceof SshException) {
+				throw (SshException) failure;
+			}
+			throw e;
+		}
+	}
+	
+	/**
+	 * Read the local block at offset, ending no later than end, and write it if it differs 
+	 * from the remote block, given either as its MD5 hash or its data.
+	 */
+	void compareBlock(long offset, long end, byte[] remoteHash, byte[] remoteBlock) throws SftpStatusException, SshException, TransferCancelledException, IOException {
+		
+		int len = readLocalBlock(offset, end);
+		boolean changed;
+		if(remoteBlock != null) {
+			changed = !Arrays.equals(Arrays.copyOf(localBlock, len), Arrays.copyOf(remoteBlock, len));
+		} else {
+			md5.reset();
+			md5.update(localBlock, 0, len);
+			changed = !Arrays.equals(md5.digest(), remoteHash);
+		}
+		
+		if(changed) {
+			writeBlock(offset, len);
+		}
+		progressed(offset + len);
+	}
+	
+	private int readLocalBlock(long offset, long end) throws IOException {
+		int len = (int) Math.min(deltaBlocksize, end - offset);
+		int read = 0;
+		while(read < len) {
+			int count = local.read(localBlock, read, len - read);
+			if(count == -1) {
+				throw new EOFException("The local file is shorter than expected");
+			}
+			read += count;
+		}
+		return len;
+	}
+	
+	private void writeBlock(long offset, int len) throws SftpStatusException, SshException {
+		for(int off = 0; off < len; off += blocksize) {
+			while(writes.size() >= outstandingRequests) {
+				channel.getOKRequestStatus(writes.removeFirst());
+			}
+			int count = Math.min(blocksize, len - off);
+			writes.addLast(channel.postWriteRequest(handle, offset + off, localBlock, off, count));
+			written += count;
+		}
+	}
+	
+	private void progressed(long position) throws TransferCancelledException {
+		if(progress != null) {
+			if(progress.isCancelled()) {
+				throw new TransferCancelledException();
+			}
+			progress.progressed(position);
+		}
+	}
+}
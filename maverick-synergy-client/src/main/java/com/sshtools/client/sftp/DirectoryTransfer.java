@@ -0,0 +1,511 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.sftp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sshtools.client.tasks.FileTransferProgress;
+import com.sshtools.common.files.AbstractFile;
+import com.sshtools.common.permissions.PermissionDeniedException;
+import com.sshtools.common.sftp.SftpFileAttributes;
+import com.sshtools.common.sftp.SftpStatusException;
+import com.sshtools.common.ssh.SshException;
+import com.sshtools.common.util.UnsignedInteger64;
+
+/**
+ * Copies a directory tree using a fixed set of SFTP clients, each with its own channel. 
+ * Listing a directory, creating it and transferring each of its files are separate tasks 
+ * on a shared queue, so many small files are in flight at once instead of each waiting 
+ * for the round trips of the one before. The results are collected per directory and 
+ * combined into a {@link DirectoryOperation} once the tree has been processed.
+ */
+abstract class DirectoryTransfer {
+
+	interface Task {
+		void run(SftpClient client) throws SftpStatusException, SshException, 
+			TransferCancelledException, IOException, PermissionDeniedException;
+	}
+	
+	final List<SftpClient> clients;
+	final boolean recurse;
+	final boolean sync;
+	final boolean commit;
+	final FileTransferProgress progress;
+	
+	final LinkedBlockingQueue<Task> tasks = new LinkedBlockingQueue<Task>();
+	final AtomicInteger pending = new AtomicInteger();
+	volatile Throwable failure;
+	
+	DirectoryTransfer(List<SftpClient> clients, boolean recurse, boolean sync, boolean commit, 
+			final FileTransferProgress progress) {
+		this.clients = clients;
+		this.recurse = recurse;
+		this.sync = sync;
+		this.commit = commit;
+		this.progress = progress == null ? null : new FileTransferProgress() {
+			
+			/**
+			 * Several files are transferred at once, so calls to the 
+			 * caller's progress are serialized.
+			 */
+			public synchronized void started(long bytesTotal, String remoteFile) {
+				progress.started(bytesTotal, remoteFile);
+			}
+			
+			public synchronized boolean isCancelled() {
+				return progress.isCancelled();
+			}
+			
+			public synchronized void progressed(long bytesSoFar) {
+				progress.progressed(bytesSoFar);
+			}
+			
+			public synchronized void completed() {
+				progress.completed();
+			}
+		};
+	}
+	
+	/**
+	 * Process the directory and everything beneath it.
+	 */
+	abstract void processDirectory(SftpClient client, Directory dir) throws SftpStatusException, 
+		SshException, TransferCancelledException, IOException, PermissionDeniedException;
+	
+	/**
+	 * Remove anything in the destination directory that is not in the source.
+	 */
+	abstract void synchronizeDirectory(SftpClient client, Directory dir) throws SftpStatusException, 
+		SshException, TransferCancelledException, IOException, PermissionDeniedException;
+	
+	DirectoryOperation transfer(final Directory root) throws SftpStatusException, SshException, 
+			TransferCancelledException, IOException, PermissionDeniedException {
+		
+		submitDirectory(root);
+		runTasks();
+		
+		if(sync) {
+			submitSynchronize(root);
+			runTasks();
+		}
+		
+		merge(root);
+		return root.op;
+	}
+	
+	void submitDirectory(final Directory dir) {
+		submit(new Task() {
+			public void run(SftpClient client) throws SftpStatusException, SshException, 
+					TransferCancelledException, IOException, PermissionDeniedException {
+				processDirectory(client, dir);
+			}
+		});
+	}
+	
+	private void submitSynchronize(final Directory dir) {
+		submit(new Task() {
+			public void run(SftpClient client) throws SftpStatusException, SshException, 
+					TransferCancelledException, IOException, PermissionDeniedException {
+				synchronizeDirectory(client, dir);
+			}
+		});
+		for(Directory child : dir.children) {
+			submitSynchronize(child);
+		}
+	}
+	
+	private void merge(Directory dir) {
+		for(Directory child : dir.children) {
+			merge(child);
+			dir.op.addDirectoryOperation(child.op, child.local);
+		}
+	}
+	
+	void submit(Task task) {
+		pending.incrementAndGet();
+		tasks.add(task);
+	}
+	
+	private void runTasks() throws SftpStatusException, SshException, 
+			TransferCancelledException, IOException, PermissionDeniedException {
+		
+		List<Future<?>> workers = new ArrayList<Future<?>>();
+		try {
+			for(final SftpClient client : clients.subList(1, clients.size())) {
+				workers.add(client.getSubsystemChannel().getConnection().getContext()
+						.getExecutorService().submit(new Callable<Void>() {
+					public Void call() {
+						runWorker(client);
+						return null;
+					}
+				}));
+			}
+			
+			runWorker(clients.get(0));
+			
+			for(Future<?> worker : workers) {
+				try {
+					worker.get();
+				} catch (InterruptedException e) {
+					throw new SshException("The thread was interrupted", SshException.CHANNEL_FAILURE);
+				} catch (ExecutionException e) {
+					fail(e.getCause());
+				}
+			}
+		} finally {
+			for(Future<?> worker : workers) {
+				worker.cancel(false);
+			}
+		}
+		
+		if(failure != null) {
+			tasks.clear();
+			pending.set(0);
+			throwFailure();
+		}
+	}
+	
+	private void runWorker(SftpClient client) {
+		while(failure == null) {
+			Task task;
+			try {
+				task = tasks.poll(100, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				fail(new SshException("The thread was interrupted", SshException.CHANNEL_FAILURE));
+				return;
+			}
+			if(task == null) {
+				/**
+				 * Tasks that are still running may add more work
+				 */
+				if(pending.get() == 0) {
+					return;
+				}
+				continue;
+			}
+			try {
+				task.run(client);
+			} catch (Exception e) {
+				fail(e);
+			} finally {
+				pending.decrementAndGet();
+			}
+		}
+	}
+	
+	private synchronized void fail(Throwable e) {
+		if(failure == null) {
+			failure = e;
+		}
+	}
+	
+	private void throwFailure() throws SftpStatusException, SshException, 
+			TransferCancelledException, IOException, PermissionDeniedException {
+		if(failure instanceof SftpStatusException) {
+			throw (SftpStatusException) failure;
+		}
+		if(failure instanceof SshException) {
+			throw (SshException) failure;
+		}
+		if(failure instanceof TransferCancelledException) {
+			throw (TransferCancelledException) failure;
+		}
+		if(failure instanceof IOException) {
+			throw (IOException) failure;
+		}
+		if(failure instanceof PermissionDeniedException) {
+			throw (PermissionDeniedException) failure;
+		}
+		throw new SshException(SshException.INTERNAL_ERROR, failure);
+	}
+	
+	static String resolve(String dir, String name) {
+		return dir + (dir.endsWith("/") ? "" : "/") + name;
+	}
+	
+	/**
+	 * A directory in the tree being copied and the results for its files.
+	 */
+	static class Directory {
+		final AbstractFile local;
+		final String remote;
+		final DirectoryOperation op = new DirectoryOperation();
+		final List<Directory> children = Collections.synchronizedList(new ArrayList<Directory>());
+		
+		Directory(AbstractFile local, String remote) {
+			this.local = local;
+			this.remote = remote;
+		}
+		
+		Directory addChild(AbstractFile local, String remote) {
+			Directory child = new Directory(local, remote);
+			children.add(child);
+			return child;
+		}
+		
+		boolean hasChild(String name) {
+			synchronized(children) {
+				for(Directory child : children) {
+					if(child.local.getName().equals(name)) {
+						return true;
+					}
+				}
+			}
+			return false;
+		}
+	}
+	
+	/**
+	 * Copies a local directory into a remote directory.
+	 */
+	static class Put extends DirectoryTransfer {
+
+		Put(List<SftpClient> clients, boolean recurse, boolean sync, boolean commit,
+				FileTransferProgress progress) {
+			super(clients, recurse, sync, commit, progress);
+		}
+
+		@Override
+		void processDirectory(SftpClient client, final Directory dir) throws SftpStatusException, 
+				SshException, IOException, PermissionDeniedException {
+			
+			if (commit) {
+				try {
+					client.getSubsystemChannel().getAttributes(dir.remote);
+				} catch (SftpStatusException ex) {
+					client.mkdirs(dir.remote);
+				}
+			}
+			
+			for (final AbstractFile source : dir.local.getChildren()) {
+				if (source.isDirectory() && !source.getName().equals(".")
+						&& !source.getName().equals("..")) {
+					if (recurse) {
+						submitDirectory(dir.addChild(source, resolve(dir.remote, source.getName())));
+					}
+				} else if (source.isFile()) {
+					submit(new Task() {
+						public void run(SftpClient client) throws SftpStatusException, SshException, 
+								TransferCancelledException, IOException, PermissionDeniedException {
+							putFile(client, dir, source);
+						}
+					});
+				}
+			}
+		}
+		
+		private void putFile(SftpClient client, Directory dir, AbstractFile source) throws SshException, 
+				TransferCancelledException, IOException, PermissionDeniedException {
+			
+			String remotePath = resolve(dir.remote, source.getName());
+			boolean newFile = false;
+			boolean unchangedFile = false;
+
+			try {
+				SftpFileAttributes attrs = client.getSubsystemChannel().getAttributes(remotePath);
+				unchangedFile = ((source.length() == attrs.getSize()
+						.longValue()) && ((source.lastModified() / 1000) == attrs
+						.getModifiedTime().longValue()));
+			} catch (SftpStatusException ex) {
+				newFile = true;
+			}
+
+			try {
+				if (commit && !unchangedFile) {
+					InputStream in = source.getInputStream();
+					try {
+						client.put(in, remotePath, progress);
+					} finally {
+						in.close();
+					}
+					SftpFileAttributes attrs = client.getSubsystemChannel().getAttributes(remotePath);
+					attrs.setTimes(
+							new UnsignedInteger64(source.lastModified() / 1000),
+							new UnsignedInteger64(source.lastModified() / 1000));
+					try {
+						client.getSubsystemChannel().setAttributes(remotePath, attrs);
+					} finally {
+						client.invalidate(remotePath);
+					}
+				}
+
+				if (unchangedFile) {
+					dir.op.addUnchangedFile(source);
+				} else if (!newFile) {
+					dir.op.addUpdatedFile(source);
+				} else {
+					dir.op.addNewFile(source);
+				}
+			} catch (SftpStatusException ex) {
+				dir.op.addFailedTransfer(source, ex);
+			}
+		}
+
+		@Override
+		void synchronizeDirectory(SftpClient client, Directory dir) throws SftpStatusException, SshException, 
+				IOException, PermissionDeniedException {
+			SftpFile[] files;
+			try {
+				files = client.ls(dir.remote);
+			} catch (SftpStatusException ex) {
+				return;
+			}
+			
+			for (SftpFile file : files) {
+				if (file.getFilename().equals(".") || file.getFilename().equals("..") 
+						|| dir.hasChild(file.getFilename())
+						|| dir.op.containsFile(dir.local.resolveFile(file.getFilename()))) {
+					continue;
+				}
+				
+				dir.op.addDeletedFile(file);
+				if (file.isDirectory()) {
+					client.recurseMarkForDeletion(file, dir.op);
+					if (commit) {
+						client.rm(file.getAbsolutePath(), true, true);
+					}
+				} else if (file.isFile() && commit) {
+					client.rm(file.getAbsolutePath());
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Copies a remote directory into a local directory.
+	 */
+	static class Get extends DirectoryTransfer {
+
+		Get(List<SftpClient> clients, boolean recurse, boolean sync, boolean commit,
+				FileTransferProgress progress) {
+			super(clients, recurse, sync, commit, progress);
+		}
+
+		@Override
+		void processDirectory(SftpClient client, final Directory dir) throws SftpStatusException, 
+				SshException, IOException, PermissionDeniedException {
+			
+			if (!dir.local.exists() && commit) {
+				dir.local.createFolder();
+			}
+			
+			for (final SftpFile file : client.ls(dir.remote)) {
+				if (file.isDirectory() && !file.getFilename().equals(".")
+						&& !file.getFilename().equals("..")) {
+					if (recurse) {
+						submitDirectory(dir.addChild(dir.local.resolveFile(file.getFilename()), 
+								resolve(dir.remote, file.getFilename())));
+					}
+				} else if (file.isFile()) {
+					submit(new Task() {
+						public void run(SftpClient client) throws SftpStatusException, SshException, 
+								TransferCancelledException, IOException, PermissionDeniedException {
+							getFile(client, dir, file);
+						}
+					});
+				}
+			}
+		}
+		
+		private void getFile(SftpClient client, Directory dir, SftpFile file) throws SftpStatusException, SshException, 
+				TransferCancelledException, IOException, PermissionDeniedException {
+			
+			AbstractFile f = dir.local.resolveFile(file.getFilename());
+			SftpFileAttributes attrs = file.getAttributes();
+			
+			if (f.exists()
+					&& (f.length() == attrs.getSize().longValue())
+					&& ((f.lastModified() / 1000) == attrs.getModifiedTime().longValue())) {
+				if (commit) {
+					dir.op.addUnchangedFile(f);
+				} else {
+					dir.op.addUnchangedFile(file);
+				}
+				return;
+			}
+
+			try {
+				if (f.exists()) {
+					if (commit) {
+						dir.op.addUpdatedFile(f);
+					} else {
+						dir.op.addUpdatedFile(file);
+					}
+				} else {
+					if (commit) {
+						dir.op.addNewFile(f);
+					} else {
+						dir.op.addNewFile(file);
+					}
+				}
+
+				if (commit) {
+					OutputStream out = f.getOutputStream();
+					try {
+						client.get(resolve(dir.remote, file.getFilename()), out, progress, 0);
+					} finally {
+						out.close();
+					}
+					try {
+						f.setAttributes(attrs);
+					} catch (Throwable ex) {
+					}
+				}
+			} catch (SftpStatusException ex) {
+				dir.op.addFailedTransfer(f, ex);
+			}
+		}
+
+		@Override
+		void synchronizeDirectory(SftpClient client, Directory dir) throws SftpStatusException, SshException, 
+				IOException, PermissionDeniedException {
+			if (!dir.local.exists()) {
+				return;
+			}
+			
+			for (AbstractFile f : dir.local.getChildren()) {
+				if (dir.hasChild(f.getName()) || dir.op.containsFile(f)) {
+					continue;
+				}
+				
+				dir.op.addDeletedFile(f);
+				if (f.isDirectory() && !f.getName().equals(".")
+						&& !f.getName().equals("..")) {
+					client.recurseMarkForDeletion(f, dir.op);
+					if (commit) {
+						f.delete(true);
+					}
+				} else if (commit) {
+					f.delete(false);
+				}
+			}
+		}
+	}
+}
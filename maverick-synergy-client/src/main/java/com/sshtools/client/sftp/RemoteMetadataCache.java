@@ -0,0 +1,239 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.sftp;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.sshtools.common.sftp.SftpFileAttributes;
+
+/**
+ * A bounded cache of the attributes, directory listings and canonical paths an 
+ * {@link SftpClient} has read from the server. Entries expire after a fixed time and are 
+ * invalidated by the client's own operations. Paths are normalised before use but 
+ * symbolic links are not resolved, so a change made through a different path, or by 
+ * another client, is only seen once the entry expires. Attributes and listings are 
+ * copied in and out so that callers cannot change what the cache holds.
+ */
+class RemoteMetadataCache {
+
+	static final String ATTRIBUTES = "A";
+	static final String LISTING = "L";
+	static final String REALPATH = "R";
+	
+	final long ttl;
+	final int maximumEntries;
+	final LinkedHashMap<String,Entry> entries;
+	
+	volatile String defaultDirectory;
+	
+	long hits;
+	long misses;
+	
+	RemoteMetadataCache(long ttl, int maximumEntries) {
+		this.ttl = ttl;
+		this.maximumEntries = maximumEntries;
+		this.entries = new LinkedHashMap<String,Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				return size() > RemoteMetadataCache.this.maximumEntries;
+			}
+		};
+	}
+	
+	synchronized SftpFileAttributes getAttributes(String path) {
+		return copy((SftpFileAttributes) get(ATTRIBUTES + normalise(path)));
+	}
+	
+	synchronized void putAttributes(String path, SftpFileAttributes attrs) {
+		put(ATTRIBUTES + normalise(path), copy(attrs));
+	}
+	
+	synchronized SftpFile[] getListing(String path) {
+		return copy((SftpFile[]) get(LISTING + normalise(path)));
+	}
+	
+	/**
+	 * Cache a directory listing along with the attributes of each entry that is not a 
+	 * symbolic link.
+	 * 
+	 * @param path
+	 * @param files
+	 */
+	synchronized void putListing(String path, SftpFile[] files) {
+		String dir = normalise(path);
+		put(LISTING + dir, copy(files));
+		for(SftpFile file : files) {
+			if(file.attrs!=null && !file.attrs.isLink()
+					&& !file.getFilename().equals(".") && !file.getFilename().equals("..")) {
+				put(ATTRIBUTES + normalise(file.getAbsolutePath()), copy(file.attrs));
+			}
+		}
+	}
+	
+	synchronized String getRealPath(String path) {
+		return (String) get(REALPATH + normalise(path));
+	}
+	
+	synchronized void putRealPath(String path, String realPath) {
+		put(REALPATH + normalise(path), realPath);
+	}
+	
+	/**
+	 * Remove the entries for a path and the listing of its parent directory.
+	 * 
+	 * @param path
+	 */
+	synchronized void invalidate(String path) {
+		String p = normalise(path);
+		entries.remove(ATTRIBUTES + p);
+		entries.remove(LISTING + p);
+		entries.remove(REALPATH + p);
+		entries.remove(LISTING + getParent(p));
+	}
+	
+	/**
+	 * Remove the entries for a path, the listing of its parent directory and every 
+	 * entry below it. 
+	 * 
+	 * @param path
+	 */
+	synchronized void invalidateTree(String path) {
+		invalidate(path);
+		String p = normalise(path);
+		String prefix = p.endsWith("/") ? p : p + "/";
+		List<String> keys = new ArrayList<String>();
+		for(String key : entries.keySet()) {
+			String k = key.substring(1);
+			if(p.length()==0 ? !k.startsWith("/") : k.startsWith(prefix)) {
+				keys.add(key);
+			}
+		}
+		for(String key : keys) {
+			entries.remove(key);
+		}
+	}
+	
+	synchronized void invalidateAll() {
+		entries.clear();
+	}
+	
+	synchronized long getHits() {
+		return hits;
+	}
+	
+	synchronized long getMisses() {
+		return misses;
+	}
+	
+	synchronized int size() {
+		return entries.size();
+	}
+	
+	private Object get(String key) {
+		Entry e = entries.get(key);
+		if(e!=null) {
+			if(e.expires > System.currentTimeMillis()) {
+				hits++;
+				return e.value;
+			}
+			entries.remove(key);
+		}
+		misses++;
+		return null;
+	}
+	
+	private void put(String key, Object value) {
+		entries.put(key, new Entry(value, System.currentTimeMillis() + ttl));
+	}
+	
+	/**
+	 * Remove empty and "." elements from a path and apply ".." elements to the 
+	 * element before them.
+	 * 
+	 * @param path
+	 * @return String
+	 */
+	static String normalise(String path) {
+		boolean absolute = path.startsWith("/");
+		List<String> elements = new ArrayList<String>();
+		for(String element : path.split("/")) {
+			if(element.length()==0 || element.equals(".")) {
+				continue;
+			}
+			if(element.equals("..") && !elements.isEmpty() 
+					&& !elements.get(elements.size()-1).equals("..")) {
+				elements.remove(elements.size()-1);
+			} else if(!element.equals("..") || !absolute) {
+				elements.add(element);
+			}
+		}
+		StringBuilder buf = new StringBuilder();
+		if(absolute) {
+			buf.append('/');
+		}
+		for(int i = 0; i < elements.size(); i++) {
+			if(i > 0) {
+				buf.append('/');
+			}
+			buf.append(elements.get(i));
+		}
+		return buf.toString();
+	}
+	
+	static SftpFileAttributes copy(SftpFileAttributes attrs) {
+		return attrs==null ? null : new SftpFileAttributes(attrs);
+	}
+	
+	/**
+	 * Copy a listing without the channel of the files in it.
+	 */
+	static SftpFile[] copy(SftpFile[] files) {
+		if(files==null) {
+			return null;
+		}
+		SftpFile[] copies = new SftpFile[files.length];
+		for(int i = 0; i < files.length; i++) {
+			copies[i] = new SftpFile(files[i].getAbsolutePath(), copy(files[i].attrs));
+			copies[i].longname = files[i].longname;
+		}
+		return copies;
+	}
+	
+	static String getParent(String path) {
+		int idx = path.lastIndexOf('/');
+		if(idx==-1) {
+			return "";
+		}
+		return idx==0 ? "/" : path.substring(0, idx);
+	}
+	
+	static class Entry {
+		Object value;
+		long expires;
+		
+		Entry(Object value, long expires) {
+			this.value = value;
+			this.expires = expires;
+		}
+	}
+}
@@ -0,0 +1,421 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.sftp;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import com.sshtools.client.tasks.FileTransferProgress;
+import com.sshtools.common.files.AbstractFileRandomAccess;
+import com.sshtools.common.logger.Log;
+import com.sshtools.common.sftp.SftpStatusException;
+import com.sshtools.common.ssh.SshException;
+import com.sshtools.common.util.UnsignedInteger32;
+import com.sshtools.common.util.UnsignedInteger64;
+
+/**
+ * Transfers a single file in segments over several SFTP channels at the same time. Each 
+ * channel opens its own handle and takes segments from a shared queue, so a faster channel
+ * does more of the work. A segment that fails is put back on the queue to be continued 
+ * from the point it reached, until it has failed too many times.
+ */
+abstract class SegmentedTransfer {
+
+	static final int MAX_ATTEMPTS = 3;
+	static final int SEGMENTS_PER_CHANNEL = 4;
+	
+	final String remotePath;
+	final AbstractFileRandomAccess local;
+	final int blocksize;
+	final int outstandingRequests;
+	final FileTransferProgress progress;
+	
+	final ConcurrentLinkedQueue<Segment> segments = new ConcurrentLinkedQueue<Segment>();
+	long transfered;
+	volatile Throwable failure;
+	volatile Exception openFailure;
+	
+	SegmentedTransfer(String remotePath, AbstractFileRandomAccess local, int blocksize, 
+			int outstandingRequests, FileTransferProgress progress) {
+		this.remotePath = remotePath;
+		this.local = local;
+		this.blocksize = blocksize;
+		this.outstandingRequests = Math.max(1, outstandingRequests);
+		this.progress = progress;
+	}
+	
+	/**
+	 * Open the remote file on a channel.
+	 */
+	abstract byte[] openHandle(SftpChannel channel) throws SftpStatusException, SshException;
+	
+	/**
+	 * Send the request for a block without waiting for its response.
+	 */
+	abstract UnsignedInteger32 postRequest(SftpChannel channel, byte[] handle, long offset, int len, byte[] buf) 
+			throws SftpStatusException, SshException, IOException;
+	
+	/**
+	 * Wait for the response to a block's request and complete the block.
+	 */
+	abstract void completeRequest(SftpChannel channel, byte[] handle, Request request, byte[] buf) 
+			throws SftpStatusException, SshException, IOException;
+	
+	/**
+	 * Transfer length bytes over the channels given. The first channel is used by the calling 
+	 * thread and the others by the executor of their connection.
+	 */
+	void transfer(long length, List<SftpChannel> channels) throws SftpStatusException, 
+			SshException, TransferCancelledException, IOException {
+		
+		createSegments(length, channels.size());
+		
+		if(Log.isDebugEnabled()) {
+			Log.debug("Transferring " + remotePath + " in " + segments.size() + " segments over " 
+					+ channels.size() + " channels");
+		}
+		
+		List<Future<?>> workers = new ArrayList<Future<?>>();
+		try {
+			for(final SftpChannel channel : channels.subList(1, channels.size())) {
+				workers.add(channel.getConnection().getContext().getExecutorService().submit(new Callable<Void>() {
+					public Void call() throws Exception {
+						transferSegments(channel);
+						return null;
+					}
+				}));
+			}
+			
+			transferSegments(channels.get(0));
+			
+			for(Future<?> worker : workers) {
+				try {
+					worker.get();
+				} catch (InterruptedException e) {
+					throw new SshException("The thread was interrupted", SshException.CHANNEL_FAILURE);
+				} catch (ExecutionException e) {
+					fail(e.getCause());
+				}
+			}
+			
+			/**
+			 * A segment may have been put back after the other channels finished, 
+			 * or every channel but the first may have been unable to open the file.
+			 */
+			while(failure == null && !segments.isEmpty()) {
+				SftpChannel channel = firstOpenChannel(channels);
+				if(channel == null) {
+					throw new SshException("All channels closed before the transfer completed", 
+							SshException.CHANNEL_FAILURE);
+				}
+				if(!transferSegments(channel)) {
+					failure = openFailure;
+				}
+			}
+			
+			if(failure != null) {
+				throwFailure();
+			}
+		} finally {
+			segments.clear();
+			for(Future<?> worker : workers) {
+				worker.cancel(false);
+			}
+		}
+	}
+	
+	/**
+	 * Split length bytes into segments, several for each channel so that the faster 
+	 * channels can take more of them, but none smaller than a full window of requests.
+	 */
+	void createSegments(long length, int channelCount) {
+		long segmentSize = Math.max((long)blocksize * outstandingRequests,
+				(length + channelCount * SEGMENTS_PER_CHANNEL - 1) / (channelCount * SEGMENTS_PER_CHANNEL));
+		for(long position = 0; position < length; position += segmentSize) {
+			segments.add(new Segment(position, Math.min(length, position + segmentSize)));
+		}
+	}
+	
+	private SftpChannel firstOpenChannel(List<SftpChannel> channels) {
+		for(SftpChannel channel : channels) {
+			if(!channel.isClosed()) {
+				return channel;
+			}
+		}
+		return null;
+	}
+	
+	private void throwFailure() throws SftpStatusException, SshException, 
+			TransferCancelledException, IOException {
+		if(failure instanceof SftpStatusException) {
+			throw (SftpStatusException) failure;
+		}
+		if(failure instanceof SshException) {
+			throw (SshException) failure;
+		}
+		if(failure instanceof TransferCancelledException) {
+			throw (TransferCancelledException) failure;
+		}
+		if(failure instanceof IOException) {
+			throw (IOException) failure;
+		}
+		throw new SshException(SshException.INTERNAL_ERROR, failure);
+	}
+	
+	/**
+	 * Transfer segments from the queue until it is empty or the transfer has failed. 
+	 * 
+	 * @return false if the file could not be opened on the channel
+	 */
+	private boolean transferSegments(SftpChannel channel) {
+		
+		byte[] handle;
+		try {
+			handle = openHandle(channel);
+		} catch (SftpStatusException | SshException e) {
+			/**
+			 * The remaining channels carry on, the server may not allow 
+			 * the same file to be opened more than once.
+			 */
+			if(Log.isDebugEnabled()) {
+				Log.debug("Could not open " + remotePath + " for a segmented transfer: " + e.getMessage());
+			}
+			openFailure = e;
+			return false;
+		}
+		
+		byte[] buf = new byte[blocksize];
+		try {
+			Segment segment;
+			while(failure == null && (segment = segments.poll()) != null) {
+				try {
+					transferSegment(channel, handle, segment, buf);
+				} catch (SftpStatusException | SshException e) {
+					if(++segment.attempts >= MAX_ATTEMPTS) {
+						fail(e);
+						break;
+					}
+					if(Log.isDebugEnabled()) {
+						Log.debug("Retrying segment at " + segment.position + " of " + remotePath + ": " + e.getMessage());
+					}
+					segments.add(segment);
+					if(channel.isClosed()) {
+						break;
+					}
+				} catch (TransferCancelledException | IOException | RuntimeException e) {
+					/**
+					 * The segment is not put back, so the transfer must fail 
+					 * rather than leave a hole in the file.
+					 */
+					fail(e);
+					break;
+				}
+			}
+		} finally {
+			try {
+				channel.closeHandle(handle);
+			} catch (SftpStatusException | SshException e) {
+			}
+		}
+		return true;
+	}
+	
+	private void transferSegment(SftpChannel channel, byte[] handle, Segment segment, byte[] buf) 
+			throws SftpStatusException, SshException, TransferCancelledException, IOException {
+		
+		LinkedList<Request> requests = new LinkedList<Request>();
+		long offset = segment.position;
+		try {
+			while(segment.position < segment.end) {
+				
+				while(requests.size() < outstandingRequests && offset < segment.end) {
+					int len = (int) Math.min(blocksize, segment.end - offset);
+					requests.add(new Request(postRequest(channel, handle, offset, len, buf), offset, len));
+					offset += len;
+				}
+				
+				Request request = requests.removeFirst();
+				completeRequest(channel, handle, request, buf);
+				segment.position = request.offset + request.len;
+				progressed(request.len);
+				
+				if(failure != null) {
+					throw new TransferCancelledException();
+				}
+			}
+		} finally {
+			for(Request request : requests) {
+				try {
+					channel.getResponse(request.id).release();
+				} catch (SshException e) {
+				}
+			}
+		}
+	}
+	
+	private synchronized void fail(Throwable e) {
+		if(failure == null) {
+			failure = e;
+		}
+	}
+	
+	private void progressed(int len) throws TransferCancelledException {
+		if(progress != null) {
+			synchronized(this) {
+				progress.progressed(transfered += len);
+				if(progress.isCancelled()) {
+					throw new TransferCancelledException();
+				}
+			}
+		}
+	}
+	
+	static class Segment {
+		long position;
+		final long end;
+		int attempts;
+		
+		Segment(long position, long end) {
+			this.position = position;
+			this.end = end;
+		}
+	}
+	
+	static class Request {
+		final UnsignedInteger32 id;
+		final long offset;
+		final int len;
+		
+		Request(UnsignedInteger32 id, long offset, int len) {
+			this.id = id;
+			this.offset = offset;
+			this.len = len;
+		}
+	}
+	
+	/**
+	 * Reads ranges of the remote file and writes them to the local file at the same position.
+	 */
+	static class Download extends SegmentedTransfer {
+
+		Download(String remotePath, AbstractFileRandomAccess local, int blocksize, 
+				int outstandingRequests, FileTransferProgress progress) {
+			super(remotePath, local, blocksize, outstandingRequests, progress);
+		}
+
+		@Override
+		byte[] openHandle(SftpChannel channel) throws SftpStatusException, SshException {
+			return channel.openFile(remotePath, SftpChannel.OPEN_READ).getHandle();
+		}
+
+		@Override
+		UnsignedInteger32 postRequest(SftpChannel channel, byte[] handle, long offset, int len, byte[] buf)
+				throws SftpStatusException, SshException {
+			return channel.postReadRequest(handle, offset, len);
+		}
+
+		@Override
+		void completeRequest(SftpChannel channel, byte[] handle, Request request, byte[] buf)
+				throws SftpStatusException, SshException, IOException {
+			
+			int read;
+			SftpMessage msg = channel.getResponse(request.id);
+			try {
+				if(msg.getType() == SftpChannel.SSH_FXP_DATA) {
+					read = (int) msg.readInt();
+					local.write(request.offset, ByteBuffer.wrap(msg.array(), msg.getPosition(), read));
+				} else if(msg.getType() == SftpChannel.SSH_FXP_STATUS) {
+					int status = (int) msg.readInt();
+					if(status == SftpStatusException.SSH_FX_EOF) {
+						throw new SftpStatusException(status, "Unexpected end of file at " + request.offset);
+					}
+					if(channel.getVersion() >= 3) {
+						throw new SftpStatusException(status, msg.readString());
+					}
+					throw new SftpStatusException(status);
+				} else {
+					channel.close();
+					throw new SshException("The server responded with an unexpected message", 
+							SshException.CHANNEL_FAILURE);
+				}
+			} finally {
+				msg.release();
+			}
+			
+			/**
+			 * The server may return less than was asked for, so read the rest 
+			 * of the block before moving on.
+			 */
+			while(read < request.len) {
+				int len = channel.readFile(handle, new UnsignedInteger64(request.offset + read), 
+						buf, 0, request.len - read);
+				if(len == -1) {
+					throw new SftpStatusException(SftpStatusException.SSH_FX_EOF, 
+							"Unexpected end of file at " + (request.offset + read));
+				}
+				local.write(request.offset + read, ByteBuffer.wrap(buf, 0, len));
+				read += len;
+			}
+		}
+	}
+	
+	/**
+	 * Reads ranges of the local file and writes them to the remote file at the same position. 
+	 * The remote file must already exist, as each channel opens it for writing only.
+	 */
+	static class Upload extends SegmentedTransfer {
+
+		Upload(String remotePath, AbstractFileRandomAccess local, int blocksize, 
+				int outstandingRequests, FileTransferProgress progress) {
+			super(remotePath, local, blocksize, outstandingRequests, progress);
+		}
+
+		@Override
+		byte[] openHandle(SftpChannel channel) throws SftpStatusException, SshException {
+			return channel.openFile(remotePath, SftpChannel.OPEN_WRITE).getHandle();
+		}
+
+		@Override
+		UnsignedInteger32 postRequest(SftpChannel channel, byte[] handle, long offset, int len, byte[] buf)
+				throws SftpStatusException, SshException, IOException {
+			
+			ByteBuffer data = ByteBuffer.wrap(buf, 0, len);
+			while(data.hasRemaining()) {
+				if(local.read(offset + data.position(), data) == -1) {
+					throw new EOFException("The local file is shorter than expected");
+				}
+			}
+			return channel.postWriteRequest(handle, offset, buf, 0, len);
+		}
+
+		@Override
+		void completeRequest(SftpChannel channel, byte[] handle, Request request, byte[] buf)
+				throws SftpStatusException, SshException {
+			channel.getOKRequestStatus(request.id);
+		}
+	}
+}
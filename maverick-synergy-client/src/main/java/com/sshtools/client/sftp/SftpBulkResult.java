@@ -0,0 +1,77 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.sftp;
+
+import com.sshtools.common.sftp.SftpStatusException;
+
+/**
+ * The result of one item of a bulk operation such as {@link SftpClient#statAll(java.util.List)} 
+ * or {@link SftpClient#removeAll(java.util.List)}. Each item either succeeded, with a value 
+ * for operations that return one, or failed with the status the server returned for it.
+ *
+ * @param <T> the type of value returned by the operation
+ */
+public class SftpBulkResult<T> {
+
+	final String path;
+	final T value;
+	final SftpStatusException exception;
+	
+	SftpBulkResult(String path, T value, SftpStatusException exception) {
+		this.path = path;
+		this.value = value;
+		this.exception = exception;
+	}
+	
+	/**
+	 * The path as it was passed to the bulk operation.
+	 * 
+	 * @return String
+	 */
+	public String getPath() {
+		return path;
+	}
+	
+	/**
+	 * The value returned for this item, or null if it failed or the operation does 
+	 * not return a value.
+	 * 
+	 * @return T
+	 */
+	public T getValue() {
+		return value;
+	}
+	
+	/**
+	 * The status the server returned if this item failed.
+	 * 
+	 * @return SftpStatusException or null if the item succeeded
+	 */
+	public SftpStatusException getException() {
+		return exception;
+	}
+	
+	public boolean isSuccess() {
+		return exception == null;
+	}
+	
+	public String toString() {
+		return path + (exception == null ? "" : " [" + exception.getMessage() + "]");
+	}
+}
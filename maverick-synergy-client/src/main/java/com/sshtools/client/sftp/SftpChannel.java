@@ -22,19 +22,29 @@ import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.Vector;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
 import com.sshtools.client.SessionChannelNG;
 import com.sshtools.client.tasks.AbstractSubsystem;
 import com.sshtools.client.tasks.FileTransferProgress;
-import com.sshtools.client.tasks.Message;
-import com.sshtools.client.tasks.MessageHolder;
 import com.sshtools.common.events.Event;
 import com.sshtools.common.events.EventCodes;
 import com.sshtools.common.events.EventServiceImplementation;
@@ -156,8 +166,9 @@ public class SftpChannel extends AbstractSubsystem {
 	int version = MAX_VERSION;
 	int serverVersion = -1;
 	UnsignedInteger32 requestId = new UnsignedInteger32(0);
-	Map<UnsignedInteger32, SftpMessage> responses = new HashMap<UnsignedInteger32, SftpMessage>();
-	SftpThreadSynchronizer sync = new SftpThreadSynchronizer();
+	ConcurrentMap<UnsignedInteger32, CompletableFuture<SftpMessage>> responses = new ConcurrentHashMap<UnsignedInteger32, CompletableFuture<SftpMessage>>();
+	volatile Thread readerThread;
+	volatile SshException readerException;
 	Map<String, byte[]> extensions = new HashMap<String, byte[]>();
 
 	/**
@@ -193,6 +204,7 @@ public class SftpChannel extends AbstractSubsystem {
 	public SftpChannel(SshConnection con) throws SshException {
 		super(con);
 		con.setProperty("sftpVersion", initializeSftp(session));
+		con.getContext().getExecutorService().execute(new ResponseReader());
 	}
 
 	public int getVersion() {
@@ -509,43 +521,228 @@ public class SftpChannel extends AbstractSubsystem {
 		return extensions.get(name);
 	}
 	
-	UnsignedInteger32 nextRequestId() {
+	synchronized UnsignedInteger32 nextRequestId() {
 		requestId = UnsignedInteger32.add(requestId, 1);
 		return requestId;
 	}
 	
 	public void close() {
-		responses.clear();
 		getSession().close();
 	}
 	
+	/**
+	 * Get the response to a request, waiting until it has been received.
+	 * 
+	 * @param requestId
+	 * @return SftpMessage
+	 * @throws SshException
+	 */
 	public SftpMessage getResponse(UnsignedInteger32 requestId) throws SshException {
-
-		SftpMessage msg;
-		MessageHolder holder = new MessageHolder();
-		while (holder.msg == null) {
+		try {
+			return getResult(getResponseAsync(requestId));
+		} catch (SftpStatusException e) {
+			throw new SshException(e);
+		}
+	}
+	
+	/**
+	 * Get a future that completes with the response to a request. Responses are read by 
+	 * a single reader and passed to the future for their request id, so any number of 
+	 * requests can be outstanding without a thread waiting on each of them.
+	 * 
+	 * <p>The future is never completed on the reader, so dependent actions may make 
+	 * further requests and wait for their responses.</p>
+	 * 
+	 * @param requestId
+	 * @return CompletableFuture<SftpMessage>
+	 */
+	public CompletableFuture<SftpMessage> getResponseAsync(UnsignedInteger32 requestId) {
+		return dispatch(getResponseFuture(requestId));
+	}
+	
+	private CompletableFuture<SftpMessage> getResponseFuture(UnsignedInteger32 requestId) {
+		
+		// Whichever of the caller and the reader arrives second removes the entry
+		CompletableFuture<SftpMessage> future = new CompletableFuture<SftpMessage>();
+		CompletableFuture<SftpMessage> existing = responses.putIfAbsent(requestId, future);
+		if(Objects.nonNull(existing)) {
+			responses.remove(requestId);
+			return existing;
+		}
+		
+		SshException closed = readerException;
+		if(Objects.nonNull(closed) && Objects.nonNull(responses.remove(requestId))) {
+			future.completeExceptionally(closed);
+		}
+		return future;
+	}
+	
+	/**
+	 * Wait for the result of an asynchronous request and throw the exception it failed with.
+	 * 
+	 * @param future
+	 * @return the result
+	 * @throws SftpStatusException
+	 * @throws SshException
+	 */
+	public <T> T getResult(CompletableFuture<T> future) throws SftpStatusException, SshException {
+		
+		if(future instanceof DispatchedFuture && !future.isDone()) {
+			// Wait for the response itself rather than for it to be handed on
+			future = ((DispatchedFuture<T>) future).source;
+		}
+		
+		if(!future.isDone() && Thread.currentThread() == readerThread) {
+			throw new SshException("An SFTP response cannot be waited for on the thread that reads them", 
+					SshException.BAD_API_USAGE);
+		}
+		
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			close();
+			throw new SshException("The thread was interrupted",
+					SshException.CHANNEL_FAILURE);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if(cause instanceof SftpStatusException) {
+				throw (SftpStatusException) cause;
+			}
+			if(cause instanceof SshException) {
+				throw (SshException) cause;
+			}
+			if(cause instanceof SshIOException) {
+				throw ((SshIOException) cause).getRealException();
+			}
+			throw new SshException(SshException.INTERNAL_ERROR, cause);
+		}
+	}
+	
+	/**
+	 * A future completed with the result of another once it has been handed off the reader.
+	 */
+	static class DispatchedFuture<T> extends CompletableFuture<T> {
+		
+		final CompletableFuture<T> source;
+		
+		DispatchedFuture(CompletableFuture<T> source) {
+			this.source = source;
+		}
+		
+		void completeWith(T result, Throwable e) {
+			if(Objects.nonNull(e)) {
+				completeExceptionally(e);
+			} else {
+				complete(result);
+			}
+		}
+	}
+	
+	/**
+	 * Get a future that completes with the result of another, but never on the reader. 
+	 * Actions that depend on it can then make requests of their own and wait for them 
+	 * without stalling the responses they are waiting for.
+	 */
+	<T> CompletableFuture<T> dispatch(CompletableFuture<T> future) {
+		
+		final DispatchedFuture<T> dispatched = new DispatchedFuture<T>(future);
+		future.whenComplete(new BiConsumer<T, Throwable>() {
+			public void accept(final T result, final Throwable e) {
+				if(Thread.currentThread() != readerThread) {
+					dispatched.completeWith(result, e);
+					return;
+				}
+				try {
+					con.getContext().getExecutorService().execute(new Runnable() {
+						public void run() {
+							dispatched.completeWith(result, e);
+						}
+					});
+				} catch(RejectedExecutionException ex) {
+					// The context is shutting down so nothing else can be dispatched either
+					dispatched.completeWith(result, e);
+				}
+			}
+		});
+		return dispatched;
+	}
+	
+	private void dispatchResponse(SftpMessage msg) {
+		
+		UnsignedInteger32 id = new UnsignedInteger32(msg.getMessageId());
+		CompletableFuture<SftpMessage> future = new CompletableFuture<SftpMessage>();
+		future.complete(msg);
+		CompletableFuture<SftpMessage> existing = responses.putIfAbsent(id, future);
+		if(Objects.nonNull(existing)) {
+			responses.remove(id);
+			existing.complete(msg);
+		} else if(Log.isTraceEnabled()) {
+			Log.trace("There are " + responses.size() + " SFTP responses waiting to be processed");
+		}
+	}
+	
+	class ResponseReader implements Runnable {
+		
+		public void run() {
+			readerThread = Thread.currentThread();
 			try {
-				// Read the next response message
-				if (sync.requestBlock(requestId, holder)) {
-					msg = new SftpMessage(nextMessage());
-					responses.put(new UnsignedInteger32(msg.getMessageId()),msg);
-					if(Log.isTraceEnabled()) {
-						Log.trace("There are " + responses.size() + " SFTP responses waiting to be processed");
-					}
+				while(true) {
+					byte[] msg = nextMessage();
+					dispatchResponse(new SftpMessage(msg, getMessageLength()));
 				}
-			} catch (InterruptedException e) {
-				close();
-				throw new SshException("The thread was interrupted",
-						SshException.CHANNEL_FAILURE);
-			} catch (IOException ex) {
-				throw new SshException(SshException.INTERNAL_ERROR, ex);
+			} catch(SshException e) {
+				failResponses(e);
+			} catch(IOException e) {
+				failResponses(new SshException(SshException.INTERNAL_ERROR, e));
 			} finally {
-				sync.releaseBlock();
+				readerThread = null;
+			}
+		}
+		
+		private void failResponses(SshException e) {
+			readerException = e;
+			for(UnsignedInteger32 id : responses.keySet()) {
+				CompletableFuture<SftpMessage> future = responses.remove(id);
+				if(Objects.nonNull(future)) {
+					future.completeExceptionally(e);
+				}
 			}
 		}
-
-		return (SftpMessage) responses.remove(requestId);
-
+	}
+	
+	/**
+	 * Convert a response into the result of a request.
+	 */
+	interface ResponseHandler<T> {
+		T handle(SftpMessage msg) throws SftpStatusException, SshException;
+	}
+	
+	/**
+	 * Get a future that completes with the result of a request once its response has been 
+	 * converted by the handler. The response is released afterwards. The handler runs on 
+	 * the reader but the returned future is completed off it.
+	 */
+	<T> CompletableFuture<T> getResponseAsync(UnsignedInteger32 requestId, final ResponseHandler<T> handler) {
+		return dispatch(getResponseFuture(requestId).thenApply(new Function<SftpMessage, T>() {
+			public T apply(SftpMessage msg) {
+				try {
+					return handler.handle(msg);
+				} catch (SftpStatusException | SshException e) {
+					throw new CompletionException(e);
+				} finally {
+					msg.release();
+				}
+			}
+		}));
+	}
+	
+	/**
+	 * A future that has already failed, for requests that could not be sent.
+	 */
+	static <T> CompletableFuture<T> failedFuture(Throwable e) {
+		CompletableFuture<T> future = new CompletableFuture<T>();
+		future.completeExceptionally(e instanceof SshIOException ? ((SshIOException)e).getRealException() : e);
+		return future;
 	}
 	
 	/**
@@ -618,8 +815,26 @@ public class SftpChannel extends AbstractSubsystem {
 	 */
 	public void getOKRequestStatus(UnsignedInteger32 requestId)
 			throws SftpStatusException, SshException {
-
-		SftpMessage bar = getResponse(requestId);
+		getResult(getOKRequestStatusAsync(requestId));
+	}
+	
+	/**
+	 * Get a future that completes when an OK status has been returned for a request id, 
+	 * or fails with the status that was returned instead.
+	 * 
+	 * @param requestId
+	 * @return CompletableFuture<Void>
+	 */
+	public CompletableFuture<Void> getOKRequestStatusAsync(UnsignedInteger32 requestId) {
+		return getResponseAsync(requestId, new ResponseHandler<Void>() {
+			public Void handle(SftpMessage msg) throws SftpStatusException, SshException {
+				checkOKStatus(msg);
+				return null;
+			}
+		});
+	}
+	
+	void checkOKStatus(SftpMessage bar) throws SftpStatusException, SshException {
 		try {
 			if (bar.getType() == SSH_FXP_STATUS) {
 				int status = (int) bar.readInt();
@@ -642,8 +857,6 @@ public class SftpChannel extends AbstractSubsystem {
 			throw ex.getRealException();
 		} catch (IOException ex) {
 			throw new SshException(ex);
-		} finally {
-			bar.release();
 		}
 
 	}
@@ -660,6 +873,19 @@ public class SftpChannel extends AbstractSubsystem {
 	 */
 	public void setAttributes(String path, SftpFileAttributes attrs)
 			throws SftpStatusException, SshException {
+		getResult(setAttributesAsync(path, attrs));
+	}
+	
+	/**
+	 * Sets the attributes of a file without waiting for the response.
+	 * 
+	 * @param path
+	 *            the path to the file.
+	 * @param attrs
+	 *            the file attributes.
+	 * @return CompletableFuture<Void>
+	 */
+	public CompletableFuture<Void> setAttributesAsync(String path, SftpFileAttributes attrs) {
 		try {
 			UnsignedInteger32 requestId = nextRequestId();
 
@@ -671,11 +897,11 @@ public class SftpChannel extends AbstractSubsystem {
 
 			sendMessage(msg);
 
-			getOKRequestStatus(requestId);
-		} catch (SshIOException ex) {
-			throw ex.getRealException();
+			return getOKRequestStatusAsync(requestId);
+		} catch (SshException ex) {
+			return failedFuture(ex);
 		} catch (IOException ex) {
-			throw new SshException(ex, SshException.INTERNAL_ERROR);
+			return failedFuture(new SshException(ex, SshException.INTERNAL_ERROR));
 		}
 	}
 
@@ -865,8 +1091,6 @@ public class SftpChannel extends AbstractSubsystem {
 				blocksize = getSession().getMaximumRemotePacketLength() - overhead;
 			}
 			
-			System.setProperty("maverick.write.optimizedBlock", String.valueOf(blocksize));
-			
 			if(Log.isTraceEnabled()) {
 				Log.trace("Performing optimized write length=" + in.available()
 						+ " postion=" + position + " blocksize=" + blocksize
@@ -888,45 +1112,32 @@ public class SftpChannel extends AbstractSubsystem {
 			}
 
 			byte[] buf = new byte[blocksize];
-
-
-			
-			
 			
 			long transfered = position;
 			int buffered = 0;
-
-			buffered = in.read(buf);
-			if(buffered != -1) {
 			
-				long time = System.currentTimeMillis();
-				writeFile(handle, new UnsignedInteger64(position), buf, 0, buffered);
-				time = System.currentTimeMillis() - time;
-				
-				System.setProperty("maverick.write.blockRoundtrip", String.valueOf(time));
-				
-				transfered += buffered;
-	
-				if (progress != null) {
-					if (progress.isCancelled())
-						throw new TransferCancelledException();
-					progress.progressed(transfered);
-				}
-				
-				Vector<UnsignedInteger32> requests = new Vector<UnsignedInteger32>();
-				// BufferedInputStream is not in J2ME, whatever type of input stream
-				// has been passed in can be used in conjunction with the abstract
-				// InputStream class.
-				in = new BufferedInputStream(in, buffersize);
-	
+			TransferWindow window = new TransferWindow(outstandingRequests, 
+					blocksize, getMaximumRemoteWindowSize(), progress);
+			ArrayDeque<OptimizedRequest> requests = new ArrayDeque<OptimizedRequest>();
+			
+			// BufferedInputStream is not in J2ME, whatever type of input stream
+			// has been passed in can be used in conjunction with the abstract
+			// InputStream class.
+			in = new BufferedInputStream(in, buffersize);
+
+			try {
 				while (true) {
 	
-					buffered = in.read(buf);
+					buffered = in.read(buf, 0, window.getBlockSize());
 					if (buffered == -1)
 						break;
+					
+					while(requests.size() >= window.getOutstandingRequests()) {
+						completeWrite(requests.removeFirst(), window);
+					}
 	
-					requests.addElement(postWriteRequest(handle, transfered, buf,
-							0, buffered));
+					requests.addLast(new OptimizedRequest(postWriteRequest(handle, transfered, buf,
+							0, buffered), transfered, buffered));
 	
 					transfered += buffered;
 	
@@ -941,10 +1152,16 @@ public class SftpChannel extends AbstractSubsystem {
 				}
 
 				while(requests.size() > 0) {
-					getOKRequestStatus(requests.remove(0));
+					completeWrite(requests.removeFirst(), window);
 				}
+			} finally {
+				discardResponses(requests);
 			}
 
+			if(Log.isTraceEnabled()) {
+				Log.trace("Completed optimized write " + window);
+			}
+			
 		} catch (IOException ex) {
 			throw new TransferCancelledException();
 		} catch (OutOfMemoryError ex) {
@@ -1012,10 +1229,115 @@ public class SftpChannel extends AbstractSubsystem {
 	 * @throws SshException
 	 */
 	public void performOptimizedRead(byte[] handle, long length, int blocksize,
-			OutputStream out, int outstandingRequests,
+			final OutputStream out, int outstandingRequests,
 			FileTransferProgress progress, long position)
 			throws SftpStatusException, SshException,
 			TransferCancelledException {
+		performOptimizedRead(handle, length, blocksize, new ReadTarget() {
+			public void write(long offset, byte[] buf, int off, int len) throws IOException {
+				out.write(buf, off, len);
+			}
+		}, outstandingRequests, progress, position, false);
+	}
+	
+	/**
+	 * Performs an optimized read of a file into a FileChannel. Each block of data is 
+	 * written from the response it arrived in at the same offset in the channel as it 
+	 * was read from in the remote file, so the channel's own position is neither used 
+	 * nor changed. The channel is not closed by this method.
+	 * 
+	 * @param handle
+	 *            the open files handle
+	 * @param length
+	 *            the amount of the file file to be read, equal to the file
+	 *            length when reading the whole file
+	 * @param blocksize
+	 *            the blocksize to read
+	 * @param out
+	 *            the FileChannel to write the file into
+	 * @param outstandingRequests
+	 *            the maximum number of read requests to
+	 * @param progress
+	 * @param position
+	 *            the postition from which to start reading the file
+	 * @throws SshException
+	 */
+	public void performOptimizedRead(byte[] handle, long length, int blocksize,
+			final FileChannel out, int outstandingRequests,
+			FileTransferProgress progress, long position)
+			throws SftpStatusException, SshException,
+			TransferCancelledException {
+		performOptimizedRead(handle, length, blocksize, new ReadTarget() {
+			public void write(long offset, byte[] buf, int off, int len) throws IOException {
+				ByteBuffer data = ByteBuffer.wrap(buf, off, len);
+				while(data.hasRemaining()) {
+					offset += out.write(data, offset);
+				}
+			}
+		}, outstandingRequests, progress, position, false);
+	}
+	
+	/**
+	 * Performs an optimized read of a file into a ByteBuffer, such as a MappedByteBuffer 
+	 * for a region of a local file. The data read from <code>position</code> is placed 
+	 * at the buffer's current position and each block is put at its own offset from 
+	 * there, so the buffer's position is not changed. Unlike the other overloads no 
+	 * more than <code>length</code> bytes are read, so a region of a larger file can be
+	 * read. The buffer must have room for all of the data.
+	 * 
+	 * @param handle
+	 *            the open files handle
+	 * @param length
+	 *            the amount of the file file to be read, or zero or less to read to
+	 *            the end of the file
+	 * @param blocksize
+	 *            the blocksize to read
+	 * @param out
+	 *            the ByteBuffer to place the file into
+	 * @param outstandingRequests
+	 *            the maximum number of read requests to
+	 * @param progress
+	 * @param position
+	 *            the postition from which to start reading the file
+	 * @throws SshException
+	 */
+	public void performOptimizedRead(byte[] handle, long length, int blocksize,
+			ByteBuffer out, int outstandingRequests,
+			FileTransferProgress progress, final long position)
+			throws SftpStatusException, SshException,
+			TransferCancelledException {
+		final ByteBuffer buffer = out.duplicate();
+		final int start = out.position();
+		performOptimizedRead(handle, length, blocksize, new ReadTarget() {
+			public void write(long offset, byte[] buf, int off, int len) throws IOException {
+				long index = start + offset - position;
+				if(index + len > buffer.limit()) {
+					throw new IOException("The buffer does not have room for the data read");
+				}
+				buffer.position((int) index);
+				buffer.put(buf, off, len);
+			}
+		}, outstandingRequests, progress, position, length > 0);
+	}
+	
+	/**
+	 * Where the data of an optimized read is written. Data is always given in the order 
+	 * of its offset in the remote file without gaps.
+	 */
+	interface ReadTarget {
+		void write(long offset, byte[] buf, int off, int len) throws IOException;
+	}
+	
+	/**
+	 * When <code>bounded</code> is false <code>length</code> is only the expected length
+	 * and the file is read until EOF, otherwise no data beyond <code>position + length</code>
+	 * is requested or written.
+	 */
+	void performOptimizedRead(byte[] handle, long length, int blocksize,
+			ReadTarget out, int outstandingRequests,
+			FileTransferProgress progress, long position, boolean bounded)
+			throws SftpStatusException, SshException,
+			TransferCancelledException {
 
 		if (blocksize < 1 || blocksize > 65536) {
 			if(Log.isTraceEnabled()) {
@@ -1038,8 +1360,6 @@ public class SftpChannel extends AbstractSubsystem {
 			blocksize = getSession().getMaximumLocalPacketLength() - overhead;
 		}
 		
-		System.setProperty("maverick.read.optimizedBlock", String.valueOf(blocksize));
-		
 		if(Log.isTraceEnabled()) {
 			Log.trace("Performing optimized read length=" + length
 					+ " postion=" + position + " blocksize=" + blocksize
@@ -1065,171 +1385,249 @@ public class SftpChannel extends AbstractSubsystem {
 					"Position value must be greater than zero!",
 					SshException.BAD_API_USAGE);
 		}
-		int completed = 0;
 		long transfered = 0;
 
+		TransferWindow window = new TransferWindow(outstandingRequests, 
+				blocksize, getMaximumLocalWindowSize(), progress);
+		
 		byte[] tmp = new byte[blocksize];
 
-		long time = System.currentTimeMillis();
+		long time = System.nanoTime();
 		int i = readFile(handle, new UnsignedInteger64(0), tmp, 0, tmp.length);
-		time = System.currentTimeMillis() - time;
-		
-		System.setProperty("maverick.read.blockRoundtrip", String.valueOf(time));
+		time = System.nanoTime() - time;
 
 		// if i=-1 then eof so return, maybe should throw exception on null
 		// files?
 		if (i == -1) {
 			return;
 		}
+		
+		window.completed(i, time);
+		
 		// if the first block contains required data, write to the output
 		// buffer,
 		// write the portion of tmp needed to out
 		// change position
 		if (i > position) {
+			int count = (int) (i - position);
+			if(bounded && count > length) {
+				count = (int) length;
+			}
 			try {
-				out.write(tmp, (int) position, (int) (i - position));
+				out.write(position, tmp, (int) position, count);
 			} catch (IOException e) {
 				throw new TransferCancelledException();
 			}
-			length = length - (i - position);
+			if(length != Long.MAX_VALUE) {
+				length = length - count;
+			}
 			if (progress != null) {
-				progress.progressed(transfered += (i - position));
+				progress.progressed(transfered += count);
 			}
-			position = i;
+			position += count;
 
 		}
 
 		// if the first block contains the whole portion of the file to be
 		// read, then return
-		if ((position + length) <= i) {
+		if (length <= 0 || (position + length) <= i) {
 			return;
 		}
 
 		// reconfigure the blocksize if necessary
 		if (i < blocksize && length > i) {
-			blocksize = i;
+			window.limitBlockSize(i);
 		}
 
-		System.setProperty("maverick.read.finalBlock", String.valueOf(blocksize));
-		
-		tmp = null;
-
-		long numBlocks = length / blocksize;
-		long osr = outstandingRequests;
-
-		Vector<UnsignedInteger32> requests = new Vector<UnsignedInteger32>(
-				outstandingRequests);
+		/**
+		 * Keep requests outstanding up to and including the block at the expected 
+		 * end of the file so that EOF is received without waiting another round trip. 
+		 * The server may return less than asked for, in which case the missing data 
+		 * is read before any data that follows it is written.
+		 */
+		long end = length == Long.MAX_VALUE ? Long.MAX_VALUE : position + length;
 		long offset = position;
-
-		if (numBlocks < osr) {
-			osr = numBlocks + 1;
-		}
-
-		if (osr <= 0) {
-
-			if(Log.isTraceEnabled())
-				Log.trace("We calculated zero outstanding requests! numBlocks="
-						+ numBlocks
-						+ " outstandingRequests="
-						+ outstandingRequests
-						+ " blocksize="
-						+ blocksize
-						+ " length=" + length + " position=" + position);
-
-			osr = 1; // We need at least one or there will be trouble.
-		}
-
-		long expected = numBlocks + 2;
-
-		// Fire an initial round of requests
-		for (i = 0; i < osr; i++) {
-
-			if(Log.isTraceEnabled())
-				Log.trace("Posting request for file offset " + offset);
-
-			requests.addElement(postReadRequest(handle, offset, blocksize));
-			offset += blocksize;
-
-			if (progress != null && progress.isCancelled()) {
-				throw new TransferCancelledException();
-			}
-		}
-
-		UnsignedInteger32 requestId;
-		int dataLen;
-		while (true) {
-			requestId = (UnsignedInteger32) requests.elementAt(0);
-			requests.removeElementAt(0);
-			SftpMessage bar = getResponse(requestId);
-			try {
-				if (bar.getType() == SSH_FXP_DATA) {
-					dataLen = (int) bar.readInt();
-
-					if(Log.isTraceEnabled())
-						Log.trace("Got " + dataLen + " bytes of data");
-
-					try {
-						out.write(bar.array(), bar.getPosition(), dataLen);
-					} catch (IOException e) {
-						throw new TransferCancelledException();
+		long written = position;
+		ArrayDeque<OptimizedRequest> requests = new ArrayDeque<OptimizedRequest>();
+		
+		try {
+			while (true) {
+				
+				if(bounded) {
+					int limit = window.getOutstandingRequests(end - offset);
+					while (offset < end && requests.size() < limit) {
+						
+						if(Log.isTraceEnabled())
+							Log.trace("Posting request for file offset " + offset);
+						
+						int len = (int) Math.min(window.getBlockSize(), end - offset);
+						requests.addLast(new OptimizedRequest(postReadRequest(handle, offset, len), offset, len));
+						offset += len;
 					}
-					completed++;
-					if (progress != null) {
-						progress.progressed(transfered += dataLen);
+					
+					if(requests.isEmpty()) {
+						// Everything requested has arrived, fill in any short final reply
+						if(written < end) {
+							readMissing(handle, written, end, out, progress, transfered);
+						}
+						break;
 					}
-				} else if (bar.getType() == SSH_FXP_STATUS) {
-					int status = (int) bar.readInt();
-					if (status == SftpStatusException.SSH_FX_EOF) {
-
+				} else {
+					int limit = end == Long.MAX_VALUE ? window.getOutstandingRequests() 
+							: window.getOutstandingRequests(end - offset + 1);
+					while (requests.isEmpty() || (requests.size() < limit && offset <= end)) {
+		
 						if(Log.isTraceEnabled())
-							Log.trace("Received file EOF");
-
-						return;
+							Log.trace("Posting request for file offset " + offset);
+		
+						int len = window.getBlockSize();
+						requests.addLast(new OptimizedRequest(postReadRequest(handle, offset, len), offset, len));
+						offset += len;
 					}
-					if (version >= 3) {
-						String desc = bar.readString();
-
+				}
+				
+				if (progress != null && progress.isCancelled()) {
+					throw new TransferCancelledException();
+				}
+	
+				OptimizedRequest request = requests.removeFirst();
+				SftpMessage bar = getResponse(request.requestId);
+				long received = System.nanoTime();
+				try {
+					if (bar.getType() == SSH_FXP_DATA) {
+						int dataLen = (int) bar.readInt();
+	
+						if(Log.isTraceEnabled())
+							Log.trace("Got " + dataLen + " bytes of data");
+						
+						window.completed(dataLen, received - request.sent);
+						
+						if(request.offset > written) {
+							if(readMissing(handle, written, request.offset, out, progress, transfered) < request.offset) {
+								throw new SshException(
+										"The server returned data beyond the end of the file", 
+										SshException.CHANNEL_FAILURE);
+							}
+							transfered += request.offset - written;
+						}
+						
+						if(bounded && request.offset + dataLen > end) {
+							dataLen = (int) (end - request.offset);
+						}
+						
+						try {
+							out.write(request.offset, bar.array(), bar.getPosition(), dataLen);
+						} catch (IOException e) {
+							throw new TransferCancelledException();
+						}
+						written = request.offset + dataLen;
+						if (progress != null) {
+							progress.progressed(transfered += dataLen);
+						}
+					} else if (bar.getType() == SSH_FXP_STATUS) {
+						int status = (int) bar.readInt();
+						if (status == SftpStatusException.SSH_FX_EOF) {
+	
+							if(Log.isTraceEnabled())
+								Log.trace("Received file EOF");
+							
+							if(written < end && request.offset > written) {
+								readMissing(handle, written, request.offset, out, progress, transfered);
+							}
+							break;
+						}
+						if (version >= 3) {
+							String desc = bar.readString();
+	
+							if(Log.isTraceEnabled())
+								Log.trace("Received status " + desc);
+	
+							throw new SftpStatusException(status, desc);
+						}
+	
 						if(Log.isTraceEnabled())
-							Log.trace("Received status " + desc);
-
-						throw new SftpStatusException(status, desc);
+							Log.trace("Received status " + status);
+	
+						throw new SftpStatusException(status);
+					} else {
+						throw new SshException(
+								"The server responded with an unexpected message",
+								SshException.CHANNEL_FAILURE);
 					}
-
-					if(Log.isTraceEnabled())
-						Log.trace("Received status " + status);
-
-					throw new SftpStatusException(status);
-				} else {
+				} catch(IOException ex) {
 					throw new SshException(
-							"The server responded with an unexpected message",
+							"Failed to read expected data from server response",
 							SshException.CHANNEL_FAILURE);
+				} finally {
+					bar.release();
 				}
-			} catch(IOException ex) {
-				throw new SshException(
-						"Failed to read expected data from server response",
-						SshException.CHANNEL_FAILURE);
-			} finally {
-				bar.release();
 			}
-			
-			/**
-			 * If the file length is incorrect we could be stuck in an
-			 * endless loop so we check for an empty request list. This
-			 * could only happen if the file length is incorrect.
-			 */
-			if (requests.isEmpty()
-					|| completed + requests.size() < expected) {
-
-				if(Log.isTraceEnabled())
-					Log.trace("Posting request for file offset " + offset);
-
-				requests.addElement(postReadRequest(handle, offset,
-						blocksize));
-				offset += blocksize;
+		} finally {
+			discardResponses(requests);
+		}
+		
+		if(Log.isTraceEnabled()) {
+			Log.trace("Completed optimized read " + window);
+		}
+	}
+	
+	/**
+	 * Synchronously read data the server did not return when it was asked for, 
+	 * returning the offset reached, which is less than <code>to</code> if the 
+	 * end of the file was reached.
+	 */
+	private long readMissing(byte[] handle, long from, long to, ReadTarget out, 
+			FileTransferProgress progress, long transfered) throws SftpStatusException, SshException, TransferCancelledException {
+		
+		byte[] tmp = new byte[(int) Math.min(to - from, 32768)];
+		while(from < to) {
+			int read = readFile(handle, new UnsignedInteger64(from), tmp, 0, (int) Math.min(to - from, tmp.length));
+			if(read == -1) {
+				break;
 			}
-			if (progress != null && progress.isCancelled()) {
+			try {
+				out.write(from, tmp, 0, read);
+			} catch (IOException e) {
 				throw new TransferCancelledException();
 			}
+			from += read;
+			if (progress != null) {
+				progress.progressed(transfered += read);
+			}
+		}
+		return from;
+	}
+	
+	private void completeWrite(OptimizedRequest request, TransferWindow window) throws SftpStatusException, SshException {
+		getOKRequestStatus(request.requestId);
+		window.completed(request.length, System.nanoTime() - request.sent);
+	}
+	
+	/**
+	 * Wait for and discard the responses to requests abandoned by a failed or 
+	 * completed transfer so they are not left waiting in the response map.
+	 */
+	private void discardResponses(ArrayDeque<OptimizedRequest> requests) {
+		OptimizedRequest request;
+		while((request = requests.pollFirst()) != null) {
+			try {
+				getResponse(request.requestId).release();
+			} catch (SshException e) {
+				return;
+			}
+		}
+	}
+	
+	static class OptimizedRequest {
+		final UnsignedInteger32 requestId;
+		final long offset;
+		final int length;
+		final long sent = System.nanoTime();
+		
+		OptimizedRequest(UnsignedInteger32 requestId, long offset, int length) {
+			this.requestId = requestId;
+			this.offset = offset;
+			this.length = length;
 		}
 	}
 
@@ -1641,6 +2039,16 @@ public class SftpChannel extends AbstractSubsystem {
 	 */
 	public String getAbsolutePath(String path) throws SftpStatusException,
 			SshException {
+		return getResult(getAbsolutePathAsync(path));
+	}
+	
+	/**
+	 * Get the absolute path of a file without waiting for the response.
+	 * 
+	 * @param path
+	 * @return CompletableFuture<String>
+	 */
+	public CompletableFuture<String> getAbsolutePathAsync(String path) {
 		try {
 			UnsignedInteger32 requestId = nextRequestId();
 			Packet msg = createPacket();
@@ -1649,14 +2057,16 @@ public class SftpChannel extends AbstractSubsystem {
 			msg.writeString(path, CHARSET_ENCODING);
 			sendMessage(msg);
 
-			return getSingleFileResponse(getResponse(requestId), "SSH_FXP_REALPATH").getAbsolutePath();
-			
-		} catch (SshIOException ex) {
-			throw ex.getRealException();
+			return getResponseAsync(requestId, new ResponseHandler<String>() {
+				public String handle(SftpMessage msg) throws SftpStatusException, SshException {
+					return getSingleFileResponse(msg, "SSH_FXP_REALPATH").getAbsolutePath();
+				}
+			});
+		} catch (SshException ex) {
+			return failedFuture(ex);
 		} catch (IOException ex) {
-			throw new SshException(ex);
+			return failedFuture(new SshException(ex));
 		}
-
 	}
 	
 	/**
@@ -1744,53 +2154,82 @@ public class SftpChannel extends AbstractSubsystem {
 					SshException.BAD_API_USAGE);
 		}
 
+		SftpFile[] files = readDirectoryResponse(getResponse(
+				postReadDirectoryRequest(file.getHandle())), file.getAbsolutePath());
+		if(files==null) {
+			return -1;
+		}
+		for (int i = 0; i < files.length; i++) {
+			children.add(files[i]);
+		}
+		return files.length;
+	}
+	
+	/**
+	 * Send a request for the next page of a directory listing without waiting for 
+	 * the response. Requests on the same handle are answered in the order they were 
+	 * sent, so several pages can be requested at once.
+	 * 
+	 * @param handle
+	 * @return the request id
+	 * @throws SshException
+	 */
+	UnsignedInteger32 postReadDirectoryRequest(byte[] handle) throws SshException {
 		try {
 			UnsignedInteger32 requestId = nextRequestId();
 			Packet msg = createPacket();
 			msg.write(SSH_FXP_READDIR);
 			msg.writeInt(requestId.longValue());
-			msg.writeBinaryString(file.getHandle());
-
-			sendMessage(msg);;
+			msg.writeBinaryString(handle);
 
-			SftpMessage bar = getResponse(requestId);
-			
-			try {
-				if (bar.getType() == SSH_FXP_NAME) {
-					SftpFile[] files = extractFiles(bar, file.getAbsolutePath());
-	
-					for (int i = 0; i < files.length; i++) {
-						children.add(files[i]);
-					}
-					return files.length;
-				} else if (bar.getType() == SSH_FXP_STATUS) {
-					int status = (int) bar.readInt();
-	
-					if (status == SftpStatusException.SSH_FX_EOF) {
-						return -1;
-					}
-	
-					if (version >= 3) {
-						String desc = bar.readString();
-						throw new SftpStatusException(status, desc);
-					}
-					throw new SftpStatusException(status);
+			sendMessage(msg);
+			return requestId;
+		} catch (SshIOException ex) {
+			throw ex.getRealException();
+		} catch (IOException ex) {
+			throw new SshException(ex);
+		}
+	}
 	
-				} else {
-					close();
-					throw new SshException(
-							"The server responded with an unexpected message",
-							SshException.CHANNEL_FAILURE);
+	/**
+	 * Extract the files from the response to a directory listing request and release it.
+	 * 
+	 * @param bar
+	 * @param parent
+	 * @return the files, or null when there are no more files in the directory
+	 * @throws SftpStatusException
+	 * @throws SshException
+	 */
+	SftpFile[] readDirectoryResponse(SftpMessage bar, String parent) throws SftpStatusException, SshException {
+		try {
+			if (bar.getType() == SSH_FXP_NAME) {
+				return extractFiles(bar, parent);
+			} else if (bar.getType() == SSH_FXP_STATUS) {
+				int status = (int) bar.readInt();
+
+				if (status == SftpStatusException.SSH_FX_EOF) {
+					return null;
 				}
-			} finally {
-				bar.release();
+
+				if (version >= 3) {
+					String desc = bar.readString();
+					throw new SftpStatusException(status, desc);
+				}
+				throw new SftpStatusException(status);
+
+			} else {
+				close();
+				throw new SshException(
+						"The server responded with an unexpected message",
+						SshException.CHANNEL_FAILURE);
 			}
 		} catch (SshIOException ex) {
 			throw ex.getRealException();
 		} catch (IOException ex) {
 			throw new SshException(ex);
+		} finally {
+			bar.release();
 		}
-
 	}
 
 	SftpFile[] extractFiles(SftpMessage bar, String parent) throws SshException {
@@ -2148,6 +2587,16 @@ public class SftpChannel extends AbstractSubsystem {
 	 */
 	public void removeDirectory(String path) throws SftpStatusException,
 			SshException {
+		getResult(removeDirectoryAsync(path));
+	}
+	
+	/**
+	 * Remove an empty directory without waiting for the response.
+	 * 
+	 * @param path
+	 * @return CompletableFuture<Void>
+	 */
+	public CompletableFuture<Void> removeDirectoryAsync(String path) {
 		try {
 			UnsignedInteger32 requestId = nextRequestId();
 			Packet msg = createPacket();
@@ -2157,16 +2606,27 @@ public class SftpChannel extends AbstractSubsystem {
 
 			sendMessage(msg);
 
-			getOKRequestStatus(requestId);
-		} catch (SshIOException ex) {
-			throw ex.getRealException();
-		} catch (IOException ex) {
-			throw new SshException(ex);
-		}
-		EventServiceImplementation.getInstance().fireEvent(
-				(new Event(this, EventCodes.EVENT_SFTP_DIRECTORY_DELETED,
+			return fireOnSuccess(getOKRequestStatusAsync(requestId),
+					(new Event(this, EventCodes.EVENT_SFTP_DIRECTORY_DELETED,
 						true)).addAttribute(
 						EventCodes.ATTRIBUTE_DIRECTORY_PATH, path));
+		} catch (SshException ex) {
+			return failedFuture(ex);
+		} catch (IOException ex) {
+			return failedFuture(new SshException(ex));
+		}
+	}
+	
+	/**
+	 * Fire an event once a request succeeds. The future is completed off the reader, 
+	 * so listeners may use the channel.
+	 */
+	private CompletableFuture<Void> fireOnSuccess(CompletableFuture<Void> future, final Event evt) {
+		return future.thenRun(new Runnable() {
+			public void run() {
+				EventServiceImplementation.getInstance().fireEvent(evt);
+			}
+		});
 	}
 
 	/**
@@ -2178,6 +2638,16 @@ public class SftpChannel extends AbstractSubsystem {
 	 */
 	public void removeFile(String filename) throws SftpStatusException,
 			SshException {
+		getResult(removeFileAsync(filename));
+	}
+	
+	/**
+	 * Remove a file without waiting for the response.
+	 * 
+	 * @param filename
+	 * @return CompletableFuture<Void>
+	 */
+	public CompletableFuture<Void> removeFileAsync(String filename) {
 		try {
 			UnsignedInteger32 requestId = nextRequestId();
 			Packet msg = createPacket();
@@ -2187,19 +2657,17 @@ public class SftpChannel extends AbstractSubsystem {
 
 			sendMessage(msg);
 
-			getOKRequestStatus(requestId);
-		} catch (SshIOException ex) {
-			throw ex.getRealException();
-		} catch (IOException ex) {
-			throw new SshException(ex);
-		}
-		EventServiceImplementation.getInstance()
-				.fireEvent(
+			return fireOnSuccess(getOKRequestStatusAsync(requestId),
 						(new Event(this,
 								EventCodes.EVENT_SFTP_FILE_DELETED, true))
 								.addAttribute(
 										EventCodes.ATTRIBUTE_FILE_NAME,
 										filename));
+		} catch (SshException ex) {
+			return failedFuture(ex);
+		} catch (IOException ex) {
+			return failedFuture(new SshException(ex));
+		}
 	}
 
 	/**
@@ -2216,12 +2684,24 @@ public class SftpChannel extends AbstractSubsystem {
 	}
 	public void renameFile(String oldpath, String newpath, int flags)
 			throws SftpStatusException, SshException {
+		getResult(renameFileAsync(oldpath, newpath, flags));
+	}
+	
+	/**
+	 * Rename an existing file without waiting for the response.
+	 * 
+	 * @param oldpath
+	 * @param newpath
+	 * @param flags
+	 * @return CompletableFuture<Void>
+	 */
+	public CompletableFuture<Void> renameFileAsync(String oldpath, String newpath, int flags) {
 
 		if (version < 2) {
-			throw new SftpStatusException(
+			return failedFuture(new SftpStatusException(
 					SftpStatusException.SSH_FX_OP_UNSUPPORTED,
 					"Renaming files is not supported by the server SFTP version "
-							+ String.valueOf(version));
+							+ String.valueOf(version)));
 		}
 		try {
 			UnsignedInteger32 requestId = nextRequestId();
@@ -2236,15 +2716,7 @@ public class SftpChannel extends AbstractSubsystem {
 			}
 			sendMessage(msg);
 
-			getOKRequestStatus(requestId);
-		} catch (SshIOException ex) {
-			throw ex.getRealException();
-		} catch (IOException ex) {
-			throw new SshException(ex);
-		}
-		EventServiceImplementation
-				.getInstance()
-				.fireEvent(
+			return fireOnSuccess(getOKRequestStatusAsync(requestId),
 						(new Event(this,
 								EventCodes.EVENT_SFTP_FILE_RENAMED, true))
 								.addAttribute(
@@ -2253,6 +2725,11 @@ public class SftpChannel extends AbstractSubsystem {
 								.addAttribute(
 										EventCodes.ATTRIBUTE_FILE_NEW_NAME,
 										newpath));
+		} catch (SshException ex) {
+			return failedFuture(ex);
+		} catch (IOException ex) {
+			return failedFuture(new SshException(ex));
+		}
 	}
 
 	/**
@@ -2266,6 +2743,17 @@ public class SftpChannel extends AbstractSubsystem {
 			throws SftpStatusException, SshException {
 		return getAttributes(path, SSH_FXP_STAT);
 	}
+	
+	/**
+	 * Get the attributes of a file without waiting for the response. This method 
+	 * follows symbolic links.
+	 * 
+	 * @param path
+	 * @return CompletableFuture<SftpFileAttributes>
+	 */
+	public CompletableFuture<SftpFileAttributes> getAttributesAsync(String path) {
+		return getAttributesAsync(path, SSH_FXP_STAT);
+	}
 
 	/**
 	 * Get the attributes of a file. This method does not follow symbolic links
@@ -2280,9 +2768,24 @@ public class SftpChannel extends AbstractSubsystem {
 			throws SftpStatusException, SshException {
 		return getAttributes(path, SSH_FXP_LSTAT);
 	}
+	
+	/**
+	 * Get the attributes of a file without waiting for the response. This method 
+	 * does not follow symbolic links.
+	 * 
+	 * @param path
+	 * @return CompletableFuture<SftpFileAttributes>
+	 */
+	public CompletableFuture<SftpFileAttributes> getLinkAttributesAsync(String path) {
+		return getAttributesAsync(path, SSH_FXP_LSTAT);
+	}
 
 	protected SftpFileAttributes getAttributes(String path, int messageId)
 			throws SftpStatusException, SshException {
+		return getResult(getAttributesAsync(path, messageId));
+	}
+	
+	protected CompletableFuture<SftpFileAttributes> getAttributesAsync(String path, int messageId) {
 		try {
 			UnsignedInteger32 requestId = nextRequestId();
 			Packet msg = createPacket();
@@ -2310,18 +2813,19 @@ public class SftpChannel extends AbstractSubsystem {
 
 			sendMessage(msg);
 
-			SftpMessage bar = getResponse(requestId);
-			try {
-				return extractAttributes(bar);
-			} finally {
-				bar.release();
-			}
-		} catch (SshIOException ex) {
-			throw ex.getRealException();
+			return getResponseAsync(requestId, attributesHandler);
+		} catch (SshException ex) {
+			return failedFuture(ex);
 		} catch (IOException ex) {
-			throw new SshException(ex);
+			return failedFuture(new SshException(ex));
 		}
 	}
+	
+	private final ResponseHandler<SftpFileAttributes> attributesHandler = new ResponseHandler<SftpFileAttributes>() {
+		public SftpFileAttributes handle(SftpMessage msg) throws SftpStatusException, SshException {
+			return extractAttributes(msg);
+		}
+	};
 
 	SftpFileAttributes extractAttributes(SftpMessage bar)
 			throws SftpStatusException, SshException {
@@ -2360,10 +2864,21 @@ public class SftpChannel extends AbstractSubsystem {
 	 */
 	public SftpFileAttributes getAttributes(SftpFile file)
 			throws SftpStatusException, SshException {
+		return getResult(getAttributesAsync(file));
+	}
+	
+	/**
+	 * Get the attributes of a file without waiting for the response. If the file 
+	 * is open, its handle is used.
+	 * 
+	 * @param file
+	 * @return CompletableFuture<SftpFileAttributes>
+	 */
+	public CompletableFuture<SftpFileAttributes> getAttributesAsync(SftpFile file) {
 
 		try {
 			if (!isValidHandle(file.getHandle())) {
-				return getAttributes(file.getAbsolutePath());
+				return getAttributesAsync(file.getAbsolutePath());
 			}
 			UnsignedInteger32 requestId = nextRequestId();
 			Packet msg = createPacket();
@@ -2383,16 +2898,11 @@ public class SftpChannel extends AbstractSubsystem {
 			}
 			sendMessage(msg);
 
-			SftpMessage attrMessage = getResponse(requestId);
-			try {
-				return extractAttributes(attrMessage);
-			} finally {
-				attrMessage.release();
-			}
-		} catch (SshIOException ex) {
-			throw ex.getRealException();
+			return getResponseAsync(requestId, attributesHandler);
+		} catch (SshException ex) {
+			return failedFuture(ex);
 		} catch (IOException ex) {
-			throw new SshException(ex);
+			return failedFuture(new SshException(ex));
 		}
 
 	}
@@ -2423,6 +2933,17 @@ public class SftpChannel extends AbstractSubsystem {
 	 */
 	public void makeDirectory(String path, SftpFileAttributes attrs)
 			throws SftpStatusException, SshException {
+		getResult(makeDirectoryAsync(path, attrs));
+	}
+	
+	/**
+	 * Make a directory without waiting for the response.
+	 * 
+	 * @param path
+	 * @param attrs
+	 * @return CompletableFuture<Void>
+	 */
+	public CompletableFuture<Void> makeDirectoryAsync(String path, SftpFileAttributes attrs) {
 		try {
 			UnsignedInteger32 requestId = nextRequestId();
 
@@ -2434,11 +2955,11 @@ public class SftpChannel extends AbstractSubsystem {
 
 			sendMessage(msg);
 
-			getOKRequestStatus(requestId);
-		} catch (SshIOException ex) {
-			throw ex.getRealException();
+			return getOKRequestStatusAsync(requestId);
+		} catch (SshException ex) {
+			return failedFuture(ex);
 		} catch (IOException ex) {
-			throw new SshException(ex);
+			return failedFuture(new SshException(ex));
 		}
 	}
 	
@@ -2474,12 +2995,18 @@ public class SftpChannel extends AbstractSubsystem {
 		}
 	}
 
+	/**
+	 * Get the reply to an extension request. The caller must release the 
+	 * reply when it has finished reading it.
+	 */
 	SftpMessage getExtensionResponse(UnsignedInteger32 requestId)
 			throws SftpStatusException, SshException {
 
 		SftpMessage bar = getResponse(requestId);
+		boolean reply = false;
 		try {
 			if (bar.getType() == SSH_FXP_EXTENDED_REPLY) {
+				reply = true;
 				return bar;
 			} else if (bar.getType() == SSH_FXP_STATUS) {
 				int status = (int) bar.readInt();
@@ -2500,7 +3027,9 @@ public class SftpChannel extends AbstractSubsystem {
 		} catch (IOException ex) {
 			throw new SshException(ex);
 		} finally {
-			bar.release();
+			if(!reply) {
+				bar.release();
+			}
 		}
 	}
 	
@@ -2546,36 +3075,6 @@ public class SftpChannel extends AbstractSubsystem {
 	    return PacketPool.getInstance().getPacket();
 	  }
 	  
-	  class SftpThreadSynchronizer {
-
-			boolean isBlocking = false;
-
-			public boolean requestBlock(UnsignedInteger32 requestId,
-					MessageHolder holder) throws InterruptedException {
-
-				if (responses.containsKey(requestId)) {
-					holder.msg = (Message) responses.get(requestId);
-					return false;
-				}
-
-				synchronized (this) {
-					boolean canBlock = !isBlocking;
-					if (canBlock) {
-						isBlocking = true;
-					} else {
-						wait();
-					}
-					return canBlock;
-				}
-			}
-
-			public synchronized void releaseBlock() {
-				isBlocking = false;
-				notifyAll();
-			}
-
-		}
-
 	public boolean isClosed() {
 		return getSession().isClosed();
 	}
@@ -18,29 +18,37 @@
  */
 package com.sshtools.client.sftp;
 
-import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
 import java.security.DigestInputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.StringTokenizer;
 import java.util.Vector;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
 import com.sshtools.client.SshClient;
 import com.sshtools.client.tasks.FileTransferProgress;
 import com.sshtools.common.files.AbstractFile;
 import com.sshtools.common.files.AbstractFileFactory;
+import com.sshtools.common.files.AbstractFileRandomAccess;
 import com.sshtools.common.files.direct.DirectFileFactory;
 import com.sshtools.common.logger.Log;
 import com.sshtools.common.permissions.PermissionDeniedException;
@@ -62,6 +70,8 @@ import com.sshtools.common.util.UnsignedInteger64;
  */
 public class SftpClient {
 
+	static final int DEFAULT_DELTA_BLOCKSIZE = 65536;
+	
 	SftpChannel sftp;
 
 	String cwd;
@@ -71,6 +81,10 @@ public class SftpClient {
 	private int blocksize = 16384;
 	private int asyncRequests = 16;
 	private int buffersize = 1024000;
+	private int asyncDirectoryRequests = 1;
+	private int asyncMetadataRequests = 100;
+	
+	RemoteMetadataCache metadataCache;
 
 	// Default permissions is determined by default_permissions ^ umask
 	int umask = 0022;
@@ -311,6 +325,76 @@ public class SftpClient {
 
 	}
 
+	/**
+	 * Set the number of requests for pages of a directory listing that are outstanding 
+	 * at any one time when listing a directory with <code>ls</code> or <code>lsIterator</code>. 
+	 * Requesting the next pages while the current page is used means listing a large 
+	 * directory is no longer limited by the round trip time, at the cost of holding up 
+	 * to this many pages in memory. The default of 1 requests each page when the 
+	 * previous one is used up.
+	 * 
+	 * @param asyncDirectoryRequests
+	 */
+	public void setMaxAsyncDirectoryRequests(int asyncDirectoryRequests) {
+		if (asyncDirectoryRequests < 1) {
+			throw new IllegalArgumentException(
+					"Maximum asynchronous directory requests must be greater or equal to 1");
+		}
+		this.asyncDirectoryRequests = asyncDirectoryRequests;
+
+		if(Log.isDebugEnabled())
+			Log.debug("Max async directory requests set to " + asyncDirectoryRequests);
+	}
+
+	/**
+	 * Set the number of requests that the bulk operations such as <code>statAll</code> and 
+	 * <code>removeAll</code> keep outstanding at any one time. The default is 100.
+	 * 
+	 * @param asyncMetadataRequests
+	 */
+	public void setMaxAsyncMetadataRequests(int asyncMetadataRequests) {
+		if (asyncMetadataRequests < 1) {
+			throw new IllegalArgumentException(
+					"Maximum asynchronous metadata requests must be greater or equal to 1");
+		}
+		this.asyncMetadataRequests = asyncMetadataRequests;
+
+		if(Log.isDebugEnabled())
+			Log.debug("Max async metadata requests set to " + asyncMetadataRequests);
+	}
+
+	/**
+	 * Cache the attributes, directory listings and canonical paths read by <code>stat</code>,
+	 * <code>ls</code>, <code>cd</code> and <code>getAbsolutePath</code> so that repeated calls 
+	 * on the same paths do not each need a round trip to the server. The cache is 
+	 * invalidated by this client's own operations, such as <code>rm</code>, <code>rename</code>, 
+	 * <code>mkdir</code>, <code>chmod</code> and <code>put</code>, but changes made by other 
+	 * clients are only seen once an entry expires. Attributes returned from the cache are 
+	 * shared and should not be modified. The cache is disabled by default.
+	 * 
+	 * @param ttl the time in milliseconds entries remain valid, or zero to disable the cache
+	 * @param maximumEntries the maximum number of entries to keep
+	 */
+	public void setMetadataCache(long ttl, int maximumEntries) {
+		if(ttl > 0 && maximumEntries < 1) {
+			throw new IllegalArgumentException(
+					"Maximum cache entries must be greater or equal to 1");
+		}
+		this.metadataCache = ttl > 0 ? new RemoteMetadataCache(ttl, maximumEntries) : null;
+
+		if(Log.isDebugEnabled())
+			Log.debug("Metadata cache ttl set to " + ttl + "ms with " + maximumEntries + " entries");
+	}
+	
+	/**
+	 * Discard everything held in the metadata cache.
+	 */
+	public void clearMetadataCache() {
+		if(metadataCache!=null) {
+			metadataCache.invalidateAll();
+		}
+	}
+
 	/**
 	 * Sets the umask used by this client. <blockquote>
 	 * 
@@ -363,11 +447,17 @@ public class SftpClient {
 
 	public SftpFile openFile(String fileName, int flags) throws SftpStatusException,
 			SshException {
-		if (transferMode == MODE_TEXT && sftp.getVersion() > 3) {
-			return sftp.openFile(resolveRemotePath(fileName),
-					flags | SftpChannel.OPEN_TEXT);
+		try {
+			if (transferMode == MODE_TEXT && sftp.getVersion() > 3) {
+				return sftp.openFile(resolveRemotePath(fileName),
+						flags | SftpChannel.OPEN_TEXT);
+			}
+			return sftp.openFile(resolveRemotePath(fileName), flags);
+		} finally {
+			if((flags & (SftpChannel.OPEN_WRITE | SftpChannel.OPEN_CREATE | SftpChannel.OPEN_TRUNCATE | SftpChannel.OPEN_APPEND)) != 0) {
+				invalidate(resolveRemotePath(fileName));
+			}
 		}
-		return sftp.openFile(resolveRemotePath(fileName), flags);
 	}
 
 	public SftpFile openDirectory(String path) throws SftpStatusException, SshException {
@@ -404,11 +494,11 @@ public class SftpClient {
 			actual = sftp.getDefaultDirectory();
 		} else {
 			actual = resolveRemotePath(dir);
-			actual = sftp.getAbsolutePath(actual);
+			actual = getCachedAbsolutePath(actual);
 		}
 
 		if (!actual.equals("")) {
-			SftpFileAttributes attr = sftp.getAttributes(actual);
+			SftpFileAttributes attr = getCachedAttributes(actual);
 
 			if (!attr.isDirectory()) {
 				throw new SftpStatusException(
@@ -579,7 +669,11 @@ public class SftpClient {
 			if(applyUmask) {
 				newattrs.setPermissions(new UnsignedInteger32(0777 ^ umask));
 			}
-			sftp.makeDirectory(actual, newattrs);
+			try {
+				sftp.makeDirectory(actual, newattrs);
+			} finally {
+				invalidate(actual);
+			}
 			return;
 		}
 
@@ -695,21 +789,34 @@ public class SftpClient {
 
 		String actual = resolveRemotePath(path);
 
+		if(metadataCache!=null) {
+			SftpFile[] files = metadataCache.getListing(getCachePath(actual));
+			if(files!=null) {
+				for(SftpFile file : files) {
+					file.setSFTPSubsystem(sftp);
+				}
+				return files;
+			}
+			files = listDirectory(actual);
+			metadataCache.putListing(getCachePath(actual), files);
+			return files;
+		}
+		
+		return listDirectory(actual);
+	}
+	
+	private SftpFile[] listDirectory(String actual) throws SftpStatusException, SshException {
+
 		if(Log.isDebugEnabled())
 			Log.debug("Listing files for " + actual);
 
-		SftpFile file = sftp.openDirectory(actual);
-		Vector<SftpFile> children = new Vector<SftpFile>();
-		while (sftp.listChildren(file, children) > -1) {
-			;
-		}
-		file.close();
-		SftpFile[] files = new SftpFile[children.size()];
-		int index = 0;
-		for (Enumeration<SftpFile> e = children.elements(); e.hasMoreElements();) {
-			files[index++] = e.nextElement();
+		DirectoryIterator it = new DirectoryIterator(actual);
+		List<SftpFile> children = new ArrayList<SftpFile>();
+		while (it.currentPage != null) {
+			children.addAll(Arrays.asList(it.currentPage));
+			it.getNextPage();
 		}
-		return files;
+		return children.toArray(new SftpFile[children.size()]);
 	}
 	
 	public SftpFile[] ls(String filter, boolean regexFilter, int maximumFiles) throws SftpStatusException, SshException {
@@ -820,7 +927,8 @@ public class SftpClient {
 	 * Return an iterator for the path provided.
 	 * 
 	 * This method improves memory usage by only getting paged contents of the
-	 * directory.
+	 * directory. The number of pages requested ahead of the one being iterated
+	 * is set with {@link #setMaxAsyncDirectoryRequests(int)}.
 	 * 
 	 * @param path
 	 * @return
@@ -1093,6 +1201,22 @@ public class SftpClient {
 
 		try {
 
+			// binary downloads to a file with a channel are written directly
+			// from each response at the offset it was read from
+			if (transferMode == MODE_BINARY && !(resume && localPath.exists())) {
+				AbstractFileRandomAccess file = localPath.openFile(true);
+				if (file.getChannel() != null) {
+					try {
+						file.setLength(0);
+						attrs = get(remote, file.getChannel(), progress, 0);
+						return attrs;
+					} finally {
+						file.close();
+					}
+				}
+				file.close();
+			}
+
 			// if resuming and the local file exists, then open as random access
 			// file and seek to end of the file ready to continue writing
 			if (resume && localPath.exists()) {
@@ -1122,6 +1246,146 @@ public class SftpClient {
 		}
 	}
 	
+	/**
+	 * <p>
+	 * Download the remote file in segments over several channels at the same time. The 
+	 * channel used by this client is joined by further channels opened on its connection,
+	 * and each segment is written to the local file at its own position. A segment that 
+	 * fails is retried from the point it reached on any channel still open.
+	 * </p>
+	 * 
+	 * <p>
+	 * Text mode transfers, and local files that do not support random access, are 
+	 * downloaded over a single channel.
+	 * </p>
+	 * 
+	 * @param remote
+	 *            the path/name of the remote file
+	 * @param local
+	 *            the path/name to place the file on the local computer
+	 * @param channels
+	 *            the total number of channels to use
+	 * @param progress
+	 * 
+	 * @return the downloaded file's attributes
+	 * 
+	 * @throws SftpStatusException
+	 * @throws SshException
+	 * @throws TransferCancelledException
+	 * @throws IOException
+	 * @throws PermissionDeniedException
+	 */
+	public SftpFileAttributes getSegmented(String remote, String local, int channels,
+			FileTransferProgress progress) throws SftpStatusException, SshException, 
+			TransferCancelledException, IOException, PermissionDeniedException {
+		return getSegmented(remote, local, progress, channels - 1, sftp.getConnection());
+	}
+	
+	/**
+	 * <p>
+	 * Download the remote file in segments over the channel used by this client and 
+	 * a channel opened on each of the connections given. The connections must be 
+	 * authenticated to the same server as this client.
+	 * </p>
+	 * 
+	 * @param remote
+	 *            the path/name of the remote file
+	 * @param local
+	 *            the path/name to place the file on the local computer
+	 * @param progress
+	 * @param connections
+	 *            additional connections to transfer segments over
+	 * 
+	 * @return the downloaded file's attributes
+	 * 
+	 * @throws SftpStatusException
+	 * @throws SshException
+	 * @throws TransferCancelledException
+	 * @throws IOException
+	 * @throws PermissionDeniedException
+	 */
+	public SftpFileAttributes getSegmented(String remote, String local, FileTransferProgress progress,
+			SshConnection... connections) throws SftpStatusException, SshException, 
+			TransferCancelledException, IOException, PermissionDeniedException {
+		return getSegmented(remote, local, progress, 1, connections);
+	}
+	
+	private SftpFileAttributes getSegmented(String remote, String local, FileTransferProgress progress,
+			int channelsPerConnection, SshConnection... connections) throws SftpStatusException, SshException, 
+			TransferCancelledException, IOException, PermissionDeniedException {
+		
+		AbstractFile localPath = resolveLocalPath(local);
+		if (transferMode == MODE_TEXT || !localPath.supportsRandomAccess()) {
+			return get(remote, local, progress);
+		}
+		
+		if (!localPath.exists()) {
+			AbstractFile parent = localPath.resolveFile(FileUtils.getParentPath(localPath.getAbsolutePath()));
+			parent.createFolder();
+		}
+
+		if (localPath.isDirectory()) {
+			localPath = localPath.resolveFile(FileUtils.getFilename(remote));
+		}
+		
+		String remotePath = resolveRemotePath(remote);
+		SftpFileAttributes attrs = sftp.getAttributes(remotePath);
+		long length = attrs.getSize().longValue();
+		
+		List<SftpChannel> channels = openTransferChannels(channelsPerConnection, connections);
+		AbstractFileRandomAccess out = null;
+		try {
+			out = localPath.openFile(true);
+			out.setLength(length);
+			
+			if (progress != null) {
+				progress.started(length, remotePath);
+			}
+			
+			new SegmentedTransfer.Download(remotePath, out, blocksize, asyncRequests, 
+					progress).transfer(length, channels);
+		} finally {
+			closeTransferChannels(channels);
+			if (out != null) {
+				out.close();
+			}
+		}
+		
+		try {
+			localPath.setAttributes(attrs);
+		} catch (Throwable ex) {
+		}
+		
+		if (progress != null) {
+			progress.completed();
+		}
+		
+		return attrs;
+	}
+	
+	private List<SftpChannel> openTransferChannels(int channelsPerConnection, SshConnection... connections) {
+		List<SftpChannel> channels = new ArrayList<SftpChannel>();
+		channels.add(sftp);
+		for(SshConnection con : connections) {
+			for(int i = 0; i < channelsPerConnection; i++) {
+				try {
+					channels.add(new SftpChannel(con));
+				} catch (SshException | IllegalStateException e) {
+					Log.error("Could not open an additional SFTP channel for a segmented transfer", e);
+				}
+			}
+		}
+		return channels;
+	}
+	
+	private void closeTransferChannels(List<SftpChannel> channels) {
+		for(SftpChannel channel : channels) {
+			if(channel != sftp) {
+				channel.close();
+			}
+		}
+	}
+	
 	public String getRemoteNewline() throws SftpStatusException {
 		return new String(sftp.getCanonicalNewline());
 	}
@@ -1533,7 +1797,7 @@ public class SftpClient {
 
 
 			sftp.performOptimizedRead(file.getHandle(), attrs.getSize()
-					.longValue(), blocksize, local, asyncRequests, progress,
+					.longValue() - Math.max(0, position), blocksize, local, asyncRequests, progress,
 					position);
 		} catch(IOException ex) {
 			throw new SftpStatusException(SftpStatusException.SSH_FX_FAILURE,
@@ -1560,6 +1824,67 @@ public class SftpClient {
 		return attrs;
 	}
 
+	/**
+	 * <p>
+	 * Download the remote file into a <code>FileChannel</code>. Each block is 
+	 * written straight from the response it arrived in, at the same offset in the
+	 * channel as it was read from in the remote file, so a download can be resumed 
+	 * by passing the length of the partial local file as the position. The transfer
+	 * is always binary and the channel is not closed by this method.
+	 * </p>
+	 * 
+	 * @param remote
+	 *            the path/name of the remote file
+	 * @param local
+	 *            the FileChannel to write
+	 * @param progress
+	 * @param position
+	 *            the position within the file to start reading from
+	 * 
+	 * @return the downloaded file's attributes
+	 * 
+	 * @throws SftpStatusException
+	 * @throws SshException
+	 * @throws TransferCancelledException
+	 */
+	public SftpFileAttributes get(String remote, FileChannel local,
+			FileTransferProgress progress, long position)
+			throws SftpStatusException, SshException,
+			TransferCancelledException {
+
+		String remotePath = resolveRemotePath(remote);
+		SftpFileAttributes attrs = sftp.getAttributes(remotePath);
+
+		if (position > attrs.getSize().longValue()) {
+			throw new SftpStatusException(
+					SftpStatusException.INVALID_RESUME_STATE,
+					"The local file size is greater than the remote file");
+		}
+
+		if (progress != null) {
+			progress.started(attrs.getSize().longValue()-position, remotePath);
+		}
+
+		SftpFile file = sftp.openFile(remotePath, SftpChannel.OPEN_READ);
+		
+		try {
+			sftp.performOptimizedRead(file.getHandle(), attrs.getSize()
+					.longValue() - Math.max(0, position), blocksize, local, asyncRequests, progress,
+					position);
+		} finally {
+			try {
+				sftp.closeFile(file);
+			} catch (SftpStatusException ex) {
+			}
+		}
+
+		if (progress != null) {
+			progress.completed();
+		}
+
+		return attrs;
+	}
+
 	/**
 	 * Create an InputStream for reading a remote file.
 	 * 
@@ -1833,70 +2158,307 @@ public class SftpClient {
 
 	}
 
-	public void append(String local, String remote)
-			throws SftpStatusException, SshException, TransferCancelledException, IOException, PermissionDeniedException {
-		append(local, remote, null);
-	}
-	
-	public void append(String local, String remote, FileTransferProgress progress)
-			throws SftpStatusException, SshException, TransferCancelledException, IOException, PermissionDeniedException {
-		AbstractFile localPath = resolveLocalPath(local);
-
-		String remotePath = resolveRemotePath(remote);
-		stat(remotePath);
-
-		InputStream in = localPath.getInputStream();
-		
-		try {
-			append(in, remotePath, progress);
-
-		} finally {
-			try {
-				in.close();
-			} catch (IOException e) {
-			}
-		}
-	}
-	
 	/**
-	 * Upload a file to the remote computer
+	 * <p>
+	 * Upload a local file in segments over several channels at the same time. The 
+	 * channel used by this client is joined by further channels opened on its connection,
+	 * and each opens the remote file to write its segments at their own position. If the 
+	 * server will not open the file on more than one channel the upload continues on 
+	 * those that could.
+	 * </p>
+	 * 
+	 * <p>
+	 * Text mode transfers, and local files that do not support random access, are 
+	 * uploaded over a single channel.
+	 * </p>
 	 * 
 	 * @param local
+	 *            the path/name of the local file
 	 * @param remote
-	 * @param resume
-	 *            attempt to resume after an interrupted transfer
+	 *            the path/name of the destination file
+	 * @param channels
+	 *            the total number of channels to use
+	 * @param progress
 	 * 
 	 * @throws SftpStatusException
 	 * @throws SshException
 	 * @throws TransferCancelledException
-	 * @throws PermissionDeniedException 
-	 * @throws IOException 
+	 * @throws IOException
+	 * @throws PermissionDeniedException
 	 */
-	public void put(String local, String remote, boolean resume)
-			throws SftpStatusException, SshException,
-			TransferCancelledException, IOException, PermissionDeniedException {
-		put(local, remote, null, resume);
+	public void putSegmented(String local, String remote, int channels, FileTransferProgress progress)
+			throws SftpStatusException, SshException, TransferCancelledException, 
+			IOException, PermissionDeniedException {
+		putSegmented(local, remote, progress, channels - 1, sftp.getConnection());
 	}
-
+	
 	/**
-	 * Upload a file to the remote computer
+	 * <p>
+	 * Upload a local file in segments over the channel used by this client and 
+	 * a channel opened on each of the connections given. The connections must be 
+	 * authenticated to the same server as this client.
+	 * </p>
 	 * 
 	 * @param local
+	 *            the path/name of the local file
 	 * @param remote
+	 *            the path/name of the destination file
+	 * @param progress
+	 * @param connections
+	 *            additional connections to transfer segments over
 	 * 
 	 * @throws SftpStatusException
 	 * @throws SshException
 	 * @throws TransferCancelledException
-	 * @throws PermissionDeniedException 
-	 * @throws IOException 
+	 * @throws IOException
+	 * @throws PermissionDeniedException
 	 */
-	public void put(String local, String remote) throws SftpStatusException, SshException, TransferCancelledException, IOException, PermissionDeniedException {
-		put(local, remote, null, false);
+	public void putSegmented(String local, String remote, FileTransferProgress progress,
+			SshConnection... connections) throws SftpStatusException, SshException, 
+			TransferCancelledException, IOException, PermissionDeniedException {
+		putSegmented(local, remote, progress, 1, connections);
 	}
-
-	/**
-	 * <p>
-	 * Upload a file to the remote computer reading from the specified <code>
+	
+	private void putSegmented(String local, String remote, FileTransferProgress progress,
+			int channelsPerConnection, SshConnection... connections) throws SftpStatusException, 
+			SshException, TransferCancelledException, IOException, PermissionDeniedException {
+		
+		AbstractFile localPath = resolveLocalPath(local);
+		if (transferMode == MODE_TEXT || !localPath.supportsRandomAccess()) {
+			put(local, remote, progress);
+			return;
+		}
+		
+		try {
+			if (stat(remote).isDirectory()) {
+				remote += (remote.endsWith("/") ? "" : "/")
+						+ localPath.getName();
+			}
+		} catch (SftpStatusException ex) {
+		}
+		
+		String remotePath = resolveRemotePath(remote);
+		long length = localPath.length();
+		
+		SftpFileAttributes attrs = new SftpFileAttributes(SftpFileAttributes.SSH_FILEXFER_TYPE_REGULAR, "UTF-8");
+		if (applyUmask) {
+			attrs.setPermissions(new UnsignedInteger32(0666 ^ umask));
+		}
+		
+		/**
+		 * Create or truncate the file once, so that each channel 
+		 * only needs to open it for writing.
+		 */
+		sftp.closeFile(sftp.openFile(remotePath, SftpChannel.OPEN_CREATE 
+				| SftpChannel.OPEN_TRUNCATE
+				| SftpChannel.OPEN_WRITE, attrs));
+		
+		List<SftpChannel> channels = openTransferChannels(channelsPerConnection, connections);
+		AbstractFileRandomAccess in = null;
+		try {
+			in = localPath.openFile(false);
+			
+			if (progress != null) {
+				progress.started(length, remotePath);
+			}
+			
+			new SegmentedTransfer.Upload(remotePath, in, blocksize, asyncRequests, 
+					progress).transfer(length, channels);
+		} finally {
+			closeTransferChannels(channels);
+			invalidate(remotePath);
+			if (in != null) {
+				in.close();
+			}
+		}
+		
+		if (progress != null) {
+			progress.completed();
+		}
+	}
+
+	/**
+	 * <p>
+	 * Update an existing remote file from a local file, writing only the blocks of 
+	 * the remote file that differ. This suits large files that change little between
+	 * uploads. Each block of the remote file is hashed by the server with the 
+	 * md5-hash-handle extension, or read back when the server does not support it, 
+	 * and compared with the same block of the local file.
+	 * </p>
+	 * 
+	 * <p>
+	 * Blocks are compared at the same offset, so data inserted or removed near the 
+	 * start of a file will cause everything after it to be written. If the remote file 
+	 * does not exist, or the transfer mode is text, the file is uploaded in full.
+	 * </p>
+	 * 
+	 * @param local
+	 *            the path/name of the local file
+	 * @param remote
+	 *            the path/name of the destination file
+	 * @param progress
+	 * @return the number of bytes written to the remote file
+	 * 
+	 * @throws SftpStatusException
+	 * @throws SshException
+	 * @throws TransferCancelledException
+	 * @throws IOException
+	 * @throws PermissionDeniedException
+	 */
+	public long putDelta(String local, String remote, FileTransferProgress progress)
+			throws SftpStatusException, SshException, TransferCancelledException, 
+			IOException, PermissionDeniedException {
+		return putDelta(local, remote, DEFAULT_DELTA_BLOCKSIZE, progress);
+	}
+	
+	/**
+	 * <p>
+	 * Update an existing remote file from a local file, comparing blocks of the 
+	 * size given.
+	 * </p>
+	 * 
+	 * @see #putDelta(String, String, FileTransferProgress)
+	 * 
+	 * @param local
+	 *            the path/name of the local file
+	 * @param remote
+	 *            the path/name of the destination file
+	 * @param deltaBlocksize
+	 *            the size of the blocks compared, smaller blocks write less data but 
+	 *            need more requests to compare
+	 * @param progress
+	 * @return the number of bytes written to the remote file
+	 * 
+	 * @throws SftpStatusException
+	 * @throws SshException
+	 * @throws TransferCancelledException
+	 * @throws IOException
+	 * @throws PermissionDeniedException
+	 */
+	public long putDelta(String local, String remote, int deltaBlocksize, FileTransferProgress progress)
+			throws SftpStatusException, SshException, TransferCancelledException, 
+			IOException, PermissionDeniedException {
+		
+		if (deltaBlocksize < 4096) {
+			throw new SshException("Block size cannot be less than 4096",
+					SshException.BAD_API_USAGE);
+		}
+		
+		AbstractFile localPath = resolveLocalPath(local);
+		
+		SftpFileAttributes attrs;
+		try {
+			attrs = stat(remote);
+			if (attrs.isDirectory()) {
+				remote += (remote.endsWith("/") ? "" : "/")
+						+ localPath.getName();
+				attrs = stat(remote);
+			}
+		} catch (SftpStatusException ex) {
+			attrs = null;
+		}
+		
+		long length = localPath.length();
+		if (attrs == null || transferMode == MODE_TEXT) {
+			put(local, remote, progress);
+			return length;
+		}
+		
+		String remotePath = resolveRemotePath(remote);
+		
+		if (progress != null) {
+			progress.started(length, remotePath);
+		}
+		
+		long written;
+		SftpFile file = sftp.openFile(remotePath, SftpChannel.OPEN_READ | SftpChannel.OPEN_WRITE);
+		try (InputStream in = localPath.getInputStream()) {
+			written = new DeltaTransfer(sftp, file, in, length, attrs.getSize().longValue(), 
+					deltaBlocksize, blocksize, asyncRequests, progress).transfer();
+			attrs = sftp.getAttributes(file);
+		} finally {
+			sftp.closeFile(file);
+			invalidate(remotePath);
+		}
+		
+		if (attrs.getSize().longValue() != length) {
+			if(Log.isDebugEnabled()) {
+				Log.debug("The server did not truncate " + remotePath + ", uploading the whole file");
+			}
+			put(local, remote, progress);
+			return written + length;
+		}
+		
+		if (progress != null) {
+			progress.completed();
+		}
+		return written;
+	}
+	
+	public void append(String local, String remote)
+			throws SftpStatusException, SshException, TransferCancelledException, IOException, PermissionDeniedException {
+		append(local, remote, null);
+	}
+	
+	public void append(String local, String remote, FileTransferProgress progress)
+			throws SftpStatusException, SshException, TransferCancelledException, IOException, PermissionDeniedException {
+		AbstractFile localPath = resolveLocalPath(local);
+
+		String remotePath = resolveRemotePath(remote);
+		stat(remotePath);
+
+		InputStream in = localPath.getInputStream();
+		
+		try {
+			append(in, remotePath, progress);
+
+		} finally {
+			try {
+				in.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+	
+	/**
+	 * Upload a file to the remote computer
+	 * 
+	 * @param local
+	 * @param remote
+	 * @param resume
+	 *            attempt to resume after an interrupted transfer
+	 * 
+	 * @throws SftpStatusException
+	 * @throws SshException
+	 * @throws TransferCancelledException
+	 * @throws PermissionDeniedException 
+	 * @throws IOException 
+	 */
+	public void put(String local, String remote, boolean resume)
+			throws SftpStatusException, SshException,
+			TransferCancelledException, IOException, PermissionDeniedException {
+		put(local, remote, null, resume);
+	}
+
+	/**
+	 * Upload a file to the remote computer
+	 * 
+	 * @param local
+	 * @param remote
+	 * 
+	 * @throws SftpStatusException
+	 * @throws SshException
+	 * @throws TransferCancelledException
+	 * @throws PermissionDeniedException 
+	 * @throws IOException 
+	 */
+	public void put(String local, String remote) throws SftpStatusException, SshException, TransferCancelledException, IOException, PermissionDeniedException {
+		put(local, remote, null, false);
+	}
+
+	/**
+	 * <p>
+	 * Upload a file to the remote computer reading from the specified <code>
 	 * InputStream</code>. The InputStream is closed, even if the operation
 	 * fails.
 	 * </p>
@@ -2032,6 +2594,7 @@ public class SftpClient {
 			} catch (Throwable t) {
 			}
 			sftp.closeFile(file);
+			invalidate(remotePath);
 		}
 
 		if (progress != null) {
@@ -2051,10 +2614,14 @@ public class SftpClient {
 			throws SftpStatusException, SshException {
 
 		String remotePath = resolveRemotePath(remotefile);
-		return new SftpFileOutputStream(sftp.openFile(remotePath,
-				SftpChannel.OPEN_CREATE
-						| SftpChannel.OPEN_TRUNCATE
-						| SftpChannel.OPEN_WRITE));
+		try {
+			return new SftpFileOutputStream(sftp.openFile(remotePath,
+					SftpChannel.OPEN_CREATE
+							| SftpChannel.OPEN_TRUNCATE
+							| SftpChannel.OPEN_WRITE));
+		} finally {
+			invalidate(remotePath);
+		}
 
 	}
 
@@ -2111,7 +2678,11 @@ public class SftpClient {
 
 		SftpFileAttributes attrs = sftp.getAttributes(actual);
 		attrs.setUID(uid);
-		sftp.setAttributes(actual, attrs);
+		try {
+			sftp.setAttributes(actual, attrs);
+		} finally {
+			invalidate(actual);
+		}
 
 	}
 
@@ -2134,7 +2705,11 @@ public class SftpClient {
 
 		SftpFileAttributes attrs = sftp.getAttributes(actual);
 		attrs.setGID(gid);
-		sftp.setAttributes(actual, attrs);
+		try {
+			sftp.setAttributes(actual, attrs);
+		} finally {
+			invalidate(actual);
+		}
 
 	}
 
@@ -2178,7 +2753,11 @@ public class SftpClient {
 	public void chmod(int permissions, String path) throws SftpStatusException,
 			SshException {
 		String actual = resolveRemotePath(path);
-		sftp.changePermissions(actual, permissions);
+		try {
+			sftp.changePermissions(actual, permissions);
+		} finally {
+			invalidate(actual);
+		}
 	}
 
 	/**
@@ -2246,11 +2825,13 @@ public class SftpClient {
 			try {
 				msg.writeString(resolveRemotePath(oldpath));
 				msg.writeString(resolveRemotePath(newpath));
-		
+				
 				sftp.getOKRequestStatus(sftp.sendExtensionMessage("posix-rename@openssh.com", msg.toByteArray()));
 
 			} finally {
 				msg.close();
+				invalidateTree(resolveRemotePath(oldpath));
+				invalidateTree(resolveRemotePath(newpath));
 			}
 		} else {
 			rename(oldpath, newpath);
@@ -2270,6 +2851,7 @@ public class SftpClient {
 
 		} finally {
 			msg.close();
+			invalidate(resolveRemotePath(destinationFile));
 		}
 	}
 	
@@ -2289,7 +2871,9 @@ public class SftpClient {
 			
 			sftp.getOKRequestStatus(sftp.sendExtensionMessage("copy-data", msg.toByteArray()));
 
-		} 
+		} finally {
+			invalidate(destinationFile.getAbsolutePath());
+		}
 	}
 	
 	/**
@@ -2316,12 +2900,22 @@ public class SftpClient {
 			attrs = sftp.getAttributes(to);
 
 		} catch (SftpStatusException ex) {
-			sftp.renameFile(from, to);
+			try {
+				sftp.renameFile(from, to);
+			} finally {
+				invalidateTree(from);
+				invalidateTree(to);
+			}
 			return;
 		}
 
 		if (attrs != null && attrs.isDirectory()) {
-			sftp.renameFile(from, FileUtils.checkEndsWithSlash(to) + FileUtils.lastPathElement(from));
+			try {
+				sftp.renameFile(from, FileUtils.checkEndsWithSlash(to) + FileUtils.lastPathElement(from));
+			} finally {
+				invalidateTree(from);
+				invalidateTree(to);
+			}
 		} else {
 			throw new SftpStatusException(
 					SftpStatusException.SSH_FX_FILE_ALREADY_EXISTS, newpath
@@ -2345,10 +2939,14 @@ public class SftpClient {
 		String actual = resolveRemotePath(path);
 
 		SftpFileAttributes attrs = sftp.getAttributes(actual);
-		if (attrs.isDirectory()) {
-			sftp.removeDirectory(actual);
-		} else {
-			sftp.removeFile(actual);
+		try {
+			if (attrs.isDirectory()) {
+				sftp.removeDirectory(actual);
+			} else {
+				sftp.removeFile(actual);
+			}
+		} finally {
+			invalidate(actual, attrs);
 		}
 	}
 
@@ -2371,10 +2969,20 @@ public class SftpClient {
 
 		attrs = sftp.getAttributes(actual);
 
+		try {
+			removeTree(actual, attrs, force, recurse);
+		} finally {
+			invalidate(actual, attrs);
+		}
+	}
+	
+	private void removeTree(String actual, SftpFileAttributes attrs, boolean force, boolean recurse)
+			throws SftpStatusException, SshException {
+		
 		SftpFile file;
 
 		if (attrs.isDirectory()) {
-			SftpFile[] list = ls(path);
+			SftpFile[] list = listDirectory(actual);
 
 			if (!force && (list.length > 0)) {
 				throw new SftpStatusException(
@@ -2404,6 +3012,239 @@ public class SftpClient {
 		}
 	}
 
+	/**
+	 * <p>
+	 * Get the attributes of many files, keeping several requests outstanding rather 
+	 * than waiting for each response in turn. The number of outstanding requests is 
+	 * set with {@link #setMaxAsyncMetadataRequests(int)}.
+	 * </p>
+	 * 
+	 * @param paths
+	 *            the paths of the files on the remote computer
+	 * @return a result for each path, in the order given
+	 * 
+	 * @throws SftpStatusException
+	 * @throws SshException
+	 */
+	public List<SftpBulkResult<SftpFileAttributes>> statAll(List<String> paths) 
+			throws SftpStatusException, SshException {
+		return pipeline(paths, new BulkRequest<SftpFileAttributes>() {
+			public CompletableFuture<SftpFileAttributes> send(String path) throws SftpStatusException, SshException {
+				String actual = resolveRemotePath(path);
+				if(metadataCache==null) {
+					return sftp.getAttributesAsync(actual);
+				}
+				final String key = getCachePath(actual);
+				SftpFileAttributes attrs = metadataCache.getAttributes(key);
+				if(attrs!=null) {
+					return CompletableFuture.completedFuture(attrs);
+				}
+				return sftp.getAttributesAsync(actual).thenApply(new Function<SftpFileAttributes, SftpFileAttributes>() {
+					public SftpFileAttributes apply(SftpFileAttributes attrs) {
+						metadataCache.putAttributes(key, attrs);
+						return attrs;
+					}
+				});
+			}
+		});
+	}
+	
+	/**
+	 * <p>
+	 * Remove many files, keeping several requests outstanding rather than waiting for 
+	 * each response in turn. Directories are not removed; use <code>rm</code> for those.
+	 * </p>
+	 * 
+	 * @param paths
+	 *            the paths of the files on the remote computer
+	 * @return a result for each path, in the order given
+	 * 
+	 * @throws SftpStatusException
+	 * @throws SshException
+	 */
+	public List<SftpBulkResult<Void>> removeAll(List<String> paths) 
+			throws SftpStatusException, SshException {
+		return pipeline(paths, new BulkRequest<Void>() {
+			public CompletableFuture<Void> send(String path) throws SftpStatusException, SshException {
+				String actual = resolveRemotePath(path);
+				return invalidateOnCompletion(actual, sftp.removeFileAsync(actual));
+			}
+		});
+	}
+	
+	/**
+	 * <p>
+	 * Set the same attributes on many files, for example to change the permissions of 
+	 * every file in a tree, keeping several requests outstanding rather than waiting for 
+	 * each response in turn. Only the attributes that have been set on the 
+	 * {@link SftpFileAttributes} are changed.
+	 * </p>
+	 * 
+	 * @param paths
+	 *            the paths of the files on the remote computer
+	 * @param attrs
+	 *            the attributes to set
+	 * @return a result for each path, in the order given
+	 * 
+	 * @throws SftpStatusException
+	 * @throws SshException
+	 */
+	public List<SftpBulkResult<Void>> setAttributesAll(List<String> paths, final SftpFileAttributes attrs) 
+			throws SftpStatusException, SshException {
+		return pipeline(paths, new BulkRequest<Void>() {
+			public CompletableFuture<Void> send(String path) throws SftpStatusException, SshException {
+				String actual = resolveRemotePath(path);
+				return invalidateOnCompletion(actual, sftp.setAttributesAsync(actual, attrs));
+			}
+		});
+	}
+	
+	/**
+	 * <p>
+	 * Create many directories along with any parents that do not exist. The existing 
+	 * directories are found with one pass of outstanding requests and the missing ones 
+	 * are then created a level at a time, so the number of round trips depends on the 
+	 * depth of the directories rather than how many there are. Like <code>mkdirs</code>, 
+	 * directories that already exist are not an error.
+	 * </p>
+	 * 
+	 * @param dirs
+	 *            the paths of the directories to create
+	 * @return a result for each path, in the order given
+	 * 
+	 * @throws SftpStatusException
+	 * @throws SshException
+	 */
+	public List<SftpBulkResult<Void>> mkdirsAll(List<String> dirs) 
+			throws SftpStatusException, SshException {
+		
+		List<String> targets = new ArrayList<String>();
+		Map<String,Integer> depths = new LinkedHashMap<String,Integer>();
+		int maximumDepth = 0;
+		for(String dir : dirs) {
+			String actual = resolveRemotePath(dir);
+			StringTokenizer tokens = new StringTokenizer(actual, "/");
+			String path = actual.startsWith("/") ? "/" : "";
+			String target = null;
+			int depth = 0;
+			while (tokens.hasMoreElements()) {
+				path += (String) tokens.nextElement();
+				depths.put(path, ++depth);
+				target = path;
+				path += "/";
+			}
+			maximumDepth = Math.max(maximumDepth, depth);
+			targets.add(target);
+		}
+		
+		Map<String,SftpStatusException> failed = new HashMap<String,SftpStatusException>();
+		Map<Integer,List<String>> missing = new HashMap<Integer,List<String>>();
+		List<String> paths = new ArrayList<String>(depths.keySet());
+		for(SftpBulkResult<SftpFileAttributes> result : statAllUncached(paths)) {
+			if(result.isSuccess()) {
+				if(!result.getValue().isDirectory()) {
+					failed.put(result.getPath(), new SftpStatusException(SftpStatusException.SSH_FX_FAILURE, 
+							"File already exists named " + result.getPath()));
+				}
+			} else if(result.getException().getStatus() == SftpStatusException.SSH_FX_NO_SUCH_FILE) {
+				Integer depth = depths.get(result.getPath());
+				if(!missing.containsKey(depth)) {
+					missing.put(depth, new ArrayList<String>());
+				}
+				missing.get(depth).add(result.getPath());
+			} else {
+				failed.put(result.getPath(), result.getException());
+			}
+		}
+		
+		final SftpFileAttributes newattrs = new SftpFileAttributes(
+				SftpFileAttributes.SSH_FILEXFER_TYPE_DIRECTORY,
+				sftp.getCharsetEncoding());
+		if(applyUmask) {
+			newattrs.setPermissions(new UnsignedInteger32(0777 ^ umask));
+		}
+		
+		/**
+		 * Like mkdirs every missing directory is attempted even if its parent could not 
+		 * be created, and a failure is only recorded if the directory does not exist
+		 * afterwards, for example because another client created it first.
+		 */
+		for(int depth = 1; depth <= maximumDepth; depth++) {
+			if(!missing.containsKey(depth)) {
+				continue;
+			}
+			Map<String,SftpStatusException> errors = new LinkedHashMap<String,SftpStatusException>();
+			for(SftpBulkResult<Void> result : pipeline(missing.get(depth), new BulkRequest<Void>() {
+				public CompletableFuture<Void> send(String path) throws SftpStatusException, SshException {
+					return invalidateOnCompletion(path, sftp.makeDirectoryAsync(path, newattrs));
+				}
+			})) {
+				if(!result.isSuccess()) {
+					errors.put(result.getPath(), result.getException());
+				}
+			}
+			for(SftpBulkResult<SftpFileAttributes> result : statAllUncached(new ArrayList<String>(errors.keySet()))) {
+				if(!result.isSuccess() || !result.getValue().isDirectory()) {
+					failed.put(result.getPath(), errors.get(result.getPath()));
+				}
+			}
+		}
+		
+		List<SftpBulkResult<Void>> results = new ArrayList<SftpBulkResult<Void>>(dirs.size());
+		for(int i = 0; i < dirs.size(); i++) {
+			String target = targets.get(i);
+			results.add(new SftpBulkResult<Void>(dirs.get(i), null, 
+					target == null ? null : failed.get(target)));
+		}
+		return results;
+	}
+	
+	private List<SftpBulkResult<SftpFileAttributes>> statAllUncached(List<String> paths) 
+			throws SftpStatusException, SshException {
+		return pipeline(paths, new BulkRequest<SftpFileAttributes>() {
+			public CompletableFuture<SftpFileAttributes> send(String path) {
+				return sftp.getAttributesAsync(path);
+			}
+		});
+	}
+	
+	/**
+	 * Send a request for each path.
+	 */
+	private interface BulkRequest<T> {
+		CompletableFuture<T> send(String path) throws SftpStatusException, SshException;
+	}
+	
+	/**
+	 * Send a request for each path, waiting for the oldest response whenever the maximum 
+	 * number of requests are outstanding. Status failures are returned in the result for 
+	 * their path; any other failure is thrown.
+	 */
+	private <T> List<SftpBulkResult<T>> pipeline(List<String> paths, BulkRequest<T> request) 
+			throws SftpStatusException, SshException {
+		List<SftpBulkResult<T>> results = new ArrayList<SftpBulkResult<T>>(paths.size());
+		ArrayDeque<CompletableFuture<T>> outstanding = new ArrayDeque<CompletableFuture<T>>();
+		Iterator<String> it = paths.iterator();
+		for(String path : paths) {
+			if(outstanding.size() >= asyncMetadataRequests) {
+				results.add(waitForResult(it.next(), outstanding.pollFirst()));
+			}
+			outstanding.addLast(request.send(path));
+		}
+		while(!outstanding.isEmpty()) {
+			results.add(waitForResult(it.next(), outstanding.pollFirst()));
+		}
+		return results;
+	}
+	
+	private <T> SftpBulkResult<T> waitForResult(String path, CompletableFuture<T> future) throws SshException {
+		try {
+			return new SftpBulkResult<T>(path, sftp.getResult(future), null);
+		} catch(SftpStatusException e) {
+			return new SftpBulkResult<T>(path, null, e);
+		}
+	}
+
 	/**
 	 * <p>
 	 * Create a symbolic link on the remote computer.
@@ -2422,7 +3263,11 @@ public class SftpClient {
 		String actualPath = resolveRemotePath(path);
 		String actualLink = resolveRemotePath(link);
 
-		sftp.createSymbolicLink(actualLink, actualPath);
+		try {
+			sftp.createSymbolicLink(actualLink, actualPath);
+		} finally {
+			invalidate(actualLink);
+		}
 	}
 
 	/**
@@ -2441,7 +3286,7 @@ public class SftpClient {
 	public SftpFileAttributes stat(String path) throws SftpStatusException,
 			SshException {
 		String actual = resolveRemotePath(path);
-		return sftp.getAttributes(actual);
+		return getCachedAttributes(actual);
 	}
 	
 	/**
@@ -2476,7 +3321,85 @@ public class SftpClient {
 	public String getAbsolutePath(String path) throws SftpStatusException,
 			SshException {
 		String actual = resolveRemotePath(path);
-		return sftp.getAbsolutePath(actual);
+		return getCachedAbsolutePath(actual);
+	}
+	
+	private SftpFileAttributes getCachedAttributes(String actual) throws SftpStatusException, SshException {
+		if(metadataCache==null) {
+			return sftp.getAttributes(actual);
+		}
+		SftpFileAttributes attrs = metadataCache.getAttributes(getCachePath(actual));
+		if(attrs==null) {
+			attrs = sftp.getAttributes(actual);
+			metadataCache.putAttributes(getCachePath(actual), attrs);
+		}
+		return attrs;
+	}
+	
+	private String getCachedAbsolutePath(String actual) throws SftpStatusException, SshException {
+		if(metadataCache==null) {
+			return sftp.getAbsolutePath(actual);
+		}
+		String path = metadataCache.getRealPath(getCachePath(actual));
+		if(path==null) {
+			path = sftp.getAbsolutePath(actual);
+			metadataCache.putRealPath(getCachePath(actual), path);
+		}
+		return path;
+	}
+	
+	/**
+	 * Paths relative to the default directory are cached by their absolute path so that 
+	 * they match the paths of the files returned in listings.
+	 */
+	private String getCachePath(String actual) throws SftpStatusException, SshException {
+		if(actual.startsWith("/") || isWindowsRoot(actual)) {
+			return actual;
+		}
+		if(metadataCache.defaultDirectory==null) {
+			metadataCache.defaultDirectory = sftp.getDefaultDirectory();
+		}
+		return metadataCache.defaultDirectory + "/" + actual;
+	}
+	
+	void invalidate(String actual) throws SftpStatusException, SshException {
+		if(metadataCache!=null) {
+			metadataCache.invalidate(getCachePath(actual));
+		}
+	}
+	
+	void invalidateTree(String actual) throws SftpStatusException, SshException {
+		if(metadataCache!=null) {
+			metadataCache.invalidateTree(getCachePath(actual));
+		}
+	}
+	
+	/**
+	 * Invalidate a path, and everything below it if it is a directory.
+	 */
+	private void invalidate(String actual, SftpFileAttributes attrs) throws SftpStatusException, SshException {
+		if(attrs.isDirectory()) {
+			invalidateTree(actual);
+		} else {
+			invalidate(actual);
+		}
+	}
+	
+	/**
+	 * Invalidate a path once an asynchronous request for it has completed, whether or 
+	 * not it succeeded, so that a stat racing the request cannot cache the old state.
+	 */
+	private <T> CompletableFuture<T> invalidateOnCompletion(String actual, CompletableFuture<T> future) 
+			throws SftpStatusException, SshException {
+		if(metadataCache==null) {
+			return future;
+		}
+		final String key = getCachePath(actual);
+		return future.whenComplete(new BiConsumer<T, Throwable>() {
+			public void accept(T result, Throwable e) {
+				metadataCache.invalidate(key);
+			}
+		});
 	}
 
 	/**
@@ -2575,8 +3498,12 @@ public class SftpClient {
 	
 			SftpMessage resp = sftp.getExtensionResponse(sftp.sendExtensionMessage("md5-hash", msg.toByteArray()));
 	
-			resp.readString();
-			return resp.readBinaryString();
+			try {
+				resp.readString();
+				return resp.readBinaryString();
+			} finally {
+				resp.release();
+			}
 		} finally {
 			msg.close();
 		}
@@ -2597,14 +3524,102 @@ public class SftpClient {
 			msg.writeBinaryString(quickCheck);
 	
 			SftpMessage resp = sftp.getExtensionResponse(sftp.sendExtensionMessage("md5-hash-handle", msg.toByteArray()));
-	
-			resp.readString();
-			return resp.readBinaryString();
+
+			try {
+				resp.readString();
+				return resp.readBinaryString();
+			} finally {
+				resp.release();
+			}
 		} finally {
 			msg.close();
 		}
 
 	}
+
+	/**
+	 * Hash a range of a remote file using the check-file-name extension. A length of zero
+	 * hashes to the end of the file. When blockSize is zero a single hash of the range is
+	 * returned, otherwise the range is hashed in blocks of blockSize bytes and the hash of
+	 * each block is returned in order.
+	 *
+	 * @param remoteFile
+	 * @param algorithm the hash algorithm, for example sha256
+	 * @param offset
+	 * @param length
+	 * @param blockSize zero, or at least 256
+	 * @return byte[][]
+	 * @throws IOException
+	 * @throws SftpStatusException
+	 * @throws SshException
+	 */
+	public byte[][] getRemoteHashes(String remoteFile, String algorithm, long offset, long length, int blockSize) throws IOException, SftpStatusException, SshException {
+
+		String path = resolveRemotePath(remoteFile);
+
+		try(ByteArrayWriter msg = new ByteArrayWriter()) {
+			msg.writeString(path);
+			msg.writeString(algorithm);
+			msg.writeUINT64(offset);
+			msg.writeUINT64(length);
+			msg.writeInt(blockSize);
+
+			return readHashes(sftp.getExtensionResponse(sftp.sendExtensionMessage("check-file-name", msg.toByteArray())), 
+					algorithm);
+		}
+	}
+
+	/**
+	 * Hash a range of an open remote file using the check-file-handle extension.
+	 *
+	 * @see #getRemoteHashes(String, String, long, long, int)
+	 */
+	public byte[][] getRemoteHashes(SftpFile file, String algorithm, long offset, long length, int blockSize) throws IOException, SftpStatusException, SshException {
+
+		try(ByteArrayWriter msg = new ByteArrayWriter()) {
+			msg.writeBinaryString(file.getHandle());
+			msg.writeString(algorithm);
+			msg.writeUINT64(offset);
+			msg.writeUINT64(length);
+			msg.writeInt(blockSize);
+
+			return readHashes(sftp.getExtensionResponse(sftp.sendExtensionMessage("check-file-handle", msg.toByteArray())), 
+					algorithm);
+		}
+	}
+
+	/**
+	 * The reply does not say how many hashes it holds, they fill the rest of the message.
+	 */
+	private byte[][] readHashes(SftpMessage resp, String algorithm) throws IOException, SshException {
+
+		try {
+			resp.readString();
+			String used = resp.readString();
+			if(!used.equals(algorithm)) {
+				throw new SshException("The server used the " + used + " hash algorithm instead of " + algorithm, SshException.PROTOCOL_VIOLATION);
+			}
+	
+			int hashLength;
+			try {
+				hashLength = MessageDigest.getInstance(used.startsWith("sha") ? "SHA-" + used.substring(3) : used.toUpperCase()).getDigestLength();
+			} catch (NoSuchAlgorithmException e) {
+				throw new SshException(SshException.INTERNAL_ERROR, e);
+			}
+	
+			if(resp.available() % hashLength != 0) {
+				throw new SshException("The check-file reply is not a whole number of " + used + " hashes", SshException.PROTOCOL_VIOLATION);
+			}
+			
+			byte[][] hashes = new byte[resp.available() / hashLength][hashLength];
+			for(int i = 0; i < hashes.length; i++) {
+				resp.readFully(hashes[i]);
+			}
+			return hashes;
+		} finally {
+			resp.release();
+		}
+	}
 	
 	/**
 	 * <p>
@@ -2722,8 +3737,12 @@ public class SftpClient {
 										source.lastModified() / 1000),
 								new UnsignedInteger64(
 										source.lastModified() / 1000));
-						sftp.setAttributes(remotedir + source.getName(),
-								attrs);
+						try {
+							sftp.setAttributes(remotedir + source.getName(),
+									attrs);
+						} finally {
+							invalidate(remotedir + source.getName());
+						}
 					}
 
 					if (unchangedFile) {
@@ -2783,6 +3802,94 @@ public class SftpClient {
 		return op;
 	}
 
+	/**
+	 * Copy the contents of a local directory into a remote directory using several 
+	 * channels at the same time. Directories are listed and created, and files are 
+	 * transferred, by whichever channel is free, so that the latency of each operation 
+	 * is overlapped with the others. The progress passed will receive the events of 
+	 * several files at once.
+	 * 
+	 * @param localdir
+	 *            the path to the local directory
+	 * @param remotedir
+	 *            the remote directory which will receive the contents
+	 * @param recurse
+	 *            recurse through child folders
+	 * @param sync
+	 *            synchronize the directories by removing files on the remote
+	 *            server that do not exist locally
+	 * @param commit
+	 *            actually perform the operation
+	 * @param progress
+	 * @param channels
+	 *            the total number of channels to use, including the channel of this client
+	 * 
+	 * @return DirectoryOperation
+	 * 
+	 * @throws SftpStatusException
+	 * @throws SshException
+	 * @throws TransferCancelledException
+	 * @throws PermissionDeniedException 
+	 */
+	public DirectoryOperation putLocalDirectory(String localdir,
+			String remotedir, boolean recurse, boolean sync, boolean commit,
+			FileTransferProgress progress, int channels) throws IOException,
+			SftpStatusException, SshException, TransferCancelledException, PermissionDeniedException {
+		
+		if (channels <= 1) {
+			return putLocalDirectory(localdir, remotedir, recurse, sync, commit, progress);
+		}
+		
+		DirectoryTransfer.Directory root = new DirectoryTransfer.Directory(
+				resolveLocalPath(localdir), resolveRemotePath(remotedir));
+		List<SftpClient> clients = openWorkers(channels);
+		try {
+			return new DirectoryTransfer.Put(clients, recurse, sync, commit, progress).transfer(root);
+		} finally {
+			closeWorkers(clients);
+		}
+	}
+	
+	private List<SftpClient> openWorkers(int count) {
+		List<SftpClient> clients = new ArrayList<SftpClient>();
+		clients.add(this);
+		for (int i = 1; i < count; i++) {
+			try {
+				SftpClient client = new SftpClient(sftp.getConnection(), fileFactory);
+				client.cwd = cwd;
+				client.lcwd = lcwd;
+				client.blocksize = blocksize;
+				client.asyncRequests = asyncRequests;
+				client.asyncDirectoryRequests = asyncDirectoryRequests;
+				client.asyncMetadataRequests = asyncMetadataRequests;
+				client.buffersize = buffersize;
+				client.umask = umask;
+				client.applyUmask = applyUmask;
+				client.outputEOL = outputEOL;
+				client.inputEOL = inputEOL;
+				client.stripEOL = stripEOL;
+				client.forceRemoteEOL = forceRemoteEOL;
+				client.transferMode = transferMode;
+				client.metadataCache = metadataCache;
+				clients.add(client);
+			} catch (SshException | IOException | PermissionDeniedException | IllegalStateException e) {
+				Log.error("Could not open an additional SFTP channel for a directory transfer", e);
+			}
+		}
+		return clients;
+	}
+	
+	private void closeWorkers(List<SftpClient> clients) {
+		for (SftpClient client : clients) {
+			if (client != this) {
+				try {
+					client.quit();
+				} catch (SshException e) {
+				}
+			}
+		}
+	}
+
 	private String[] getChildNames(AbstractFile local) throws IOException, PermissionDeniedException {
 		List<String> children = new ArrayList<>();
 		for(AbstractFile child : local.getChildren()) {
@@ -2791,7 +3898,7 @@ public class SftpClient {
 		return children.toArray(new String[0]);
 	}
 
-	private void recurseMarkForDeletion(SftpFile file, DirectoryOperation op)
+	void recurseMarkForDeletion(SftpFile file, DirectoryOperation op)
 			throws SftpStatusException, SshException {
 		SftpFile[] list = ls(file.getAbsolutePath());
 		op.addDeletedFile(file);
@@ -2808,7 +3915,7 @@ public class SftpClient {
 		}
 	}
 
-	private void recurseMarkForDeletion(AbstractFile file, DirectoryOperation op)
+	void recurseMarkForDeletion(AbstractFile file, DirectoryOperation op)
 			throws SftpStatusException, SshException, IOException, PermissionDeniedException {
 		String[] list = getChildNames(file);
 		op.addDeletedFile(file);
@@ -3059,6 +4166,55 @@ public class SftpClient {
 		return op;
 	}
 
+	/**
+	 * Copy the contents of a remote directory to a local directory using several 
+	 * channels at the same time. Directories are listed, and files are transferred, 
+	 * by whichever channel is free, so that the latency of each operation is overlapped 
+	 * with the others. The progress passed will receive the events of several files 
+	 * at once.
+	 * 
+	 * @param remotedir
+	 *            the remote directory whose contents will be copied.
+	 * @param localdir
+	 *            the local directory to where the contents will be copied
+	 * @param recurse
+	 *            recurse into child folders
+	 * @param sync
+	 *            synchronized the directories by removing files and directories
+	 *            that do not exist on the remote server.
+	 * @param commit
+	 *            actually perform the operation
+	 * @param progress
+	 * @param channels
+	 *            the total number of channels to use, including the channel of this client
+	 * 
+	 * @return DirectoryOperation
+	 * 
+	 * @throws IOException
+	 * @throws SftpStatusException
+	 * @throws SshException
+	 * @throws TransferCancelledException
+	 * @throws PermissionDeniedException 
+	 */
+	public DirectoryOperation getRemoteDirectory(String remotedir,
+			String localdir, boolean recurse, boolean sync, boolean commit,
+			FileTransferProgress progress, int channels) throws IOException,
+			SftpStatusException, SshException, TransferCancelledException, PermissionDeniedException {
+		
+		if (channels <= 1) {
+			return getRemoteDirectory(remotedir, localdir, recurse, sync, commit, progress);
+		}
+		
+		DirectoryTransfer.Directory root = new DirectoryTransfer.Directory(
+				resolveLocalPath(localdir), resolveRemotePath(remotedir));
+		List<SftpClient> clients = openWorkers(channels);
+		try {
+			return new DirectoryTransfer.Get(clients, recurse, sync, commit, progress).transfer(root);
+		} finally {
+			closeWorkers(clients);
+		}
+	}
+
 	/**
 	 * <p>
 	 * Download the remote files to the local computer
@@ -3608,8 +4764,10 @@ public class SftpClient {
 	class DirectoryIterator implements Iterator<SftpFile> {
 
 		SftpFile currentFolder;
-		Vector<SftpFile> currentPage = new Vector<SftpFile>();
-		Iterator<SftpFile> currentIterator;
+		ArrayDeque<UnsignedInteger32> requests = new ArrayDeque<UnsignedInteger32>();
+		SftpFile[] currentPage;
+		int index;
+		boolean eof;
 
 		DirectoryIterator(String path) throws SftpStatusException, SshException {
 
@@ -3620,56 +4778,76 @@ public class SftpClient {
 
 			currentFolder = sftp.openDirectory(actual);
 
+			getNextPage();
+		}
+
+		/**
+		 * Move to the next page of the directory that has entries, keeping up to 
+		 * the maximum number of directory requests outstanding. Each page is only 
+		 * decoded when it is reached. When there are no more pages the current page 
+		 * is null and the directory is closed.
+		 */
+		void getNextPage() throws SftpStatusException, SshException {
+			currentPage = null;
+			index = 0;
 			try {
-				getNextPage();
-			} catch (EOFException e) {
+				while (currentPage == null || currentPage.length == 0) {
+					while (!eof && requests.size() < asyncDirectoryRequests) {
+						requests.addLast(sftp.postReadDirectoryRequest(currentFolder.getHandle()));
+					}
+					UnsignedInteger32 requestId = requests.pollFirst();
+					if (requestId == null) {
+						currentPage = null;
+						currentFolder.close();
+						return;
+					}
+					currentPage = sftp.readDirectoryResponse(sftp.getResponse(requestId), 
+							currentFolder.getAbsolutePath());
+					if (currentPage == null) {
+						eof = true;
+					}
+				}
+			} catch (SftpStatusException | SshException e) {
+				currentPage = null;
+				close();
+				throw e;
 			}
-
 		}
-
-		private void getNextPage() throws SftpStatusException, SshException, EOFException {
-			currentPage.clear();
-			int ret = sftp.listChildren(currentFolder, currentPage);
-			if (ret == -1) {
-				currentIterator = null;
-				throw new EOFException();
+		
+		private void close() {
+			UnsignedInteger32 requestId;
+			while ((requestId = requests.pollFirst()) != null) {
+				try {
+					sftp.getResponse(requestId).release();
+				} catch (SshException e) {
+					return;
+				}
+			}
+			try {
+				currentFolder.close();
+			} catch (SftpStatusException | SshException e) {
 			}
-			currentIterator = currentPage.iterator();
 		}
 
 		@Override
 		public boolean hasNext() {
-			if (currentIterator != null && currentIterator.hasNext()) {
-				return true;
-			}
-			return false;
+			return currentPage != null && index < currentPage.length;
 		}
 
 		@Override
 		public SftpFile next() {
-			if (currentIterator == null) {
+			if (!hasNext()) {
 				throw new NoSuchElementException();
 			}
 
-			SftpFile ret = null;
-			if (currentIterator.hasNext()) {
-				ret = currentIterator.next();
-			}
+			SftpFile ret = currentPage[index++];
 
-			if (!currentIterator.hasNext()) {
+			if (index == currentPage.length) {
 				try {
 					getNextPage();
-				} catch (EOFException e) {
-					if (ret == null) {
-						throw new NoSuchElementException();
-					}
 				} catch (SftpStatusException | SshException e) {
 					throw new NoSuchElementException(e.getMessage());
 				}
-
-				if (ret == null) {
-					ret = currentIterator.next();
-				}
 			}
 
 			return ret;
@@ -3691,6 +4869,8 @@ public class SftpClient {
 			channel.getOKRequestStatus(requestId);
 		} catch(IOException e) {
 			throw new SshException(e);
+		} finally {
+			invalidate(resolveRemotePath(dst));
 		}
 	}
 	
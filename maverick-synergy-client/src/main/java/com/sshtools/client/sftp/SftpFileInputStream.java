@@ -26,17 +26,20 @@ import java.util.Vector;
 import com.sshtools.common.sftp.SftpStatusException;
 import com.sshtools.common.ssh.SshException;
 import com.sshtools.common.ssh.SshIOException;
-import com.sshtools.common.util.UnsignedInteger32;
 
 /**
  * An InputStream to read the contents of a remote file.
  */
 public class SftpFileInputStream extends InputStream {
 
+	static final int MAX_REQUESTS = 100;
+	static final int BLOCKSIZE = 32768;
+
 	SftpFile file;
 	SftpChannel sftp;
 	long position;
-	Vector<UnsignedInteger32> outstandingRequests = new Vector<UnsignedInteger32>();
+	Vector<SftpChannel.OptimizedRequest> outstandingRequests = new Vector<SftpChannel.OptimizedRequest>();
+	TransferWindow window;
 	SftpMessage currentMessage;
 	int currentMessageRemaining;
 	boolean isEOF = false;
@@ -78,6 +81,8 @@ public class SftpFileInputStream extends InputStream {
 		this.file = file;
 		this.position = position;
 		this.sftp = file.getSFTPChannel();
+		this.window = new TransferWindow(MAX_REQUESTS, BLOCKSIZE, 
+				sftp.getMaximumLocalWindowSize(), null);
 	}
 
 	/*
@@ -90,7 +95,6 @@ public class SftpFileInputStream extends InputStream {
 		try {
 
 			if (isEOF && currentMessageRemaining == 0) {
-				currentMessage.release();
 				return -1;
 			}
 
@@ -144,12 +148,13 @@ public class SftpFileInputStream extends InputStream {
 			
 			bufferMoreData();
 
-			UnsignedInteger32 requestid = outstandingRequests.remove(0);
+			SftpChannel.OptimizedRequest request = outstandingRequests.remove(0);
 
-			currentMessage = sftp.getResponse(requestid);
+			currentMessage = sftp.getResponse(request.requestId);
 
 			if (currentMessage.getType() == SftpChannel.SSH_FXP_DATA) {
 				currentMessageRemaining = (int) currentMessage.readInt();
+				window.completed(currentMessageRemaining, System.nanoTime() - request.sent);
 			} else if (currentMessage.getType() == SftpChannel.SSH_FXP_STATUS) {
 				
 				try {
@@ -181,11 +186,22 @@ public class SftpFileInputStream extends InputStream {
 		}
 	}
 
+	/**
+	 * Keep the window of read requests outstanding. When the size of the file is known 
+	 * there is no need to request much beyond its end, one block there is enough to 
+	 * receive EOF. 
+	 */
 	private void bufferMoreData() throws SftpStatusException, SshException {
-		while (outstandingRequests.size() < 100) {
-			outstandingRequests.addElement(sftp.postReadRequest(
-					file.getHandle(), position, 32768));
-			position += 32768;
+		int limit;
+		if(file.attrs != null && file.attrs.hasSize()) {
+			limit = window.getOutstandingRequests(file.attrs.getSize().longValue() - position + 1);
+		} else {
+			limit = window.getOutstandingRequests();
+		}
+		while (outstandingRequests.size() < limit) {
+			outstandingRequests.addElement(new SftpChannel.OptimizedRequest(
+					sftp.postReadRequest(file.getHandle(), position, BLOCKSIZE), position, BLOCKSIZE));
+			position += BLOCKSIZE;
 		}
 	}
 	
@@ -212,12 +228,10 @@ public class SftpFileInputStream extends InputStream {
 		try {
 			file.close();
 
-			UnsignedInteger32 requestid;
+			SftpChannel.OptimizedRequest request;
 			while (!error && outstandingRequests.size() > 0) {
-				requestid = (UnsignedInteger32) outstandingRequests
-						.elementAt(0);
-				outstandingRequests.remove(0);
-				sftp.getResponse(requestid).release();
+				request = outstandingRequests.remove(0);
+				sftp.getResponse(request.requestId).release();
 			}
 		} catch (SshException ex) {
 			throw new SshIOException(ex);
@@ -28,9 +28,14 @@ public class SftpMessage extends ByteArrayReader implements Message {
 
       int type;
       int requestId;
+      boolean released;
 
       SftpMessage(byte[] msg) throws IOException {
-          super(msg);
+          this(msg, msg.length);
+      }
+      
+      SftpMessage(byte[] msg, int length) throws IOException {
+          super(msg, 0, length);
           type = read();
           requestId = (int) readInt();
       }
@@ -43,7 +48,15 @@ public class SftpMessage extends ByteArrayReader implements Message {
           return requestId;
       }
 
-      public void release() {
+      /**
+       * Return the buffer to the pool. The pool hands it to the next message 
+       * read, so a buffer released twice would be shared by two messages.
+       */
+      public synchronized void release() {
+    	  if(released) {
+    		  return;
+    	  }
+    	  released = true;
     	  ByteArrays.getInstance().releaseByteArray(super.buf);
     	  close();
       }
@@ -0,0 +1,223 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.sftp;
+
+import java.util.concurrent.TimeUnit;
+
+import com.sshtools.client.tasks.FileTransferProgress;
+
+/**
+ * <p>
+ * Controls how many requests a transfer keeps outstanding and how large they are. The 
+ * window starts small and grows quickly while round trip times stay close to the lowest 
+ * seen, then more slowly once it has been reduced, much like TCP slow start and congestion 
+ * avoidance. When round trips take well over the lowest seen, requests are queueing somewhere 
+ * and adding more only adds delay, so the window is reduced.
+ * </p>
+ * 
+ * <p>
+ * The window never exceeds the maximum number of requests it was created with, the channel 
+ * window, or the data left to transfer. Changes are reported to 
+ * {@link FileTransferProgress#windowChanged(int, int, long)}.
+ * </p>
+ */
+public class TransferWindow {
+
+	static final int INITIAL_REQUESTS = 4;
+	static final int MIN_BLOCKSIZE = 4096;
+	static final long MIN_QUEUEING_DELAY = TimeUnit.MILLISECONDS.toNanos(10);
+	
+	final int maxRequests;
+	final int minBlocksize;
+	int maxBlocksize;
+	final long channelWindow;
+	final FileTransferProgress progress;
+	
+	double window;
+	int blocksize;
+	boolean slowStart = true;
+	long minRoundTrip = Long.MAX_VALUE;
+	long roundTrip;
+	int completedSinceReduced;
+	long transfered;
+	final long started = System.nanoTime();
+	
+	int reportedRequests;
+	int reportedBlocksize;
+	
+	/**
+	 * Create a window.
+	 * 
+	 * @param maxRequests
+	 *            the most requests that may be outstanding
+	 * @param blocksize
+	 *            the largest block to request, the window starts with blocks of this size
+	 * @param channelWindow
+	 *            the window of the channel the data is sent through, which outstanding 
+	 *            requests should not exceed
+	 * @param progress
+	 *            receives changes to the window, may be null
+	 */
+	public TransferWindow(int maxRequests, int blocksize, long channelWindow, FileTransferProgress progress) {
+		this.maxRequests = Math.max(1, maxRequests);
+		this.blocksize = blocksize;
+		this.maxBlocksize = blocksize;
+		this.minBlocksize = Math.min(blocksize, MIN_BLOCKSIZE);
+		this.channelWindow = channelWindow;
+		this.progress = progress;
+		this.window = Math.min(INITIAL_REQUESTS, this.maxRequests);
+	}
+	
+	/**
+	 * The number of requests that should be outstanding.
+	 * 
+	 * @return int
+	 */
+	public synchronized int getOutstandingRequests() {
+		return (int) Math.min(window, getLimit());
+	}
+	
+	/**
+	 * The number of requests that should be outstanding when only remaining bytes are left to request.
+	 * 
+	 * @param remaining
+	 * @return int
+	 */
+	public synchronized int getOutstandingRequests(long remaining) {
+		return (int) Math.max(1, Math.min(getOutstandingRequests(), (remaining + blocksize - 1) / blocksize));
+	}
+	
+	/**
+	 * The size of the next block to request.
+	 * 
+	 * @return int
+	 */
+	public synchronized int getBlockSize() {
+		return blocksize;
+	}
+	
+	/**
+	 * The smoothed round trip time of requests in milliseconds.
+	 * 
+	 * @return long
+	 */
+	public synchronized long getRoundTripTime() {
+		return TimeUnit.NANOSECONDS.toMillis(roundTrip);
+	}
+	
+	/**
+	 * The lowest round trip time of any request in milliseconds.
+	 * 
+	 * @return long
+	 */
+	public synchronized long getMinimumRoundTripTime() {
+		return minRoundTrip == Long.MAX_VALUE ? 0 : TimeUnit.NANOSECONDS.toMillis(minRoundTrip);
+	}
+	
+	/**
+	 * The average rate of the transfer so far.
+	 * 
+	 * @return long
+	 */
+	public synchronized long getBytesPerSecond() {
+		long elapsed = System.nanoTime() - started;
+		return elapsed <= 0 ? 0 : (long) (transfered * (double) TimeUnit.SECONDS.toNanos(1) / elapsed);
+	}
+	
+	/**
+	 * Limit the block size, for example when the server returns less data than was asked for.
+	 * 
+	 * @param maxBlocksize
+	 */
+	public synchronized void limitBlockSize(int maxBlocksize) {
+		this.maxBlocksize = Math.max(1, Math.min(this.maxBlocksize, maxBlocksize));
+		blocksize = Math.min(blocksize, this.maxBlocksize);
+		report();
+	}
+	
+	/**
+	 * Record the completion of a request and adjust the window.
+	 * 
+	 * @param bytes
+	 *            the number of bytes the request transferred
+	 * @param roundTripNanos
+	 *            the time from sending the request to receiving its response
+	 */
+	public synchronized void completed(int bytes, long roundTripNanos) {
+		
+		transfered += bytes;
+		minRoundTrip = Math.min(minRoundTrip, roundTripNanos);
+		roundTrip = roundTrip == 0 ? roundTripNanos : (7 * roundTrip + roundTripNanos) / 8;
+		completedSinceReduced++;
+		
+		long queueing = roundTrip - minRoundTrip;
+		if(queueing > Math.max(minRoundTrip, MIN_QUEUEING_DELAY)) {
+			/**
+			 * Reduce at most once per window of requests, the requests already 
+			 * outstanding were sent before the last reduction took effect.
+			 */
+			if(completedSinceReduced >= window) {
+				slowStart = false;
+				completedSinceReduced = 0;
+				if(window > 1) {
+					window = Math.max(1, window * 3 / 4);
+				} else {
+					blocksize = Math.max(minBlocksize, blocksize / 2);
+				}
+			}
+		} else {
+			if(slowStart) {
+				window += 1;
+			} else {
+				window += 1 / window;
+			}
+			
+			double limit = getLimit();
+			if(window >= limit) {
+				window = limit;
+				if(blocksize < maxBlocksize) {
+					blocksize = Math.min(maxBlocksize, blocksize * 2);
+				}
+			}
+		}
+		
+		report();
+	}
+	
+	private double getLimit() {
+		return Math.max(1, Math.min(maxRequests, channelWindow / blocksize));
+	}
+	
+	private void report() {
+		if(progress == null) {
+			return;
+		}
+		int requests = getOutstandingRequests();
+		if(requests != reportedRequests || blocksize != reportedBlocksize) {
+			reportedRequests = requests;
+			reportedBlocksize = blocksize;
+			progress.windowChanged(requests, blocksize, getRoundTripTime());
+		}
+	}
+	
+	public String toString() {
+		return "requests=" + getOutstandingRequests() + " blocksize=" + getBlockSize() 
+				+ " rtt=" + getRoundTripTime() + "ms minRtt=" + getMinimumRoundTripTime() + "ms";
+	}
+}
@@ -43,6 +43,7 @@ public abstract class AbstractSubsystem {
 	
 	protected long timeout = 60000;
 	DataInputStream in;
+	int messageLength;
 	UUID taskUUID = UUID.randomUUID();
 	protected SshConnection con;
 	protected SessionChannelNG session;
@@ -82,10 +83,27 @@ public abstract class AbstractSubsystem {
 
 	protected abstract int getMaximumPacketSize();
 
+	/**
+	 * The connection this subsystem's channel was opened on.
+	 * 
+	 * @return SshConnection
+	 */
+	public SshConnection getConnection() {
+		return con;
+	}
+	
 	protected SessionChannelNG getSession() {
 		return (SessionChannelNG) con.getProperty(taskUUID.toString());
 	}
 	
+	/**
+	 * The length of the message last returned by {@link #nextMessage()}, the array 
+	 * comes from a pool and may be larger.
+	 */
+	protected int getMessageLength() {
+		return messageLength;
+	}
+	
 	public byte[] nextMessage() throws SshException {
 		
 		int len = -1; 
@@ -102,6 +120,7 @@ public abstract class AbstractSubsystem {
 
 	        byte[] msg = ByteArrays.getInstance().getByteArray();
 	        in.readFully(msg, 0, len);
+	        messageLength = len;
 
 	        return msg;
 	    } catch(OutOfMemoryError ex) {
@@ -59,4 +59,14 @@ public interface FileTransferProgress {
    * The transfer has completed.
    */
   public void completed();
+  
+  /**
+   * The number of requests kept outstanding, or their size, has changed.
+   * 
+   * @param outstandingRequests the number of requests now kept outstanding
+   * @param blocksize the size of each request in bytes
+   * @param roundTripTime the smoothed round trip time of requests in milliseconds
+   */
+  default void windowChanged(int outstandingRequests, int blocksize, long roundTripTime) {
+  }
 }
@@ -0,0 +1,242 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.sshtools.common.publickey.SshKeyPairGenerator;
+import com.sshtools.common.ssh.SshException;
+import com.sshtools.common.util.IOUtils;
+import com.sshtools.server.InMemoryPasswordAuthenticator;
+import com.sshtools.server.SshServer;
+import com.sshtools.server.SshServerContext;
+import com.sshtools.synergy.nio.SshEngineContext;
+
+import junit.framework.TestCase;
+
+/**
+ * Connects SOCKS clients through dynamic forwarding to an echo server on the loopback 
+ * interface.
+ */
+public class DynamicForwardingTests extends TestCase {
+
+	SshServer server;
+	SshClient ssh;
+	ServerSocket echo;
+	int socksPort;
+	
+	protected void setUp() throws Exception {
+		
+		server = new SshServer("127.0.0.1", 0) {
+			@Override
+			public SshServerContext createContext(SshEngineContext daemonContext, SocketChannel sc)
+					throws IOException, SshException {
+				SshServerContext context = super.createContext(daemonContext, sc);
+				context.getForwardingPolicy().allowForwarding();
+				return context;
+			}
+		};
+		server.addHostKey(SshKeyPairGenerator.generateKeyPair(SshKeyPairGenerator.ECDSA, 256));
+		server.addAuthenticator(new InMemoryPasswordAuthenticator().addUser("test", "test".toCharArray()));
+		server.start();
+		
+		echo = new ServerSocket(0);
+		Thread t = new Thread() {
+			public void run() {
+				try {
+					while(true) {
+						final Socket s = echo.accept();
+						Thread e = new Thread() {
+							public void run() {
+								try {
+									IOUtils.copy(s.getInputStream(), s.getOutputStream());
+								} catch (IOException e) {
+								} finally {
+									IOUtils.closeStream(s);
+								}
+							}
+						};
+						e.setDaemon(true);
+						e.start();
+					}
+				} catch (IOException e) {
+				}
+			}
+		};
+		t.setDaemon(true);
+		t.start();
+		
+		SshClientContext context = new SshClientContext();
+		context.getAuthenticators().add(new PasswordAuthenticator("test"));
+		context.getForwardingPolicy().allowForwarding();
+		ssh = new SshClient("127.0.0.1", server.getPort(), "test", context, 30000L);
+		socksPort = ssh.startDynamicForwarding("127.0.0.1", 0);
+	}
+	
+	protected void tearDown() throws Exception {
+		try {
+			if(ssh != null) {
+				ssh.close();
+			}
+		} finally {
+			server.stop();
+			echo.close();
+		}
+	}
+	
+	public void testSocks5Connect() throws IOException {
+		
+		Socket s = new Socket("127.0.0.1", socksPort);
+		try {
+			s.setSoTimeout(10000);
+			OutputStream out = s.getOutputStream();
+			DataInputStream in = new DataInputStream(s.getInputStream());
+			
+			out.write(new byte[] { 5, 1, 0 });
+			assertEquals(5, in.read());
+			assertEquals(0, in.read());
+			
+			/**
+			 * Send the request a byte at a time so it is read over several events.
+			 */
+			byte[] request = socks5Request(1, echo.getLocalPort());
+			for(byte b : request) {
+				out.write(b);
+				out.flush();
+				sleep(10);
+			}
+			
+			byte[] reply = new byte[10];
+			in.readFully(reply);
+			assertEquals(5, reply[0]);
+			assertEquals(0, reply[1]);
+			
+			assertEcho(out, in);
+		} finally {
+			s.close();
+		}
+	}
+	
+	public void testSocks4aConnect() throws IOException {
+		
+		Socket s = new Socket("127.0.0.1", socksPort);
+		try {
+			s.setSoTimeout(10000);
+			OutputStream out = s.getOutputStream();
+			DataInputStream in = new DataInputStream(s.getInputStream());
+			
+			int port = echo.getLocalPort();
+			out.write(new byte[] { 4, 1, (byte) (port >> 8), (byte) port, 0, 0, 0, 1, 'u', 0 });
+			out.write("localhost".getBytes("US-ASCII"));
+			out.write(0);
+			
+			byte[] reply = new byte[8];
+			in.readFully(reply);
+			assertEquals(0, reply[0]);
+			assertEquals(0x5A, reply[1] & 0xFF);
+			
+			assertEcho(out, in);
+		} finally {
+			s.close();
+		}
+	}
+	
+	public void testUnsupportedCommandIsRefused() throws IOException {
+		
+		Socket s = new Socket("127.0.0.1", socksPort);
+		try {
+			s.setSoTimeout(10000);
+			OutputStream out = s.getOutputStream();
+			DataInputStream in = new DataInputStream(s.getInputStream());
+			
+			out.write(new byte[] { 5, 1, 0 });
+			out.write(socks5Request(2, echo.getLocalPort()));
+			
+			assertEquals(5, in.read());
+			assertEquals(0, in.read());
+			
+			byte[] reply = new byte[10];
+			in.readFully(reply);
+			assertEquals(5, reply[0]);
+			assertEquals(7, reply[1]);
+			assertEquals(-1, in.read());
+		} finally {
+			s.close();
+		}
+	}
+	
+	/**
+	 * Clients that have not finished their request must not hold up other clients.
+	 */
+	public void testIncompleteRequestsDoNotBlock() throws IOException {
+		
+		List<Socket> idle = new ArrayList<Socket>();
+		try {
+			int threads = Thread.activeCount();
+			for(int i=0;i<50;i++) {
+				Socket s = new Socket("127.0.0.1", socksPort);
+				s.getOutputStream().write(new byte[] { 5 });
+				idle.add(s);
+			}
+			sleep(500);
+			assertTrue(Thread.activeCount() - threads < 25);
+			
+			long started = System.currentTimeMillis();
+			testSocks5Connect();
+			assertTrue(System.currentTimeMillis() - started < 10000);
+		} finally {
+			for(Socket s : idle) {
+				s.close();
+			}
+		}
+	}
+	
+	private static byte[] socks5Request(int cmd, int port) {
+		return new byte[] { 5, (byte) cmd, 0, 1, 127, 0, 0, 1, (byte) (port >> 8), (byte) port };
+	}
+	
+	private static void assertEcho(OutputStream out, InputStream in) throws IOException {
+		byte[] data = new byte[65536];
+		for(int i=0;i<data.length;i++) {
+			data[i] = (byte) i;
+		}
+		out.write(data);
+		out.flush();
+		byte[] received = new byte[data.length];
+		new DataInputStream(in).readFully(received);
+		for(int i=0;i<data.length;i++) {
+			assertEquals(data[i], received[i]);
+		}
+	}
+	
+	private static void sleep(long ms) {
+		try {
+			Thread.sleep(ms);
+		} catch (InterruptedException e) {
+		}
+	}
+}
@@ -0,0 +1,360 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.sshtools.common.publickey.SshKeyPairGenerator;
+import com.sshtools.common.ssh.SshConnection;
+import com.sshtools.common.ssh.SshException;
+import com.sshtools.common.util.ByteBufferPool;
+import com.sshtools.common.util.IOUtils;
+import com.sshtools.server.DefaultServerChannelFactory;
+import com.sshtools.server.InMemoryPasswordAuthenticator;
+import com.sshtools.server.SshServer;
+import com.sshtools.server.SshServerContext;
+import com.sshtools.synergy.nio.SshEngineContext;
+import com.sshtools.synergy.ssh.ChannelNG;
+import com.sshtools.synergy.ssh.LocalForwardingChannel;
+
+import junit.framework.TestCase;
+
+/**
+ * Local forwarding that reads the accepted socket while the channel open is in flight.
+ * The server holds each open until the test releases it, and the client's forwarding
+ * buffers are tracked to see what has been read but not yet sent.
+ */
+public class OptimisticChannelOpenTests extends TestCase {
+
+	static final int MAX_WINDOW = 100000;
+
+	SshServer server;
+	SshClient ssh;
+	ServerSocket echo;
+	TrackingBufferPool pool;
+	int forwardedPort;
+
+	/**
+	 * What each connection to the echo server received before it ended. The server 
+	 * closes the connection once the client's EOF arrives.
+	 */
+	final BlockingQueue<byte[]> received = new LinkedBlockingQueue<byte[]>();
+	
+	final CountDownLatch opening = new CountDownLatch(1);
+	final CountDownLatch release = new CountDownLatch(1);
+	volatile boolean permitted = true;
+
+	protected void setUp() throws Exception {
+
+		server = new SshServer("127.0.0.1", 0) {
+			@Override
+			public SshServerContext createContext(SshEngineContext daemonContext, SocketChannel sc)
+					throws IOException, SshException {
+				SshServerContext context = super.createContext(daemonContext, sc);
+				context.getForwardingPolicy().allowForwarding();
+				return context;
+			}
+		};
+		server.setChannelFactory(new DefaultServerChannelFactory() {
+			protected ChannelNG<SshServerContext> createLocalForwardingChannel(SshConnection con) {
+				return new HeldForwardingChannel(con);
+			}
+		});
+		server.addHostKey(SshKeyPairGenerator.generateKeyPair(SshKeyPairGenerator.ECDSA, 256));
+		server.addAuthenticator(new InMemoryPasswordAuthenticator().addUser("test", "test".toCharArray()));
+		server.start();
+
+		echo = new ServerSocket(0);
+		Thread t = new Thread() {
+			public void run() {
+				try {
+					while(true) {
+						final Socket s = echo.accept();
+						Thread e = new Thread() {
+							public void run() {
+								ByteArrayOutputStream data = new ByteArrayOutputStream();
+								try {
+									InputStream in = s.getInputStream();
+									OutputStream out = s.getOutputStream();
+									byte[] buf = new byte[8192];
+									int r;
+									while((r = in.read(buf)) > -1) {
+										data.write(buf, 0, r);
+										out.write(buf, 0, r);
+									}
+								} catch (IOException e) {
+								} finally {
+									received.add(data.toByteArray());
+									IOUtils.closeStream(s);
+								}
+							}
+						};
+						e.setDaemon(true);
+						e.start();
+					}
+				} catch (IOException e) {
+				}
+			}
+		};
+		t.setDaemon(true);
+		t.start();
+
+		TrackingContext context = new TrackingContext();
+		context.getAuthenticators().add(new PasswordAuthenticator("test"));
+		context.getForwardingPolicy().allowForwarding();
+		context.getForwardingPolicy().setOptimisticChannelOpen(true);
+		context.getForwardingPolicy().setForwardingMaxWindowSize(MAX_WINDOW);
+		pool = context.pool;
+
+		ssh = new SshClient("127.0.0.1", server.getPort(), "test", context, 30000L);
+		forwardedPort = ssh.startLocalForwarding("127.0.0.1", 0, "127.0.0.1", echo.getLocalPort());
+	}
+
+	protected void tearDown() throws Exception {
+		release.countDown();
+		try {
+			if(ssh != null) {
+				ssh.close();
+			}
+		} finally {
+			server.stop();
+			echo.close();
+		}
+	}
+
+	/**
+	 * Connect to the forwarded port and wait for the open request to reach the server.
+	 */
+	Socket connect() throws Exception {
+		Socket s = new Socket("127.0.0.1", forwardedPort);
+		s.setSoTimeout(10000);
+		assertTrue(opening.await(10, TimeUnit.SECONDS));
+		return s;
+	}
+
+	void waitForQueuedBytes(int count) throws InterruptedException {
+		long timeout = System.currentTimeMillis() + 10000;
+		while(pool.getQueuedBytes() != count && System.currentTimeMillis() < timeout) {
+			Thread.sleep(50);
+		}
+		assertEquals(count, pool.getQueuedBytes());
+	}
+
+	public void testQueuedDataSentOnConfirmation() throws Exception {
+
+		Socket s = connect();
+		try {
+			byte[] data = createData(1000);
+			s.getOutputStream().write(data);
+			waitForQueuedBytes(data.length);
+
+			release.countDown();
+
+			byte[] received = new byte[data.length];
+			new DataInputStream(s.getInputStream()).readFully(received);
+			assertTrue(Arrays.equals(data, received));
+		} finally {
+			s.close();
+		}
+	}
+
+	/**
+	 * EOF read while the channel is opening is only sent after the data read before it,
+	 * so the destination receives all of the data before the connection ends.
+	 */
+	public void testEOFDeferredUntilQueuedDataSent() throws Exception {
+
+		Socket s = connect();
+		try {
+			byte[] data = createData(1000);
+			s.getOutputStream().write(data);
+			s.shutdownOutput();
+			waitForQueuedBytes(data.length);
+
+			release.countDown();
+
+			byte[] forwarded = received.poll(10, TimeUnit.SECONDS);
+			assertNotNull(forwarded);
+			assertTrue(Arrays.equals(data, forwarded));
+		} finally {
+			s.close();
+		}
+	}
+
+	/**
+	 * A refused open resets the socket, so the client does not mistake it for an
+	 * empty response, and returns the buffers that were queued.
+	 */
+	public void testRefusedOpenResetsSocket() throws Exception {
+
+		permitted = false;
+		Socket s = connect();
+		try {
+			s.getOutputStream().write(createData(1000));
+			waitForQueuedBytes(1000);
+
+			release.countDown();
+
+			try {
+				s.getInputStream().read();
+				fail("Expected the connection to be reset");
+			} catch(SocketException e) {
+			}
+
+			long timeout = System.currentTimeMillis() + 10000;
+			while(pool.getOutstandingBuffers() > 0 && System.currentTimeMillis() < timeout) {
+				Thread.sleep(50);
+			}
+			assertEquals(0, pool.getOutstandingBuffers());
+		} finally {
+			s.close();
+		}
+	}
+
+	/**
+	 * Reading stops once a window's worth of data is queued, and the rest is read once
+	 * the channel is confirmed.
+	 */
+	public void testReadingStopsAtMaximumWindow() throws Exception {
+
+		final Socket s = connect();
+		try {
+			final byte[] data = createData(4 * MAX_WINDOW);
+			Thread writer = new Thread() {
+				public void run() {
+					try {
+						OutputStream out = s.getOutputStream();
+						out.write(data);
+						out.flush();
+					} catch (IOException e) {
+					}
+				}
+			};
+			writer.setDaemon(true);
+			writer.start();
+
+			waitForQueuedBytes(MAX_WINDOW);
+			Thread.sleep(500);
+			assertEquals(MAX_WINDOW, pool.getQueuedBytes());
+
+			release.countDown();
+
+			byte[] received = new byte[data.length];
+			new DataInputStream(s.getInputStream()).readFully(received);
+			assertTrue(Arrays.equals(data, received));
+		} finally {
+			s.close();
+		}
+	}
+
+	static byte[] createData(int length) {
+		byte[] data = new byte[length];
+		for(int i=0;i<data.length;i++) {
+			data[i] = (byte) i;
+		}
+		return data;
+	}
+
+	/**
+	 * Waits for the test before deciding whether the open is permitted.
+	 */
+	class HeldForwardingChannel extends LocalForwardingChannel<SshServerContext> {
+
+		HeldForwardingChannel(SshConnection con) {
+			super(LocalForwardingChannel.LOCAL_FORWARDING_CHANNEL_TYPE, con);
+		}
+
+		@Override
+		protected boolean checkPermissions() {
+			opening.countDown();
+			try {
+				release.await(30, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+			}
+			return permitted;
+		}
+	}
+
+	class TrackingContext extends SshClientContext {
+
+		final TrackingBufferPool pool;
+
+		TrackingContext() throws IOException, SshException {
+			pool = new TrackingBufferPool(getForwardingPolicy().getForwardingMaxPacketSize());
+			forwardingBufferPool = pool;
+		}
+	}
+
+	/**
+	 * Tracks the buffers handed out and not yet returned. Once read into, a forwarding
+	 * buffer is flipped and queued, so its remaining bytes are waiting to be sent.
+	 */
+	static class TrackingBufferPool extends ByteBufferPool {
+
+		final Set<ByteBuffer> outstanding = Collections.newSetFromMap(new IdentityHashMap<ByteBuffer, Boolean>());
+
+		TrackingBufferPool(int capacity) {
+			super(capacity, false);
+		}
+
+		@Override
+		public synchronized ByteBuffer get() {
+			ByteBuffer buf = super.get();
+			outstanding.add(buf);
+			return buf;
+		}
+
+		@Override
+		public synchronized void add(ByteBuffer buffer) {
+			outstanding.remove(buffer);
+			super.add(buffer);
+		}
+
+		synchronized int getOutstandingBuffers() {
+			return outstanding.size();
+		}
+
+		synchronized int getQueuedBytes() {
+			int count = 0;
+			for(ByteBuffer buf : outstanding) {
+				if(buf.position() == 0) {
+					count += buf.remaining();
+				}
+			}
+			return count;
+		}
+	}
+}
@@ -0,0 +1,264 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sshtools.common.publickey.SshKeyPairGenerator;
+import com.sshtools.common.shell.ShellPolicy;
+import com.sshtools.common.ssh.Channel;
+import com.sshtools.common.ssh.ChannelEventListener;
+import com.sshtools.common.ssh.ConnectionAwareTask;
+import com.sshtools.common.ssh.SshConnection;
+import com.sshtools.common.ssh.SshException;
+import com.sshtools.common.util.IOUtils;
+import com.sshtools.server.DefaultServerChannelFactory;
+import com.sshtools.server.InMemoryPasswordAuthenticator;
+import com.sshtools.server.SshServer;
+import com.sshtools.server.SshServerContext;
+import com.sshtools.server.UnsupportedSession;
+import com.sshtools.synergy.nio.SshEngineContext;
+import com.sshtools.synergy.ssh.ChannelNG;
+
+import junit.framework.TestCase;
+
+/**
+ * Runs a shell on the server that writes to a session with write coalescing enabled.
+ * The packets are counted as the server sends them, because the client may process a
+ * close before the data that preceded it.
+ */
+public class WriteCoalescingTests extends TestCase {
+
+	static final byte[] WRITE = "0123456789".getBytes();
+
+	SshServer server;
+	SshClient ssh;
+
+	volatile long deadline;
+	volatile boolean withPty;
+	volatile Script script;
+
+	final AtomicInteger packetsOut = new AtomicInteger();
+	final AtomicInteger bytesOut = new AtomicInteger();
+	final CountDownLatch closing = new CountDownLatch(1);
+	volatile int bytesOutAtClose;
+
+	/**
+	 * What the shell does with its session once started.
+	 */
+	interface Script {
+		void run(WriterSession session) throws Exception;
+	}
+
+	protected void setUp() throws Exception {
+
+		server = new SshServer("127.0.0.1", 0) {
+			@Override
+			public SshServerContext createContext(SshEngineContext daemonContext, SocketChannel sc)
+					throws IOException, SshException {
+				SshServerContext context = super.createContext(daemonContext, sc);
+				ShellPolicy policy = context.getPolicy(ShellPolicy.class);
+				policy.setSessionWriteCoalescing(true);
+				policy.setSessionWriteCoalescingDeadline(deadline);
+				policy.setSessionWriteCoalescingWithPty(withPty);
+				return context;
+			}
+		};
+		server.setChannelFactory(new DefaultServerChannelFactory() {
+			protected ChannelNG<SshServerContext> createSessionChannel(SshConnection con) {
+				return new WriterSession(con);
+			}
+		});
+		server.addHostKey(SshKeyPairGenerator.generateKeyPair(SshKeyPairGenerator.ECDSA, 256));
+		server.addAuthenticator(new InMemoryPasswordAuthenticator().addUser("test", "test".toCharArray()));
+		server.start();
+	}
+
+	protected void tearDown() throws Exception {
+		try {
+			if(ssh != null) {
+				ssh.close();
+			}
+		} finally {
+			server.stop();
+		}
+	}
+
+	/**
+	 * Connect, once the test has configured the server, and start the shell.
+	 */
+	SessionChannelNG startShell(boolean pty) throws IOException, SshException {
+		SshClientContext context = new SshClientContext();
+		context.getAuthenticators().add(new PasswordAuthenticator("test"));
+		ssh = new SshClient("127.0.0.1", server.getPort(), "test", context, 30000L);
+		SessionChannelNG session = ssh.openSessionChannel();
+		if(pty) {
+			assertTrue(session.allocatePseudoTerminal("vt100").waitForever().isSuccess());
+		}
+		assertTrue(session.startShell().waitForever().isSuccess());
+		return session;
+	}
+
+	/**
+	 * Read until the session ends and wait for the server to have sent its close.
+	 */
+	void waitForClose(SessionChannelNG session) throws Exception {
+		IOUtils.copy(session.getInputStream(), new ByteArrayOutputStream());
+		assertTrue(closing.await(10, TimeUnit.SECONDS));
+	}
+
+	static void writeSmall(OutputStream out, int count) throws IOException {
+		for(int i=0;i<count;i++) {
+			out.write(WRITE);
+		}
+	}
+
+	int writeAndClose(boolean pty) throws Exception {
+
+		script = new Script() {
+			public void run(WriterSession session) throws Exception {
+				writeSmall(session.getOutputStream(), 100);
+				session.close();
+			}
+		};
+
+		waitForClose(startShell(pty));
+		assertEquals(100 * WRITE.length, bytesOutAtClose);
+		return packetsOut.get();
+	}
+
+	public void testSmallWritesCoalesced() throws Exception {
+		assertEquals(1, writeAndClose(false));
+	}
+
+	/**
+	 * Interactive sessions with a terminal send each write as it is made, unless the 
+	 * policy allows coalescing them.
+	 */
+	public void testDisabledWithPty() throws Exception {
+		assertEquals(100, writeAndClose(true));
+	}
+
+	public void testEnabledWithPty() throws Exception {
+		withPty = true;
+		assertEquals(1, writeAndClose(true));
+	}
+
+	/**
+	 * Data held in the buffer is sent once the deadline expires, without a flush or close.
+	 */
+	public void testFlushDeadline() throws Exception {
+
+		deadline = 50;
+		final CountDownLatch received = new CountDownLatch(1);
+		final boolean[] receivedBeforeClose = new boolean[1];
+		script = new Script() {
+			public void run(WriterSession session) throws Exception {
+				session.getOutputStream().write(WRITE);
+				receivedBeforeClose[0] = received.await(10, TimeUnit.SECONDS);
+				session.close();
+			}
+		};
+
+		SessionChannelNG session = startShell(false);
+		new DataInputStream(session.getInputStream()).readFully(new byte[WRITE.length]);
+		received.countDown();
+		waitForClose(session);
+		assertTrue(receivedBeforeClose[0]);
+	}
+
+	/**
+	 * EOF requested while holding the channel lock cannot wait to flush the buffer, the
+	 * data is queued ahead of it and EOF is sent before the call returns.
+	 */
+	public void testEOFSentAfterBufferedData() throws Exception {
+
+		final int[] bytesOutAtEOF = new int[1];
+		final boolean[] eof = new boolean[1];
+		script = new Script() {
+			public void run(WriterSession session) throws Exception {
+				writeSmall(session.getOutputStream(), 100);
+				synchronized(session) {
+					session.sendEOF();
+					eof[0] = session.isLocalEOF();
+					bytesOutAtEOF[0] = bytesOut.get();
+				}
+				session.close();
+			}
+		};
+
+		waitForClose(startShell(false));
+		assertTrue(eof[0]);
+		assertEquals(100 * WRITE.length, bytesOutAtEOF[0]);
+		assertEquals(1, packetsOut.get());
+	}
+
+	public void testCloseSentAfterBufferedData() throws Exception {
+
+		final boolean[] closed = new boolean[1];
+		script = new Script() {
+			public void run(WriterSession session) throws Exception {
+				writeSmall(session.getOutputStream(), 100);
+				synchronized(session) {
+					session.close();
+					closed[0] = session.isClosing();
+				}
+			}
+		};
+
+		waitForClose(startShell(false));
+		assertTrue(closed[0]);
+		assertEquals(100 * WRITE.length, bytesOutAtClose);
+	}
+
+	class WriterSession extends UnsupportedSession {
+
+		WriterSession(SshConnection con) {
+			super(con);
+			addEventListener(new ChannelEventListener() {
+				public void onChannelDataOut(Channel channel, ByteBuffer buffer) {
+					packetsOut.incrementAndGet();
+					bytesOut.addAndGet(buffer.remaining());
+				}
+				public void onChannelClosing(Channel channel) {
+					bytesOutAtClose = bytesOut.get();
+					closing.countDown();
+				}
+			});
+		}
+
+		@Override
+		protected boolean startShell() {
+			con.executeTask(new ConnectionAwareTask(con) {
+				protected void doTask() throws Throwable {
+					script.run(WriterSession.this);
+				}
+			});
+			return true;
+		}
+	}
+}
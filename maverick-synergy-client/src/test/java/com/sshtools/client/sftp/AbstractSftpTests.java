@@ -0,0 +1,112 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.sftp;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.util.Random;
+
+import com.sshtools.client.PasswordAuthenticator;
+import com.sshtools.client.SshClient;
+import com.sshtools.client.SshClientContext;
+import com.sshtools.common.files.AbstractFileFactory;
+import com.sshtools.common.files.direct.DirectFileFactory;
+import com.sshtools.common.policy.FileFactory;
+import com.sshtools.common.publickey.SshKeyPairGenerator;
+import com.sshtools.common.ssh.SshConnection;
+import com.sshtools.common.ssh.SshException;
+import com.sshtools.common.util.FileUtils;
+import com.sshtools.server.InMemoryPasswordAuthenticator;
+import com.sshtools.server.SshServer;
+import com.sshtools.server.SshServerContext;
+import com.sshtools.synergy.nio.SshEngineContext;
+
+import junit.framework.TestCase;
+
+/**
+ * Runs an SFTP server on the loopback interface, serving a temporary folder, and 
+ * connects an {@link SftpClient} to it.
+ */
+public abstract class AbstractSftpTests extends TestCase {
+
+	protected File remoteFolder;
+	protected File localFolder;
+	protected SshServer server;
+	protected SshClient ssh;
+	protected SftpClient sftp;
+	
+	protected void setUp() throws Exception {
+		
+		remoteFolder = Files.createTempDirectory("sftp-remote").toFile();
+		localFolder = Files.createTempDirectory("sftp-local").toFile();
+		
+		server = new SshServer("127.0.0.1", 0) {
+			@Override
+			public SshServerContext createContext(SshEngineContext daemonContext, SocketChannel sc)
+					throws IOException, SshException {
+				SshServerContext context = super.createContext(daemonContext, sc);
+				configureServer(context);
+				return context;
+			}
+		};
+		server.addHostKey(SshKeyPairGenerator.generateKeyPair(SshKeyPairGenerator.ECDSA, 256));
+		server.addAuthenticator(new InMemoryPasswordAuthenticator().addUser("test", "test".toCharArray()));
+		server.setFileFactory(new FileFactory() {
+			public AbstractFileFactory<?> getFileFactory(SshConnection con) {
+				return new DirectFileFactory(remoteFolder);
+			}
+		});
+		server.start();
+		
+		SshClientContext context = new SshClientContext();
+		context.getAuthenticators().add(new PasswordAuthenticator("test"));
+		ssh = new SshClient("127.0.0.1", server.getPort(), "test", context, 30000L);
+		sftp = new SftpClient(ssh, new DirectFileFactory(localFolder));
+	}
+	
+	/**
+	 * Override to change the policies of the server for each connection.
+	 */
+	protected void configureServer(SshServerContext context) throws IOException, SshException {
+	}
+	
+	protected void tearDown() throws Exception {
+		try {
+			if(sftp != null) {
+				sftp.quit();
+			}
+			if(ssh != null) {
+				ssh.close();
+			}
+		} finally {
+			server.stop();
+			FileUtils.deleteFolder(remoteFolder);
+			FileUtils.deleteFolder(localFolder);
+		}
+	}
+	
+	protected static byte[] createFile(File file, int length, long seed) throws IOException {
+		byte[] data = new byte[length];
+		new Random(seed).nextBytes(data);
+		Files.write(file.toPath(), data);
+		return data;
+	}
+}
@@ -0,0 +1,157 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.sftp;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import com.sshtools.common.events.Event;
+import com.sshtools.common.events.EventCodes;
+import com.sshtools.common.events.EventListener;
+import com.sshtools.common.events.EventServiceImplementation;
+import com.sshtools.common.sftp.SftpFileAttributes;
+import com.sshtools.common.sftp.SftpStatusException;
+import com.sshtools.common.ssh.SshException;
+
+public class AsyncRequestTests extends AbstractSftpTests {
+
+	static final int FILE_COUNT = 20;
+
+	SftpChannel channel;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		channel = sftp.getSubsystemChannel();
+		for(int i=0;i<FILE_COUNT;i++) {
+			createFile(new File(remoteFolder, "file" + i), i * 10, i);
+		}
+	}
+
+	/**
+	 * Every response reaches the future for its own request, whatever the number outstanding.
+	 */
+	public void testManyOutstandingRequests() throws Exception {
+
+		List<CompletableFuture<SftpFileAttributes>> futures = new ArrayList<CompletableFuture<SftpFileAttributes>>();
+		for(int r=0;r<10;r++) {
+			for(int i=0;i<FILE_COUNT;i++) {
+				futures.add(channel.getAttributesAsync(new File(remoteFolder, "file" + i).getAbsolutePath()));
+			}
+		}
+		for(int i=0;i<futures.size();i++) {
+			assertEquals((i % FILE_COUNT) * 10, channel.getResult(futures.get(i)).getSize().longValue());
+		}
+	}
+
+	public void testFailedRequest() throws Exception {
+
+		try {
+			channel.getResult(channel.getAttributesAsync(new File(remoteFolder, "missing").getAbsolutePath()));
+			fail("Expected the stat of a missing file to fail");
+		} catch(SftpStatusException e) {
+			assertEquals(SftpStatusException.SSH_FX_NO_SUCH_FILE, e.getStatus());
+		}
+	}
+
+	/**
+	 * A dependent action runs off the reader, so it can wait for a request of its own.
+	 */
+	public void testContinuationMakesRequest() throws Exception {
+
+		final String second = new File(remoteFolder, "file2").getAbsolutePath();
+		CompletableFuture<SftpFileAttributes> future = channel.getAttributesAsync(
+				new File(remoteFolder, "file1").getAbsolutePath()).thenApply(
+						new Function<SftpFileAttributes, SftpFileAttributes>() {
+			public SftpFileAttributes apply(SftpFileAttributes attrs) {
+				assertNotSame(channel.readerThread, Thread.currentThread());
+				try {
+					return channel.getAttributes(second);
+				} catch (SftpStatusException | SshException e) {
+					throw new CompletionException(e);
+				}
+			}
+		});
+
+		assertEquals(20, future.get(30, TimeUnit.SECONDS).getSize().longValue());
+	}
+
+	/**
+	 * Chained requests complete without blocking the responses they depend on.
+	 */
+	public void testChainedRequests() throws Exception {
+
+		final String dir = new File(remoteFolder, "dir").getAbsolutePath();
+		final String renamed = new File(remoteFolder, "renamed").getAbsolutePath();
+		channel.makeDirectoryAsync(dir, new SftpFileAttributes(SftpFileAttributes.SSH_FILEXFER_TYPE_DIRECTORY, "UTF-8"))
+			.thenCompose(new Function<Void, CompletableFuture<Void>>() {
+				public CompletableFuture<Void> apply(Void v) {
+					return channel.renameFileAsync(dir, renamed, 0);
+				}
+			}).get(30, TimeUnit.SECONDS);
+
+		assertFalse(new File(dir).exists());
+		assertTrue(new File(renamed).isDirectory());
+	}
+
+	/**
+	 * Listeners may use the channel when an event is fired for an asynchronous request.
+	 */
+	public void testEventListenerMakesRequest() throws Exception {
+
+		final String removed = new File(remoteFolder, "file3").getAbsolutePath();
+		final String other = new File(remoteFolder, "file4").getAbsolutePath();
+		final List<Object> results = new ArrayList<Object>();
+
+		EventListener listener = new EventListener() {
+			public void processEvent(Event evt) {
+				// The server fires its own events in this JVM
+				if(evt.getSource() != channel || evt.getId() != EventCodes.EVENT_SFTP_FILE_DELETED) {
+					return;
+				}
+				try {
+					synchronized(results) {
+						results.add(channel.getAttributes(other).getSize().longValue());
+					}
+				} catch (Exception e) {
+					synchronized(results) {
+						results.add(e);
+					}
+				}
+			}
+		};
+
+		EventServiceImplementation.getInstance().addListener(listener);
+		try {
+			channel.removeFileAsync(removed).get(30, TimeUnit.SECONDS);
+		} finally {
+			EventServiceImplementation.getInstance().removeListener(listener);
+		}
+
+		assertFalse(new File(removed).exists());
+		synchronized(results) {
+			assertEquals(1, results.size());
+			assertEquals(40L, results.get(0));
+		}
+	}
+}
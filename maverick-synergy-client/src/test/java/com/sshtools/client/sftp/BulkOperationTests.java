@@ -0,0 +1,126 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.sftp;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.sshtools.common.sftp.SftpFileAttributes;
+import com.sshtools.common.sftp.SftpStatusException;
+import com.sshtools.common.util.UnsignedInteger64;
+
+public class BulkOperationTests extends AbstractSftpTests {
+
+	static final int FILE_COUNT = 25;
+	
+	List<String> names = new ArrayList<String>();
+	
+	protected void setUp() throws Exception {
+		super.setUp();
+		sftp.setMaxAsyncMetadataRequests(4);
+		for(int i=0;i<FILE_COUNT;i++) {
+			createFile(new File(remoteFolder, "file" + i), i, i);
+			names.add("file" + i);
+		}
+	}
+	
+	public void testStatAll() throws Exception {
+		
+		List<String> paths = new ArrayList<String>(names);
+		paths.add(3, "missing");
+		
+		List<SftpBulkResult<SftpFileAttributes>> results = sftp.statAll(paths);
+		assertEquals(paths.size(), results.size());
+		for(int i=0;i<paths.size();i++) {
+			SftpBulkResult<SftpFileAttributes> result = results.get(i);
+			assertEquals(paths.get(i), result.getPath());
+			if(i == 3) {
+				assertFalse(result.isSuccess());
+				assertEquals(SftpStatusException.SSH_FX_NO_SUCH_FILE, result.getException().getStatus());
+			} else {
+				assertTrue(result.isSuccess());
+				assertEquals(new File(remoteFolder, paths.get(i)).length(), result.getValue().getSize().longValue());
+			}
+		}
+	}
+	
+	public void testRemoveAll() throws Exception {
+		
+		List<String> paths = new ArrayList<String>(names);
+		paths.add("missing");
+		
+		List<SftpBulkResult<Void>> results = sftp.removeAll(paths);
+		for(int i=0;i<names.size();i++) {
+			assertTrue(results.get(i).isSuccess());
+			assertFalse(new File(remoteFolder, names.get(i)).exists());
+		}
+		assertFalse(results.get(names.size()).isSuccess());
+	}
+	
+	public void testSetAttributesAll() throws Exception {
+		
+		long mtime = 1000000000L;
+		SftpFileAttributes attrs = new SftpFileAttributes(SftpFileAttributes.SSH_FILEXFER_TYPE_REGULAR, "UTF-8");
+		attrs.setTimes(new UnsignedInteger64(mtime), new UnsignedInteger64(mtime));
+		
+		for(SftpBulkResult<Void> result : sftp.setAttributesAll(names, attrs)) {
+			assertTrue(result.toString(), result.isSuccess());
+		}
+		for(String name : names) {
+			assertEquals(mtime * 1000, new File(remoteFolder, name).lastModified());
+		}
+	}
+	
+	public void testMkdirsAll() throws Exception {
+		
+		new File(remoteFolder, "exists/a").mkdirs();
+		
+		List<String> dirs = Arrays.asList("exists", "exists/a/b/c", "new/a/b", "new/a/c", 
+				"new/d", "file0/x", "file0/x/y", "file1");
+		
+		List<SftpBulkResult<Void>> results = sftp.mkdirsAll(dirs);
+		assertEquals(dirs.size(), results.size());
+		for(int i=0;i<5;i++) {
+			assertTrue(results.get(i).toString(), results.get(i).isSuccess());
+			assertTrue(new File(remoteFolder, dirs.get(i)).isDirectory());
+		}
+		
+		/**
+		 * Each directory under a file is attempted and reports its own failure, as 
+		 * does a file in place of a directory.
+		 */
+		for(int i=5;i<dirs.size();i++) {
+			assertFalse(results.get(i).toString(), results.get(i).isSuccess());
+		}
+		assertTrue(new File(remoteFolder, "file1").isFile());
+	}
+	
+	/**
+	 * A directory that exists by the time it is created is not a failure.
+	 */
+	public void testMkdirsAllCreatedElsewhere() throws Exception {
+		
+		List<SftpBulkResult<Void>> results = sftp.mkdirsAll(Arrays.asList("dir/a", "dir/./a"));
+		assertTrue(results.get(0).toString(), results.get(0).isSuccess());
+		assertTrue(results.get(1).toString(), results.get(1).isSuccess());
+		assertTrue(new File(remoteFolder, "dir/a").isDirectory());
+	}
+}
@@ -0,0 +1,117 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.sftp;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import com.sshtools.common.policy.FileSystemPolicy;
+import com.sshtools.common.sftp.SftpStatusException;
+import com.sshtools.common.sftp.extensions.DefaultSftpExtensionFactory;
+import com.sshtools.common.sftp.extensions.SupportedSftpExtensions;
+import com.sshtools.common.ssh.SshException;
+import com.sshtools.server.SshServerContext;
+
+public class CheckFileTests extends AbstractSftpTests {
+
+	static final int FILE_SIZE = 1024 * 1024 + 123;
+	static final int BLOCK_SIZE = 65536;
+	
+	byte[] data;
+	
+	protected void setUp() throws Exception {
+		super.setUp();
+		data = createFile(new File(remoteFolder, "file"), FILE_SIZE, 40);
+	}
+	
+	/**
+	 * The number of threads the server hashes blocks with.
+	 */
+	protected int getHashThreads() {
+		return 0;
+	}
+	
+	@Override
+	protected void configureServer(SshServerContext context) throws IOException, SshException {
+		FileSystemPolicy policy = context.getPolicy(FileSystemPolicy.class);
+		policy.getSFTPExtensionFactories().add(new DefaultSftpExtensionFactory(SupportedSftpExtensions.CHECK_FILE));
+		policy.setSFTPCheckFileThreads(getHashThreads());
+	}
+	
+	public void testBlockHashes() throws Exception {
+		assertHashes("sha256", 0, FILE_SIZE, BLOCK_SIZE, 
+				sftp.getRemoteHashes("file", "sha256", 0, 0, BLOCK_SIZE));
+	}
+	
+	public void testBlockHashesOfHandle() throws Exception {
+		SftpFile file = sftp.openFile("file");
+		try {
+			assertHashes("sha1", 1000, 300000, 4096, 
+					sftp.getRemoteHashes(file, "sha1", 1000, 300000, 4096));
+		} finally {
+			file.close();
+		}
+	}
+	
+	public void testRangeHash() throws Exception {
+		assertHashes("md5", 100, 1000, 0, sftp.getRemoteHashes("file", "md5", 100, 1000, 0));
+	}
+	
+	/**
+	 * The final block is short and the count comes from the reply, not the range asked for.
+	 */
+	public void testRangeBeyondEndOfFile() throws Exception {
+		assertHashes("sha512", FILE_SIZE - 1000, 1000, 256, 
+				sftp.getRemoteHashes("file", "sha512", FILE_SIZE - 1000, 5000, 256));
+	}
+	
+	public void testSmallBlockSizeIsRefused() throws Exception {
+		try {
+			sftp.getRemoteHashes("file", "sha256", 0, 0, 10);
+			fail("Block size below 256 must be refused");
+		} catch(SftpStatusException e) {
+		}
+	}
+	
+	public void testMissingFile() throws Exception {
+		try {
+			sftp.getRemoteHashes("missing", "sha256", 0, 0, 0);
+			fail("Hash of a missing file must fail");
+		} catch(SftpStatusException e) {
+			assertEquals(SftpStatusException.SSH_FX_NO_SUCH_FILE, e.getStatus());
+		}
+	}
+	
+	private void assertHashes(String algorithm, int offset, int length, int blockSize, byte[][] hashes) throws Exception {
+		
+		int blocks = blockSize == 0 ? 1 : (length + blockSize - 1) / blockSize;
+		assertEquals(blocks, hashes.length);
+		
+		String name = algorithm.startsWith("sha") ? "SHA-" + algorithm.substring(3) : algorithm.toUpperCase();
+		for(int i = 0; i < blocks; i++) {
+			int start = offset + (blockSize == 0 ? 0 : i * blockSize);
+			int count = blockSize == 0 ? length : Math.min(blockSize, offset + length - start);
+			MessageDigest digest = MessageDigest.getInstance(name);
+			digest.update(data, start, count);
+			assertTrue("Block " + i, Arrays.equals(digest.digest(), hashes[i]));
+		}
+	}
+}
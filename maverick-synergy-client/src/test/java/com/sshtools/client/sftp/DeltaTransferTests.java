@@ -0,0 +1,113 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.sftp;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import com.sshtools.common.policy.FileSystemPolicy;
+import com.sshtools.common.sftp.extensions.DefaultSftpExtensionFactory;
+import com.sshtools.common.sftp.extensions.SupportedSftpExtensions;
+import com.sshtools.common.ssh.SshException;
+import com.sshtools.server.SshServerContext;
+
+public class DeltaTransferTests extends AbstractSftpTests {
+
+	static final int FILE_SIZE = 200000;
+	static final int DELTA_BLOCKSIZE = 16384;
+
+	byte[] data;
+	File local;
+	File remote;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		local = new File(localFolder, "file");
+		remote = new File(remoteFolder, "file");
+		data = createFile(remote, FILE_SIZE, 47);
+	}
+
+	/**
+	 * Whether the server hashes blocks for the client, otherwise the remote data is read back.
+	 */
+	protected boolean isHashSupported() {
+		return true;
+	}
+
+	@Override
+	protected void configureServer(SshServerContext context) throws IOException, SshException {
+		if(isHashSupported()) {
+			FileSystemPolicy policy = context.getPolicy(FileSystemPolicy.class);
+			policy.getSFTPExtensionFactories().add(new DefaultSftpExtensionFactory(SupportedSftpExtensions.MD5_FILE_HASH));
+		}
+	}
+
+	long putDelta(byte[] content) throws Exception {
+		Files.write(local.toPath(), content);
+		long written = sftp.putDelta("file", "file", DELTA_BLOCKSIZE, null);
+		assertTrue(Arrays.equals(content, Files.readAllBytes(remote.toPath())));
+		return written;
+	}
+
+	public void testIdentical() throws Exception {
+		assertEquals(0, putDelta(data));
+	}
+
+	public void testAppended() throws Exception {
+		byte[] content = Arrays.copyOf(data, FILE_SIZE + 5000);
+		Arrays.fill(content, FILE_SIZE, content.length, (byte) 1);
+		assertEquals(5000, putDelta(content));
+	}
+
+	/**
+	 * The test server ignores the size in a request to set attributes, so a shorter 
+	 * local file is uploaded whole once the common blocks have been compared.
+	 */
+	public void testTruncated() throws Exception {
+		assertEquals(100000, putDelta(Arrays.copyOf(data, 100000)));
+	}
+
+	public void testTruncatedWithinFirstBlock() throws Exception {
+		assertEquals(1000, putDelta(Arrays.copyOf(data, 1000)));
+	}
+
+	/**
+	 * Only the block holding the change is written.
+	 */
+	public void testMiddleModified() throws Exception {
+		byte[] content = data.clone();
+		content[5 * DELTA_BLOCKSIZE + 100]++;
+		assertEquals(DELTA_BLOCKSIZE, putDelta(content));
+	}
+
+	public void testLastBlockModified() throws Exception {
+		byte[] content = data.clone();
+		content[FILE_SIZE - 1]++;
+		assertEquals(FILE_SIZE % DELTA_BLOCKSIZE, putDelta(content));
+	}
+
+	public void testModifiedAndTruncated() throws Exception {
+		byte[] content = Arrays.copyOf(data, 3 * DELTA_BLOCKSIZE + 10);
+		content[0]++;
+		content[3 * DELTA_BLOCKSIZE + 5]++;
+		assertEquals(DELTA_BLOCKSIZE + 10 + content.length, putDelta(content));
+	}
+}
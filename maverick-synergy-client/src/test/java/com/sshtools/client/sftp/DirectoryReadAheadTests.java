@@ -0,0 +1,229 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.sftp;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sshtools.common.events.Event;
+import com.sshtools.common.files.AbstractFile;
+import com.sshtools.common.files.AbstractFileAdapter;
+import com.sshtools.common.files.AbstractFileFactory;
+import com.sshtools.common.files.direct.DirectFileFactory;
+import com.sshtools.common.permissions.PermissionDeniedException;
+import com.sshtools.common.policy.FileFactory;
+import com.sshtools.common.policy.FileSystemPolicy;
+import com.sshtools.common.sftp.SftpStatusException;
+import com.sshtools.common.ssh.SshConnection;
+import com.sshtools.common.ssh.SshException;
+import com.sshtools.server.SshServerContext;
+
+public class DirectoryReadAheadTests extends AbstractSftpTests {
+
+	static final int FILE_COUNT = 95;
+	static final int PAGE_SIZE = 10;
+
+	Set<String> names = new TreeSet<String>();
+
+	/**
+	 * The number of entries the server lists before failing, or -1 to list them all.
+	 */
+	volatile int failAfter = -1;
+	final AtomicInteger opened = new AtomicInteger();
+	final AtomicInteger closed = new AtomicInteger();
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		File dir = new File(remoteFolder, "dir");
+		dir.mkdir();
+		for(int i=0;i<FILE_COUNT;i++) {
+			createFile(new File(dir, "file" + i), i, i);
+			names.add("file" + i);
+		}
+	}
+
+	@Override
+	protected void configureServer(SshServerContext context) throws IOException, SshException {
+		FileSystemPolicy policy = context.getPolicy(FileSystemPolicy.class);
+		policy.setSFTPMaxDirectoryEntries(PAGE_SIZE);
+		policy.setFileFactory(new FileFactory() {
+			public AbstractFileFactory<?> getFileFactory(SshConnection con) {
+				return new ListingFileFactory(new DirectFileFactory(remoteFolder));
+			}
+		});
+	}
+
+	Set<String> list(int requests) throws Exception {
+		sftp.setMaxAsyncDirectoryRequests(requests);
+		Set<String> listed = new TreeSet<String>();
+		for(SftpFile file : sftp.ls("dir")) {
+			if(!file.getFilename().equals(".") && !file.getFilename().equals("..")) {
+				assertTrue(listed.add(file.getFilename()));
+			}
+		}
+		return listed;
+	}
+
+	public void testOneRequest() throws Exception {
+		assertEquals(names, list(1));
+		assertEquals(1, closed.get());
+	}
+
+	public void testSeveralRequests() throws Exception {
+		assertEquals(names, list(4));
+		assertEquals(1, closed.get());
+	}
+
+	public void testIterator() throws Exception {
+		sftp.setMaxAsyncDirectoryRequests(4);
+		Set<String> listed = new TreeSet<String>();
+		Iterator<SftpFile> it = sftp.lsIterator("dir");
+		while(it.hasNext()) {
+			String name = it.next().getFilename();
+			if(!name.equals(".") && !name.equals("..")) {
+				assertTrue(listed.add(name));
+			}
+		}
+		assertEquals(names, listed);
+		assertEquals(1, closed.get());
+		try {
+			it.next();
+			fail("Expected no more files");
+		} catch(NoSuchElementException e) {
+		}
+	}
+
+	/**
+	 * More requests are sent than there are pages, the responses after the end of the
+	 * directory are read before the handle is closed and the channel is used again.
+	 */
+	public void testEndOfFileWithRequestsOutstanding() throws Exception {
+		assertEquals(names, list(32));
+		assertEquals(1, closed.get());
+		assertEquals(50, sftp.stat("dir/file50").getSize().longValue());
+		assertEquals(names, list(32));
+		assertEquals(2, closed.get());
+	}
+
+	public void testEmptyDirectory() throws Exception {
+		new File(remoteFolder, "empty").mkdir();
+		sftp.setMaxAsyncDirectoryRequests(4);
+		for(SftpFile file : sftp.ls("empty")) {
+			assertTrue(file.getFilename().equals(".") || file.getFilename().equals(".."));
+		}
+		assertEquals(1, closed.get());
+	}
+
+	public void testHandleClosedOnError() throws Exception {
+		failAfter = 25;
+		try {
+			list(4);
+			fail("Expected the listing to fail");
+		} catch(SftpStatusException e) {
+		}
+		assertEquals(1, opened.get());
+		assertEquals(1, closed.get());
+		assertEquals(50, sftp.stat("dir/file50").getSize().longValue());
+	}
+
+	public void testIteratorHandleClosedOnError() throws Exception {
+		failAfter = 25;
+		sftp.setMaxAsyncDirectoryRequests(4);
+		Iterator<SftpFile> it = sftp.lsIterator("dir");
+		try {
+			while(it.hasNext()) {
+				it.next();
+			}
+			fail("Expected the listing to fail");
+		} catch(NoSuchElementException e) {
+		}
+		assertEquals(1, closed.get());
+		assertEquals(50, sftp.stat("dir/file50").getSize().longValue());
+	}
+
+	/**
+	 * Lists through a closeable iterator that counts when the server closes it, and
+	 * fails once failAfter entries have been listed.
+	 */
+	class ListingFileFactory implements AbstractFileFactory<AbstractFile> {
+
+		final AbstractFileFactory<?> fileFactory;
+
+		ListingFileFactory(AbstractFileFactory<?> fileFactory) {
+			this.fileFactory = fileFactory;
+		}
+
+		public AbstractFile getFile(String path) throws PermissionDeniedException, IOException {
+			return new ListingFile(fileFactory.getFile(path));
+		}
+
+		public Event populateEvent(Event evt) {
+			return evt;
+		}
+
+		public AbstractFile getDefaultPath() throws PermissionDeniedException, IOException {
+			return new ListingFile(fileFactory.getDefaultPath());
+		}
+	}
+
+	class ListingFile extends AbstractFileAdapter {
+
+		ListingFile(AbstractFile file) {
+			super(file);
+		}
+
+		@Override
+		public Iterator<AbstractFile> getChildIterator() throws IOException, PermissionDeniedException {
+			opened.incrementAndGet();
+			return new ListingIterator(file.getChildren().iterator());
+		}
+	}
+
+	class ListingIterator implements Iterator<AbstractFile>, Closeable {
+
+		final Iterator<AbstractFile> children;
+		int listed;
+
+		ListingIterator(Iterator<AbstractFile> children) {
+			this.children = children;
+		}
+
+		public boolean hasNext() {
+			return children.hasNext();
+		}
+
+		public AbstractFile next() {
+			if(listed++ == failAfter) {
+				throw new DirectoryIteratorException(new IOException("Listing failed"));
+			}
+			return children.next();
+		}
+
+		public void close() {
+			closed.incrementAndGet();
+		}
+	}
+}
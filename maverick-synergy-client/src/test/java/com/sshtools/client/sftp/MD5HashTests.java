@@ -0,0 +1,96 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.sftp;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.sshtools.common.policy.FileSystemPolicy;
+import com.sshtools.common.sftp.extensions.DefaultSftpExtensionFactory;
+import com.sshtools.common.sftp.extensions.SupportedSftpExtensions;
+import com.sshtools.common.ssh.SshException;
+import com.sshtools.server.SshServerContext;
+
+public class MD5HashTests extends AbstractSftpTests {
+
+	static final int FILE_SIZE = 100000;
+
+	byte[] data;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		data = createFile(new File(remoteFolder, "file"), FILE_SIZE, 46);
+	}
+
+	@Override
+	protected void configureServer(SshServerContext context) throws IOException, SshException {
+		FileSystemPolicy policy = context.getPolicy(FileSystemPolicy.class);
+		policy.getSFTPExtensionFactories().add(new DefaultSftpExtensionFactory(SupportedSftpExtensions.MD5_FILE_HASH));
+	}
+
+	byte[] md5(int offset, int length) throws Exception {
+		MessageDigest md = MessageDigest.getInstance("MD5");
+		md.update(data, offset, length);
+		return md.digest();
+	}
+
+	/**
+	 * The hash ends at the length asked for, not at the end of the block the server read.
+	 */
+	public void testRangeShorterThanRead() throws Exception {
+		assertTrue(Arrays.equals(md5(100, 1000), sftp.getRemoteHash("file", 100, 1000, new byte[0])));
+	}
+
+	public void testRangeOfHandle() throws Exception {
+		SftpFile file = sftp.openFile("file");
+		try {
+			assertTrue(Arrays.equals(md5(40000, 50000), sftp.getRemoteHash(file.getHandle(), 40000, 50000, new byte[0])));
+		} finally {
+			file.close();
+		}
+	}
+
+	public void testWholeFile() throws Exception {
+		assertTrue(Arrays.equals(md5(0, FILE_SIZE), sftp.getRemoteHash("file")));
+	}
+
+	/**
+	 * A range that runs past the end of the file hashes what there is.
+	 */
+	public void testRangePastEndOfFile() throws Exception {
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			byte[] hash = executor.submit(new Callable<byte[]>() {
+				public byte[] call() throws Exception {
+					return sftp.getRemoteHash("file", FILE_SIZE - 10, 1000, new byte[0]);
+				}
+			}).get(30, TimeUnit.SECONDS);
+			assertTrue(Arrays.equals(md5(FILE_SIZE - 10, 10), hash));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,87 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.sftp;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import com.sshtools.common.sftp.SftpStatusException;
+import com.sshtools.common.ssh.SshException;
+
+public class OptimizedReadTests extends AbstractSftpTests {
+
+	static final int BLOCK_SIZE = 32768;
+	static final int OUTSTANDING_REQUESTS = 16;
+	static final int FILE_SIZE = 1024 * 1024 + 77;
+	static final int LOCAL_SIZE = 200000;
+	
+	byte[] data;
+	
+	protected void setUp() throws Exception {
+		super.setUp();
+		data = createFile(new File(remoteFolder, "file"), FILE_SIZE, 50);
+	}
+	
+	/**
+	 * Only the requested region is read and nothing is written outside the mapping.
+	 */
+	public void testMappedRegion() throws Exception {
+		assertMappedRegion(300001, 100000);
+	}
+	
+	public void testMappedRegionInFirstBlock() throws Exception {
+		assertMappedRegion(100, 1000);
+	}
+	
+	public void testMappedRegionToEndOfFile() throws Exception {
+		assertMappedRegion(FILE_SIZE - 100000, 100000);
+	}
+	
+	private void assertMappedRegion(long position, int length) throws IOException, 
+			SftpStatusException, SshException, TransferCancelledException {
+		
+		int mapOffset = 50000;
+		File local = new File(localFolder, "region");
+		try(FileChannel ch = FileChannel.open(local.toPath(), StandardOpenOption.CREATE, 
+				StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			ch.write(ByteBuffer.allocate(LOCAL_SIZE));
+			MappedByteBuffer mb = ch.map(FileChannel.MapMode.READ_WRITE, mapOffset, length);
+			
+			SftpFile file = sftp.getSubsystemChannel().openFile(sftp.getAbsolutePath("file"), SftpChannel.OPEN_READ);
+			try {
+				sftp.getSubsystemChannel().performOptimizedRead(file.getHandle(), length, BLOCK_SIZE, 
+						mb, OUTSTANDING_REQUESTS, null, position);
+			} finally {
+				file.close();
+			}
+			mb.force();
+			assertEquals(0, mb.position());
+		}
+		
+		byte[] expected = new byte[LOCAL_SIZE];
+		System.arraycopy(data, (int) position, expected, mapOffset, length);
+		assertTrue(Arrays.equals(expected, Files.readAllBytes(local.toPath())));
+	}
+}
@@ -0,0 +1,256 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.sftp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.sshtools.common.events.Event;
+import com.sshtools.common.files.AbstractFile;
+import com.sshtools.common.files.AbstractFileAdapter;
+import com.sshtools.common.files.AbstractFileFactory;
+import com.sshtools.common.files.AbstractFileRandomAccess;
+import com.sshtools.common.files.direct.DirectFileFactory;
+import com.sshtools.common.permissions.PermissionDeniedException;
+import com.sshtools.common.policy.FileFactory;
+import com.sshtools.common.policy.FileSystemPolicy;
+import com.sshtools.common.sftp.extensions.DefaultSftpExtensionFactory;
+import com.sshtools.common.sftp.extensions.SupportedSftpExtensions;
+import com.sshtools.common.ssh.SshConnection;
+import com.sshtools.common.ssh.SshException;
+import com.sshtools.common.util.UnsignedInteger64;
+import com.sshtools.server.SshServerContext;
+
+/**
+ * Extension requests that name their files are processed alongside requests on other
+ * files, so a long request does not hold up the rest of the session.
+ */
+public class ParallelExtendedRequestTests extends AbstractSftpTests {
+
+	static final int FILE_SIZE = 100000;
+
+	byte[] small;
+
+	/**
+	 * Once set, reads of the file named "big" wait until it is released.
+	 */
+	volatile CountDownLatch blocked;
+	final CountDownLatch reading = new CountDownLatch(1);
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		createFile(new File(remoteFolder, "big"), FILE_SIZE, 50);
+		small = createFile(new File(remoteFolder, "small"), 1000, 51);
+	}
+
+	@Override
+	protected void configureServer(SshServerContext context) throws IOException, SshException {
+		FileSystemPolicy policy = context.getPolicy(FileSystemPolicy.class);
+		policy.setSFTPParallelRequests(true);
+		policy.setMaximumNumberofAsyncSFTPRequests(8);
+		policy.getSFTPExtensionFactories().add(new DefaultSftpExtensionFactory(
+				SupportedSftpExtensions.CHECK_FILE, SupportedSftpExtensions.COPY_DATA));
+		policy.setFileFactory(new FileFactory() {
+			public AbstractFileFactory<?> getFileFactory(SshConnection con) {
+				return new BlockingFileFactory(new DirectFileFactory(remoteFolder));
+			}
+		});
+	}
+
+	public void testCheckFileNameDoesNotDelayRead() throws Exception {
+		assertReadNotDelayed(new Callable<Object>() {
+			public Object call() throws Exception {
+				return sftp.getRemoteHashes("big", "sha256", 0, 0, 0);
+			}
+		});
+	}
+
+	public void testCheckFileHandleDoesNotDelayRead() throws Exception {
+		final SftpFile file = sftp.openFile("big");
+		try {
+			assertReadNotDelayed(new Callable<Object>() {
+				public Object call() throws Exception {
+					return sftp.getRemoteHashes(file, "sha256", 0, 0, 0);
+				}
+			});
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * The copy is ordered with requests on its source and target handles only.
+	 */
+	public void testCopyDataDoesNotDelayRead() throws Exception {
+		final SftpFile source = sftp.openFile("big");
+		final SftpFile target = sftp.openFile("copy", SftpChannel.OPEN_CREATE | SftpChannel.OPEN_WRITE);
+		try {
+			assertReadNotDelayed(new Callable<Object>() {
+				public Object call() throws Exception {
+					sftp.copyRemoteData(source, new UnsignedInteger64(0), new UnsignedInteger64(0), 
+							target, new UnsignedInteger64(0));
+					return null;
+				}
+			});
+		} finally {
+			source.close();
+			target.close();
+		}
+		assertEquals(FILE_SIZE, new File(remoteFolder, "copy").length());
+	}
+
+	/**
+	 * Start the slow request and, while the server is reading "big" for it, read
+	 * another file that is already open.
+	 */
+	void assertReadNotDelayed(Callable<?> slow) throws Exception {
+
+		SftpFile file = sftp.openFile("small");
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		blocked = new CountDownLatch(1);
+		try {
+			Future<?> request = executor.submit(slow);
+			assertTrue(reading.await(30, TimeUnit.SECONDS));
+
+			final byte[] handle = file.getHandle();
+			final byte[] buf = new byte[small.length];
+			Future<Integer> read = executor.submit(new Callable<Integer>() {
+				public Integer call() throws Exception {
+					return sftp.getSubsystemChannel().readFile(handle, new UnsignedInteger64(0), buf, 0, buf.length);
+				}
+			});
+			try {
+				assertEquals(small.length, read.get(10, TimeUnit.SECONDS).intValue());
+			} catch(TimeoutException e) {
+				fail("The read waited for the extension request");
+			}
+			assertTrue(Arrays.equals(small, buf));
+
+			blocked.countDown();
+			request.get(30, TimeUnit.SECONDS);
+		} finally {
+			blocked.countDown();
+			file.close();
+			executor.shutdown();
+		}
+	}
+
+	void waitIfBlocked() throws IOException {
+		CountDownLatch latch = blocked;
+		if(latch != null) {
+			reading.countDown();
+			try {
+				latch.await();
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException();
+			}
+		}
+	}
+
+	class BlockingFileFactory implements AbstractFileFactory<AbstractFile> {
+
+		final AbstractFileFactory<?> fileFactory;
+
+		BlockingFileFactory(AbstractFileFactory<?> fileFactory) {
+			this.fileFactory = fileFactory;
+		}
+
+		public AbstractFile getFile(String path) throws PermissionDeniedException, IOException {
+			AbstractFile file = fileFactory.getFile(path);
+			return file.getName().equals("big") ? new BlockingFile(file) : file;
+		}
+
+		public Event populateEvent(Event evt) {
+			return evt;
+		}
+
+		public AbstractFile getDefaultPath() throws PermissionDeniedException, IOException {
+			return fileFactory.getDefaultPath();
+		}
+	}
+
+	class BlockingFile extends AbstractFileAdapter {
+
+		BlockingFile(AbstractFile file) {
+			super(file);
+		}
+
+		@Override
+		public AbstractFileRandomAccess openFile(boolean writeAccess) throws IOException, PermissionDeniedException {
+			return new BlockingRandomAccess(file.openFile(writeAccess));
+		}
+	}
+
+	class BlockingRandomAccess implements AbstractFileRandomAccess {
+
+		final AbstractFileRandomAccess raf;
+
+		BlockingRandomAccess(AbstractFileRandomAccess raf) {
+			this.raf = raf;
+		}
+
+		public int read(byte[] buf, int off, int len) throws IOException {
+			waitIfBlocked();
+			return raf.read(buf, off, len);
+		}
+
+		public int read(long position, ByteBuffer buf) throws IOException {
+			waitIfBlocked();
+			return raf.read(position, buf);
+		}
+
+		public boolean supportsPositionalAccess() {
+			return raf.supportsPositionalAccess();
+		}
+
+		public void write(byte[] buf, int off, int len) throws IOException {
+			raf.write(buf, off, len);
+		}
+
+		public void write(long position, ByteBuffer buf) throws IOException {
+			raf.write(position, buf);
+		}
+
+		public void setLength(long length) throws IOException {
+			raf.setLength(length);
+		}
+
+		public void seek(long position) throws IOException {
+			raf.seek(position);
+		}
+
+		public void close() throws IOException {
+			raf.close();
+		}
+
+		public long getFilePointer() throws IOException {
+			return raf.getFilePointer();
+		}
+	}
+}
@@ -0,0 +1,178 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.sftp;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+
+import com.sshtools.common.sftp.SftpFileAttributes;
+import com.sshtools.common.sftp.SftpStatusException;
+import com.sshtools.common.util.UnsignedInteger64;
+
+public class RemoteMetadataCacheTests extends AbstractSftpTests {
+
+	static SftpFileAttributes file(long size) {
+		SftpFileAttributes attrs = new SftpFileAttributes(SftpFileAttributes.SSH_FILEXFER_TYPE_REGULAR, "UTF-8");
+		attrs.setSize(new UnsignedInteger64(size));
+		return attrs;
+	}
+
+	public void testNormalise() {
+		assertEquals("/a/c", RemoteMetadataCache.normalise("/a/./b/../c/"));
+		assertEquals("/", RemoteMetadataCache.normalise("/.."));
+		assertEquals("../a", RemoteMetadataCache.normalise("../a"));
+		assertEquals("/a", RemoteMetadataCache.getParent("/a/b"));
+		assertEquals("/", RemoteMetadataCache.getParent("/a"));
+	}
+
+	public void testAttributesAreCopied() {
+
+		RemoteMetadataCache cache = new RemoteMetadataCache(60000, 100);
+		SftpFileAttributes attrs = file(10);
+		cache.putAttributes("/a", attrs);
+		attrs.setSize(new UnsignedInteger64(20));
+
+		SftpFileAttributes cached = cache.getAttributes("/a");
+		assertEquals(10, cached.getSize().longValue());
+		cached.setSize(new UnsignedInteger64(30));
+		assertEquals(10, cache.getAttributes("/a").getSize().longValue());
+	}
+
+	public void testListingIsCopied() {
+
+		RemoteMetadataCache cache = new RemoteMetadataCache(60000, 100);
+		SftpFile[] files = new SftpFile[] { new SftpFile("/d/a", file(10)) };
+		cache.putListing("/d", files);
+		files[0].attrs.setSize(new UnsignedInteger64(20));
+		files[0] = new SftpFile("/d/b", file(0));
+
+		SftpFile[] cached = cache.getListing("/d");
+		assertEquals("/d/a", cached[0].getAbsolutePath());
+		assertEquals(10, cached[0].attrs.getSize().longValue());
+		cached[0].attrs.setSize(new UnsignedInteger64(30));
+		assertNotSame(cached[0], cache.getListing("/d")[0]);
+		assertEquals(10, cache.getListing("/d")[0].attrs.getSize().longValue());
+		assertEquals(10, cache.getAttributes("/d/a").getSize().longValue());
+	}
+
+	public void testInvalidate() {
+
+		RemoteMetadataCache cache = new RemoteMetadataCache(60000, 100);
+		cache.putListing("/d", new SftpFile[] { new SftpFile("/d/a", file(10)) });
+		cache.putAttributes("/d/b", file(0));
+
+		cache.invalidate("/d/./a");
+		assertNull(cache.getAttributes("/d/a"));
+		assertNull(cache.getListing("/d"));
+		assertNotNull(cache.getAttributes("/d/b"));
+	}
+
+	public void testInvalidateTree() {
+
+		RemoteMetadataCache cache = new RemoteMetadataCache(60000, 100);
+		cache.putAttributes("/d", file(0));
+		cache.putAttributes("/d/a/b", file(0));
+		cache.putRealPath("/d/a", "/d/a");
+		cache.putAttributes("/dd", file(0));
+
+		cache.invalidateTree("/d");
+		assertNull(cache.getAttributes("/d"));
+		assertNull(cache.getAttributes("/d/a/b"));
+		assertNull(cache.getRealPath("/d/a"));
+		assertNotNull(cache.getAttributes("/dd"));
+	}
+
+	public void testExpiry() throws Exception {
+
+		RemoteMetadataCache cache = new RemoteMetadataCache(50, 100);
+		cache.putAttributes("/a", file(0));
+		assertNotNull(cache.getAttributes("/a"));
+		Thread.sleep(100);
+		assertNull(cache.getAttributes("/a"));
+		assertEquals(0, cache.size());
+	}
+
+	public void testBound() {
+
+		RemoteMetadataCache cache = new RemoteMetadataCache(60000, 2);
+		cache.putAttributes("/a", file(0));
+		cache.putAttributes("/b", file(0));
+		cache.getAttributes("/a");
+		cache.putAttributes("/c", file(0));
+		assertEquals(2, cache.size());
+		assertNotNull(cache.getAttributes("/a"));
+		assertNull(cache.getAttributes("/b"));
+	}
+
+	/**
+	 * The client's own changes are seen through the cache straight away.
+	 */
+	public void testClientOperationsInvalidate() throws Exception {
+
+		sftp.setMetadataCache(60000, 1000);
+		createFile(new File(remoteFolder, "file"), 10, 1);
+
+		assertEquals(10, sftp.stat("file").getSize().longValue());
+		assertEquals(1, countFile(sftp.ls(), "file"));
+
+		sftp.put(new ByteArrayInputStream(new byte[20]), "file");
+		assertEquals(20, sftp.stat("file").getSize().longValue());
+
+		sftp.rm("file");
+		assertEquals(0, countFile(sftp.ls(), "file"));
+		try {
+			sftp.stat("file");
+			fail("Expected the removed file to be missing");
+		} catch(SftpStatusException e) {
+			assertEquals(SftpStatusException.SSH_FX_NO_SUCH_FILE, e.getStatus());
+		}
+
+		sftp.mkdir("dir");
+		assertTrue(sftp.stat("dir").isDirectory());
+		assertEquals(1, countFile(sftp.ls(), "dir"));
+	}
+
+	public void testClientCannotChangeCache() throws Exception {
+
+		sftp.setMetadataCache(60000, 1000);
+		createFile(new File(remoteFolder, "file"), 10, 1);
+
+		sftp.stat("file").setSize(new UnsignedInteger64(99));
+		assertEquals(10, sftp.stat("file").getSize().longValue());
+
+		for(SftpFile file : sftp.ls()) {
+			file.attrs.setSize(new UnsignedInteger64(99));
+		}
+		for(SftpFile file : sftp.ls()) {
+			if(file.getFilename().equals("file")) {
+				assertEquals(10, file.attrs.getSize().longValue());
+			}
+		}
+	}
+
+	static int countFile(SftpFile[] files, String name) {
+		int count = 0;
+		for(SftpFile file : files) {
+			if(file.getFilename().equals(name)) {
+				count++;
+			}
+		}
+		return count;
+	}
+}
@@ -0,0 +1,163 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.sftp;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.sshtools.common.files.AbstractFileRandomAccess;
+import com.sshtools.common.files.direct.DirectFileFactory;
+import com.sshtools.common.sftp.SftpStatusException;
+import com.sshtools.common.ssh.SshException;
+
+public class SegmentedTransferTests extends AbstractSftpTests {
+
+	static final int BLOCK_SIZE = 32768;
+	static final int OUTSTANDING_REQUESTS = 4;
+	static final int FILE_SIZE = 2 * 1024 * 1024 + 123;
+	
+	List<SftpChannel> channels = new ArrayList<SftpChannel>();
+	AbstractFileRandomAccess local;
+	
+	protected void setUp() throws Exception {
+		super.setUp();
+		channels.add(sftp.getSubsystemChannel());
+		channels.add(new SftpChannel(ssh.getConnection()));
+		channels.add(new SftpChannel(ssh.getConnection()));
+		local = new DirectFileFactory(localFolder).getFile("download").openFile(true);
+	}
+	
+	protected void tearDown() throws Exception {
+		local.close();
+		for(SftpChannel channel : channels.subList(1, channels.size())) {
+			channel.close();
+		}
+		super.tearDown();
+	}
+	
+	/**
+	 * The segments must cover the file exactly, several to a channel but none 
+	 * smaller than a window of requests.
+	 */
+	public void testSegmentSplit() {
+		
+		assertSegments(10 * 1024 * 1024 + 7, 3, 12);
+		assertSegments(FILE_SIZE, 1, 4);
+		assertSegments(BLOCK_SIZE * OUTSTANDING_REQUESTS * 2, 8, 2);
+		assertSegments(1, 8, 1);
+		assertSegments(0, 8, 0);
+	}
+	
+	private void assertSegments(long length, int channelCount, int expectedCount) {
+		
+		SegmentedTransfer transfer = new SegmentedTransfer.Download("file", null, 
+				BLOCK_SIZE, OUTSTANDING_REQUESTS, null);
+		transfer.createSegments(length, channelCount);
+		
+		assertEquals(expectedCount, transfer.segments.size());
+		long position = 0;
+		for(SegmentedTransfer.Segment segment : transfer.segments) {
+			assertEquals(position, segment.position);
+			assertTrue(segment.end > segment.position);
+			if(segment.end < length) {
+				assertTrue(segment.end - segment.position >= BLOCK_SIZE * OUTSTANDING_REQUESTS);
+			}
+			position = segment.end;
+		}
+		assertEquals(length, position);
+	}
+	
+	public void testDownload() throws Exception {
+		
+		byte[] data = createFile(new File(remoteFolder, "file"), FILE_SIZE, 1);
+		local.setLength(FILE_SIZE);
+		
+		new SegmentedTransfer.Download(resolve("file"), local, BLOCK_SIZE, 
+				OUTSTANDING_REQUESTS, null).transfer(FILE_SIZE, channels);
+		
+		local.close();
+		assertTrue(Arrays.equals(data, Files.readAllBytes(new File(localFolder, "download").toPath())));
+	}
+	
+	/**
+	 * A worker that fails part way through a segment must fail the transfer 
+	 * rather than leave a hole in the file.
+	 */
+	public void testWorkerFailureFailsTransfer() throws Exception {
+		
+		createFile(new File(remoteFolder, "file"), FILE_SIZE, 2);
+		local.setLength(FILE_SIZE);
+		
+		final IllegalStateException error = new IllegalStateException("Worker failed");
+		SegmentedTransfer transfer = new SegmentedTransfer.Download(resolve("file"), local, BLOCK_SIZE, 
+				OUTSTANDING_REQUESTS, null) {
+			@Override
+			void completeRequest(SftpChannel channel, byte[] handle, Request request, byte[] buf)
+					throws SftpStatusException, SshException, IOException {
+				if(channel != channels.get(0)) {
+					throw error;
+				}
+				super.completeRequest(channel, handle, request, buf);
+			}
+		};
+		
+		try {
+			transfer.transfer(FILE_SIZE, channels);
+			fail("The transfer should have failed");
+		} catch(SshException e) {
+			assertSame(error, e.getCause());
+		}
+	}
+	
+	/**
+	 * A worker that dies before it starts must also fail the transfer.
+	 */
+	public void testWorkerErrorFailsTransfer() throws Exception {
+		
+		createFile(new File(remoteFolder, "file"), FILE_SIZE, 3);
+		local.setLength(FILE_SIZE);
+		
+		final IllegalStateException error = new IllegalStateException("Worker failed");
+		SegmentedTransfer transfer = new SegmentedTransfer.Download(resolve("file"), local, BLOCK_SIZE, 
+				OUTSTANDING_REQUESTS, null) {
+			@Override
+			byte[] openHandle(SftpChannel channel) throws SftpStatusException, SshException {
+				if(channel != channels.get(0)) {
+					throw error;
+				}
+				return super.openHandle(channel);
+			}
+		};
+		
+		try {
+			transfer.transfer(FILE_SIZE, channels);
+			fail("The transfer should have failed");
+		} catch(SshException e) {
+			assertSame(error, e.getCause());
+		}
+	}
+	
+	private String resolve(String path) throws SftpStatusException, SshException {
+		return sftp.getAbsolutePath(path);
+	}
+}
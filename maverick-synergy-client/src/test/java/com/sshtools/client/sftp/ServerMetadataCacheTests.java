@@ -0,0 +1,99 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.sftp;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+
+import com.sshtools.common.policy.FileSystemPolicy;
+import com.sshtools.common.ssh.SshException;
+import com.sshtools.server.SshServerContext;
+
+/**
+ * Creating or removing a file changes the folder it is in, so the attributes the
+ * server has cached for the folder must not be returned afterwards.
+ */
+public class ServerMetadataCacheTests extends AbstractSftpTests {
+
+	static final long OLD_TIME = 1000000000000L;
+
+	File dir;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		dir = new File(remoteFolder, "dir");
+		dir.mkdir();
+		createFile(new File(dir, "file"), 10, 1);
+		new File(dir, "sub").mkdir();
+	}
+
+	@Override
+	protected void configureServer(SshServerContext context) throws IOException, SshException {
+		context.getPolicy(FileSystemPolicy.class).setSFTPMetadataCacheTTL(60000);
+	}
+
+	/**
+	 * Cache the folder's attributes with a modified time well in the past.
+	 */
+	void cacheOldFolder() throws Exception {
+		dir.setLastModified(OLD_TIME);
+		assertEquals(OLD_TIME / 1000, sftp.stat("dir").getModifiedTime().longValue());
+	}
+
+	void assertFolderChanged() throws Exception {
+		assertTrue(sftp.stat("dir").getModifiedTime().longValue() > OLD_TIME / 1000);
+	}
+
+	public void testMakeDirectory() throws Exception {
+		cacheOldFolder();
+		sftp.mkdir("dir/new");
+		assertFolderChanged();
+	}
+
+	public void testRemoveFile() throws Exception {
+		cacheOldFolder();
+		sftp.rm("dir/file");
+		assertFolderChanged();
+	}
+
+	public void testRemoveDirectory() throws Exception {
+		cacheOldFolder();
+		sftp.rm("dir/sub");
+		assertFolderChanged();
+	}
+
+	public void testCreateFile() throws Exception {
+		cacheOldFolder();
+		sftp.put(new ByteArrayInputStream(new byte[10]), "dir/created");
+		assertFolderChanged();
+	}
+
+	/**
+	 * The home folder is cached as "." when the client asks for it that way.
+	 */
+	public void testHomeFolder() throws Exception {
+		createFile(new File(remoteFolder, "file"), 10, 1);
+		remoteFolder.setLastModified(OLD_TIME);
+		SftpChannel channel = sftp.getSubsystemChannel();
+		assertEquals(OLD_TIME / 1000, channel.getAttributes(".").getModifiedTime().longValue());
+		sftp.rm("file");
+		assertTrue(channel.getAttributes(".").getModifiedTime().longValue() > OLD_TIME / 1000);
+	}
+}
@@ -0,0 +1,150 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.sftp;
+
+import java.util.concurrent.TimeUnit;
+
+import com.sshtools.client.tasks.FileTransferProgress;
+
+import junit.framework.TestCase;
+
+public class TransferWindowTests extends TestCase {
+
+	static final int BLOCKSIZE = 32768;
+	static final long FAST = TimeUnit.MILLISECONDS.toNanos(1);
+	static final long SLOW = TimeUnit.MILLISECONDS.toNanos(100);
+
+	static void complete(TransferWindow window, int count, long roundTrip) {
+		for(int i=0;i<count;i++) {
+			window.completed(window.getBlockSize(), roundTrip);
+		}
+	}
+
+	public void testSlowStartGrowth() {
+
+		TransferWindow window = new TransferWindow(64, BLOCKSIZE, Long.MAX_VALUE, null);
+		assertEquals(TransferWindow.INITIAL_REQUESTS, window.getOutstandingRequests());
+
+		complete(window, 10, FAST);
+		assertEquals(TransferWindow.INITIAL_REQUESTS + 10, window.getOutstandingRequests());
+		assertEquals(BLOCKSIZE, window.getBlockSize());
+	}
+
+	public void testBoundedByMaximumRequests() {
+
+		TransferWindow window = new TransferWindow(8, BLOCKSIZE, Long.MAX_VALUE, null);
+		complete(window, 100, FAST);
+		assertEquals(8, window.getOutstandingRequests());
+
+		window = new TransferWindow(0, BLOCKSIZE, Long.MAX_VALUE, null);
+		assertEquals(1, window.getOutstandingRequests());
+	}
+
+	public void testBoundedByChannelWindow() {
+
+		TransferWindow window = new TransferWindow(64, BLOCKSIZE, 10 * BLOCKSIZE, null);
+		complete(window, 100, FAST);
+		assertEquals(10, window.getOutstandingRequests());
+
+		window = new TransferWindow(64, BLOCKSIZE, BLOCKSIZE / 2, null);
+		assertEquals(1, window.getOutstandingRequests());
+	}
+
+	public void testBoundedByRemainingData() {
+
+		TransferWindow window = new TransferWindow(64, BLOCKSIZE, Long.MAX_VALUE, null);
+		complete(window, 100, FAST);
+		assertEquals(3, window.getOutstandingRequests(2 * BLOCKSIZE + 1));
+		assertEquals(1, window.getOutstandingRequests(0));
+		assertEquals(64, window.getOutstandingRequests(Long.MAX_VALUE / 2));
+	}
+
+	public void testBackoffWhenRoundTripsGrow() {
+
+		TransferWindow window = new TransferWindow(64, BLOCKSIZE, Long.MAX_VALUE, null);
+		complete(window, 20, FAST);
+		int grown = window.getOutstandingRequests();
+		assertEquals(24, grown);
+
+		complete(window, 50, SLOW);
+		int reduced = window.getOutstandingRequests();
+		assertTrue(reduced < grown);
+		assertTrue(reduced >= 1);
+
+		/**
+		 * Once reduced the window grows by about one request per window of completions
+		 */
+		complete(window, 200, FAST);
+		int before = window.getOutstandingRequests();
+		complete(window, before, FAST);
+		assertTrue(window.getOutstandingRequests() - before <= 1);
+	}
+
+	public void testBlockSizeHalvedAtOneRequest() {
+
+		TransferWindow window = new TransferWindow(1, BLOCKSIZE, Long.MAX_VALUE, null);
+		complete(window, 1, FAST);
+		assertEquals(1, window.getOutstandingRequests());
+
+		complete(window, 100, SLOW);
+		assertEquals(1, window.getOutstandingRequests());
+		assertEquals(TransferWindow.MIN_BLOCKSIZE, window.getBlockSize());
+
+		complete(window, 200, FAST);
+		assertEquals(BLOCKSIZE, window.getBlockSize());
+	}
+
+	public void testLimitBlockSize() {
+
+		TransferWindow window = new TransferWindow(64, BLOCKSIZE, Long.MAX_VALUE, null);
+		window.limitBlockSize(1000);
+		assertEquals(1000, window.getBlockSize());
+
+		complete(window, 200, FAST);
+		assertEquals(1000, window.getBlockSize());
+
+		window.limitBlockSize(0);
+		assertEquals(1, window.getBlockSize());
+	}
+
+	public void testChangesReported() {
+
+		final int[] reported = new int[3];
+		TransferWindow window = new TransferWindow(64, BLOCKSIZE, Long.MAX_VALUE, new FileTransferProgress() {
+			public void started(long bytesTotal, String remoteFile) { }
+			public boolean isCancelled() { return false; }
+			public void progressed(long bytesSoFar) { }
+			public void completed() { }
+			public void windowChanged(int outstandingRequests, int blocksize, long roundTripTime) {
+				reported[0]++;
+				reported[1] = outstandingRequests;
+				reported[2] = blocksize;
+			}
+		});
+
+		complete(window, 100, FAST);
+		assertEquals(64 - TransferWindow.INITIAL_REQUESTS, reported[0]);
+		assertEquals(64, reported[1]);
+		assertEquals(BLOCKSIZE, reported[2]);
+
+		window.limitBlockSize(1000);
+		assertEquals(64 - TransferWindow.INITIAL_REQUESTS + 1, reported[0]);
+		assertEquals(1000, reported[2]);
+	}
+}
@@ -122,7 +122,7 @@ public class SshEngineContext {
 	public synchronized ByteBufferPool getBufferPool() {
 		if (bufferPool == null)
 			bufferPool = new ByteBufferPool(bufferPoolArraySize,
-					useDirectByteBuffers);
+					false);
 		return bufferPool;
 	}
 
@@ -134,6 +134,105 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 		return channelOut;
 	}
 	
+	/**
+	 * Merge small writes to the channel's {@link OutputStream} into packets of up to the 
+	 * remote maximum packet size. Buffered data is sent when the packet is full, when the
+	 * stream is flushed or closed, on EOF, or once the flush deadline has expired.
+	 * 
+	 * @param flushDeadline maximum time in milliseconds that data is held before being sent.
+	 */
+	public void enableWriteCoalescing(long flushDeadline) {
+		channelOut.enableCoalescing(flushDeadline);
+	}
+	
+	/**
+	 * Send each write to the channel's {@link OutputStream} immediately. Any data currently
+	 * buffered is sent before this method returns.
+	 * 
+	 * @throws IOException
+	 */
+	public void disableWriteCoalescing() throws IOException {
+		channelOut.disableCoalescing();
+	}
+	
+	public boolean isWriteCoalescing() {
+		return channelOut.isCoalescing();
+	}
+	
+	/**
+	 * Indicates whether a coalescing output stream is holding data that must be sent 
+	 * before EOF or close.
+	 */
+	protected boolean hasCoalescedOutput() {
+		return channelOut.hasBufferedData();
+	}
+	
+	/**
+	 * Send any data held by coalescing output streams. This waits for any thread currently
+	 * writing to the streams and may block for window space.
+	 */
+	protected void flushCoalescedOutput() {
+		flushCoalescedOutput(channelOut);
+	}
+	
+	protected void flushCoalescedOutput(ChannelOutputStream out) {
+		try {
+			out.flush();
+		} catch (IOException e) {
+			if(Log.isDebugEnabled()) {
+				log("Failed to flush coalesced data", e);
+			}
+		}
+	}
+	
+	/**
+	 * Queue the data held by coalescing output streams without waiting for window space
+	 * or for a thread that is writing to them.
+	 * 
+	 * @return false if any data is still held
+	 */
+	protected boolean queueCoalescedOutput() {
+		return queueCoalescedOutput(channelOut);
+	}
+	
+	protected boolean queueCoalescedOutput(ChannelOutputStream out) {
+		return out.queueBuffer();
+	}
+	
+	/**
+	 * Flush coalesced data ahead of EOF or close. Data cannot be sent on the selector thread
+	 * or while holding the channel lock, because the send may block. In that case the data
+	 * is queued ahead of the EOF or close when the remote window has space for it. Only when
+	 * it does not are the flush, and the operation that must follow it, run on the executor 
+	 * once the window allows.
+	 * 
+	 * @param operation the operation to run once the data has been sent
+	 * @return true if the operation has been deferred and the caller should not continue
+	 */
+	private boolean deferUntilFlushed(final Runnable operation) {
+		
+		if(!hasCoalescedOutput() || !isOpen()) {
+			return false;
+		}
+		
+		if(Thread.holdsLock(this) 
+				|| getConnectionProtocol().getTransport().getSocketConnection().isSelectorThread()) {
+			if(queueCoalescedOutput()) {
+				return false;
+			}
+			getContext().getExecutorService().execute(new Runnable() {
+				public void run() {
+					flushCoalescedOutput();
+					operation.run();
+				}
+			});
+			return true;
+		}
+		
+		flushCoalescedOutput();
+		return false;
+	}
+	
 	public ChannelNG(String channelType, int maximumPacketSize,
 			int initialWindowSize, int maximumWindowSpace, int minimumWindowSpace) {
 		this(channelType, maximumPacketSize,
@@ -584,6 +683,35 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 		}
 	}
 	
+	/**
+	 * Queue data to be sent only if the remote window has space for all of it. Unlike
+	 * {@link #sendChannelDataAndBlock(ByteBuffer, int, Runnable)} this never waits, so it
+	 * can be called on the selector thread. The buffer must not be reused once queued.
+	 * 
+	 * @return false if nothing was queued
+	 */
+	synchronized boolean queueChannelData(ByteBuffer buf, int type) {
+		
+		if(isLocalEOF.get() || isClosed() || remoteWindow.getWindowSpace() < buf.remaining()) {
+			return false;
+		}
+		
+		lastActivity = System.currentTimeMillis();
+		
+		while(buf.hasRemaining()) {
+			int count = Math.min(remoteWindow.getMaximumPacketSize(), buf.remaining());
+			ByteBuffer processedBuffer = buf.slice();
+			processedBuffer.limit(count);
+			buf.position(buf.position() + count);
+			remoteWindow.consume(count);
+			for (ChannelEventListener listener : eventListeners) {
+				listener.onChannelDataOut(this, processedBuffer);
+			}
+			connection.sendMessage(new ChannelData(processedBuffer, type, remoteWindow.getWindowSpace()));
+		}
+		return true;
+	}
+	
 	/**
 	 * Get the current configuration from the underlying connection.
 	 * 
@@ -710,8 +838,9 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 	}
 
 	void fail() {
-		openFuture.done(false);
+		// Let the channel clean up before anything waiting on the open does
 		onChannelOpenFailure();
+		openFuture.done(false);
 	}
 
 	/**
@@ -751,6 +880,16 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 	 */
 	protected void close(boolean forceClose) {
 
+		if(!forceClose && !sentClose.get() && !isLocalEOF.get()) {
+			if(deferUntilFlushed(new Runnable() {
+				public void run() {
+					close(false);
+				}
+			})) {
+				return;
+			}
+		}
+
 		if(Log.isTraceEnabled()) {
 				log("Checking", "close state force="
 						+ forceClose + " channelType=" + getChannelType());
@@ -958,6 +1097,16 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 	 */
 	public void sendEOF() {
 
+		if (isOpen() && !sentClose.get() && !isLocalEOF.get()) {
+			if(deferUntilFlushed(new Runnable() {
+				public void run() {
+					sendEOF();
+				}
+			})) {
+				return;
+			}
+		}
+		
 		if (isOpen() && !sentClose.get() && !isLocalEOF.get()) {
 			isLocalEOF.set(true);
 			remoteWindow.close();
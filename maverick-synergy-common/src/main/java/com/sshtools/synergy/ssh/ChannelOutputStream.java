@@ -20,14 +20,52 @@ package com.sshtools.synergy.ssh;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.sshtools.common.logger.Log;
 
 public class ChannelOutputStream extends OutputStream {
 
+		/**
+		 * Runs the flush deadlines of every stream. Its thread exits once nothing has been
+		 * scheduled for a while, so it does not need to be shut down, and a cancelled flush 
+		 * is removed at once rather than held until its deadline.
+		 */
+		static final ScheduledThreadPoolExecutor flushScheduler = new ScheduledThreadPoolExecutor(1, 
+				new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread t = Executors.defaultThreadFactory().newThread(r);
+						t.setName("channel-flush-scheduler");
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		
+		static {
+			flushScheduler.setKeepAliveTime(5, TimeUnit.SECONDS);
+			flushScheduler.allowCoreThreadTimeOut(true);
+			flushScheduler.setRemoveOnCancelPolicy(true);
+		}
+		
 		int type = -1;
 		
 		ChannelNG<?> channel;
 		boolean sentEOF;
 		
+		volatile boolean coalescing;
+		long flushDeadline;
+		ByteBuffer buffer;
+		ScheduledFuture<?> pendingFlush;
+		volatile boolean buffered;
+		ReentrantLock lock = new ReentrantLock();
+		
 		public ChannelOutputStream(ChannelNG<?> channel) {
 			this.channel = channel;
 		}
@@ -37,9 +75,55 @@ public class ChannelOutputStream extends OutputStream {
 			this.channel = channel;
 		}
 		
+		/**
+		 * Merge small writes into a single SSH_MSG_CHANNEL_DATA packet. Data is held 
+		 * until the remote maximum packet size is reached, {@link #flush()} or {@link #close()}
+		 * is called, or the flush deadline expires.
+		 * 
+		 * @param flushDeadline the maximum time in milliseconds data may be held in the buffer. 
+		 * A value of zero or less disables the deadline so data is only sent when the buffer
+		 * is full or explicitly flushed.
+		 */
+		public void enableCoalescing(long flushDeadline) {
+			lock.lock();
+			try {
+				this.flushDeadline = flushDeadline;
+				this.coalescing = true;
+			} finally {
+				lock.unlock();
+			}
+		}
+		
+		/**
+		 * Stop merging writes, any data currently held in the buffer is sent immediately.
+		 * 
+		 * @throws IOException
+		 */
+		public void disableCoalescing() throws IOException {
+			lock.lock();
+			try {
+				// Writers that see coalescing switched off send directly, so the buffer goes first
+				flushBuffer();
+			} finally {
+				coalescing = false;
+				buffer = null;
+				lock.unlock();
+			}
+		}
+		
+		public boolean isCoalescing() {
+			return coalescing;
+		}
+		
+		public boolean hasBufferedData() {
+			return buffered;
+		}
+		
 		@Override
 		public void write(int b) throws IOException {
-			if(type > -1) {
+			if(coalescing) {
+				write(new byte[] { (byte) b}, 0, 1);
+			} else if(type > -1) {
 				channel.sendExtendedData(new byte[] { (byte) b}, type);
 			} else {
 				channel.sendChannelDataAndBlock(new byte[] { (byte) b});
@@ -48,6 +132,73 @@ public class ChannelOutputStream extends OutputStream {
 
 		@Override
 		public void write(byte[] b, int off, int len) throws IOException {
+			
+			if(!coalescing) {
+				sendData(b, off, len);
+				return;
+			}
+			
+			lock.lock();
+			try {
+				if(!coalescing) {
+					// Switched off while waiting for the lock, the buffer has been sent
+					sendData(b, off, len);
+					return;
+				}
+				
+				if(Objects.isNull(buffer)) {
+					buffer = ByteBuffer.allocate(channel.getRemotePacket());
+				}
+				
+				if(len >= buffer.capacity()) {
+					flushBuffer();
+					sendData(b, off, len);
+					return;
+				}
+				
+				if(buffer.remaining() < len) {
+					flushBuffer();
+				}
+				
+				buffer.put(b, off, len);
+				buffered = true;
+				
+				if(!buffer.hasRemaining()) {
+					flushBuffer();
+				} else {
+					scheduleFlush();
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+		
+		@Override
+		public void flush() throws IOException {
+			lock.lock();
+			try {
+				flushBuffer();
+			} finally {
+				lock.unlock();
+			}
+		}
+		
+		public void close() throws IOException {
+			lock.lock();
+			try {
+				flushBuffer();
+			} finally {
+				lock.unlock();
+				synchronized(channel) {
+					if(!sentEOF && !channel.isClosed() && !channel.isClosing()) {
+						channel.sendEOF();
+						sentEOF = true;
+					}
+				}
+			}
+		}
+		
+		private void sendData(byte[] b, int off, int len) throws IOException {
 			if(type > -1) {
 				channel.sendExtendedData(b, off, len, type);
 			} else {
@@ -55,12 +206,84 @@ public class ChannelOutputStream extends OutputStream {
 			}
 		}
 		
-		public void close() {
-			synchronized(channel) {
-				if(!sentEOF && !channel.isClosed() && !channel.isClosing()) {
-					channel.sendEOF();
-					sentEOF = true;
+		/**
+		 * Queue any buffered data without waiting for window space or for a writer, so 
+		 * that it can go ahead of EOF or close on a thread that must not block.
+		 * 
+		 * @return false if data is still buffered
+		 */
+		boolean queueBuffer() {
+			
+			if(!lock.tryLock()) {
+				return false;
+			}
+			try {
+				if(Objects.isNull(buffer) || buffer.position() == 0) {
+					return true;
+				}
+				
+				buffer.flip();
+				if(!channel.queueChannelData(buffer, type > -1 ? type : 0)) {
+					buffer.position(buffer.limit());
+					buffer.limit(buffer.capacity());
+					return false;
 				}
+				
+				cancelFlush();
+				// The queued messages hold the buffer until they are sent
+				buffer = null;
+				buffered = false;
+				return true;
+			} finally {
+				lock.unlock();
 			}
 		}
-	}
\ No newline at end of file
+		
+		private void cancelFlush() {
+			if(Objects.nonNull(pendingFlush)) {
+				pendingFlush.cancel(false);
+				pendingFlush = null;
+			}
+		}
+		
+		private void flushBuffer() throws IOException {
+			
+			cancelFlush();
+			
+			if(Objects.isNull(buffer) || buffer.position() == 0) {
+				return;
+			}
+			
+			buffer.flip();
+			try {
+				// The send blocks until the final packet has been written so the buffer can be reused
+				channel.sendChannelDataAndBlock(buffer, type > -1 ? type : 0, null);
+			} finally {
+				buffer.clear();
+				buffered = false;
+			}
+		}
+		
+		private void scheduleFlush() {
+			
+			if(flushDeadline <= 0 || Objects.nonNull(pendingFlush)) {
+				return;
+			}
+			
+			pendingFlush = flushScheduler.schedule(new Runnable() {
+				public void run() {
+					channel.getContext().getExecutorService().execute(new Runnable() {
+						public void run() {
+							try {
+								flush();
+							} catch (IOException e) {
+								if(Log.isDebugEnabled()) {
+									Log.debug("Failed to flush coalesced channel data", e);
+								}
+							}
+						}
+					});
+				}
+			}, flushDeadline, TimeUnit.MILLISECONDS);
+		}
+	}
@@ -75,6 +75,11 @@ public class Connection<T extends SshContext> implements EventTrigger, SshConnec
 					transport.getDisconnectFuture().disconnected();
 				}
 			}
+
+			@Override
+			public boolean isInterestedIn(int eventCode) {
+				return eventCode==EventCodes.EVENT_DISCONNECTED;
+			}
 		});
 	}
 	
@@ -88,6 +93,16 @@ public class Connection<T extends SshContext> implements EventTrigger, SshConnec
 		listeners.remove(listener);
 	}
 
+    @Override
+    public synchronized boolean hasListeners(int eventCode) {
+    	for(EventListener listener : listeners) {
+    		if(listener.isInterestedIn(eventCode)) {
+    			return true;
+    		}
+    	}
+    	return false;
+    }
+
     public synchronized void fireEvent(Event evt)
     {
         EventException lastException = null;
@@ -20,10 +20,13 @@ package com.sshtools.synergy.ssh;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
 
 import com.sshtools.common.events.Event;
 import com.sshtools.common.events.EventCodes;
@@ -32,7 +35,9 @@ import com.sshtools.common.logger.Log;
 import com.sshtools.common.ssh.SshException;
 
 /**
- * This class provides management of remote forwarding requests.
+ * This class provides management of remote forwarding requests. Listeners are indexed 
+ * by their bind address and port and by the connection that owns them so that starting 
+ * and stopping a forwarding does not contend with other connections.
  */
 public class ForwardingManager<T extends SshContext> {
 	
@@ -40,10 +45,12 @@ public class ForwardingManager<T extends SshContext> {
 		
 	}
 
-	Map<Connection<T>, List<String>> portsByConnection = new HashMap<Connection<T>, List<String>>();
-	protected Map<String, ForwardingFactory<T>> listeningPorts = Collections
-			.synchronizedMap(new HashMap<String, ForwardingFactory<T>>());
-
+	Map<Connection<T>, Set<String>> portsByConnection = new ConcurrentHashMap<Connection<T>, Set<String>>();
+	protected Map<String, ForwardingFactory<T>> listeningPorts = new ConcurrentHashMap<String, ForwardingFactory<T>>();
+	ConcurrentHashMap<Integer, Set<String>> addressesByPort = new ConcurrentHashMap<Integer, Set<String>>();
+	
+	int maximumForwardingsPerConnection = 0;
+	
 	public ForwardingManager() {
 	}
 	
@@ -51,6 +58,54 @@ public class ForwardingManager<T extends SshContext> {
 		return listeningPorts.get(addressToBind + ":" + portToBind);
 	}
 
+	/**
+	 * Get the maximum number of listening forwards a single connection may own.
+	 * 
+	 * @return int
+	 */
+	public int getMaximumForwardingsPerConnection() {
+		return maximumForwardingsPerConnection;
+	}
+
+	/**
+	 * Set the maximum number of listening forwards a single connection may own. A value of
+	 * zero or less means there is no limit.
+	 * 
+	 * @param maximumForwardingsPerConnection
+	 */
+	public void setMaximumForwardingsPerConnection(int maximumForwardingsPerConnection) {
+		this.maximumForwardingsPerConnection = maximumForwardingsPerConnection;
+	}
+	
+	/**
+	 * Get the number of listening forwards owned by a connection.
+	 * 
+	 * @param con
+	 * @return int
+	 */
+	public int getForwardingCount(Connection<T> con) {
+		Set<String> keys = portsByConnection.get(con);
+		return keys == null ? 0 : keys.size();
+	}
+	
+	/**
+	 * Get the total number of listening forwards.
+	 * 
+	 * @return int
+	 */
+	public int getForwardingCount() {
+		return listeningPorts.size();
+	}
+	
+	/**
+	 * Get the number of connections that own at least one listening forward.
+	 * 
+	 * @return int
+	 */
+	public int getConnectionCount() {
+		return portsByConnection.size();
+	}
+	
 	/**
 	 * Is there an existing forwarding listening on a particular port?
 	 * 
@@ -58,48 +113,83 @@ public class ForwardingManager<T extends SshContext> {
 	 *            int
 	 * @return boolean
 	 */
-	public synchronized boolean isListening(int port) {
-		synchronized(listeningPorts) {
-			return listeningPorts.containsKey(String.valueOf(port))
-					|| listeningPorts.containsKey("0.0.0.0:" + port)
-					|| listeningPorts.containsKey("::" + port);
-		}
+	public boolean isListening(int port) {
+		return listeningPorts.containsKey(String.valueOf(port))
+				|| listeningPorts.containsKey("0.0.0.0:" + port)
+				|| listeningPorts.containsKey("::" + port);
 	}
 
-	public synchronized int startListening(String addressToBind, int portToBind, Connection<T> con,
+	public int startListening(String addressToBind, int portToBind, Connection<T> con,
 			SocketListeningForwardingFactoryImpl<T> forwardingFactory) throws SshException {
 
+		/**
+		 * Register the listener under the lock of a key set that is still in use, so that
+		 * a concurrent stopForwarding either sees the new key or retires the set first.
+		 */
+		while(true) {
+			Set<String> keys = getConnectionKeys(con);
+			synchronized(keys) {
+				if(portsByConnection.get(con) != keys) {
+					continue;
+				}
+				try {
+					return listen(addressToBind, portToBind, con, forwardingFactory, keys);
+				} finally {
+					if(keys.isEmpty()) {
+						portsByConnection.remove(con);
+					}
+				}
+			}
+		}
+	}
+	
+	private int listen(String addressToBind, int portToBind, Connection<T> con,
+			SocketListeningForwardingFactoryImpl<T> forwardingFactory, Set<String> keys) throws SshException {
+		
 		String key = addressToBind + ":" + portToBind;
 		
-		if (portToBind > 0 && isListening(portToBind)) {
-			throw new SshException("Port " + portToBind + " already in use", SshException.FORWARDING_ERROR);
+		if(maximumForwardingsPerConnection > 0 && keys.size() >= maximumForwardingsPerConnection) {
+			throw new SshException(String.format("Connection has reached the maximum of %d forwardings", 
+					maximumForwardingsPerConnection), SshException.FORWARDING_ERROR);
 		}
-
+		
+		/**
+		 * Reserve a fixed port before binding so that concurrent requests for the
+		 * same port do not both attempt to bind it.
+		 */
+		boolean reserved = false;
+		if(portToBind > 0) {
+			if(!reservePort(addressToBind, portToBind)) {
+				throw new SshException("Port " + portToBind + " already in use", SshException.FORWARDING_ERROR);
+			}
+			reserved = true;
+		}
+		
 		try {
 			
 			portToBind = forwardingFactory.bindInterface(addressToBind, portToBind, con.getConnectionProtocol(),
 					forwardingFactory.getChannelType());
 			key = addressToBind + ":" + portToBind;
 			
-			listeningPorts.put(key, forwardingFactory);
-			
-			if(!portsByConnection.containsKey(con)) {
-				portsByConnection.put(con,  new ArrayList<String>());
+			if(!reserved) {
+				// The port was chosen by the bind so nothing else can hold it
+				reserved = reservePort(addressToBind, portToBind);
 			}
 			
-			portsByConnection.get(con).add(key);
+			listeningPorts.put(key, forwardingFactory);
+			keys.add(key);
 			
 			EventServiceImplementation.getInstance()
 					.fireEvent((new Event(this, forwardingFactory.getStartedEventCode(), true))
 							.addAttribute(EventCodes.ATTRIBUTE_CONNECTION, con)
 							.addAttribute(EventCodes.ATTRIBUTE_FORWARDING_TUNNEL_ENTRANCE,
 									addressToBind + ":" + portToBind));
-
+	
 			if(Log.isDebugEnabled())
 				Log.debug("Listening for new connections on " + addressToBind + ":" + portToBind);
-
+	
 			return portToBind;
-
+	
 		} catch (IOException ex) {
 			if(Log.isDebugEnabled())
 				Log.debug("Exception caught on socket bind", ex);
@@ -107,17 +197,97 @@ public class ForwardingManager<T extends SshContext> {
 			if(Log.isDebugEnabled())
 				Log.debug("Could not instantiate remote forwarding channel factory", t);
 		}
+		
+		if(reserved) {
+			listeningPorts.remove(key, forwardingFactory);
+			releasePort(addressToBind, portToBind);
+		}
 
 		throw new SshException("Failed to start listening socket on " + addressToBind + ":" + portToBind,
 				SshException.FORWARDING_ERROR);
 
 	}
 	
+	/**
+	 * Record an address as bound on a port, unless the port is already bound on the same
+	 * address or on one that overlaps it. The check and the record are made in one step 
+	 * for each port.
+	 * 
+	 * @return false if the port is already in use
+	 */
+	private boolean reservePort(final String addressToBind, int portToBind) {
+		final boolean[] reserved = new boolean[1];
+		addressesByPort.compute(portToBind, new BiFunction<Integer, Set<String>, Set<String>>() {
+			public Set<String> apply(Integer port, Set<String> addresses) {
+				if(Objects.isNull(addresses)) {
+					addresses = new HashSet<String>();
+				}
+				if(!isBound(addresses, addressToBind)) {
+					addresses.add(addressToBind);
+					reserved[0] = true;
+				}
+				return addresses;
+			}
+		});
+		return reserved[0];
+	}
+	
+	private void releasePort(final String addressToBind, int portToBind) {
+		addressesByPort.computeIfPresent(portToBind, new BiFunction<Integer, Set<String>, Set<String>>() {
+			public Set<String> apply(Integer port, Set<String> addresses) {
+				addresses.remove(addressToBind);
+				return addresses.isEmpty() ? null : addresses;
+			}
+		});
+	}
+	
+	/**
+	 * Is a port bound on the given addresses already bound on this one? A bind on every 
+	 * interface overlaps any other.
+	 */
+	static boolean isBound(Set<String> addresses, String addressToBind) {
+		if(addresses.contains(addressToBind) || (isWildcard(addressToBind) && !addresses.isEmpty())) {
+			return true;
+		}
+		for(String address : addresses) {
+			if(isWildcard(address)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Does a bind on this address listen on every interface?
+	 */
+	static boolean isWildcard(String addressToBind) {
+		return addressToBind.isEmpty() || addressToBind.equals("0.0.0.0") || addressToBind.equals("::");
+	}
+	
+	private Set<String> getConnectionKeys(Connection<T> con) {
+		Set<String> keys = portsByConnection.get(con);
+		if(Objects.isNull(keys)) {
+			Set<String> newKeys = ConcurrentHashMap.newKeySet();
+			keys = portsByConnection.putIfAbsent(con, newKeys);
+			if(Objects.isNull(keys)) {
+				keys = newKeys;
+			}
+		}
+		return keys;
+	}
+	
 	public void stopForwarding(Connection<T> con) {
 		
-		if (portsByConnection.containsKey(con)) {
-			List<String> keys = new ArrayList<String>(portsByConnection.get(con));
-			for (String key : keys) {
+		Set<String> keys = portsByConnection.get(con);
+		if (Objects.nonNull(keys)) {
+			List<String> stopping;
+			synchronized(keys) {
+				if(portsByConnection.get(con) == keys) {
+					portsByConnection.remove(con);
+				}
+				stopping = new ArrayList<String>(keys);
+			}
+			for (String key : stopping) {
 				stopListening(key, true, con);
 			}
 		}
@@ -125,11 +295,9 @@ public class ForwardingManager<T extends SshContext> {
 	}
 	
 	public void stopForwarding(String key, Connection<T> con) {
-		if(portsByConnection.containsKey(con)) {
-			List<String> keys = portsByConnection.get(con);
-			if(keys.contains(key)) {
-				stopListening(key, true, con);
-			}
+		Set<String> keys = portsByConnection.get(con);
+		if(Objects.nonNull(keys) && keys.contains(key)) {
+			stopListening(key, true, con);
 		}
 	}
 
@@ -146,27 +314,37 @@ public class ForwardingManager<T extends SshContext> {
 	 *            ConnectionProtocol
 	 * @return boolean
 	 */
-	public synchronized boolean stopListening(String addressToBind, int portToBind, boolean dropActiveTunnels,
+	public boolean stopListening(String addressToBind, int portToBind, boolean dropActiveTunnels,
 			Connection<T> connection) {
 
 		String key = addressToBind + ":" + String.valueOf(portToBind);
 		return stopListening(key, dropActiveTunnels, connection);
 	}
 	
-	public synchronized boolean stopListening(String key, boolean dropActiveTunnels,
+	public boolean stopListening(String key, boolean dropActiveTunnels,
 			Connection<T> connection) {
 
 		if(Log.isDebugEnabled()) {
 			Log.debug("Forwarding cancelled for address " + key);
 		}
-		if (listeningPorts.containsKey(key)) {
-
-			ForwardingFactory<T> ff = (ForwardingFactory<T>) listeningPorts.get(key);
+		
+		ForwardingFactory<T> ff = listeningPorts.get(key);
+		
+		if (Objects.nonNull(ff)) {
 
-			if (ff.belongsTo(connection.getConnectionProtocol())) {
+			if (ff.belongsTo(connection.getConnectionProtocol()) && listeningPorts.remove(key, ff)) {
 				ff.stopListening(dropActiveTunnels);
-				portsByConnection.get(connection).remove(key);
-				listeningPorts.remove(key);
+				int idx = key.lastIndexOf(':');
+				releasePort(key.substring(0, idx), Integer.parseInt(key.substring(idx + 1)));
+				Set<String> keys = portsByConnection.get(connection);
+				if(Objects.nonNull(keys)) {
+					synchronized(keys) {
+						keys.remove(key);
+						if(keys.isEmpty() && portsByConnection.get(connection) == keys) {
+							portsByConnection.remove(connection);
+						}
+					}
+				}
 				EventServiceImplementation.getInstance().fireEvent((new Event(this, ff.getStoppedEventCode(), true))
 						.addAttribute(EventCodes.ATTRIBUTE_CONNECTION, connection).addAttribute(
 								EventCodes.ATTRIBUTE_FORWARDING_TUNNEL_ENTRANCE, key));
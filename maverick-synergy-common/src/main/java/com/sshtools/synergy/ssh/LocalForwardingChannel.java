@@ -44,6 +44,7 @@ public class LocalForwardingChannel<T extends SshContext> extends SocketForwardi
 		ClientConnector {
 
 	boolean hasConnected = false;
+	volatile boolean optimisticOpen = false;
 
 	public LocalForwardingChannel(String channelType, SshConnection con) {
 		super(channelType, con);
@@ -85,6 +86,16 @@ public class LocalForwardingChannel<T extends SshContext> extends SocketForwardi
 			baw.writeInt(originatingPort = ((InetSocketAddress) socketChannel
 					.socket().getRemoteSocketAddress()).getPort());
 
+			if(canOpenOptimistically()) {
+				/**
+				 * Start reading from the socket now so the first payload is ready to
+				 * send as soon as the channel is confirmed.
+				 */
+				optimisticOpen = true;
+				connection.getContext().getEngine()
+						.registerHandler(this, socketChannel);
+			}
+			
 			return baw.toByteArray();
 
 		} finally {
@@ -251,6 +262,11 @@ public class LocalForwardingChannel<T extends SshContext> extends SocketForwardi
 	 */
 	protected synchronized void onChannelOpenConfirmation() {
 		
+		if(optimisticOpen) {
+			sendQueuedData();
+			return;
+		}
+		
 		try {
 			connection.getContext().getEngine()
 					.registerHandler(this, socketChannel);
@@ -269,11 +285,40 @@ public class LocalForwardingChannel<T extends SshContext> extends SocketForwardi
 	 * the start of the tunnel.
 	 */
 	protected void onChannelOpenFailure() {
+		
+		if(optimisticOpen) {
+			/**
+			 * The client may already have sent data, reset the connection so the
+			 * failure is not mistaken for an empty response.
+			 */
+			optimisticOpen = false;
+			try {
+				socketChannel.socket().setSoLinger(true, 0);
+			} catch (IOException e) {
+			}
+			shutdownSocket();
+			discardQueuedData();
+			return;
+		}
+		
 		try {
 			socketChannel.close();
 		} catch (IOException e) {
 		}
 	}
+	
+	/**
+	 * Should the socket be read before the channel open has been confirmed.
+	 * @return boolean
+	 */
+	protected boolean canOpenOptimistically() {
+		return getContext().getForwardingPolicy().isOptimisticChannelOpen();
+	}
+	
+	@Override
+	protected boolean isOpenPending() {
+		return optimisticOpen && state == CHANNEL_UNINITIALIZED;
+	}
 
 	@Override
 	public void initialize(ProtocolEngine engine, SshEngine daemon, SelectableChannel channel) {
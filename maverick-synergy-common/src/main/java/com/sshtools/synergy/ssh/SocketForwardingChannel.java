@@ -24,14 +24,19 @@ import java.nio.ByteBuffer;
 import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.sshtools.common.forwarding.ForwardingPolicy;
 import com.sshtools.common.logger.Log;
 import com.sshtools.common.nio.WriteOperationRequest;
+import com.sshtools.common.ssh.ChannelEventListener;
 import com.sshtools.common.ssh.ChannelOpenException;
 import com.sshtools.common.ssh.ConnectionAwareTask;
 import com.sshtools.common.ssh.SshConnection;
+import com.sshtools.common.util.ByteBufferPool;
 import com.sshtools.synergy.nio.ProtocolEngine;
 import com.sshtools.synergy.nio.SelectorThread;
 import com.sshtools.synergy.nio.SocketHandler;
@@ -60,11 +65,16 @@ public abstract class SocketForwardingChannel<T extends SshContext> extends Forw
 	/** flag indicating that the channel is being closed */
 	boolean closePending = false;
 
-	ForwardingDataWindow toChannel;
+	/** buffers read from the socket waiting to be sent as channel data */
+	ConcurrentLinkedQueue<ByteBuffer> toChannel = new ConcurrentLinkedQueue<ByteBuffer>();
+	AtomicInteger toChannelBytes = new AtomicInteger();
+	int maximumQueuedBytes;
+	ByteBufferPool bufferPool;
 	
 	long totalIn;
 	long totalOut;
 	AtomicBoolean socketEOF = new AtomicBoolean(false);
+	AtomicBoolean pendingEOF = new AtomicBoolean(false);
 	
 	/**
 	 * Construct the forwarding channel.
@@ -77,7 +87,8 @@ public abstract class SocketForwardingChannel<T extends SshContext> extends Forw
 				con.getContext().getPolicy(ForwardingPolicy.class).getForwardingMaxWindowSize(),
 				con.getContext().getPolicy(ForwardingPolicy.class).getForwardingMaxWindowSize(), 
 				con.getContext().getPolicy(ForwardingPolicy.class).getForwardingMinWindowSize());
-		toChannel = new ForwardingDataWindow(con.getContext().getPolicy(ForwardingPolicy.class).getForwardingMaxWindowSize());
+		maximumQueuedBytes = con.getContext().getPolicy(ForwardingPolicy.class).getForwardingMaxWindowSize();
+		bufferPool = ((SshContext)con.getContext()).getForwardingBufferPool();
 	}
 
 	protected CachingDataWindow createCache(int maximumWindowSpace) {
@@ -134,14 +145,74 @@ public abstract class SocketForwardingChannel<T extends SshContext> extends Forw
 	 */
 	protected void onChannelData(ByteBuffer data) {
 		
-		super.onChannelData(data);
-		changeInterestedOps();
+		for (ChannelEventListener listener : eventListeners) {
+			listener.onChannelDataIn(this, data);
+		}
+		
+		writeSocketData(data);
 		
 		if(socketEOF.get() && canClose()) {
 			close();
 		}
 	}
 
+	/**
+	 * Write data to the socket behind anything already cached. Whatever the socket does
+	 * not accept now is cached and written on the next write event, so this never blocks.
+	 */
+	protected void writeSocketData(ByteBuffer data) {
+		
+		synchronized (cache) {
+			if (!cache.hasRemaining()) {
+				writeToSocket(data);
+			}
+			if (data.hasRemaining()) {
+				cache.put(data);
+			}
+		}
+		
+		changeInterestedOps();
+	}
+	
+	/**
+	 * Write channel data straight from the incoming message to the socket. Whatever
+	 * the socket does not accept is left in the buffer to be cached until the next 
+	 * write event.
+	 */
+	private void writeToSocket(ByteBuffer data) {
+		
+		SocketChannel socketChannel = this.socketChannel;
+		if (Objects.isNull(socketChannel) || !socketChannel.isConnected() || socketEOF.get()) {
+			return;
+		}
+		
+		try {
+			int written = 0;
+			int r;
+			while (data.hasRemaining() && (r = socketChannel.write(data)) > 0) {
+				written += r;
+			}
+			totalOut += written;
+			
+			if(Log.isDebugEnabled()) {
+				log(String.format("Processed DIRECT FORWARDING WRITE written=%d", written));
+			}
+			
+			if(!data.hasRemaining() && localWindow.isAdjustRequired()) {
+				sendWindowAdjust();
+			}
+		} catch (IOException e) {
+			
+			if (Log.isTraceEnabled()) {
+				log("writeToSocket() failed to write to socket", e);
+			}
+			
+			socketEOF.set(true);
+			data.position(data.limit());
+			evaluateClosure();
+		}
+	}
+	
 	protected void onChannelRequest(String parm1, boolean parm2, byte[] parm3) {
 		// Forwarding channels do not support any requests
 		sendRequestResponse(false);
@@ -175,10 +246,23 @@ public abstract class SocketForwardingChannel<T extends SshContext> extends Forw
 
 
 	/**
-	 * does nothing
+	 * Return any buffers that were not sent to the pool.
 	 */
 	protected void onChannelFree() {
-
+		discardQueuedData();
+	}
+	
+	/**
+	 * Return the buffers read from the socket but not sent to the pool, along with any 
+	 * EOF waiting to follow them.
+	 */
+	protected void discardQueuedData() {
+		ByteBuffer buf;
+		while((buf = toChannel.poll()) != null) {
+			toChannelBytes.addAndGet(-buf.remaining());
+			bufferPool.add(buf);
+		}
+		pendingEOF.set(false);
 	}
 
 	/**
@@ -218,13 +302,11 @@ public abstract class SocketForwardingChannel<T extends SshContext> extends Forw
 			return false;
 		}
 		
-		synchronized(toChannel) {
-			if (toChannel.hasRemaining() && isOpen() && !isLocalEOF()) {
-				if (Log.isTraceEnabled()) {
-					log("Not closing due to channel cache");
-				}
-				return false;
+		if (toChannelBytes.get() > 0 && isOpen() && !isLocalEOF()) {
+			if (Log.isTraceEnabled()) {
+				log("Not closing due to channel cache");
 			}
+			return false;
 		}
 
 		return super.canClose();
@@ -323,16 +405,29 @@ public abstract class SocketForwardingChannel<T extends SshContext> extends Forw
 			log("Processing FORWARDING READ");
 		}
 		
-		if (socketChannel == null || !socketChannel.isConnected() || !isOpen()) {
+		if (socketChannel == null || !socketChannel.isConnected() || !(isOpen() || isOpenPending())) {
 			if(Log.isTraceEnabled()) {
 				log("Forwarding socket is closed");
 			}
 			return true;
 		}
 
+		/**
+		 * Nothing can be sent until the channel is confirmed, so while it is opening
+		 * never queue more than the largest window the other side could give us.
+		 */
+		int space = isOpen() ? getRemotePacket() : maximumQueuedBytes - toChannelBytes.get();
+		if(space <= 0) {
+			return false;
+		}
+		
+		ByteBuffer buf = bufferPool.get();
+		
 		try {
 
-			int numBytesRead = toChannel.read(socketChannel);
+			buf.limit(Math.min(buf.capacity(), space));
+			
+			int numBytesRead = socketChannel.read(buf);
 			
 
 			if(Log.isDebugEnabled()) {
@@ -341,18 +436,16 @@ public abstract class SocketForwardingChannel<T extends SshContext> extends Forw
 			
 			if (numBytesRead <= 0) {
 
+				bufferPool.add(buf);
+				buf = null;
+				
 				if (numBytesRead == -1) {
 
 					socketEOF.set(true);
 					if(Log.isDebugEnabled()) {
 						log("Received EOF from forwarding socket");
 					}
-					getConnectionProtocol().addOutgoingTask(new ConnectionAwareTask(con) {
-						protected void doTask() {
-							sendEOF();
-							evaluateClosure();
-						}
-					});
+					queueEOF();
 					
 					return true;
 				}
@@ -364,21 +457,35 @@ public abstract class SocketForwardingChannel<T extends SshContext> extends Forw
 				if(Log.isDebugEnabled())
 					log("Processing FORWARDING READ read=" + numBytesRead);
 
-				getConnectionProtocol().addOutgoingTask(new QueueChannelDataTask(con, numBytesRead));
+				buf.flip();
+				toChannelBytes.addAndGet(numBytesRead);
+				toChannel.add(buf);
+				buf = null;
+				
+				/**
+				 * If the channel is still opening the data stays queued until 
+				 * the confirmation arrives.
+				 */
+				if(isOpen()) {
+					getConnectionProtocol().addOutgoingTask(new QueueChannelDataTask(con));
+				} else if(!isOpenPending()) {
+					// The open failed while we were reading
+					discardQueuedData();
+				}
 			}
 
 		} catch (Throwable ex) {
+			
+			if (buf != null) {
+				bufferPool.add(buf);
+			}
+			
 			if (Log.isTraceEnabled())
 				log("processReadEvent() failed to read from socket", ex);
 
 			socketEOF.set(true);
 			
-			getConnectionProtocol().addOutgoingTask(new ConnectionAwareTask(con) {
-				protected void doTask() {
-					sendEOF();
-					evaluateClosure();
-				}
-			});
+			queueEOF();
 			
 			return true;
 		} 
@@ -387,6 +494,44 @@ public abstract class SocketForwardingChannel<T extends SshContext> extends Forw
 
 	}
 
+	/**
+	 * Send EOF once any data queued ahead of it has been sent. If the channel is still 
+	 * opening the EOF is deferred until {@link #sendQueuedData()} is called.
+	 */
+	private void queueEOF() {
+		pendingEOF.set(true);
+		if(isOpen() && pendingEOF.getAndSet(false)) {
+			addEOFTask();
+		}
+	}
+	
+	private void addEOFTask() {
+		getConnectionProtocol().addOutgoingTask(new ConnectionAwareTask(con) {
+			protected void doTask() {
+				sendEOF();
+				evaluateClosure();
+			}
+		});
+	}
+	
+	/**
+	 * Send any data, and EOF, that was read from the socket before the channel was 
+	 * confirmed open.
+	 */
+	protected void sendQueuedData() {
+		getConnectionProtocol().addOutgoingTask(new QueueChannelDataTask(con));
+		if(pendingEOF.getAndSet(false)) {
+			addEOFTask();
+		}
+	}
+	
+	/**
+	 * Indicates the socket may be read while the channel open request is outstanding.
+	 */
+	protected boolean isOpenPending() {
+		return false;
+	}
+	
 	/**
 	 * read data from the ssh tunnel and write it to the start/end point.
 	 */
@@ -454,7 +599,7 @@ public abstract class SocketForwardingChannel<T extends SshContext> extends Forw
 	
 	@Override
 	public boolean wantsRead() {
-		return true;
+		return toChannelBytes.get() < maximumQueuedBytes;
 	}
 
 	public int getInitialOps() {
@@ -472,25 +617,30 @@ public abstract class SocketForwardingChannel<T extends SshContext> extends Forw
 
 	class QueueChannelDataTask extends ConnectionAwareTask {
 
-		int count;
-		QueueChannelDataTask(SshConnection con, int count) {
+		QueueChannelDataTask(SshConnection con) {
 			super(con);
-			this.count = count;
 		}
 
 		protected void doTask() {
 			
 			try {
 
-				byte[] tmp = new byte[getRemotePacket()];
-				int c;
-				while(count > 0) {
-						
-					c = Math.min(Math.min(count, tmp.length), toChannel.remaining());
-					toChannel.get(tmp, 0, c);
-					count -= c;
+				ByteBuffer buf;
+				while((buf = toChannel.poll()) != null) {
 					
-					sendData(tmp, 0, c);
+					int count = buf.remaining();
+					
+					/**
+					 * The buffer is only returned to the pool once it has been written
+					 * to the transport. If the send fails it may still be referenced by
+					 * a queued message so it is left for the garbage collector.
+					 */
+					try {
+						sendChannelDataAndBlock(buf);
+					} finally {
+						toChannelBytes.addAndGet(-count);
+					}
+					bufferPool.add(buf);
 				}
 				
 				changeInterestedOps();
@@ -510,7 +660,7 @@ public abstract class SocketForwardingChannel<T extends SshContext> extends Forw
 		super.log();
 		if(Log.isInfoEnabled()) {
 			Log.info("socketCache={} channelCache={} closePending={} connected={} in={} out={}", 
-					cache == null ? -1 : cache.remaining(), toChannel == null ? -1 : toChannel.remaining(),
+					cache == null ? -1 : cache.remaining(), toChannelBytes.get(),
 					closePending, socketChannel != null && socketChannel.isConnected(), 
 					totalIn,
 					totalOut);
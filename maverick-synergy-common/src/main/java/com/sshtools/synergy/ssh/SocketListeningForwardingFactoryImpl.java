@@ -125,30 +125,7 @@ public abstract class SocketListeningForwardingFactoryImpl<T extends SshContext>
             sc.socket().setKeepAlive(connection.getContext().getSocketOptionKeepAlive());
             sc.socket().setTcpNoDelay(connection.getContext().getSocketOptionTcpNoDelay());
 
-            ForwardingChannel<T> channel = createChannel(channelType,
-            		connection.getTransport().getConnection(),
-                    addressToBind,
-                    portToBind,
-                    sc,
-                    connection.getContext());
-
-            channel.addEventListener(activeRemoteForwardings);
-
-            channel.getOpenFuture().addFutureListener(new RequestFutureListener() {
-            	public void complete(RequestFuture future) {
-            		
-            		if(!future.isSuccess()) {
-	            		if(Log.isDebugEnabled()) {
-	                    	Log.debug("Channel could not be opened");
-	                    }
-	                    try {
-	                        sc.close();
-	                    } catch(IOException ex) { }
-            		}
-            	}
-            });
-            
-            connection.openChannel(channel);
+            onSocketAccepted(sc);
 
         } else {
             if(Log.isDebugEnabled()) {
@@ -165,6 +142,55 @@ public abstract class SocketListeningForwardingFactoryImpl<T extends SshContext>
       return !socketChannel.isOpen();
     }
 
+    /**
+     * Called once a socket has been accepted and configured. The default implementation
+     * opens a channel created by {@link #createChannel(String, SshConnection, String, int, SocketChannel, SshContext)}.
+     * Override this to perform some negotiation with the socket before the channel is opened.
+     * 
+     * @param sc
+     * @throws IOException
+     */
+    protected void onSocketAccepted(SocketChannel sc) throws IOException {
+    	openChannel(createChannel(channelType,
+        		connection.getTransport().getConnection(),
+                addressToBind,
+                portToBind,
+                sc,
+                connection.getContext()), sc);
+    }
+    
+    /**
+     * Open a forwarding channel for an accepted socket. The socket is closed if the 
+     * channel cannot be opened.
+     * 
+     * @param channel
+     * @param sc
+     */
+    protected void openChannel(ForwardingChannel<T> channel, final SocketChannel sc) {
+    	
+        channel.addEventListener(activeRemoteForwardings);
+
+        channel.getOpenFuture().addFutureListener(new RequestFutureListener() {
+        	public void complete(RequestFuture future) {
+        		
+        		if(!future.isSuccess()) {
+            		if(Log.isDebugEnabled()) {
+                    	Log.debug("Channel could not be opened");
+                    }
+                    try {
+                        sc.close();
+                    } catch(IOException ex) { }
+        		}
+        	}
+        });
+        
+        connection.openChannel(channel);
+    }
+    
+    protected ConnectionProtocol<T> getConnectionProtocol() {
+    	return connection;
+    }
+    
     protected abstract ForwardingChannel<T> createChannel(String channelType,
     		SshConnection con, 	String addressToBind, int portToBind, SocketChannel sc, T context);
 
@@ -242,6 +242,7 @@ public abstract class SshContext extends ProtocolContext implements
 	
 	protected Locale locale = Locale.getDefault();
 	protected ByteBufferPool byteBufferPool = null;
+	protected ByteBufferPool forwardingBufferPool = null;
 	
 	protected int minDHGroupExchangeKeySize = 2048;
 	protected int preferredDHGroupExchangeKeySize = 2048;
@@ -1309,11 +1310,25 @@ public abstract class SshContext extends ProtocolContext implements
 	public synchronized ByteBufferPool getByteBufferPool() {
 		if (byteBufferPool == null) {
 			byteBufferPool = new ByteBufferPool(getMaximumPacketLength(),
-					getEngine().getContext().isUsingDirectBuffers());
+					false);
 		}
 		return byteBufferPool;
 	}
 
+	/**
+	 * Get the pool of buffers used to carry data read from forwarded sockets. Buffers
+	 * are sized to the maximum forwarding packet size configured in the {@link ForwardingPolicy}.
+	 * 
+	 * @return ByteBufferPool
+	 */
+	public synchronized ByteBufferPool getForwardingBufferPool() {
+		if (forwardingBufferPool == null) {
+			forwardingBufferPool = new ByteBufferPool(getForwardingPolicy().getForwardingMaxPacketSize(),
+					getForwardingPolicy().isForwardingDirectBuffers());
+		}
+		return forwardingBufferPool;
+	}
+
 	public SshEngineContext getDaemonContext() {
 		return daemon.getContext();
 	}
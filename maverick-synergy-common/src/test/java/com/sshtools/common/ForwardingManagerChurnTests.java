@@ -0,0 +1,332 @@
+/**
+ * (c) 2002-2021 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sshtools.common.events.EventCodes;
+import com.sshtools.common.ssh.SshConnection;
+import com.sshtools.common.ssh.SshException;
+import com.sshtools.synergy.ssh.Connection;
+import com.sshtools.synergy.ssh.ConnectionProtocol;
+import com.sshtools.synergy.ssh.ForwardingChannel;
+import com.sshtools.synergy.ssh.ForwardingManager;
+import com.sshtools.synergy.ssh.SocketListeningForwardingFactoryImpl;
+import com.sshtools.synergy.ssh.SshContext;
+
+import junit.framework.TestCase;
+
+public class ForwardingManagerChurnTests extends TestCase {
+
+	static final int CONNECTIONS = 40000;
+	static final int THREADS = 16;
+	
+	/**
+	 * Start and stop one remote forwarding per connection from many threads and check the 
+	 * registry is empty afterwards.
+	 */
+	public void testConnectDisconnectChurn() throws InterruptedException {
+		
+		final ForwardingManager<SshContext> manager = new ForwardingManager<SshContext>();
+		final AtomicInteger nextPort = new AtomicInteger(10000);
+		final AtomicInteger failures = new AtomicInteger();
+		
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		
+		for(int i=0;i<CONNECTIONS;i++) {
+			executor.execute(new Runnable() {
+				public void run() {
+					Connection<SshContext> con = new Connection<SshContext>(null);
+					try {
+						manager.startListening("127.0.0.1", nextPort.incrementAndGet(), con, new StubForwardingFactory());
+						manager.stopForwarding(con);
+					} catch (SshException e) {
+						failures.incrementAndGet();
+					}
+				}
+			});
+		}
+		
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(5, TimeUnit.MINUTES));
+		
+		assertEquals(0, failures.get());
+		assertEquals(0, manager.getForwardingCount());
+		assertEquals(0, manager.getConnectionCount());
+	}
+	
+	/**
+	 * Start forwardings on one connection while it is repeatedly stopped. Every listener 
+	 * must stay reachable from the connection so the final stop leaves nothing behind.
+	 */
+	public void testStartRacingStop() throws InterruptedException {
+		
+		final ForwardingManager<SshContext> manager = new ForwardingManager<SshContext>();
+		final Connection<SshContext> con = new Connection<SshContext>(null);
+		final AtomicInteger nextPort = new AtomicInteger(10000);
+		
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		
+		for(int i=0;i<CONNECTIONS;i++) {
+			final boolean stop = i % 4 == 0;
+			executor.execute(new Runnable() {
+				public void run() {
+					if(stop) {
+						manager.stopForwarding(con);
+						return;
+					}
+					try {
+						manager.startListening("127.0.0.1", nextPort.incrementAndGet(), con, new StubForwardingFactory());
+					} catch (SshException e) {
+					}
+				}
+			});
+		}
+		
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(5, TimeUnit.MINUTES));
+		
+		manager.stopForwarding(con);
+		assertEquals(0, manager.getForwardingCount());
+		assertEquals(0, manager.getConnectionCount());
+	}
+	
+	/**
+	 * Hold all forwardings open and tear them down afterwards, teardown of each connection
+	 * should not depend on the total number of forwardings.
+	 */
+	public void testTeardownWithManyListeners() throws SshException {
+		
+		ForwardingManager<SshContext> manager = new ForwardingManager<SshContext>();
+		List<Connection<SshContext>> connections = new ArrayList<Connection<SshContext>>();
+		
+		for(int i=0;i<CONNECTIONS;i++) {
+			Connection<SshContext> con = new Connection<SshContext>(null);
+			connections.add(con);
+			manager.startListening("127.0.0.1", 10000 + i, con, new StubForwardingFactory());
+		}
+		
+		assertEquals(CONNECTIONS, manager.getForwardingCount());
+		assertEquals(CONNECTIONS, manager.getConnectionCount());
+		
+		for(Connection<SshContext> con : connections) {
+			manager.stopForwarding(con);
+		}
+		
+		assertEquals(0, manager.getForwardingCount());
+		assertEquals(0, manager.getConnectionCount());
+	}
+	
+	public void testPerConnectionLimit() throws SshException {
+		
+		ForwardingManager<SshContext> manager = new ForwardingManager<SshContext>();
+		manager.setMaximumForwardingsPerConnection(2);
+		
+		Connection<SshContext> con = new Connection<SshContext>(null);
+		manager.startListening("127.0.0.1", 10001, con, new StubForwardingFactory());
+		manager.startListening("127.0.0.1", 10002, con, new StubForwardingFactory());
+		
+		try {
+			manager.startListening("127.0.0.1", 10003, con, new StubForwardingFactory());
+			fail("Expected the per connection limit to be enforced");
+		} catch(SshException e) {
+		}
+		
+		assertEquals(2, manager.getForwardingCount(con));
+		
+		manager.stopListening("127.0.0.1", 10001, true, con);
+		manager.startListening("127.0.0.1", 10003, con, new StubForwardingFactory());
+		assertEquals(2, manager.getForwardingCount(con));
+		
+		/**
+		 * The connection is forgotten once its last forwarding stops.
+		 */
+		manager.stopListening("127.0.0.1", 10002, true, con);
+		manager.stopListening("127.0.0.1", 10003, true, con);
+		assertEquals(0, manager.getConnectionCount());
+	}
+	
+	public void testDuplicatePortRejected() throws SshException {
+		
+		ForwardingManager<SshContext> manager = new ForwardingManager<SshContext>();
+		manager.startListening("127.0.0.1", 10001, new Connection<SshContext>(null), new StubForwardingFactory());
+		
+		try {
+			manager.startListening("127.0.0.1", 10001, new Connection<SshContext>(null), new StubForwardingFactory());
+			fail("Expected the port to be in use");
+		} catch(SshException e) {
+		}
+		
+		assertEquals(1, manager.getForwardingCount());
+		assertEquals(1, manager.getConnectionCount());
+	}
+	
+	/**
+	 * A bind on every interface overlaps binds on a single address of the same port, in
+	 * either order, while binds on different single addresses do not.
+	 */
+	public void testMixedAddressesOnSamePort() throws SshException {
+		
+		ForwardingManager<SshContext> manager = new ForwardingManager<SshContext>();
+		Connection<SshContext> con = new Connection<SshContext>(null);
+		
+		manager.startListening("127.0.0.1", 10001, con, new StubForwardingFactory());
+		manager.startListening("127.0.0.2", 10001, con, new StubForwardingFactory());
+		try {
+			manager.startListening("0.0.0.0", 10001, con, new StubForwardingFactory());
+			fail("Expected the port to be in use");
+		} catch(SshException e) {
+		}
+		
+		manager.startListening("0.0.0.0", 10002, con, new StubForwardingFactory());
+		try {
+			manager.startListening("127.0.0.1", 10002, con, new StubForwardingFactory());
+			fail("Expected the port to be in use");
+		} catch(SshException e) {
+		}
+		
+		/**
+		 * The port is free once every address bound on it has stopped.
+		 */
+		manager.stopListening("127.0.0.1", 10001, true, con);
+		manager.stopListening("127.0.0.2", 10001, true, con);
+		manager.startListening("0.0.0.0", 10001, con, new StubForwardingFactory());
+		
+		manager.stopForwarding(con);
+		assertEquals(0, manager.getForwardingCount());
+	}
+	
+	/**
+	 * Bind every interface and a single address of the same port from two connections at 
+	 * the same time. Each request is held until both have got as far as looking up their 
+	 * connection, which follows any check of the port that is not part of its reservation.
+	 */
+	public void testMixedAddressRace() throws Exception {
+		
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			for(int i=0;i<100;i++) {
+				
+				final ForwardingManager<SshContext> manager = new ForwardingManager<SshContext>();
+				final CountDownLatch arrived = new CountDownLatch(2);
+				final AtomicInteger started = new AtomicInteger();
+				
+				List<Future<?>> requests = new ArrayList<Future<?>>();
+				for(final String address : new String[] { "0.0.0.0", "127.0.0.1" }) {
+					requests.add(executor.submit(new Runnable() {
+						public void run() {
+							try {
+								manager.startListening(address, 10001, new WaitingConnection(arrived), 
+										new StubForwardingFactory());
+								started.incrementAndGet();
+							} catch (SshException e) {
+							}
+						}
+					}));
+				}
+				for(Future<?> request : requests) {
+					request.get(30, TimeUnit.SECONDS);
+				}
+				
+				assertEquals(1, started.get());
+				assertEquals(1, manager.getForwardingCount());
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Waits for the other request the first time it is looked up.
+	 */
+	static class WaitingConnection extends Connection<SshContext> {
+		
+		final CountDownLatch arrived;
+		boolean waited;
+		
+		WaitingConnection(CountDownLatch arrived) {
+			super(null);
+			this.arrived = arrived;
+		}
+		
+		@Override
+		public int hashCode() {
+			if(!waited) {
+				waited = true;
+				arrived.countDown();
+				try {
+					arrived.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+				}
+			}
+			return super.hashCode();
+		}
+	}
+	
+	/**
+	 * A factory that records the bind but does not open a socket.
+	 */
+	static class StubForwardingFactory extends SocketListeningForwardingFactoryImpl<SshContext> {
+
+		@Override
+		public int bindInterface(String addressToBind, int portToBind, ConnectionProtocol<?> connection,
+				String channelType) throws IOException {
+			return portToBind;
+		}
+		
+		@Override
+		public boolean belongsTo(ConnectionProtocol<SshContext> connection) {
+			return true;
+		}
+
+		@Override
+		public void stopListening(boolean dropActiveTunnels) {
+		}
+		
+		@Override
+		public String getChannelType() {
+			return "forwarded-tcpip";
+		}
+
+		@Override
+		public int getStartedEventCode() {
+			return EventCodes.EVENT_FORWARDING_REMOTE_STARTED;
+		}
+
+		@Override
+		public int getStoppedEventCode() {
+			return EventCodes.EVENT_FORWARDING_REMOTE_STOPPED;
+		}
+
+		@Override
+		protected ForwardingChannel<SshContext> createChannel(String channelType, SshConnection con,
+				String addressToBind, int portToBind, SocketChannel sc, SshContext context) {
+			return null;
+		}
+	}
+}
@@ -141,6 +141,34 @@ public abstract class SessionChannelNG extends ChannelNG<SshServerContext> imple
 		return stderrOutputStream;
 	}
 	
+	@Override
+	public void enableWriteCoalescing(long flushDeadline) {
+		super.enableWriteCoalescing(flushDeadline);
+		stderrOutputStream.enableCoalescing(flushDeadline);
+	}
+	
+	@Override
+	public void disableWriteCoalescing() throws IOException {
+		super.disableWriteCoalescing();
+		stderrOutputStream.disableCoalescing();
+	}
+	
+	@Override
+	protected boolean hasCoalescedOutput() {
+		return super.hasCoalescedOutput() || stderrOutputStream.hasBufferedData();
+	}
+	
+	@Override
+	protected void flushCoalescedOutput() {
+		super.flushCoalescedOutput();
+		flushCoalescedOutput(stderrOutputStream);
+	}
+	
+	@Override
+	protected boolean queueCoalescedOutput() {
+		return super.queueCoalescedOutput() & queueCoalescedOutput(stderrOutputStream);
+	}
+	
 	public boolean isAgentForwardingRequested() {
 		return agentForwardingRequested;
 	}
@@ -240,6 +268,9 @@ public abstract class SessionChannelNG extends ChannelNG<SshServerContext> imple
 		if (getContext().getPolicy(ShellPolicy.class).getSessionTimeout() > 0)
 			getConnectionProtocol().getTransport().getSocketConnection().getIdleStates()
 					.register(this);
+		if (getContext().getPolicy(ShellPolicy.class).isSessionWriteCoalescing()) {
+			enableWriteCoalescing(getContext().getPolicy(ShellPolicy.class).getSessionWriteCoalescingDeadline());
+		}
 	}
 
 	public boolean idle() {
@@ -295,6 +326,10 @@ public abstract class SessionChannelNG extends ChannelNG<SshServerContext> imple
 
 				success = allocatePseudoTerminal(term, cols, rows, width,
 						height, modes);
+				if(success && isWriteCoalescing() 
+						&& !getContext().getPolicy(ShellPolicy.class).isSessionWriteCoalescingWithPty()) {
+					disableWriteCoalescing();
+				}
 				if(Log.isDebugEnabled())
 					Log.debug(term + " pseudo terminal requested");
 				if(Log.isDebugEnabled())
@@ -28,6 +28,7 @@ public class ByteBufferPool
 {
     private ArrayList<ByteBuffer> pool = new ArrayList<ByteBuffer>();
     private int capacity = 4096;
+    private boolean direct = false;
     private int allocated = 0;
     private long totalDirectMemoryAllocated = 0;
     
@@ -45,6 +46,16 @@ public class ByteBufferPool
      */
     public ByteBufferPool(int capacity, boolean direct) {
         this.capacity=capacity;
+        this.direct=direct;
+    }
+
+    /**
+     * Does this pool allocate direct buffers?
+     *
+     * @return boolean
+     */
+    public boolean isDirect() {
+        return direct;
     }
 
     /**
@@ -101,7 +112,7 @@ public class ByteBufferPool
         if (pool.isEmpty()) {
 
             allocated++;
-            ByteBuffer buf = ByteBuffer.allocate(capacity);
+            ByteBuffer buf = direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
             totalDirectMemoryAllocated += capacity;
             return buf;
         }
@@ -39,6 +39,7 @@ public class IOStreamConnector {
   private long bytes;
   private boolean closeInput = true;
   private boolean closeOutput = true;
+  private boolean flushOutput = true;
   boolean running = false;
   boolean closed = false;
   Throwable lastError;
@@ -111,6 +112,17 @@ public class IOStreamConnector {
     this.closeOutput = closeOutput;
   }
 
+  /**
+   * Flush the output stream after every write. Disable this when the output
+   * stream does its own buffering, the stream is always flushed or closed
+   * once the input is exhausted.
+   *
+   * @param flushOutput
+   */
+  public void setFlushOutput(boolean flushOutput) {
+    this.flushOutput = flushOutput;
+  }
+
   public void setBufferSize(int numbytes) {
     if (numbytes <= 0) {
       throw new IllegalArgumentException(
@@ -190,7 +202,9 @@ public class IOStreamConnector {
             bytes += read;
 
             // Flush it
-            out.flush();
+            if (flushOutput) {
+              out.flush();
+            }
 
             // Inform all of the listeners
             for (int i = 0; i < listenerList.size(); i++) {
@@ -231,6 +245,11 @@ public class IOStreamConnector {
           out.close();
         }
         catch (IOException ex) {}
+      } else if (!flushOutput) {
+        try {
+          out.flush();
+        }
+        catch (IOException ex) {}
       }
 
       closed = true;
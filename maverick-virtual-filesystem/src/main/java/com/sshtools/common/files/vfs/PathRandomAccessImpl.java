@@ -44,7 +44,10 @@ public class PathRandomAccessImpl implements AbstractFileRandomAccess {
 	}
 	
 	public void write(byte[] buf, int off, int len) throws IOException {
-		raf.write(ByteBuffer.wrap(buf, off, len));
+		ByteBuffer b = ByteBuffer.wrap(buf, off, len);
+		while(b.hasRemaining()) {
+			raf.write(b);
+		}
 	}
 
 	public void close() throws IOException {
@@ -56,13 +59,34 @@ public class PathRandomAccessImpl implements AbstractFileRandomAccess {
 	}
 	
 	public int read(byte[] buf, int off, int len) throws IOException {
-		ByteBuffer b = ByteBuffer.allocate(len);
-		int r = raf.read(b);
-		if(r != -1) {
-			byte[] arr = b.array(); 
-			System.arraycopy(arr, 0, buf, off, arr.length);
+		return raf.read(ByteBuffer.wrap(buf, off, len));
+	}
+	
+	@Override
+	public boolean supportsPositionalAccess() {
+		return true;
+	}
+	
+	@Override
+	public void sync() throws IOException {
+		raf.force(true);
+	}
+	
+	@Override
+	public FileChannel getChannel() {
+		return raf;
+	}
+	
+	@Override
+	public int read(long position, ByteBuffer buf) throws IOException {
+		return raf.read(buf, position);
+	}
+	
+	@Override
+	public void write(long position, ByteBuffer buf) throws IOException {
+		while(buf.hasRemaining()) {
+			position += raf.write(buf, position);
 		}
-		return r;
 	}
 	
 	public void setLength(long length) throws IOException {